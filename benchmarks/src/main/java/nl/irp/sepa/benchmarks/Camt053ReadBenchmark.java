@@ -0,0 +1,49 @@
+package nl.irp.sepa.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBException;
+
+import nl.irp.sepa.BankToCustomerStatement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading a camt.053 statement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class Camt053ReadBenchmark {
+
+	@Param({"1", "100", "10000", "1000000"})
+	public int nbOfEntries;
+
+	private byte[] xml;
+
+	@Setup
+	public void setUp() throws IOException {
+		xml = Messages.statement(nbOfEntries);
+	}
+
+	@Benchmark
+	public BankToCustomerStatement read() throws JAXBException {
+		return BankToCustomerStatement.read(new ByteArrayInputStream(xml));
+	}
+
+}
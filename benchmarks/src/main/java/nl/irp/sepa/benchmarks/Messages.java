@@ -0,0 +1,109 @@
+package nl.irp.sepa.benchmarks;
+
+import iso.std.iso._20022.tech.xsd.pain_008_001.SequenceType1Code;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+
+import nl.irp.sepa.SEPACreditTransfer;
+import nl.irp.sepa.sdd.DirectDebitInitiation;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+
+/**
+ * The messages used by the benchmarks.
+ */
+final class Messages {
+
+	/** Discards everything, so only the library is measured. */
+	static final OutputStream NULL_OUTPUT = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	private static final List<String> ADDRESS = ImmutableList.of("Dorpstraat 1", "Amsterdam");
+
+	private Messages() {
+	}
+
+	static SEPACreditTransfer creditTransfer(int version, int nbOfTxs) {
+		SEPACreditTransfer transfer = new SEPACreditTransfer(version);
+		transfer.buildGroupHeader("MSGID001", "IPNORGANISATIENAAM", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		SEPACreditTransfer.PaymentGroup paymentGroup = transfer.paymentGroup(
+				"PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+		for (int i = 0; i < nbOfTxs; i++) {
+			paymentGroup.creditTransfer("E2EID" + i, new BigDecimal(BigInteger.valueOf(100 + i % 10000), 2),
+					"INGBNL2A", "NAAM cdtr " + i % 100, iban(i % 1000), "Ref. " + i);
+		}
+		return transfer;
+	}
+
+	static DirectDebitInitiation directDebitInitiation(int nbOfTxs) {
+		DirectDebitInitiation debitInitiation = new DirectDebitInitiation();
+		debitInitiation.buildGroupHeader("MSGID001", "IPNORGANISATIENAAM", new LocalDateTime("2012-02-22T09:29:54").toDate());
+		DirectDebitInitiation.PaymentInstruction paymentInstruction = debitInitiation.paymentInstruction(
+				"PAYID001", new LocalDate("2012-02-05").toDate(),
+				"NAAM", SequenceType1Code.RCUR,
+				"NL", ADDRESS,
+				"NL28INGB0000000001", "INGBNL2A", "NL03ZZZ011234567890");
+		for (int i = 0; i < nbOfTxs; i++) {
+			paymentInstruction.addTransaction(
+					"INSTRID" + i, "E2EID" + i, new BigDecimal(BigInteger.valueOf(100 + i % 10000), 2),
+					"MANDAAT" + i, new LocalDate("2010-09-05"), null,
+					"NAAM dbtr " + i % 100, iban(i % 1000), "INGBNL2A",
+					"NL", ADDRESS,
+					"Ref. " + i);
+		}
+		return debitInitiation;
+	}
+
+	/**
+	 * @return the camt.053 example with its entries repeated up to the number of entries
+	 */
+	static byte[] statement(int nbOfEntries) throws IOException {
+		String example = Resources.toString(Resources.getResource("camt.053.001.02.xml"), Charsets.UTF_8);
+		List<String> entries = Lists.newArrayList();
+		int start = example.indexOf("<Ntry>");
+		int first = start;
+		int end = start;
+		while (start >= 0) {
+			end = example.indexOf("</Ntry>", start) + "</Ntry>".length();
+			entries.add(example.substring(start, end));
+			start = example.indexOf("<Ntry>", end);
+		}
+
+		StringBuilder xml = new StringBuilder(example.substring(0, first));
+		for (int i = 0; i < nbOfEntries; i++)
+			xml.append(entries.get(i % entries.size()));
+		xml.append(example.substring(end));
+		return xml.toString().getBytes(Charsets.UTF_8);
+	}
+
+	/**
+	 * @return a Dutch IBAN with correct check digits
+	 */
+	static String iban(int accountNumber) {
+		String bban = String.format("INGB%010d", accountNumber);
+		// BBAN + "NL00", A=10 ... Z=35
+		StringBuilder digits = new StringBuilder();
+		for (char c : (bban + "NL00").toCharArray())
+			digits.append(Character.digit(c, 36));
+		int checkDigits = 98 - new BigInteger(digits.toString()).mod(BigInteger.valueOf(97)).intValue();
+		return String.format("NL%02d%s", checkDigits, bban);
+	}
+
+}
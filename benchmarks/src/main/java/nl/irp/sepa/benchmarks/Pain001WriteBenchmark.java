@@ -0,0 +1,57 @@
+package nl.irp.sepa.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBException;
+
+import nl.irp.sepa.SEPACreditTransfer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building and writing a pain.001 credit transfer for every supported version.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class Pain001WriteBenchmark {
+
+	@Param({"1", "100", "10000", "1000000"})
+	public int nbOfTxs;
+
+	@Param({"" + SEPACreditTransfer.VERSION_PAIN_001_001_03,
+			"" + SEPACreditTransfer.VERSION_PAIN_001_002_02,
+			"" + SEPACreditTransfer.VERSION_PAIN_001_003_03})
+	public int version;
+
+	private SEPACreditTransfer transfer;
+
+	@Setup
+	public void setUp() {
+		transfer = Messages.creditTransfer(version, nbOfTxs);
+	}
+
+	@Benchmark
+	public SEPACreditTransfer build() {
+		return Messages.creditTransfer(version, nbOfTxs);
+	}
+
+	@Benchmark
+	public void write() throws JAXBException {
+		transfer.write(Messages.NULL_OUTPUT);
+	}
+
+}
@@ -0,0 +1,61 @@
+package nl.irp.sepa.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBException;
+
+import nl.irp.sepa.sdd.DirectDebitInitiation;
+
+import org.jdom2.JDOMException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building and writing a pain.008 direct debit initiation, with and without the xmlns:xsi rewrite.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class Pain008WriteBenchmark {
+
+	@Param({"1", "100", "10000", "1000000"})
+	public int nbOfTxs;
+
+	@Param({"false", "true"})
+	public boolean xmlnsXsi;
+
+	private DirectDebitInitiation debitInitiation;
+
+	@Setup
+	public void setUp() {
+		debitInitiation = Messages.directDebitInitiation(nbOfTxs);
+	}
+
+	@Benchmark
+	public DirectDebitInitiation build() {
+		return Messages.directDebitInitiation(nbOfTxs);
+	}
+
+	@Benchmark
+	public void write() throws JAXBException, JDOMException, IOException {
+		if (xmlnsXsi)
+			debitInitiation.writeWithXmlnsXsi(new ByteArrayOutputStream());
+		else
+			debitInitiation.write(Messages.NULL_OUTPUT);
+	}
+
+}
@@ -0,0 +1,62 @@
+package nl.irp.sepa.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.irp.sepa.CreditorReference;
+import nl.irp.sepa.IBANUtils;
+import nl.irp.sepa.Utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Validation of single values: IBAN, BIC and creditor reference.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ValidationBenchmark {
+
+	private static final int SIZE = 1024;
+
+	private final String[] ibans = new String[SIZE];
+	private final String[] bics = {"INGBNL2A", "ABNANL2A", "RABONL2U", "NBAGDE3E", "DEUTDEFFXXX", "BNPAFRPPXXX"};
+	private final String[] references = new String[SIZE];
+	private int index;
+
+	@Setup
+	public void setUp() {
+		for (int i = 0; i < SIZE; i++) {
+			ibans[i] = Messages.iban(i * 7919);
+			references[i] = CreditorReference.create("INV" + i);
+		}
+	}
+
+	@Benchmark
+	public boolean iban() {
+		return IBANUtils.validate(ibans[index++ & (SIZE - 1)]);
+	}
+
+	@Benchmark
+	public Object bic() {
+		// the BIC is validated when the agent is created
+		return Utils.createFinInstnId(bics[index++ % bics.length]);
+	}
+
+	@Benchmark
+	public boolean creditorReference() {
+		return CreditorReference.isValid(references[index++ & (SIZE - 1)]);
+	}
+
+}
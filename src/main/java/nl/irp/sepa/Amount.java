@@ -0,0 +1,136 @@
+package nl.irp.sepa;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+
+/**
+ * An amount of money in a currency, stored as a whole number of minor units: 1.01 EUR is
+ * 101 cents, 1.01 CHF is 101 centimes, 100 JPY is 100 yen.
+ *
+ * The number of minor units of a currency is taken from ISO 4217, see
+ * {@link Currency#getDefaultFractionDigits()}. An amount with more decimals than its
+ * currency allows is refused.
+ *
+ * Amounts are immutable. Arithmetic throws an <code>ArithmeticException</code> on overflow.
+ */
+public final class Amount {
+
+	private final long minorUnits;
+	private final String currency;
+	private final int fractionDigits;
+
+	private Amount(long minorUnits, String currency, int fractionDigits) {
+		this.minorUnits = minorUnits;
+		this.currency = currency;
+		this.fractionDigits = fractionDigits;
+	}
+
+	/**
+	 * @param minorUnits the amount in minor units, e.g. cents
+	 * @param currency ISO 4217 currency code, e.g. <code>EUR</code>
+	 */
+	public static Amount ofMinorUnits(long minorUnits, String currency) {
+		return new Amount(minorUnits, currency, fractionDigits(currency));
+	}
+
+	/**
+	 * @param amount the amount, e.g. <code>1.01</code>
+	 * @param currency ISO 4217 currency code, e.g. <code>EUR</code>
+	 */
+	public static Amount of(BigDecimal amount, String currency) {
+		int fractionDigits = fractionDigits(currency);
+		checkArgument(amount.scale() <= fractionDigits || amount.stripTrailingZeros().scale() <= fractionDigits,
+				"amount %s has more than %s decimals for %s", amount, fractionDigits, currency);
+		try {
+			return new Amount(amount.movePointRight(fractionDigits).longValueExact(), currency, fractionDigits);
+		} catch (ArithmeticException e) {
+			throw new IllegalArgumentException("amount " + amount + " is too large", e);
+		}
+	}
+
+	/**
+	 * @param amount the amount, e.g. <code>1.01</code>
+	 * @param currency ISO 4217 currency code, e.g. <code>EUR</code>
+	 */
+	public static Amount of(String amount, String currency) {
+		return of(new BigDecimal(amount), currency);
+	}
+
+	/**
+	 * @return the number of decimals of the currency according to ISO 4217, e.g. 2 for EUR
+	 */
+	public static int fractionDigits(String currency) {
+		int fractionDigits = Currency.getInstance(currency).getDefaultFractionDigits();
+		checkArgument(fractionDigits >= 0, "currency %s has no minor units", currency);
+		return fractionDigits;
+	}
+
+	public long getMinorUnits() {
+		return minorUnits;
+	}
+
+	public String getCurrency() {
+		return currency;
+	}
+
+	public int getFractionDigits() {
+		return fractionDigits;
+	}
+
+	public Amount plus(Amount amount) {
+		checkArgument(currency.equals(amount.currency), "can't add %s to %s", amount.currency, currency);
+		return new Amount(addExact(minorUnits, amount.minorUnits), currency, fractionDigits);
+	}
+
+	public Amount minus(Amount amount) {
+		return plus(amount.negate());
+	}
+
+	public Amount negate() {
+		if (minorUnits == Long.MIN_VALUE)
+			throw new ArithmeticException("amount overflow");
+		return new Amount(-minorUnits, currency, fractionDigits);
+	}
+
+	public int signum() {
+		return minorUnits > 0 ? 1 : minorUnits < 0 ? -1 : 0;
+	}
+
+	/**
+	 * @return the amount with the number of decimals of its currency, e.g. <code>386.00</code>
+	 */
+	public BigDecimal toBigDecimal() {
+		return BigDecimal.valueOf(minorUnits, fractionDigits);
+	}
+
+	static long addExact(long a, long b) {
+		long sum = a + b;
+		if (((a ^ sum) & (b ^ sum)) < 0)
+			throw new ArithmeticException("amount overflow");
+		return sum;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Amount))
+			return false;
+		Amount other = (Amount) obj;
+		return minorUnits == other.minorUnits && currency.equals(other.currency);
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (minorUnits ^ (minorUnits >>> 32)) * 31 + currency.hashCode();
+	}
+
+	/**
+	 * @return e.g. <code>EUR 386.00</code>
+	 */
+	@Override
+	public String toString() {
+		return currency + " " + toBigDecimal().toPlainString();
+	}
+
+}
@@ -0,0 +1,117 @@
+package nl.irp.sepa;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import com.google.common.io.Closeables;
+
+/**
+ * The offsets in a written credit transfer message that {@link CreditTransferAppender}
+ * needs: of the values of NbOfTxs and CtrlSum in the group header and in every payment
+ * information group, and of the line with the end tag of every payment information
+ * group. Recorded by {@link AppendSlots} while the message is written, and kept next to
+ * the message as a properties file. The file is replaced by renaming a new one over it,
+ * and marked in progress while the message is changed.
+ */
+final class AppendIndex {
+
+	long length;
+	boolean inProgress;
+	long nbOfTxs = -1;
+	long ctrlSum = -1;
+	final List<Group> groups = new ArrayList<Group>();
+
+	static class Group {
+		final String pmtInfId;
+		long nbOfTxs = -1;
+		long ctrlSum = -1;
+		long end = -1;
+
+		Group(String pmtInfId) {
+			this.pmtInfId = pmtInfId;
+		}
+	}
+
+	Group group(String pmtInfId) {
+		for (Group group : groups) {
+			if (group.pmtInfId.equals(pmtInfId))
+				return group;
+		}
+		return null;
+	}
+
+	/**
+	 * Moves the offsets from <code>offset</code> on, for bytes inserted there.
+	 */
+	void shift(long offset, long bytes) {
+		nbOfTxs = shift(nbOfTxs, offset, bytes);
+		ctrlSum = shift(ctrlSum, offset, bytes);
+		for (Group group : groups) {
+			group.nbOfTxs = shift(group.nbOfTxs, offset, bytes);
+			group.ctrlSum = shift(group.ctrlSum, offset, bytes);
+			group.end = shift(group.end, offset, bytes);
+		}
+		length += bytes;
+	}
+
+	private static long shift(long at, long offset, long bytes) {
+		// the end of a group moves behind the transactions inserted before it
+		return at >= offset ? at + bytes : at;
+	}
+
+	void save(File file) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("length", String.valueOf(length));
+		properties.setProperty("inProgress", String.valueOf(inProgress));
+		properties.setProperty("nbOfTxs", String.valueOf(nbOfTxs));
+		properties.setProperty("ctrlSum", String.valueOf(ctrlSum));
+		for (int i = 0; i < groups.size(); i++) {
+			Group group = groups.get(i);
+			properties.setProperty("pmtInf." + i + ".id", group.pmtInfId);
+			properties.setProperty("pmtInf." + i + ".nbOfTxs", String.valueOf(group.nbOfTxs));
+			properties.setProperty("pmtInf." + i + ".ctrlSum", String.valueOf(group.ctrlSum));
+			properties.setProperty("pmtInf." + i + ".end", String.valueOf(group.end));
+		}
+		File temp = new File(file.getPath() + ".tmp");
+		OutputStream os = new FileOutputStream(temp);
+		try {
+			properties.store(os, "offsets for appending to the message");
+		} finally {
+			os.close();
+		}
+		// renameTo doesn't replace a file on every platform
+		if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file)))
+			throw new IOException("can't rename " + temp + " to " + file);
+	}
+
+	static AppendIndex load(File file) throws IOException {
+		Properties properties = new Properties();
+		InputStream is = new FileInputStream(file);
+		try {
+			properties.load(is);
+		} finally {
+			Closeables.closeQuietly(is);
+		}
+		AppendIndex index = new AppendIndex();
+		index.length = Long.parseLong(properties.getProperty("length"));
+		index.inProgress = Boolean.parseBoolean(properties.getProperty("inProgress"));
+		index.nbOfTxs = Long.parseLong(properties.getProperty("nbOfTxs"));
+		index.ctrlSum = Long.parseLong(properties.getProperty("ctrlSum"));
+		for (int i = 0; properties.getProperty("pmtInf." + i + ".id") != null; i++) {
+			Group group = new Group(properties.getProperty("pmtInf." + i + ".id"));
+			group.nbOfTxs = Long.parseLong(properties.getProperty("pmtInf." + i + ".nbOfTxs"));
+			group.ctrlSum = Long.parseLong(properties.getProperty("pmtInf." + i + ".ctrlSum"));
+			group.end = Long.parseLong(properties.getProperty("pmtInf." + i + ".end"));
+			index.groups.add(group);
+		}
+		return index;
+	}
+
+}
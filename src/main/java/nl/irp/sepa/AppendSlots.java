@@ -0,0 +1,170 @@
+package nl.irp.sepa;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+
+/**
+ * Pads the values of NbOfTxs and CtrlSum of a credit transfer message with leading zeros
+ * to fixed widths while it's written, and records their offsets and the offsets of the
+ * end tags of the payment information groups in an {@link AppendIndex}. Leading zeros
+ * are valid for both types, and don't count as digits of a decimal.
+ *
+ * Expects the formatted output of JAXB, with every element on a line of its own. Values
+ * that are already padded are written unchanged. Not thread-safe.
+ */
+class AppendSlots extends FilterOutputStream {
+
+	/** The width of NbOfTxs, the maximum of Max15NumericText. */
+	static final int NB_OF_TXS_WIDTH = 15;
+	/** The width of CtrlSum, the maximum of 18 digits of DecimalNumber and the point. */
+	static final int CTRL_SUM_WIDTH = 19;
+
+	private static final int TEXT = 0;
+	private static final int TAG = 1;
+	private static final int SLOT = 2;
+	private static final int ID = 3;
+
+	private final AppendIndex index;
+	private final byte[] buffer = new byte[8192];
+	private int position;
+	private long offset;
+	private long lineStart;
+	private long tagLineStart;
+	private int state = TEXT;
+	private final StringBuilder tag = new StringBuilder();
+	private final ByteArrayOutputStream value = new ByteArrayOutputStream();
+	private String slot;
+	private AppendIndex.Group group;
+
+	AppendSlots(OutputStream os, AppendIndex index) {
+		super(os);
+		this.index = index;
+	}
+
+	static String nbOfTxs(long nbOfTxs) {
+		String text = String.valueOf(nbOfTxs);
+		checkState(text.length() <= NB_OF_TXS_WIDTH, "NbOfTxs %s doesn't fit", text);
+		return Strings.padStart(text, NB_OF_TXS_WIDTH, '0');
+	}
+
+	static String ctrlSum(String ctrlSum) {
+		checkState(ctrlSum.length() <= CTRL_SUM_WIDTH && !ctrlSum.startsWith("-"), "CtrlSum %s doesn't fit", ctrlSum);
+		return Strings.padStart(ctrlSum, CTRL_SUM_WIDTH, '0');
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (state == SLOT) {
+			if (b != '<') {
+				value.write(b);
+				return;
+			}
+			String text = new String(value.toByteArray(), Charsets.US_ASCII);
+			long slotOffset = offset;
+			if (slot.equals("NbOfTxs")) {
+				emit(nbOfTxs(Long.parseLong(text)));
+				if (group == null)
+					index.nbOfTxs = slotOffset;
+				else
+					group.nbOfTxs = slotOffset;
+			} else {
+				emit(ctrlSum(text));
+				if (group == null)
+					index.ctrlSum = slotOffset;
+				else
+					group.ctrlSum = slotOffset;
+			}
+			state = TEXT;
+		} else if (state == ID) {
+			if (b != '<') {
+				value.write(b);
+				emit(b);
+				return;
+			}
+			group = new AppendIndex.Group(unescape(new String(value.toByteArray(), Charsets.UTF_8)));
+			index.groups.add(group);
+			state = TEXT;
+		}
+
+		emit(b);
+		if (b == '\n') {
+			lineStart = offset;
+		} else if (state == TEXT) {
+			if (b == '<') {
+				state = TAG;
+				tag.setLength(0);
+				tagLineStart = lineStart;
+			}
+		} else if (state == TAG) {
+			if (b == '>') {
+				endTag();
+			} else if (tag.length() < 16) {
+				tag.append((char) b);
+			}
+		}
+	}
+
+	private void endTag() {
+		String name = tag.toString();
+		state = TEXT;
+		if (name.equals("NbOfTxs") || name.equals("CtrlSum")) {
+			slot = name;
+			value.reset();
+			state = SLOT;
+		} else if (name.equals("PmtInfId")) {
+			value.reset();
+			state = ID;
+		} else if (name.equals("/PmtInf")) {
+			group.end = tagLineStart;
+			group = null;
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		for (int i = off; i < off + len; i++)
+			write(b[i] & 0xff);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.write(buffer, 0, position);
+		position = 0;
+		out.flush();
+	}
+
+	/**
+	 * Flushes the stream, and sets the length of the message.
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+		index.length = offset;
+	}
+
+	private void emit(String text) throws IOException {
+		for (int i = 0; i < text.length(); i++)
+			emit(text.charAt(i));
+	}
+
+	private void emit(int b) throws IOException {
+		if (position == buffer.length) {
+			out.write(buffer, 0, position);
+			position = 0;
+		}
+		buffer[position++] = (byte) b;
+		offset++;
+	}
+
+	private static String unescape(String text) {
+		return text.replace("&lt;", "<").replace("&gt;", ">").replace("&#xD;", "\r").replace("&amp;", "&");
+	}
+
+}
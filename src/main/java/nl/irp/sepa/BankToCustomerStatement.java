@@ -4,13 +4,16 @@ package nl.irp.sepa;
 
 import iso.std.iso._20022.tech.xsd.camt_053_001.AccountInterest2;
 import iso.std.iso._20022.tech.xsd.camt_053_001.AccountStatement2;
+import iso.std.iso._20022.tech.xsd.camt_053_001.ActiveOrHistoricCurrencyAndAmount;
 import iso.std.iso._20022.tech.xsd.camt_053_001.BankToCustomerStatementV02;
 import iso.std.iso._20022.tech.xsd.camt_053_001.CashAccount16;
 import iso.std.iso._20022.tech.xsd.camt_053_001.CashAccount20;
 import iso.std.iso._20022.tech.xsd.camt_053_001.CashBalance3;
 import iso.std.iso._20022.tech.xsd.camt_053_001.CopyDuplicate1Code;
+import iso.std.iso._20022.tech.xsd.camt_053_001.CreditDebitCode;
 import iso.std.iso._20022.tech.xsd.camt_053_001.DateTimePeriodDetails;
 import iso.std.iso._20022.tech.xsd.camt_053_001.Document;
+import iso.std.iso._20022.tech.xsd.camt_053_001.DocumentReader;
 import iso.std.iso._20022.tech.xsd.camt_053_001.GroupHeader42;
 import iso.std.iso._20022.tech.xsd.camt_053_001.Pagination;
 import iso.std.iso._20022.tech.xsd.camt_053_001.PartyIdentification32;
@@ -18,18 +21,25 @@ import iso.std.iso._20022.tech.xsd.camt_053_001.ReportEntry2;
 import iso.std.iso._20022.tech.xsd.camt_053_001.ReportingSource1Choice;
 import iso.std.iso._20022.tech.xsd.camt_053_001.TotalTransactions2;
 
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
 import java.util.Date;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.bind.UnmarshalException;
+import javax.xml.stream.XMLStreamException;
+
+import nl.irp.sepa.ProcessingListener.Phase;
 
 import com.google.common.collect.Lists;
+import com.google.common.io.CountingInputStream;
 
 
 /**
@@ -50,16 +60,79 @@ public class BankToCustomerStatement {
 	}
 
 	public static BankToCustomerStatement read(InputStream is) throws JAXBException {
-		JAXBContext jc = JAXBContext.newInstance(Document.class);
-		Unmarshaller unmarshaller = jc.createUnmarshaller();
-		
-		// The UTF-8 character encoding standard must be used in the UNIFI messages.
-		//unmarshaller.setProperty(Unm .JAXB_ENCODING, "UTF-8");
-		
-		StreamSource streamSource = new StreamSource(is);
-		JAXBElement<Document> root = unmarshaller.unmarshal(streamSource, Document.class);
+		return read(is, ProcessingListener.NOOP);
+	}
+
+	/**
+	 * Reads a statement and reports the durations of reading it, see {@link ProcessingListener}.
+	 */
+	public static BankToCustomerStatement read(InputStream is, ProcessingListener listener) throws JAXBException {
+		CountingInputStream counter = new CountingInputStream(is);
+		PhaseTimer unmarshal = PhaseTimer.start(listener, Phase.UNMARSHAL);
+		Document document;
+		try {
+			// with the reader generated at build time, as lenient as JAXB
+			document = DocumentReader.read(counter);
+		} catch (XMLStreamException e) {
+			throw new UnmarshalException(e);
+		}
+		unmarshal.stopAndReport();
 		
-		return new BankToCustomerStatement(root.getValue());
+		BankToCustomerStatement statement = new BankToCustomerStatement(document);
+		int nbOfEntries = 0;
+		for (AccountStatement2 accountStatement : statement.bankToCustomerStatement.getStmt())
+			nbOfEntries += accountStatement.getNtry().size();
+		listener.read(nbOfEntries, counter.getCount());
+		return statement;
+	}
+
+	public static List<BankToCustomerStatement> readAll(InputStream is) throws JAXBException, IOException {
+		return readAll(is, ProcessingListener.NOOP);
+	}
+
+	/**
+	 * Reads the statements of a ZIP archive, one per entry, of a gzipped statement, or of a
+	 * plain statement. The entries are unmarshalled while the archive is read, nothing is
+	 * unpacked first.
+	 */
+	public static List<BankToCustomerStatement> readAll(InputStream is, ProcessingListener listener) throws JAXBException, IOException {
+		BufferedInputStream in = new BufferedInputStream(is);
+		in.mark(4);
+		int b0 = in.read();
+		int b1 = in.read();
+		int b2 = in.read();
+		int b3 = in.read();
+		in.reset();
+
+		List<BankToCustomerStatement> statements = Lists.newArrayList();
+		if (b0 == 'P' && b1 == 'K' && b2 == 3 && b3 == 4) {
+			ZipInputStream zip = new ZipInputStream(in);
+			// a parser may close its input at the end of the document
+			InputStream entry = new FilterInputStream(zip) {
+				@Override
+				public void close() {
+				}
+			};
+			ZipEntry zipEntry;
+			while ((zipEntry = zip.getNextEntry()) != null) {
+				if (!zipEntry.isDirectory())
+					statements.add(read(entry, listener));
+			}
+		} else if (b0 == 0x1f && b1 == 0x8b) {
+			statements.add(read(new GZIPInputStream(in), listener));
+		} else {
+			statements.add(read(in, listener));
+		}
+		return statements;
+	}
+
+	/**
+	 * Returns the amount, negative for a debit.
+	 * @param cdtDbtInd indicates whether the amount is a credit or a debit
+	 */
+	public static Amount getAmount(ActiveOrHistoricCurrencyAndAmount amt, CreditDebitCode cdtDbtInd) {
+		Amount amount = Amount.of(amt.getValue(), amt.getCcy());
+		return cdtDbtInd == CreditDebitCode.DBIT ? amount.negate() : amount;
 	}
 	
 	/**
@@ -74,7 +147,7 @@ public class BankToCustomerStatement {
 	 * Returns the date and time at which the message was created.
 	 */
 	public Date getCreDtTm() {
-		return groupHeader.getCreDtTm().toGregorianCalendar().getTime();
+		return groupHeader.getCreDtTm().toDate();
 	}
 
 	/**
@@ -150,21 +223,21 @@ public class BankToCustomerStatement {
 		 * Date and time at which the message was created.
 		 */
 		public Date getCreDtTm() {
-			return stmt.getCreDtTm().toGregorianCalendar().getTime();
+			return stmt.getCreDtTm().toDate();
 		}
 
 		/**
 		 * Start date of the period for which the account statement is issued.
 		 */
 		public Date getFrDt() {
-			return stmt.getFrToDt().getFrDtTm().toGregorianCalendar().getTime();
+			return stmt.getFrToDt().getFrDtTm().toDate();
 		}
 		
 		/**
 		 * End date of the period for which the account statement is issued.
 		 */
 		public Date getToDt() {
-			return stmt.getFrToDt().getToDtTm().toGregorianCalendar().getTime();
+			return stmt.getFrToDt().getToDtTm().toDate();
 		}
 
 		/**
@@ -222,6 +295,26 @@ public class BankToCustomerStatement {
 			return stmt.getNtry();
 		}
 
+		/**
+		 * Returns the amounts of the entries, negative for a debit.
+		 */
+		public List<Amount> getNtryAmts() {
+			List<Amount> amounts = Lists.newArrayListWithCapacity(stmt.getNtry().size());
+			for (ReportEntry2 entry : stmt.getNtry())
+				amounts.add(getAmount(entry.getAmt(), entry.getCdtDbtInd()));
+			return amounts;
+		}
+
+		/**
+		 * Returns the amounts of the balances, in the same order as {@link #getBal()}, negative for a debit.
+		 */
+		public List<Amount> getBalAmts() {
+			List<Amount> amounts = Lists.newArrayListWithCapacity(stmt.getBal().size());
+			for (CashBalance3 balance : stmt.getBal())
+				amounts.add(getAmount(balance.getAmt(), balance.getCdtDbtInd()));
+			return amounts;
+		}
+
 		public String getAddtlStmtInf() {
 			return stmt.getAddtlStmtInf();
 		}
@@ -0,0 +1,276 @@
+package nl.irp.sepa;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.bind.JAXBElement;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * SHA-256 of the contents of a tree of generated beans, e.g. a <code>Document</code> with
+ * its group header, payment information and transactions. The fields of a bean are hashed
+ * in the order of their names, strings and numbers by their text, so two trees that
+ * marshal to the same XML have the same hash, in any JVM. The beans are read by
+ * reflection, without marshalling.
+ *
+ * The tree mustn't contain cycles. The lists are iterated once, so a {@link StagedList}
+ * is decoded record by record like when it is marshalled.
+ */
+public final class ContentHash {
+
+	private static final ConcurrentMap<Class<?>, Layout> layouts = new ConcurrentHashMap<Class<?>, Layout>();
+
+	private static final Comparator<Field> BY_NAME = new Comparator<Field>() {
+		@Override
+		public int compare(Field f1, Field f2) {
+			return f1.getName().compareTo(f2.getName());
+		}
+	};
+
+	private final MessageDigest digest = MessageManifest.messageDigest("SHA-256");
+	private final byte[] buffer = new byte[8192];
+	private int position;
+
+	private ContentHash() {
+	}
+
+	/**
+	 * @param contents beans, lists and values, e.g. the version and the document of a message
+	 * @return the hash in lower case hexadecimal
+	 */
+	public static String of(Object... contents) {
+		ContentHash hash = new ContentHash();
+		for (Object content : contents)
+			hash.put(content);
+		hash.flush();
+		return MessageManifest.hex(hash.digest.digest());
+	}
+
+	private void put(Object value) {
+		if (value == null) {
+			putByte(0);
+			return;
+		}
+		if (value instanceof String) {
+			putText('s', (String) value);
+			return;
+		}
+		Layout layout = layout(value.getClass());
+		switch (layout.kind) {
+		case NUMBER:
+			// BigDecimal by its text, 1.0 and 1.00 marshal differently
+			putText('n', value.toString());
+			break;
+		case ENUM:
+			putText('e', ((Enum<?>) value).name());
+			break;
+		case DATE:
+			putByte('d');
+			putLong(((Date) value).getTime());
+			break;
+		case BYTES:
+			byte[] bytes = (byte[]) value;
+			putByte('b');
+			putVarInt(bytes.length);
+			flush();
+			digest.update(bytes);
+			break;
+		case COLLECTION:
+			putByte('c');
+			int size = 0;
+			for (Object element : (Collection<?>) value) {
+				put(element);
+				size++;
+			}
+			putVarInt(size);
+			break;
+		case MAP:
+			// e.g. otherAttributes, in the order of the keys
+			List<Map.Entry<?, ?>> entries = new ArrayList<Map.Entry<?, ?>>(((Map<?, ?>) value).entrySet());
+			Collections.sort(entries, new Comparator<Map.Entry<?, ?>>() {
+				@Override
+				public int compare(Map.Entry<?, ?> e1, Map.Entry<?, ?> e2) {
+					return String.valueOf(e1.getKey()).compareTo(String.valueOf(e2.getKey()));
+				}
+			});
+			putByte('m');
+			putVarInt(entries.size());
+			for (Map.Entry<?, ?> entry : entries) {
+				putText('s', String.valueOf(entry.getKey()));
+				put(entry.getValue());
+			}
+			break;
+		case ELEMENT:
+			JAXBElement<?> element = (JAXBElement<?>) value;
+			putText('j', element.getName().toString());
+			put(element.getValue());
+			break;
+		case VALUE:
+			// e.g. joda-time, XMLGregorianCalendar and QName, by their ISO text
+			putText('v', value.toString());
+			break;
+		default:
+			putByte('o');
+			putInt(layout.signature);
+			Field[] fields = layout.fields;
+			Object[] values = new Object[fields.length];
+			try {
+				for (int i = 0; i < fields.length; i++)
+					values[i] = fields[i].get(value);
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			}
+			// which fields are set, most of them aren't
+			for (int i = 0; i < values.length; i += 8) {
+				int set = 0;
+				for (int j = i; j < values.length && j < i + 8; j++) {
+					if (values[j] != null)
+						set |= 1 << (j - i);
+				}
+				putByte(set);
+			}
+			for (Object fieldValue : values) {
+				if (fieldValue != null)
+					put(fieldValue);
+			}
+		}
+	}
+
+	private void putText(char tag, String text) {
+		int length = text.length();
+		putByte(tag);
+		putVarInt(length);
+		for (int i = 0; i < length; i++) {
+			if (position + 3 > buffer.length)
+				flush();
+			char c = text.charAt(i);
+			// ASCII in one byte, as most of the text is
+			if (c < 0x80) {
+				buffer[position++] = (byte) c;
+			} else {
+				buffer[position++] = (byte) 0xff;
+				buffer[position++] = (byte) (c >> 8);
+				buffer[position++] = (byte) c;
+			}
+		}
+	}
+
+	private void putByte(int b) {
+		if (position == buffer.length)
+			flush();
+		buffer[position++] = (byte) b;
+	}
+
+	private void putInt(int i) {
+		if (position + 4 > buffer.length)
+			flush();
+		buffer[position++] = (byte) (i >> 24);
+		buffer[position++] = (byte) (i >> 16);
+		buffer[position++] = (byte) (i >> 8);
+		buffer[position++] = (byte) i;
+	}
+
+	private void putVarInt(int i) {
+		while ((i & ~0x7f) != 0) {
+			putByte((i & 0x7f) | 0x80);
+			i >>>= 7;
+		}
+		putByte(i);
+	}
+
+	private void putLong(long l) {
+		putInt((int) (l >> 32));
+		putInt((int) l);
+	}
+
+	private void flush() {
+		digest.update(buffer, 0, position);
+		position = 0;
+	}
+
+	private static Layout layout(Class<?> type) {
+		Layout layout = layouts.get(type);
+		if (layout == null) {
+			layout = new Layout(type);
+			layouts.putIfAbsent(type, layout);
+		}
+		return layout;
+	}
+
+	private enum Kind {
+		NUMBER, ENUM, DATE, BYTES, COLLECTION, MAP, ELEMENT, VALUE, BEAN
+	}
+
+	/**
+	 * How the values of a class are hashed. A bean by its fields, after a hash of the names
+	 * of the class and the fields, which is hashed instead of the names.
+	 */
+	private static class Layout {
+
+		private final Kind kind;
+		private final int signature;
+		private final Field[] fields;
+
+		Layout(Class<?> type) {
+			this.kind = kind(type);
+			if (kind != Kind.BEAN) {
+				this.signature = 0;
+				this.fields = null;
+				return;
+			}
+			List<Field> list = new ArrayList<Field>();
+			for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic())
+						continue;
+					field.setAccessible(true);
+					list.add(field);
+				}
+			}
+			this.fields = list.toArray(new Field[list.size()]);
+			// the order of getDeclaredFields isn't specified
+			Arrays.sort(fields, BY_NAME);
+			Hasher hasher = Hashing.sha256().newHasher();
+			hasher.putString(type.getName());
+			for (Field field : fields)
+				hasher.putByte((byte) 0).putString(field.getName());
+			this.signature = hasher.hash().asInt();
+		}
+
+		private static Kind kind(Class<?> type) {
+			if (Number.class.isAssignableFrom(type) || type == Boolean.class || type == Character.class)
+				return Kind.NUMBER;
+			if (Enum.class.isAssignableFrom(type))
+				return Kind.ENUM;
+			if (Date.class.isAssignableFrom(type))
+				return Kind.DATE;
+			if (type == byte[].class)
+				return Kind.BYTES;
+			if (Collection.class.isAssignableFrom(type))
+				return Kind.COLLECTION;
+			if (Map.class.isAssignableFrom(type))
+				return Kind.MAP;
+			if (JAXBElement.class.isAssignableFrom(type))
+				return Kind.ELEMENT;
+			String name = type.getName();
+			if (name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("org.joda."))
+				return Kind.VALUE;
+			return Kind.BEAN;
+		}
+
+	}
+
+}
@@ -0,0 +1,77 @@
+package nl.irp.sepa;
+
+import java.math.BigDecimal;
+
+/**
+ * Number of transactions and control sum of a message or payment information group.
+ *
+ * The control sum is the total of the individual amounts irrespective of their currencies.
+ * It is kept in the minor units of the currency with the most decimals seen so far, a
+ * <code>BigDecimal</code> is only created for the XML. Throws an
+ * <code>ArithmeticException</code> on overflow.
+ *
+ * Not thread-safe.
+ */
+public class ControlSum {
+
+	private static final long[] POWERS_OF_TEN = new long[19];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+	}
+
+	private int nbOfTxs;
+	private long total;
+	private int scale;
+
+	public void add(Amount amount) {
+		long minorUnits = amount.getMinorUnits();
+		int fractionDigits = amount.getFractionDigits();
+		if (fractionDigits > scale) {
+			total = multiplyExact(total, POWERS_OF_TEN[fractionDigits - scale]);
+			scale = fractionDigits;
+		} else if (fractionDigits < scale) {
+			minorUnits = multiplyExact(minorUnits, POWERS_OF_TEN[scale - fractionDigits]);
+		}
+		total = Amount.addExact(total, minorUnits);
+		nbOfTxs++;
+	}
+
+	/**
+	 * Adds the amounts of another control sum, e.g. of a partition built on another thread.
+	 */
+	public void add(ControlSum controlSum) {
+		long other = controlSum.total;
+		if (controlSum.scale > scale) {
+			total = multiplyExact(total, POWERS_OF_TEN[controlSum.scale - scale]);
+			scale = controlSum.scale;
+		} else if (controlSum.scale < scale) {
+			other = multiplyExact(other, POWERS_OF_TEN[scale - controlSum.scale]);
+		}
+		total = Amount.addExact(total, other);
+		nbOfTxs += controlSum.nbOfTxs;
+	}
+
+	/**
+	 * @return the number of amounts added
+	 */
+	public int getNbOfTxs() {
+		return nbOfTxs;
+	}
+
+	/**
+	 * @return the total of the amounts added, e.g. <code>386.00</code>
+	 */
+	public BigDecimal getCtrlSum() {
+		return BigDecimal.valueOf(total, scale);
+	}
+
+	private static long multiplyExact(long value, long factor) {
+		if (value > Long.MAX_VALUE / factor || value < Long.MIN_VALUE / factor)
+			throw new ArithmeticException("amount overflow");
+		return value * factor;
+	}
+
+}
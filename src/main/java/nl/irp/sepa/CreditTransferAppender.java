@@ -0,0 +1,270 @@
+package nl.irp.sepa;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.JAXBException;
+
+import org.joda.time.LocalDate;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+
+/**
+ * Adds credit transfers to the payment information groups of a pain.001.001.03 file that
+ * was written by {@link #write(SEPACreditTransfer, File)}, without writing the file
+ * again. The file is written with NbOfTxs and CtrlSum padded to fixed widths, and their
+ * offsets are kept in a file next to it, <code>&lt;file&gt;.idx</code>. The new
+ * transactions are inserted before the end of their group and then the totals overwritten
+ * in place, so the cost is that of the new transactions plus moving the groups after them;
+ * appending to the last group moves a few lines.
+ *
+ * <pre>
+ * CreditTransferAppender appender = new CreditTransferAppender(file);
+ * appender.paymentGroup("PAYID001").creditTransfer("E2EID-LATE", ...);
+ * appender.close();
+ * </pre>
+ *
+ * The transactions are validated like in {@link SEPACreditTransfer}, but not checked for
+ * duplicates with the transactions in the file, and not sorted. The file is changed in
+ * place: the offsets are marked in progress until it's done, and a file that wasn't
+ * finished can't be opened again. Keep a copy if a failure while appending can't be
+ * recovered from by writing the message again. Not thread-safe.
+ */
+public class CreditTransferAppender implements Closeable {
+
+	private static final byte[] OPEN = "<CdtTrfTxInf>".getBytes(Charsets.UTF_8);
+	private static final byte[] END = "</PmtInf>".getBytes(Charsets.UTF_8);
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final File file;
+	private final AppendIndex index;
+	// the new transactions of every group, in a message of their own
+	private final Map<String, SEPACreditTransfer> transfers = new LinkedHashMap<String, SEPACreditTransfer>();
+	private final Map<String, SEPACreditTransfer.PaymentGroup> groups = new LinkedHashMap<String, SEPACreditTransfer.PaymentGroup>();
+	private boolean closed;
+
+	/**
+	 * @param file a file written by {@link #write(SEPACreditTransfer, File)}, and maybe
+	 * appended to since
+	 * @throws IllegalStateException if the file was changed otherwise, or appending to it
+	 * failed halfway
+	 */
+	public CreditTransferAppender(File file) throws IOException {
+		this.file = file;
+		this.index = AppendIndex.load(indexFile(file));
+		checkState(!index.inProgress, "appending to %s didn't finish", file);
+		checkState(file.length() == index.length, "%s was changed after it was written", file);
+	}
+
+	/**
+	 * Writes the message to the file so it can be appended to, and the offsets next to it.
+	 */
+	public static MessageManifest write(SEPACreditTransfer transfer, File file) throws JAXBException, IOException {
+		AppendIndex index = new AppendIndex();
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+		MessageManifest manifest;
+		try {
+			manifest = transfer.write(os, index);
+			os.flush();
+		} finally {
+			Closeables.closeQuietly(os);
+		}
+		index.save(indexFile(file));
+		return manifest;
+	}
+
+	/**
+	 * Returns a payment group to add the new transactions of a group in the file to. Only
+	 * its transactions are appended, the group itself is a stand-in.
+	 * @param pmtInfId the PmtInfId of a payment information group in the file
+	 */
+	public SEPACreditTransfer.PaymentGroup paymentGroup(String pmtInfId) {
+		checkState(!closed, "appender is closed");
+		checkArgument(index.group(pmtInfId) != null, "no payment information group %s in %s", pmtInfId, file);
+		SEPACreditTransfer.PaymentGroup group = groups.get(pmtInfId);
+		if (group == null) {
+			SEPACreditTransfer transfer = new SEPACreditTransfer();
+			transfer.setTemplateOutput(true);
+			transfer.buildGroupHeader("APPEND", "APPEND", new Date());
+			group = transfer.paymentGroup(pmtInfId, new LocalDate(), "APPEND", "NL00APPEND", "NOTPROVIDED");
+			transfers.put(pmtInfId, transfer);
+			groups.put(pmtInfId, group);
+		}
+		return group;
+	}
+
+	/**
+	 * Inserts the new transactions, updates the totals, and saves the offsets.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+
+		List<Insert> inserts = new ArrayList<Insert>();
+		long nbOfTxs = 0;
+		BigDecimal ctrlSum = BigDecimal.ZERO;
+		for (Map.Entry<String, SEPACreditTransfer.PaymentGroup> entry : groups.entrySet()) {
+			AppendIndex.Group group = index.group(entry.getKey());
+			byte[] transactions = transactions(transfers.get(entry.getKey()));
+			if (transactions.length == 0)
+				continue;
+			inserts.add(new Insert(group, transactions,
+					Long.parseLong(entry.getValue().getPaymentInstructionInformation().getNbOfTxs()),
+					entry.getValue().getPaymentInstructionInformation().getCtrlSum()));
+		}
+		if (inserts.isEmpty())
+			return;
+
+		index.inProgress = true;
+		index.save(indexFile(file));
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			Collections.sort(inserts, new Comparator<Insert>() {
+				@Override
+				public int compare(Insert i1, Insert i2) {
+					return i1.group.end < i2.group.end ? -1 : i1.group.end > i2.group.end ? 1 : 0;
+				}
+			});
+			insert(raf, inserts);
+
+			// the totals last, at the offsets moved by the inserts
+			for (Insert insert : inserts) {
+				nbOfTxs += insert.nbOfTxs;
+				ctrlSum = ctrlSum.add(insert.ctrlSum);
+				add(raf, insert.group.nbOfTxs, insert.group.ctrlSum, insert.nbOfTxs, insert.ctrlSum);
+			}
+			add(raf, index.nbOfTxs, index.ctrlSum, nbOfTxs, ctrlSum);
+		} finally {
+			raf.close();
+		}
+		index.inProgress = false;
+		index.save(indexFile(file));
+	}
+
+	/**
+	 * Inserts the transactions with one pass from the end of the file: every part moves by
+	 * the length of the inserts before it.
+	 */
+	private void insert(RandomAccessFile raf, List<Insert> inserts) throws IOException {
+		long shift = 0;
+		for (Insert insert : inserts)
+			shift += insert.transactions.length;
+		long end = raf.length();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		for (int i = inserts.size() - 1; i >= 0; i--) {
+			Insert insert = inserts.get(i);
+			long start = insert.group.end;
+			for (long to = end; to > start;) {
+				int length = (int) Math.min(buffer.length, to - start);
+				raf.seek(to - length);
+				raf.readFully(buffer, 0, length);
+				raf.seek(to - length + shift);
+				raf.write(buffer, 0, length);
+				to -= length;
+			}
+			shift -= insert.transactions.length;
+			raf.seek(start + shift);
+			raf.write(insert.transactions);
+			end = start;
+		}
+		// from the last insert to the first, so every offset moves once per insert before it
+		for (int i = inserts.size() - 1; i >= 0; i--) {
+			Insert insert = inserts.get(i);
+			index.shift(insert.group.end, insert.transactions.length);
+		}
+	}
+
+	private static void add(RandomAccessFile raf, long nbOfTxsOffset, long ctrlSumOffset, long nbOfTxs, BigDecimal ctrlSum) throws IOException {
+		long total = Long.parseLong(read(raf, nbOfTxsOffset, AppendSlots.NB_OF_TXS_WIDTH)) + nbOfTxs;
+		BigDecimal sum = new BigDecimal(read(raf, ctrlSumOffset, AppendSlots.CTRL_SUM_WIDTH)).add(ctrlSum);
+		raf.seek(nbOfTxsOffset);
+		raf.write(AppendSlots.nbOfTxs(total).getBytes(Charsets.US_ASCII));
+		raf.seek(ctrlSumOffset);
+		raf.write(AppendSlots.ctrlSum(sum.toPlainString()).getBytes(Charsets.US_ASCII));
+	}
+
+	private static String read(RandomAccessFile raf, long offset, int width) throws IOException {
+		byte[] bytes = new byte[width];
+		raf.seek(offset);
+		raf.readFully(bytes);
+		return new String(bytes, Charsets.US_ASCII);
+	}
+
+	/**
+	 * The lines of the transactions of the only group of the message, as they are in a
+	 * message written with all of them.
+	 */
+	private static byte[] transactions(SEPACreditTransfer transfer) throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		try {
+			transfer.write(stream);
+		} catch (JAXBException e) {
+			throw new IOException(e);
+		}
+		byte[] bytes = stream.toByteArray();
+		int end = lineStart(bytes, indexOf(bytes, END, 0));
+		int open = indexOf(bytes, OPEN, 0);
+		if (open < 0 || open > end)
+			return new byte[0];
+		int start = lineStart(bytes, open);
+		byte[] transactions = new byte[end - start];
+		System.arraycopy(bytes, start, transactions, 0, transactions.length);
+		return transactions;
+	}
+
+	private static int lineStart(byte[] bytes, int at) {
+		while (at > 0 && bytes[at - 1] != '\n')
+			at--;
+		return at;
+	}
+
+	private static int indexOf(byte[] bytes, byte[] part, int from) {
+		for (int i = from; i <= bytes.length - part.length; i++) {
+			int j = 0;
+			while (j < part.length && bytes[i + j] == part[j])
+				j++;
+			if (j == part.length)
+				return i;
+		}
+		return -1;
+	}
+
+	private static File indexFile(File file) {
+		return new File(file.getPath() + ".idx");
+	}
+
+	private static class Insert {
+		final AppendIndex.Group group;
+		final byte[] transactions;
+		final long nbOfTxs;
+		final BigDecimal ctrlSum;
+
+		Insert(AppendIndex.Group group, byte[] transactions, long nbOfTxs, BigDecimal ctrlSum) {
+			this.group = group;
+			this.transactions = transactions;
+			this.nbOfTxs = nbOfTxs;
+			this.ctrlSum = ctrlSum;
+		}
+	}
+
+}
@@ -0,0 +1,462 @@
+package nl.irp.sepa;
+
+import iso.std.iso._20022.tech.xsd.pain_001_001.AccountIdentification4Choice;
+import iso.std.iso._20022.tech.xsd.pain_001_001.ActiveOrHistoricCurrencyAndAmount;
+import iso.std.iso._20022.tech.xsd.pain_001_001.AmountType3Choice;
+import iso.std.iso._20022.tech.xsd.pain_001_001.BranchAndFinancialInstitutionIdentification4;
+import iso.std.iso._20022.tech.xsd.pain_001_001.CashAccount16;
+import iso.std.iso._20022.tech.xsd.pain_001_001.CreditTransferTransactionInformation10;
+import iso.std.iso._20022.tech.xsd.pain_001_001.CreditorReferenceInformation2;
+import iso.std.iso._20022.tech.xsd.pain_001_001.CreditorReferenceType2;
+import iso.std.iso._20022.tech.xsd.pain_001_001.Document;
+import iso.std.iso._20022.tech.xsd.pain_001_001.DocumentWriter;
+import iso.std.iso._20022.tech.xsd.pain_001_001.FinancialInstitutionIdentification7;
+import iso.std.iso._20022.tech.xsd.pain_001_001.PartyIdentification32;
+import iso.std.iso._20022.tech.xsd.pain_001_001.PaymentIdentification1;
+import iso.std.iso._20022.tech.xsd.pain_001_001.PaymentInstructionInformation3;
+import iso.std.iso._20022.tech.xsd.pain_001_001.RemittanceInformation5;
+import iso.std.iso._20022.tech.xsd.pain_001_001.StructuredRemittanceInformation7;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.MarshalException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLStreamException;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Writes credit transfer transactions (CdtTrfTxInf) of a pain.001.001.03 message as UTF-8
+ * byte templates with the escaped values in between, byte for byte as the formatted
+ * output of JAXB and of the generated {@link DocumentWriter}: elements indented by four
+ * spaces per level, the indentation wrapping after eight levels, and <code>&amp;</code>,
+ * <code>&lt;</code>, <code>&gt;</code> and carriage return escaped in text.
+ *
+ * Only transactions with the structure {@link SEPACreditTransfer} creates are supported,
+ * see {@link #fits(CreditTransferTransactionInformation10)}. The transactions are written
+ * to a reusable buffer that is flushed to the stream when it's full. Not thread-safe.
+ */
+public class CreditTransferTemplate {
+
+	/** The depth of CdtTrfTxInf: Document/CstmrCdtTrfInitn/PmtInf/CdtTrfTxInf. */
+	private static final int DEPTH = 3;
+	private static final int FLUSH_SIZE = 1 << 16;
+	private static final byte[] OPEN = "<CdtTrfTxInf>".getBytes(Charsets.UTF_8);
+	private static final byte[] CLOSE = "</CdtTrfTxInf>\n".getBytes(Charsets.UTF_8);
+
+	private static final byte[][] HEAD;
+	private static final byte[][] USTRD;
+	private static final byte[][] STRD;
+	private static final byte[][] ISSR;
+	private static final byte[][] REF;
+	private static final byte[][] TAIL;
+
+	static {
+		Template head = new Template(DEPTH)
+				.open("CdtTrfTxInf")
+				.open("PmtId").leaf("EndToEndId").close("PmtId")
+				.open("Amt").line("<InstdAmt Ccy=\"\0\">\0</InstdAmt>").close("Amt")
+				.open("CdtrAgt").open("FinInstnId").leaf("BIC").close("FinInstnId").close("CdtrAgt")
+				.open("Cdtr").leaf("Nm").close("Cdtr")
+				.open("CdtrAcct").open("Id").leaf("IBAN").close("Id").close("CdtrAcct")
+				.open("RmtInf");
+		HEAD = head.compile();
+		USTRD = new Template(DEPTH + 2).leaf("Ustrd").compile();
+		STRD = new Template(DEPTH + 2)
+				.open("Strd").open("CdtrRefInf").open("Tp")
+				.open("CdOrPrtry").leaf("Cd").close("CdOrPrtry").compile();
+		ISSR = new Template(DEPTH + 5).leaf("Issr").compile();
+		REF = new Template(DEPTH + 5)
+				.close("Tp").leaf("Ref").close("CdtrRefInf").close("Strd").compile();
+		TAIL = new Template(DEPTH + 2).close("RmtInf").close("CdtTrfTxInf").compile();
+	}
+
+	private byte[] buffer = new byte[FLUSH_SIZE + 1024];
+	private int count;
+
+	/**
+	 * Marshals a document with a formatting marshaller, writing the transactions of the
+	 * payment groups with the template. JAXB writes the document with a placeholder
+	 * transaction in each payment group whose transactions all fit the template, then the
+	 * placeholders are replaced by the transactions. The EndToEndId of the placeholders is
+	 * random for every call, so a value in the document can't be taken for one. A payment group with a transaction that
+	 * doesn't fit is written by JAXB. Transactions in a {@link StagedList} are assumed to fit.
+	 * @param document the root element, e.g. <code>new ObjectFactory().createDocument(document)</code>
+	 * @param paymentGroups the PmtInf of the document
+	 */
+	public static void marshal(final Marshaller marshaller, final Object document,
+			List<PaymentInstructionInformation3> paymentGroups, OutputStream os) throws JAXBException {
+		write(new Skeleton() {
+			@Override
+			public void write(OutputStream os) throws JAXBException {
+				marshaller.marshal(document, os);
+			}
+		}, paymentGroups, os);
+	}
+
+	/**
+	 * Writes a document as {@link #marshal(Marshaller, Object, List, OutputStream)} does,
+	 * with the {@link DocumentWriter} generated at build time instead of JAXB.
+	 */
+	public static void write(final Document document, OutputStream os) throws JAXBException {
+		write(new Skeleton() {
+			@Override
+			public void write(OutputStream os) throws JAXBException {
+				try {
+					DocumentWriter.write(document, os);
+				} catch (XMLStreamException e) {
+					throw new MarshalException(e);
+				}
+			}
+		}, document.getCstmrCdtTrfInitn().getPmtInf(), os);
+	}
+
+	/**
+	 * Writes the document with the placeholders.
+	 */
+	private interface Skeleton {
+		void write(OutputStream os) throws JAXBException;
+	}
+
+	private static void write(Skeleton skeleton, List<PaymentInstructionInformation3> paymentGroups,
+			OutputStream os) throws JAXBException {
+		List<PaymentInstructionInformation3> templated = new ArrayList<PaymentInstructionInformation3>();
+		List<List<?>> transactions = new ArrayList<List<?>>();
+		// 32 hex digits, within the 35 characters of an EndToEndId
+		String placeholderId = UUID.randomUUID().toString().replace("-", "");
+		try {
+			for (PaymentInstructionInformation3 paymentGroup : paymentGroups) {
+				List<CreditTransferTransactionInformation10> list = paymentGroup.getCdtTrfTxInf();
+				if (list.isEmpty() || !(list instanceof StagedList || allFit(list)))
+					continue;
+				CreditTransferTransactionInformation10 placeholder = new CreditTransferTransactionInformation10();
+				placeholder.setPmtId(new PaymentIdentification1());
+				placeholder.getPmtId().setEndToEndId(placeholderId);
+				transactions.add(StagedList.replace(paymentGroup, "cdtTrfTxInf", Collections.singletonList(placeholder)));
+				templated.add(paymentGroup);
+			}
+			if (templated.isEmpty()) {
+				skeleton.write(os);
+				return;
+			}
+
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			skeleton.write(bout);
+			byte[] bytes = bout.toByteArray();
+			CreditTransferTemplate template = new CreditTransferTemplate();
+			byte[] marker = ("<EndToEndId>" + placeholderId + "</EndToEndId>").getBytes(Charsets.UTF_8);
+			int from = 0;
+			for (int i = 0; i < templated.size(); i++) {
+				// the placeholders are in the order of the groups
+				int at = indexOf(bytes, marker, from);
+				// from the line of <CdtTrfTxInf> to the end of the line of </CdtTrfTxInf>
+				int start = lastIndexOf(bytes, OPEN, at);
+				while (bytes[start - 1] != '\n')
+					start--;
+				int end = indexOf(bytes, CLOSE, at) + CLOSE.length;
+				os.write(bytes, from, start - from);
+				for (Object transaction : transactions.get(i))
+					template.write((CreditTransferTransactionInformation10) transaction, os);
+				template.flush(os);
+				from = end;
+			}
+			os.write(bytes, from, bytes.length - from);
+		} catch (IOException e) {
+			throw new MarshalException(e);
+		} finally {
+			for (int i = 0; i < transactions.size(); i++)
+				StagedList.replace(templated.get(i), "cdtTrfTxInf", transactions.get(i));
+		}
+	}
+
+	private static boolean allFit(List<CreditTransferTransactionInformation10> transactions) {
+		for (CreditTransferTransactionInformation10 transaction : transactions) {
+			if (!fits(transaction))
+				return false;
+		}
+		return true;
+	}
+
+	private static int indexOf(byte[] bytes, byte[] part, int from) {
+		for (int i = from; i <= bytes.length - part.length; i++) {
+			if (matches(bytes, part, i))
+				return i;
+		}
+		throw new IllegalStateException("placeholder transaction not found");
+	}
+
+	private static int lastIndexOf(byte[] bytes, byte[] part, int before) {
+		for (int i = before - part.length; i >= 0; i--) {
+			if (matches(bytes, part, i))
+				return i;
+		}
+		throw new IllegalStateException("placeholder transaction not found");
+	}
+
+	private static boolean matches(byte[] bytes, byte[] part, int at) {
+		for (int j = 0; j < part.length; j++) {
+			if (bytes[at + j] != part[j])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> if the transaction only has the elements of the template:
+	 * EndToEndId, InstdAmt, the BIC of the creditor agent, the name and IBAN of the creditor
+	 * and either unstructured remittance information or a creditor reference
+	 */
+	public static boolean fits(CreditTransferTransactionInformation10 transaction) {
+		PaymentIdentification1 pmtId = transaction.getPmtId();
+		if (pmtId == null || pmtId.getInstrId() != null || !plain(pmtId.getEndToEndId()))
+			return false;
+		AmountType3Choice amt = transaction.getAmt();
+		if (amt == null || amt.getEqvtAmt() != null)
+			return false;
+		ActiveOrHistoricCurrencyAndAmount instdAmt = amt.getInstdAmt();
+		if (instdAmt == null || instdAmt.getValue() == null || !currency(instdAmt.getCcy()))
+			return false;
+		if (transaction.getPmtTpInf() != null || transaction.getXchgRateInf() != null
+				|| transaction.getChrgBr() != null || transaction.getChqInstr() != null
+				|| transaction.getUltmtDbtr() != null
+				|| transaction.getIntrmyAgt1() != null || transaction.getIntrmyAgt1Acct() != null
+				|| transaction.getIntrmyAgt2() != null || transaction.getIntrmyAgt2Acct() != null
+				|| transaction.getIntrmyAgt3() != null || transaction.getIntrmyAgt3Acct() != null
+				|| transaction.getCdtrAgtAcct() != null || transaction.getUltmtCdtr() != null
+				|| !transaction.getInstrForCdtrAgt().isEmpty() || transaction.getInstrForDbtrAgt() != null
+				|| transaction.getPurp() != null || !transaction.getRgltryRptg().isEmpty()
+				|| transaction.getTax() != null || !transaction.getRltdRmtInf().isEmpty())
+			return false;
+
+		BranchAndFinancialInstitutionIdentification4 cdtrAgt = transaction.getCdtrAgt();
+		if (cdtrAgt == null || cdtrAgt.getBrnchId() != null)
+			return false;
+		FinancialInstitutionIdentification7 finInstnId = cdtrAgt.getFinInstnId();
+		if (finInstnId == null || !plain(finInstnId.getBIC()) || finInstnId.getClrSysMmbId() != null
+				|| finInstnId.getNm() != null || finInstnId.getPstlAdr() != null || finInstnId.getOthr() != null)
+			return false;
+
+		PartyIdentification32 cdtr = transaction.getCdtr();
+		if (cdtr == null || !plain(cdtr.getNm()) || cdtr.getPstlAdr() != null || cdtr.getId() != null
+				|| cdtr.getCtryOfRes() != null || cdtr.getCtctDtls() != null)
+			return false;
+
+		CashAccount16 cdtrAcct = transaction.getCdtrAcct();
+		if (cdtrAcct == null || cdtrAcct.getTp() != null || cdtrAcct.getCcy() != null || cdtrAcct.getNm() != null)
+			return false;
+		AccountIdentification4Choice id = cdtrAcct.getId();
+		if (id == null || !plain(id.getIBAN()) || id.getOthr() != null)
+			return false;
+
+		RemittanceInformation5 rmtInf = transaction.getRmtInf();
+		if (rmtInf == null)
+			return false;
+		if (rmtInf.getUstrd().size() == 1 && rmtInf.getStrd().isEmpty())
+			return plain(rmtInf.getUstrd().get(0));
+		if (!rmtInf.getUstrd().isEmpty() || rmtInf.getStrd().size() != 1)
+			return false;
+		StructuredRemittanceInformation7 strd = rmtInf.getStrd().get(0);
+		if (!strd.getRfrdDocInf().isEmpty() || strd.getRfrdDocAmt() != null || strd.getInvcr() != null
+				|| strd.getInvcee() != null || !strd.getAddtlRmtInf().isEmpty())
+			return false;
+		CreditorReferenceInformation2 cdtrRefInf = strd.getCdtrRefInf();
+		if (cdtrRefInf == null || !plain(cdtrRefInf.getRef()))
+			return false;
+		CreditorReferenceType2 tp = cdtrRefInf.getTp();
+		return tp != null && tp.getCdOrPrtry() != null && tp.getCdOrPrtry().getCd() != null
+				&& tp.getCdOrPrtry().getPrtry() == null
+				&& (tp.getIssr() == null || plain(tp.getIssr()));
+	}
+
+	/**
+	 * Writes a transaction that {@link #fits(CreditTransferTransactionInformation10) fits}
+	 * the template, the bytes are written to the stream by {@link #flush(OutputStream)} or
+	 * when the buffer is full.
+	 */
+	public void write(CreditTransferTransactionInformation10 transaction, OutputStream os) throws IOException {
+		ActiveOrHistoricCurrencyAndAmount instdAmt = transaction.getAmt().getInstdAmt();
+		put(HEAD[0]);
+		text(transaction.getPmtId().getEndToEndId());
+		put(HEAD[1]);
+		text(instdAmt.getCcy());
+		put(HEAD[2]);
+		text(instdAmt.getValue().toPlainString());
+		put(HEAD[3]);
+		text(transaction.getCdtrAgt().getFinInstnId().getBIC());
+		put(HEAD[4]);
+		text(transaction.getCdtr().getNm());
+		put(HEAD[5]);
+		text(transaction.getCdtrAcct().getId().getIBAN());
+		put(HEAD[6]);
+
+		RemittanceInformation5 rmtInf = transaction.getRmtInf();
+		if (rmtInf.getStrd().isEmpty()) {
+			put(USTRD[0]);
+			text(rmtInf.getUstrd().get(0));
+			put(USTRD[1]);
+		} else {
+			CreditorReferenceInformation2 cdtrRefInf = rmtInf.getStrd().get(0).getCdtrRefInf();
+			put(STRD[0]);
+			text(cdtrRefInf.getTp().getCdOrPrtry().getCd().value());
+			put(STRD[1]);
+			if (cdtrRefInf.getTp().getIssr() != null) {
+				put(ISSR[0]);
+				text(cdtrRefInf.getTp().getIssr());
+				put(ISSR[1]);
+			}
+			put(REF[0]);
+			text(cdtrRefInf.getRef());
+			put(REF[1]);
+		}
+		put(TAIL[0]);
+
+		if (count >= FLUSH_SIZE)
+			flush(os);
+	}
+
+	/**
+	 * Writes the buffered bytes to the stream.
+	 */
+	public void flush(OutputStream os) throws IOException {
+		os.write(buffer, 0, count);
+		count = 0;
+	}
+
+	/**
+	 * @return <code>true</code> if the value is written the same by JAXB and by the template;
+	 * not for a lone surrogate
+	 */
+	private static boolean plain(String value) {
+		if (value == null)
+			return false;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1)))
+				i++;
+			else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> for three capital letters, which need no escaping in an attribute
+	 */
+	private static boolean currency(String ccy) {
+		if (ccy == null || ccy.length() != 3)
+			return false;
+		for (int i = 0; i < 3; i++) {
+			if (ccy.charAt(i) < 'A' || ccy.charAt(i) > 'Z')
+				return false;
+		}
+		return true;
+	}
+
+	private void put(byte[] bytes) {
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, buffer, count, bytes.length);
+		count += bytes.length;
+	}
+
+	private void text(String value) {
+		int length = value.length();
+		// &amp; is the longest escape
+		ensure(5 * length);
+		byte[] buffer = this.buffer;
+		int count = this.count;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				switch (c) {
+				case '&':
+					buffer[count++] = '&'; buffer[count++] = 'a'; buffer[count++] = 'm'; buffer[count++] = 'p'; buffer[count++] = ';';
+					break;
+				case '<':
+					buffer[count++] = '&'; buffer[count++] = 'l'; buffer[count++] = 't'; buffer[count++] = ';';
+					break;
+				case '>':
+					buffer[count++] = '&'; buffer[count++] = 'g'; buffer[count++] = 't'; buffer[count++] = ';';
+					break;
+				case '\r':
+					buffer[count++] = '&'; buffer[count++] = '#'; buffer[count++] = 'x'; buffer[count++] = 'D'; buffer[count++] = ';';
+					break;
+				default:
+					buffer[count++] = (byte) c;
+				}
+			} else if (c < 0x800) {
+				buffer[count++] = (byte) (0xC0 | c >> 6);
+				buffer[count++] = (byte) (0x80 | c & 0x3F);
+			} else if (Character.isHighSurrogate(c)) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer[count++] = (byte) (0xF0 | codePoint >> 18);
+				buffer[count++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+				buffer[count++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+				buffer[count++] = (byte) (0x80 | codePoint & 0x3F);
+			} else {
+				buffer[count++] = (byte) (0xE0 | c >> 12);
+				buffer[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+				buffer[count++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+		this.count = count;
+	}
+
+	private void ensure(int bytes) {
+		if (buffer.length - count < bytes)
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + bytes));
+	}
+
+	/**
+	 * Formatted XML with a NUL character where a value goes.
+	 */
+	private static class Template {
+
+		private final StringBuilder text = new StringBuilder();
+		private int depth;
+
+		Template(int depth) {
+			this.depth = depth;
+		}
+
+		Template open(String element) {
+			line("<" + element + ">");
+			depth++;
+			return this;
+		}
+
+		Template close(String element) {
+			depth--;
+			return line("</" + element + ">");
+		}
+
+		Template leaf(String element) {
+			return line("<" + element + ">\0</" + element + ">");
+		}
+
+		Template line(String line) {
+			// JAXB wraps the indentation after 8 levels
+			for (int i = 0; i < depth % 8; i++)
+				text.append("    ");
+			text.append(line).append('\n');
+			return this;
+		}
+
+		byte[][] compile() {
+			String[] parts = text.toString().split("\0", -1);
+			byte[][] segments = new byte[parts.length][];
+			for (int i = 0; i < parts.length; i++)
+				segments[i] = parts[i].getBytes(Charsets.UTF_8);
+			return segments;
+		}
+
+	}
+
+}
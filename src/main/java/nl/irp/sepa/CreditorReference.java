@@ -0,0 +1,94 @@
+package nl.irp.sepa;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The structured creditor reference according to ISO 11649, e.g. <code>RF18539007547034</code>.
+ * It consists of "RF", two check digits and a reference of up to 21 letters and digits.
+ *
+ * Like the IBAN the check digits are calculated according to ISO 7064 Mod 97-10 over the
+ * reference followed by "RF" and the check digits, where A=10, B=11, ..., Z=35.
+ */
+public class CreditorReference {
+
+	/**
+	 * @return <code>true</code> if the creditor reference is well-formed and the check digits are correct.
+	 */
+	public static boolean isValid(String reference) {
+		int length = reference.length();
+		if (length < 5 || length > 25)
+			return false;
+		if (!reference.startsWith("RF") || !isDigit(reference.charAt(2)) || !isDigit(reference.charAt(3)))
+			return false;
+
+		int remainder = 0;
+		for (int i = 4; i < length; i++) {
+			char c = reference.charAt(i);
+			if (!isDigit(c) && !isLetter(c))
+				return false;
+			remainder = mod97(remainder, c);
+		}
+		for (int i = 0; i < 4; i++)
+			remainder = mod97(remainder, reference.charAt(i));
+		return remainder == 1;
+	}
+
+	/**
+	 * Creates a creditor reference, e.g. for an invoice number. Characters other than letters
+	 * and digits are removed, lower case letters are converted to upper case.
+	 * @param reference the reference, at most 21 letters and digits
+	 */
+	public static String create(String reference) {
+		char[] chars = new char[reference.length() + 4];
+		int length = 4;
+		int remainder = 0;
+		for (int i = 0; i < reference.length(); i++) {
+			char c = Character.toUpperCase(reference.charAt(i));
+			if (isDigit(c) || isLetter(c)) {
+				checkArgument(length < 25, "reference '%s' has more than 21 letters and digits", reference);
+				chars[length++] = c;
+				remainder = mod97(remainder, c);
+			}
+		}
+		checkArgument(length > 4, "reference '%s' has no letters or digits", reference);
+
+		// "RF00"
+		remainder = mod97(mod97(mod97(mod97(remainder, 'R'), 'F'), '0'), '0');
+		int checkDigits = 98 - remainder;
+		chars[0] = 'R';
+		chars[1] = 'F';
+		chars[2] = (char) ('0' + checkDigits / 10);
+		chars[3] = (char) ('0' + checkDigits % 10);
+		return new String(chars, 0, length);
+	}
+
+	/**
+	 * Creates the creditor references for a batch of references, in the same order.
+	 * @see #create(String)
+	 */
+	public static List<String> create(Iterable<String> references) {
+		List<String> creditorReferences = Lists.newArrayList();
+		for (String reference : references)
+			creditorReferences.add(create(reference));
+		return creditorReferences;
+	}
+
+	private static int mod97(int remainder, char c) {
+		if (isLetter(c))
+			return (remainder * 100 + c - 'A' + 10) % 97;
+		return (remainder * 10 + c - '0') % 97;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isLetter(char c) {
+		return c >= 'A' && c <= 'Z';
+	}
+
+}
@@ -0,0 +1,290 @@
+package nl.irp.sepa;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Detects identifiers that were already used in an earlier file. Banks reject a MsgId,
+ * PmtInfId, InstrId or EndToEndId that they have seen before within their retention period.
+ *
+ * The identifiers are kept in three files in a directory:
+ * <dl>
+ * <dt>ids.bloom</dt>
+ * <dd>A memory-mapped Bloom filter. Most new identifiers are recognized as such
+ * by reading a few bits.</dd>
+ * <dt>ids.index</dt>
+ * <dd>A memory-mapped hash table pointing into the journal, used to verify a possible
+ * duplicate exactly.</dd>
+ * <dt>ids.journal</dt>
+ * <dd>All registered identifiers, appended in order.</dd>
+ * </dl>
+ * The capacity is fixed when the directory is created. Start a new directory for each
+ * retention period to forget old identifiers.
+ *
+ * Instances are thread-safe.
+ */
+public class DuplicateGuard implements Closeable {
+
+	/** The kind of identifier, each kind is unique on its own. */
+	public enum Kind {
+		MSG_ID, PMT_INF_ID, INSTR_ID, END_TO_END_ID
+	}
+
+	private static final int MAGIC = 0x53455041;
+	private static final int HEADER_SIZE = 64;
+	private static final int HASHES = 7;
+	private static final double MAX_LOAD = 0.75;
+	private static final int JOURNAL_BUFFER_SIZE = 64 * 1024;
+	private static final long MAX_SLOTS = (Integer.MAX_VALUE - HEADER_SIZE) / 8 + 1;
+
+	private final RandomAccessFile bloomFile;
+	private final RandomAccessFile indexFile;
+	private final RandomAccessFile journal;
+	private final MappedByteBuffer bloom;
+	private final MappedByteBuffer index;
+	private final long bloomBits;
+	private final long slots;
+	private long count;
+
+	/** Journal entries of the identifiers being registered, written to the file before the index. */
+	private byte[] pending = new byte[JOURNAL_BUFFER_SIZE];
+	private int pendingLength;
+	private long journalLength;
+
+	private DuplicateGuard(File directory, long expectedIds) throws IOException {
+		bloomFile = new RandomAccessFile(new File(directory, "ids.bloom"), "rw");
+		indexFile = new RandomAccessFile(new File(directory, "ids.index"), "rw");
+		journal = new RandomAccessFile(new File(directory, "ids.journal"), "rw");
+
+		if (indexFile.length() == 0) {
+			// Bloom filter with a false positive rate of about 1%
+			bloomBits = Math.max(1024, (long) Math.ceil(expectedIds * 9.6) + 63) / 64 * 64;
+			slots = Long.highestOneBit(Math.max(1024, expectedIds * 2 - 1)) << 1;
+			checkArgument(slots <= MAX_SLOTS, "expectedIds is too large: %s", expectedIds);
+			index = map(indexFile, HEADER_SIZE + slots * 8);
+			index.putInt(0, MAGIC);
+			index.putLong(8, slots);
+			index.putLong(24, bloomBits);
+		} else {
+			index = map(indexFile, indexFile.length());
+			checkState(index.getInt(0) == MAGIC, "%s is not a duplicate guard", directory);
+			slots = index.getLong(8);
+			count = index.getLong(16);
+			bloomBits = index.getLong(24);
+		}
+		bloom = map(bloomFile, bloomBits / 8);
+		journalLength = journal.length();
+	}
+
+	/**
+	 * Opens the duplicate guard in the directory, or creates a new one.
+	 * @param directory an existing directory
+	 * @param expectedIds the number of identifiers expected during the retention period,
+	 * only used when the guard is created
+	 */
+	public static DuplicateGuard open(File directory, long expectedIds) throws IOException {
+		checkArgument(directory.isDirectory(), "not a directory: %s", directory);
+		return new DuplicateGuard(directory, expectedIds);
+	}
+
+	private static MappedByteBuffer map(RandomAccessFile file, long size) throws IOException {
+		return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+
+	/**
+	 * Registers an identifier.
+	 * @return <code>false</code> if the identifier was registered before
+	 */
+	public synchronized boolean register(Kind kind, String id) {
+		return register(kind, Collections.singleton(id)) == 1;
+	}
+
+	/**
+	 * Registers identifiers of one kind, e.g. those of a message that was written. The
+	 * journal is written before the index points into it, a crash in between leaves
+	 * unused journal entries but no dangling index entries.
+	 * @return the number of identifiers that weren't registered before
+	 */
+	public synchronized int register(Kind kind, Collection<String> ids) {
+		Set<String> newIds = new LinkedHashSet<String>();
+		for (String id : ids) {
+			long hash = hash(kind, id);
+			if (!mightContain(hash) || find(hash, kind, id) < 0)
+				newIds.add(id);
+		}
+		checkState(count + newIds.size() <= slots * MAX_LOAD, "duplicate guard is full, it holds %s identifiers", count);
+
+		long[] offsets = new long[newIds.size()];
+		int i = 0;
+		for (String id : newIds)
+			offsets[i++] = append(kind, id);
+		flush();
+
+		i = 0;
+		for (String id : newIds) {
+			long hash = hash(kind, id);
+			long slot = hash & (slots - 1);
+			while (index.getLong(slotPosition(slot)) != 0)
+				slot = (slot + 1) & (slots - 1);
+			index.putLong(slotPosition(slot), (tag(hash) << 40) | (offsets[i++] + 1));
+			index.putLong(16, ++count);
+
+			long h2 = mix(hash);
+			for (int j = 0; j < HASHES; j++) {
+				long bit = ((hash + j * h2) & Long.MAX_VALUE) % bloomBits;
+				int position = (int) (bit >>> 6) << 3;
+				bloom.putLong(position, bloom.getLong(position) | (1L << bit));
+			}
+		}
+		return newIds.size();
+	}
+
+	/**
+	 * @return <code>true</code> if the identifier was registered before
+	 */
+	public synchronized boolean contains(Kind kind, String id) {
+		long hash = hash(kind, id);
+		return mightContain(hash) && find(hash, kind, id) >= 0;
+	}
+
+	/**
+	 * @return the number of registered identifiers
+	 */
+	public synchronized long size() {
+		return count;
+	}
+
+	private boolean mightContain(long hash) {
+		long h2 = mix(hash);
+		for (int i = 0; i < HASHES; i++) {
+			long bit = ((hash + i * h2) & Long.MAX_VALUE) % bloomBits;
+			if ((bloom.getLong((int) (bit >>> 6) << 3) & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the journal offset of the identifier, or -1
+	 */
+	private long find(long hash, Kind kind, String id) {
+		byte[] bytes = null;
+		long tag = tag(hash);
+		long slot = hash & (slots - 1);
+		long entry;
+		while ((entry = index.getLong(slotPosition(slot))) != 0) {
+			if (entry >>> 40 == tag) {
+				if (bytes == null)
+					bytes = id.getBytes(Charsets.UTF_8);
+				long offset = (entry & 0xFFFFFFFFFFL) - 1;
+				if (Arrays.equals(readJournal(offset, kind), bytes))
+					return offset;
+			}
+			slot = (slot + 1) & (slots - 1);
+		}
+		return -1;
+	}
+
+	private long append(Kind kind, String id) {
+		byte[] bytes = id.getBytes(Charsets.UTF_8);
+		checkArgument(bytes.length <= 0xFFFF, "identifier is too long");
+		int size = 3 + bytes.length;
+		if (pendingLength + size > pending.length)
+			flush();
+		if (size > pending.length)
+			pending = new byte[size];
+
+		long offset = journalLength + pendingLength;
+		pending[pendingLength++] = (byte) kind.ordinal();
+		pending[pendingLength++] = (byte) (bytes.length >>> 8);
+		pending[pendingLength++] = (byte) bytes.length;
+		System.arraycopy(bytes, 0, pending, pendingLength, bytes.length);
+		pendingLength += bytes.length;
+		return offset;
+	}
+
+	/**
+	 * @return the identifier at the offset, or <code>null</code> if it is of another kind
+	 */
+	private byte[] readJournal(long offset, Kind kind) {
+		try {
+			journal.seek(offset);
+			if (journal.readByte() != kind.ordinal())
+				return null;
+			byte[] bytes = new byte[journal.readUnsignedShort()];
+			journal.readFully(bytes);
+			return bytes;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void flush() {
+		try {
+			journal.seek(journalLength);
+			journal.write(pending, 0, pendingLength);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		journalLength += pendingLength;
+		pendingLength = 0;
+	}
+
+	/**
+	 * Forces all registered identifiers to disk.
+	 */
+	public synchronized void sync() throws IOException {
+		journal.getFD().sync();
+		index.force();
+		bloom.force();
+	}
+
+	public synchronized void close() throws IOException {
+		sync();
+		journal.close();
+		indexFile.close();
+		bloomFile.close();
+	}
+
+	private static int slotPosition(long slot) {
+		return (int) (HEADER_SIZE + slot * 8);
+	}
+
+	private static long tag(long hash) {
+		return hash >>> 40;
+	}
+
+	private static long hash(Kind kind, String id) {
+		// FNV-1a over the characters, finished with a mixing step to spread the bits
+		long hash = 0xcbf29ce484222325L ^ kind.ordinal();
+		for (int i = 0; i < id.length(); i++) {
+			hash ^= id.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
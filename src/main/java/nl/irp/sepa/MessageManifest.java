@@ -0,0 +1,104 @@
+package nl.irp.sepa;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.math.BigDecimal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.google.common.base.Objects;
+
+/**
+ * What was written by a message writer: the MsgId, number of transactions and control sum
+ * of the message, the number of bytes, and their digest. The digest is computed while the
+ * message is written, the file doesn't have to be read again to hash it.
+ */
+public class MessageManifest {
+
+	public static final String DEFAULT_ALGORITHM = "SHA-256";
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final String msgId;
+	private final int nbOfTxs;
+	private final BigDecimal ctrlSum;
+	private final long length;
+	private final String algorithm;
+	private final byte[] digest;
+
+	public MessageManifest(String msgId, int nbOfTxs, BigDecimal ctrlSum, long length, String algorithm, byte[] digest) {
+		this.msgId = msgId;
+		this.nbOfTxs = nbOfTxs;
+		this.ctrlSum = checkNotNull(ctrlSum);
+		this.length = length;
+		this.algorithm = checkNotNull(algorithm);
+		this.digest = digest.clone();
+	}
+
+	/**
+	 * @param algorithm the name of a <code>MessageDigest</code> algorithm, e.g. <code>SHA-256</code>
+	 * @throws IllegalArgumentException if the JVM doesn't support the algorithm
+	 */
+	public static MessageDigest messageDigest(String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("unsupported digest algorithm " + algorithm, e);
+		}
+	}
+
+	public String getMsgId() {
+		return msgId;
+	}
+
+	public int getNbOfTxs() {
+		return nbOfTxs;
+	}
+
+	public BigDecimal getCtrlSum() {
+		return ctrlSum;
+	}
+
+	/**
+	 * @return the number of bytes written
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	public byte[] getDigest() {
+		return digest.clone();
+	}
+
+	/**
+	 * @return the digest in lower case hexadecimal, as printed by <code>sha256sum</code>
+	 */
+	public String getDigestHex() {
+		return hex(digest);
+	}
+
+	static String hex(byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+			hex[2 * i + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("msgId", msgId)
+				.add("nbOfTxs", nbOfTxs)
+				.add("ctrlSum", ctrlSum)
+				.add("length", length)
+				.add(algorithm, getDigestHex())
+				.toString();
+	}
+
+}
@@ -0,0 +1,130 @@
+package nl.irp.sepa;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.irp.sepa.SEPACreditTransfer.PaymentGroup;
+
+import org.joda.time.LocalDate;
+
+/**
+ * Adds credit transfers to the payment group of their debtor account, requested execution
+ * date and rapid money transfer flag, creating the payment group when its first transfer
+ * is added. The debtor name and BIC of that first transfer are used for the group; if the
+ * first transfer is refused, the group isn't created.
+ *
+ * The payment groups are found with one hash lookup per transfer and appear in the
+ * message in the order of their first transfer, so the same transfers in the same order
+ * give the same message. The PmtInfId of a group is the given prefix followed by its
+ * number, e.g. "PAYID-1", "PAYID-2".
+ *
+ * Not thread-safe.
+ */
+public class PaymentGroupRouter {
+
+	private static final class Key {
+		final String debtorAccountIBAN;
+		final LocalDate reqdExctnDt;
+		final boolean isRapidMoneyTransfer;
+		final int hashCode;
+
+		Key(String debtorAccountIBAN, LocalDate reqdExctnDt, boolean isRapidMoneyTransfer) {
+			this.debtorAccountIBAN = debtorAccountIBAN;
+			this.reqdExctnDt = reqdExctnDt;
+			this.isRapidMoneyTransfer = isRapidMoneyTransfer;
+			this.hashCode = (debtorAccountIBAN.hashCode() * 31 + reqdExctnDt.hashCode()) * 2 + (isRapidMoneyTransfer ? 1 : 0);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return hashCode == other.hashCode
+					&& isRapidMoneyTransfer == other.isRapidMoneyTransfer
+					&& debtorAccountIBAN.equals(other.debtorAccountIBAN)
+					&& reqdExctnDt.equals(other.reqdExctnDt);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	private final SEPACreditTransfer transfer;
+	private final String pmtInfId;
+	private final Map<Key, PaymentGroup> paymentGroups = new HashMap<Key, PaymentGroup>();
+	private final List<PaymentGroup> ordered = new ArrayList<PaymentGroup>();
+
+	/**
+	 * @param pmtInfId prefix of the PmtInfId of the payment groups, max length: 28
+	 */
+	public PaymentGroupRouter(SEPACreditTransfer transfer, String pmtInfId) {
+		checkArgument(pmtInfId.length() <= 28, "length of pmtInfId is more than 28");
+		this.transfer = transfer;
+		this.pmtInfId = pmtInfId;
+	}
+
+	/**
+	 * Adds a credit transfer to the payment group of its debtor account, execution date and
+	 * rapid money transfer flag.
+	 * @return the payment group
+	 * @see SEPACreditTransfer#paymentGroup(String, LocalDate, String, String, String, boolean)
+	 * @see PaymentGroup#creditTransfer(String, Amount, String, String, String, String)
+	 */
+	public PaymentGroup creditTransfer(
+			LocalDate reqdExctnDt, String debtorNm, String debtorAccountIBAN, String financialInstitutionBIC,
+			boolean isRapidMoneyTransfer,
+			String endToEndId, Amount amount,
+			String creditorfinancialInstitutionBic, String creditorNm, String iban,
+			String text) {
+		Key key = new Key(debtorAccountIBAN, reqdExctnDt, isRapidMoneyTransfer);
+		PaymentGroup paymentGroup = paymentGroups.get(key);
+		if (paymentGroup != null)
+			return paymentGroup.creditTransfer(endToEndId, amount, creditorfinancialInstitutionBic, creditorNm, iban, text);
+
+		paymentGroup = transfer.paymentGroup(
+				pmtInfId + "-" + (ordered.size() + 1), reqdExctnDt,
+				debtorNm, debtorAccountIBAN, financialInstitutionBIC,
+				isRapidMoneyTransfer);
+		try {
+			paymentGroup.creditTransfer(endToEndId, amount, creditorfinancialInstitutionBic, creditorNm, iban, text);
+		} catch (RuntimeException e) {
+			// a payment group must have a transaction
+			transfer.removePaymentGroup(paymentGroup);
+			throw e;
+		}
+		paymentGroups.put(key, paymentGroup);
+		ordered.add(paymentGroup);
+		return paymentGroup;
+	}
+
+	/**
+	 * Adds a credit transfer in euro.
+	 * @see #creditTransfer(LocalDate, String, String, String, boolean, String, Amount, String, String, String, String)
+	 */
+	public PaymentGroup creditTransfer(
+			LocalDate reqdExctnDt, String debtorNm, String debtorAccountIBAN, String financialInstitutionBIC,
+			boolean isRapidMoneyTransfer,
+			String endToEndId, BigDecimal amount,
+			String creditorfinancialInstitutionBic, String creditorNm, String iban,
+			String text) {
+		return creditTransfer(reqdExctnDt, debtorNm, debtorAccountIBAN, financialInstitutionBIC, isRapidMoneyTransfer,
+				endToEndId, Amount.of(amount, "EUR"), creditorfinancialInstitutionBic, creditorNm, iban, text);
+	}
+
+	/**
+	 * @return the payment groups in the order they were created
+	 */
+	public List<PaymentGroup> getPaymentGroups() {
+		return Collections.unmodifiableList(ordered);
+	}
+
+}
@@ -0,0 +1,99 @@
+package nl.irp.sepa;
+
+import java.lang.management.ManagementFactory;
+
+import nl.irp.sepa.ProcessingListener.Phase;
+
+/**
+ * Measures a phase for a {@link ProcessingListener}. A timer can be started and stopped
+ * several times, e.g. once per transaction, the total is passed to the listener by
+ * {@link #report()}. Does nothing for {@link ProcessingListener#NOOP}.
+ *
+ * The allocations are measured with <code>com.sun.management.ThreadMXBean</code> when the
+ * JVM supports it.
+ *
+ * Not thread-safe.
+ */
+public final class PhaseTimer {
+
+	private static final com.sun.management.ThreadMXBean threadMXBean = threadMXBean();
+
+	private final ProcessingListener listener;
+	private final Phase phase;
+	private long nanos;
+	private long allocatedBytes;
+	private long start;
+	private long startAllocatedBytes;
+
+	public PhaseTimer(ProcessingListener listener, Phase phase) {
+		this.listener = listener;
+		this.phase = phase;
+	}
+
+	/**
+	 * Measures a phase that runs once, end it with {@link #stopAndReport()}.
+	 */
+	public static PhaseTimer start(ProcessingListener listener, Phase phase) {
+		PhaseTimer timer = new PhaseTimer(listener, phase);
+		timer.start();
+		return timer;
+	}
+
+	public void start() {
+		if (listener == ProcessingListener.NOOP)
+			return;
+		startAllocatedBytes = allocatedBytes();
+		start = System.nanoTime();
+	}
+
+	public void stop() {
+		if (listener == ProcessingListener.NOOP)
+			return;
+		nanos += System.nanoTime() - start;
+		long allocated = allocatedBytes();
+		if (allocated < 0 || allocatedBytes < 0)
+			allocatedBytes = -1;
+		else
+			allocatedBytes += allocated - startAllocatedBytes;
+	}
+
+	/**
+	 * Passes the total to the listener and resets the timer.
+	 */
+	public void report() {
+		if (listener == ProcessingListener.NOOP)
+			return;
+		listener.phase(phase, nanos, allocatedBytes);
+		nanos = 0;
+		allocatedBytes = 0;
+	}
+
+	public void stopAndReport() {
+		stop();
+		report();
+	}
+
+	/**
+	 * @return the bytes allocated by the current thread so far, or -1 if unsupported
+	 */
+	public static long allocatedBytes() {
+		if (threadMXBean == null)
+			return -1;
+		return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static com.sun.management.ThreadMXBean threadMXBean() {
+		try {
+			java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (bean instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+				if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled())
+					return sunBean;
+			}
+		} catch (LinkageError e) {
+			// not a HotSpot JVM
+		}
+		return null;
+	}
+
+}
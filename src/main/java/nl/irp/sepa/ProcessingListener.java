@@ -0,0 +1,66 @@
+package nl.irp.sepa;
+
+/**
+ * Receives measurements of writing and reading messages, e.g. to pass them on to a metrics
+ * library. All methods do nothing by default, override the ones you need.
+ *
+ * Durations are in nanoseconds. Allocations are the bytes allocated by the current thread
+ * during the phase, or -1 if the JVM can't measure them.
+ *
+ * @see SEPACreditTransfer#setProcessingListener(ProcessingListener)
+ * @see nl.irp.sepa.sdd.DirectDebitInitiation#setProcessingListener(ProcessingListener)
+ * @see BankToCustomerStatement#read(java.io.InputStream, ProcessingListener)
+ */
+public abstract class ProcessingListener {
+
+	/**
+	 * Listener that ignores everything, the default.
+	 */
+	public static final ProcessingListener NOOP = new ProcessingListener() {
+	};
+
+	public enum Phase {
+		/**
+		 * Creating the (un)marshaller, and the JAXBContext when it is first used.
+		 * @deprecated no longer reported, messages are written and read with the StAX code
+		 * generated at build time, see {@link nl.irp.sepa.bind.StaxBinding}
+		 */
+		@Deprecated
+		CONTEXT_INIT,
+		/** Adding the transactions to the message, reported once per write. */
+		BUILD,
+		/** Marshalling the message to XML. */
+		MARSHAL,
+		/** Converting pain.001.001.03 to another version. */
+		CONVERT,
+		/** Adding the xmlns:xsi declaration to a direct debit initiation. */
+		XSI_REWRITE,
+		/** Unmarshalling a message from XML. */
+		UNMARSHAL
+	}
+
+	/**
+	 * A phase has completed.
+	 * @param nanos the duration of the phase
+	 * @param allocatedBytes the bytes allocated during the phase, or -1
+	 */
+	public void phase(Phase phase, long nanos, long allocatedBytes) {
+	}
+
+	/**
+	 * A message has been written.
+	 * @param nbOfTxs the number of transactions in the message
+	 * @param bytes the size of the XML
+	 */
+	public void written(int nbOfTxs, long bytes) {
+	}
+
+	/**
+	 * A message has been read.
+	 * @param nbOfEntries the number of entries (Ntry) in all statements of the message
+	 * @param bytes the size of the XML
+	 */
+	public void read(int nbOfEntries, long bytes) {
+	}
+
+}
@@ -0,0 +1,118 @@
+package nl.irp.sepa;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Append-only store of binary records outside the Java heap.
+ *
+ * A record is first encoded in a small buffer on the heap and then copied to a direct
+ * <code>ByteBuffer</code> chunk; records never span chunks. The heap only holds the
+ * chunk references, so a million records put almost nothing on the heap. The memory is
+ * returned when the arena is garbage collected, or reused after {@link #clear()}.
+ *
+ * Not thread-safe.
+ */
+public class RecordArena extends RecordStore {
+
+	private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+	private final int chunkSize;
+	private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+	private int current = -1;
+	private int size;
+
+	/**
+	 * Arena of 1 MB chunks.
+	 */
+	public RecordArena() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param chunkSize the size of the direct buffers, also the maximum size of a record
+	 */
+	public RecordArena(int chunkSize) {
+		checkArgument(chunkSize >= 64, "chunk size %s is too small", chunkSize);
+		this.chunkSize = chunkSize;
+	}
+
+	@Override
+	public void endRecord() {
+		ByteBuffer record = record();
+		checkArgument(record.remaining() <= chunkSize, "record of %s bytes is larger than a chunk", record.remaining());
+		if (current < 0 || chunks.get(current).remaining() < record.remaining()) {
+			current++;
+			if (current == chunks.size())
+				chunks.add(ByteBuffer.allocateDirect(chunkSize));
+		}
+		chunks.get(current).put(record);
+		record.clear();
+		size++;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes used by the records
+	 */
+	public long bytes() {
+		long bytes = 0;
+		for (int i = 0; i <= current; i++)
+			bytes += chunks.get(i).position();
+		return bytes;
+	}
+
+	/**
+	 * Removes all records, the chunks are kept for new records.
+	 */
+	@Override
+	public void clear() {
+		for (ByteBuffer chunk : chunks)
+			chunk.clear();
+		current = -1;
+		record().clear();
+		size = 0;
+	}
+
+	@Override
+	public Reader reader() {
+		return new Reader();
+	}
+
+	/**
+	 * Reads the records in order. The reader sees the records stored when it was created.
+	 */
+	public class Reader extends RecordReader {
+
+		private final int records = size;
+		private int read;
+		private int chunk = -1;
+
+		@Override
+		public boolean hasNext() {
+			return read < records;
+		}
+
+		@Override
+		public void next() {
+			if (read == records)
+				throw new NoSuchElementException();
+			if (buffer == null || !buffer.hasRemaining()) {
+				chunk++;
+				buffer = chunks.get(chunk).duplicate();
+				buffer.flip();
+			}
+			read++;
+		}
+
+	}
+
+}
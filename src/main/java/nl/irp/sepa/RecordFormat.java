@@ -0,0 +1,81 @@
+package nl.irp.sepa;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a line of a payment export into its fields.
+ *
+ * Instances are immutable and thread-safe.
+ */
+public abstract class RecordFormat {
+
+	/**
+	 * @return the fields of the line, trimmed
+	 */
+	public abstract String[] split(String line);
+
+	/**
+	 * Fields separated by a character, e.g. <code>;</code> for CSV exports with a comma as
+	 * decimal separator. A field may be quoted with <code>"</code>, a quote in a quoted
+	 * field is written as <code>""</code>.
+	 */
+	public static RecordFormat delimited(final char separator) {
+		checkArgument(separator != '"', "the quote can't be the separator");
+		return new RecordFormat() {
+			@Override
+			public String[] split(String line) {
+				List<String> fields = new ArrayList<String>();
+				StringBuilder field = new StringBuilder();
+				boolean quoted = false;
+				for (int i = 0; i < line.length(); i++) {
+					char c = line.charAt(i);
+					if (quoted) {
+						if (c != '"')
+							field.append(c);
+						else if (i + 1 < line.length() && line.charAt(i + 1) == '"')
+							field.append(line.charAt(++i));
+						else
+							quoted = false;
+					} else if (c == '"') {
+						quoted = true;
+					} else if (c == separator) {
+						fields.add(field.toString().trim());
+						field.setLength(0);
+					} else {
+						field.append(c);
+					}
+				}
+				checkArgument(!quoted, "unterminated quote");
+				fields.add(field.toString().trim());
+				return fields.toArray(new String[fields.size()]);
+			}
+		};
+	}
+
+	/**
+	 * Fields of a fixed number of characters, in order. A short line leaves the last fields empty.
+	 * @param widths the width of each field
+	 */
+	public static RecordFormat fixedWidth(final int... widths) {
+		for (int width : widths)
+			checkArgument(width > 0, "width %s isn't positive", width);
+		final int[] copy = widths.clone();
+		return new RecordFormat() {
+			@Override
+			public String[] split(String line) {
+				String[] fields = new String[copy.length];
+				int start = 0;
+				for (int i = 0; i < copy.length; i++) {
+					int end = Math.min(start + copy[i], line.length());
+					fields[i] = start < end ? line.substring(start, end).trim() : "";
+					start = end;
+				}
+				return fields;
+			}
+		};
+	}
+
+}
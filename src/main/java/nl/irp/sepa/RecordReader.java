@@ -0,0 +1,56 @@
+package nl.irp.sepa;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Reads the records of a {@link RecordStore} in order. {@link #next()} moves to the next
+ * record, whose fields are then read with the get methods from {@link #buffer}. A reader
+ * that isn't read to the end must be closed.
+ */
+public abstract class RecordReader implements Closeable {
+
+	/**
+	 * Positioned at the next field of the current record.
+	 */
+	protected ByteBuffer buffer;
+	private byte[] bytes = new byte[256];
+
+	/**
+	 * @return <code>true</code> if there is another record
+	 */
+	public abstract boolean hasNext();
+
+	/**
+	 * Moves to the next record, its fields are read with the get methods.
+	 */
+	public abstract void next();
+
+	public int getInt() {
+		return buffer.getInt();
+	}
+
+	public long getLong() {
+		return buffer.getLong();
+	}
+
+	public String getString() {
+		int length = buffer.getInt();
+		if (length < 0)
+			return null;
+		if (bytes.length < length)
+			bytes = new byte[Math.max(length, bytes.length * 2)];
+		buffer.get(bytes, 0, length);
+		return new String(bytes, 0, length, Charsets.UTF_8);
+	}
+
+	/**
+	 * Releases what the reader holds, e.g. open files. Nothing by default.
+	 */
+	@Override
+	public void close() {
+	}
+
+}
@@ -0,0 +1,348 @@
+package nl.irp.sepa;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Store of binary records that reads them back ordered by their first field, which must be
+ * a string: the sort key. Records with the same key are read in the order they were
+ * stored.
+ *
+ * This is an external merge sort. Records are collected on the heap in a run until the run
+ * reaches its share of the memory budget. The run is then sorted and written to a spill
+ * file in the given directory by one of the sort threads, while the next run is collected.
+ * At most one run per sort thread is being sorted at a time, so the runs take at most the
+ * memory budget. {@link #reader()} waits for the spill files and merges them. If all
+ * records fit in one run they are sorted in memory.
+ *
+ * The spill files are kept so the records can be read again, {@link #clear()} deletes them
+ * and stops the sort threads. Not thread-safe.
+ */
+public class RecordSorter extends RecordStore {
+
+	/** Estimated heap bytes of a record on top of its encoding and key. */
+	private static final int OVERHEAD = 80;
+
+	private static final Comparator<Entry> BY_KEY = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry o1, Entry o2) {
+			return o1.key.compareTo(o2.key);
+		}
+	};
+
+	private static final class Entry {
+		final String key;
+		final byte[] bytes;
+
+		Entry(String key, byte[] bytes) {
+			this.key = key;
+			this.bytes = bytes;
+		}
+	}
+
+	private final File directory;
+	private final long runBudget;
+	private final int threads;
+	private final Semaphore sorting;
+	private ExecutorService executor;
+
+	private List<Entry> run = new ArrayList<Entry>();
+	private long runBytes;
+	private final List<Future<File>> spills = new ArrayList<Future<File>>();
+	private int size;
+
+	/**
+	 * @param directory the directory of the spill files, e.g. <code>java.io.tmpdir</code>
+	 * @param memoryBudget the heap bytes the records may take before they are spilled
+	 * @param threads the number of threads that sort and spill runs
+	 */
+	public RecordSorter(File directory, long memoryBudget, int threads) {
+		checkArgument(directory.isDirectory(), "%s isn't a directory", directory);
+		checkArgument(threads > 0, "number of threads must be positive");
+		checkArgument(memoryBudget / (threads + 1) >= 4096, "memory budget of %s bytes is too small", memoryBudget);
+		this.directory = directory;
+		// one run being collected and one being sorted per thread
+		this.runBudget = memoryBudget / (threads + 1);
+		this.threads = threads;
+		this.sorting = new Semaphore(threads);
+	}
+
+	@Override
+	public void endRecord() {
+		ByteBuffer record = record();
+		byte[] bytes = new byte[record.remaining()];
+		record.get(bytes);
+		record.clear();
+		int length = bytes.length < 4 ? -1 : ByteBuffer.wrap(bytes).getInt();
+		checkArgument(length >= 0 && length <= bytes.length - 4, "the first field of a record must be a string");
+		String key = new String(bytes, 4, length, Charsets.UTF_8);
+
+		run.add(new Entry(key, bytes));
+		runBytes += bytes.length + 2 * key.length() + OVERHEAD;
+		size++;
+		if (runBytes >= runBudget)
+			spill();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of spill files
+	 */
+	public int spills() {
+		return spills.size();
+	}
+
+	/**
+	 * Sorts the records collected since the previous read, and merges them with the spill
+	 * files.
+	 * @throws IllegalStateException if a spill file can't be written or read
+	 */
+	@Override
+	public RecordReader reader() {
+		if (spills.isEmpty()) {
+			Collections.sort(run, BY_KEY);
+			return new RunReader(new ArrayList<Entry>(run));
+		}
+		if (!run.isEmpty())
+			spill();
+		List<File> files = new ArrayList<File>();
+		for (Future<File> spill : spills)
+			files.add(get(spill));
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+		return new MergeReader(files);
+	}
+
+	/**
+	 * Removes all records, deletes the spill files and stops the sort threads.
+	 */
+	@Override
+	public void clear() {
+		for (Future<File> spill : spills) {
+			try {
+				get(spill).delete();
+			} catch (IllegalStateException e) {
+				// not written
+			}
+		}
+		spills.clear();
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+		run = new ArrayList<Entry>();
+		runBytes = 0;
+		size = 0;
+		record().clear();
+	}
+
+	private void spill() {
+		if (executor == null)
+			executor = Executors.newFixedThreadPool(threads,
+					new ThreadFactoryBuilder().setDaemon(true).setNameFormat("record-sorter-%d").build());
+		sorting.acquireUninterruptibly();
+		final List<Entry> entries = run;
+		run = new ArrayList<Entry>();
+		runBytes = 0;
+		try {
+			spills.add(executor.submit(new Callable<File>() {
+				@Override
+				public File call() throws IOException {
+					try {
+						return write(entries);
+					} finally {
+						sorting.release();
+					}
+				}
+			}));
+		} catch (RuntimeException e) {
+			sorting.release();
+			throw e;
+		}
+	}
+
+	private File write(List<Entry> entries) throws IOException {
+		Collections.sort(entries, BY_KEY);
+		File file = File.createTempFile("sepa-run", ".tmp", directory);
+		boolean written = false;
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			try {
+				for (Entry entry : entries) {
+					out.writeInt(entry.bytes.length);
+					out.write(entry.bytes);
+				}
+			} finally {
+				out.close();
+			}
+			written = true;
+			return file;
+		} finally {
+			if (!written)
+				file.delete();
+		}
+	}
+
+	private static File get(Future<File> spill) {
+		try {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					File file = spill.get();
+					if (interrupted)
+						Thread.currentThread().interrupt();
+					return file;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("can't write spill file", e.getCause());
+		}
+	}
+
+	private static class RunReader extends RecordReader {
+
+		private final List<Entry> entries;
+		private int read;
+
+		RunReader(List<Entry> entries) {
+			this.entries = entries;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return read < entries.size();
+		}
+
+		@Override
+		public void next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			buffer = ByteBuffer.wrap(entries.get(read++).bytes);
+		}
+
+	}
+
+	private static class Cursor {
+		final int run;
+		final DataInputStream in;
+		String key;
+		byte[] bytes;
+
+		Cursor(int run, File file) throws IOException {
+			this.run = run;
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		}
+
+		/**
+		 * @return <code>false</code> at the end of the file
+		 */
+		boolean advance() throws IOException {
+			int length;
+			try {
+				length = in.readInt();
+			} catch (EOFException e) {
+				in.close();
+				return false;
+			}
+			bytes = new byte[length];
+			in.readFully(bytes);
+			key = new String(bytes, 4, ByteBuffer.wrap(bytes).getInt(), Charsets.UTF_8);
+			return true;
+		}
+	}
+
+	/**
+	 * Merges the sorted spill files, the earlier run first for equal keys.
+	 */
+	private static class MergeReader extends RecordReader {
+
+		private final PriorityQueue<Cursor> cursors;
+
+		MergeReader(List<File> files) {
+			cursors = new PriorityQueue<Cursor>(Math.max(1, files.size()), new Comparator<Cursor>() {
+				@Override
+				public int compare(Cursor o1, Cursor o2) {
+					int c = o1.key.compareTo(o2.key);
+					return c != 0 ? c : o1.run - o2.run;
+				}
+			});
+			Cursor cursor = null;
+			try {
+				for (int i = 0; i < files.size(); i++) {
+					cursor = new Cursor(i, files.get(i));
+					if (cursor.advance())
+						cursors.add(cursor);
+				}
+			} catch (IOException e) {
+				if (cursor != null)
+					Closeables.closeQuietly(cursor.in);
+				close();
+				throw new IllegalStateException("can't read spill file", e);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !cursors.isEmpty();
+		}
+
+		@Override
+		public void next() {
+			Cursor cursor = cursors.poll();
+			if (cursor == null)
+				throw new NoSuchElementException();
+			buffer = ByteBuffer.wrap(cursor.bytes);
+			try {
+				if (cursor.advance())
+					cursors.add(cursor);
+			} catch (IOException e) {
+				Closeables.closeQuietly(cursor.in);
+				close();
+				throw new IllegalStateException("can't read spill file", e);
+			}
+		}
+
+		@Override
+		public void close() {
+			for (Cursor cursor : cursors)
+				Closeables.closeQuietly(cursor.in);
+			cursors.clear();
+		}
+
+	}
+
+}
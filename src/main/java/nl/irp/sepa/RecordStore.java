@@ -0,0 +1,100 @@
+package nl.irp.sepa;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Store of binary records. A record is a sequence of fields: ints, longs and strings. A
+ * string is stored as its length in bytes followed by its UTF-8 encoding, a
+ * <code>null</code> string as length -1. The fields of a record are encoded in a small
+ * buffer on the heap until {@link #endRecord()} stores the record.
+ *
+ * All fields of a record must be read, in the order they were written.
+ *
+ * @see RecordArena
+ * @see RecordSorter
+ */
+public abstract class RecordStore {
+
+	private ByteBuffer record = ByteBuffer.allocate(1024);
+
+	public RecordStore putInt(int value) {
+		ensure(4);
+		record.putInt(value);
+		return this;
+	}
+
+	public RecordStore putLong(long value) {
+		ensure(8);
+		record.putLong(value);
+		return this;
+	}
+
+	public RecordStore putString(String value) {
+		if (value == null)
+			return putInt(-1);
+		int length = value.length();
+		ensure(4 + 3 * length);
+		int start = record.position();
+		record.putInt(0);
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				record.put((byte) c);
+			} else if (c < 0x800) {
+				record.put((byte) (0xC0 | c >> 6));
+				record.put((byte) (0x80 | c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				record.put((byte) (0xF0 | codePoint >> 18));
+				record.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+				record.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+				record.put((byte) (0x80 | codePoint & 0x3F));
+			} else {
+				record.put((byte) (0xE0 | c >> 12));
+				record.put((byte) (0x80 | c >> 6 & 0x3F));
+				record.put((byte) (0x80 | c & 0x3F));
+			}
+		}
+		record.putInt(start, record.position() - start - 4);
+		return this;
+	}
+
+	/**
+	 * Stores the fields put since the previous record as a record.
+	 */
+	public abstract void endRecord();
+
+	/**
+	 * @return the number of records
+	 */
+	public abstract int size();
+
+	/**
+	 * @return a reader positioned before the first record
+	 */
+	public abstract RecordReader reader();
+
+	/**
+	 * Removes all records.
+	 */
+	public abstract void clear();
+
+	/**
+	 * @return the encoded fields of the current record, ready to be read. The store must
+	 * clear the buffer when it has stored the record.
+	 */
+	protected ByteBuffer record() {
+		record.flip();
+		return record;
+	}
+
+	private void ensure(int bytes) {
+		if (record.remaining() < bytes) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + bytes));
+			record.flip();
+			larger.put(record);
+			record = larger;
+		}
+	}
+
+}
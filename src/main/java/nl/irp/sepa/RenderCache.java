@@ -0,0 +1,236 @@
+package nl.irp.sepa;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+/**
+ * Rendered messages on disk, by the {@link ContentHash} of their contents, so a message
+ * that was written before is copied from its file instead of marshalled again. The least
+ * recently used files are deleted when the total size exceeds the maximum. Every file is
+ * named after its key, the cache picks up the files of an earlier process on start, and
+ * deletes the files it left half written; one process at a time should use the directory.
+ *
+ * Thread-safe.
+ */
+public class RenderCache {
+
+	private static final String SUFFIX = ".xml";
+	private static final String TEMP_PREFIX = "render";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private final File directory;
+	private final long maxBytes;
+	// the sizes of the files, least recently used first
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	private long totalBytes;
+
+	/**
+	 * @param directory the directory of the files, created if needed
+	 * @param maxBytes the maximum total size of the files
+	 */
+	public RenderCache(File directory, long maxBytes) {
+		checkArgument(maxBytes > 0, "maxBytes must be positive");
+		checkArgument(directory.isDirectory() || directory.mkdirs(), "can't create directory %s", directory);
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+
+		File[] files = directory.listFiles();
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				long m1 = f1.lastModified();
+				long m2 = f2.lastModified();
+				return m1 < m2 ? -1 : m1 > m2 ? 1 : 0;
+			}
+		});
+		for (File file : files) {
+			String name = file.getName();
+			if (file.isFile() && name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX)) {
+				// of an entry that an earlier process didn't commit or abort
+				file.delete();
+			} else if (file.isFile() && name.endsWith(SUFFIX)) {
+				entries.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+				totalBytes += file.length();
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * Copies the message of the key, if it's in the cache.
+	 * @return <code>false</code> if it isn't
+	 */
+	public boolean copyTo(String key, OutputStream os) throws IOException {
+		File file = file(key);
+		synchronized (this) {
+			if (entries.get(key) == null)
+				return false;
+			// the order of the entries survives a restart
+			file.setLastModified(System.currentTimeMillis());
+		}
+		InputStream is;
+		try {
+			is = new FileInputStream(file);
+		} catch (FileNotFoundException e) {
+			// evicted meanwhile, or deleted by someone else
+			remove(key);
+			return false;
+		}
+		try {
+			ByteStreams.copy(is, os);
+		} finally {
+			Closeables.closeQuietly(is);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a stream that writes to <code>os</code>, and to a new file. The file is added
+	 * to the cache by {@link Entry#commit()}, unless writing either of them failed.
+	 */
+	public Entry newEntry(String key, OutputStream os) throws IOException {
+		return new Entry(key, os);
+	}
+
+	/**
+	 * @return the total size of the files in the cache
+	 */
+	public synchronized long size() {
+		return totalBytes;
+	}
+
+	private synchronized void remove(String key) {
+		Long bytes = entries.remove(key);
+		if (bytes != null) {
+			totalBytes -= bytes;
+			file(key).delete();
+		}
+	}
+
+	private synchronized void put(String key, File temp) {
+		File file = file(key);
+		Long previous = entries.remove(key);
+		if (previous != null)
+			totalBytes -= previous;
+		file.delete();
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			return;
+		}
+		entries.put(key, file.length());
+		totalBytes += file.length();
+		evict();
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+		while (totalBytes > maxBytes && iterator.hasNext()) {
+			Map.Entry<String, Long> entry = iterator.next();
+			totalBytes -= entry.getValue();
+			file(entry.getKey()).delete();
+			iterator.remove();
+		}
+	}
+
+	private File file(String key) {
+		return new File(directory, key + SUFFIX);
+	}
+
+	/**
+	 * A message being written to the cache. A failure to write the file doesn't fail the
+	 * message, the message is just not cached.
+	 */
+	public class Entry extends FilterOutputStream {
+
+		private final String key;
+		private File temp;
+		private OutputStream file;
+
+		private Entry(String key, OutputStream os) throws IOException {
+			super(os);
+			this.key = key;
+			this.temp = File.createTempFile(TEMP_PREFIX, TEMP_SUFFIX, directory);
+			this.file = new BufferedOutputStream(new FileOutputStream(temp));
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (file != null) {
+				try {
+					file.write(b, off, len);
+				} catch (IOException e) {
+					abort();
+				}
+			}
+			try {
+				out.write(b, off, len);
+			} catch (IOException e) {
+				abort();
+				throw e;
+			}
+		}
+
+		/**
+		 * Adds the file to the cache.
+		 */
+		public void commit() {
+			if (file == null)
+				return;
+			try {
+				file.close();
+			} catch (IOException e) {
+				abort();
+				return;
+			}
+			file = null;
+			put(key, temp);
+			temp = null;
+		}
+
+		/**
+		 * Deletes the file, unless it was committed.
+		 */
+		public void abort() {
+			if (file != null) {
+				Closeables.closeQuietly(file);
+				file = null;
+			}
+			if (temp != null) {
+				temp.delete();
+				temp = null;
+			}
+		}
+
+		/**
+		 * Flushes the stream, without closing it or committing the entry.
+		 */
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+
+	}
+
+}
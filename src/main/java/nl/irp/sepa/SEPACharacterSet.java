@@ -0,0 +1,155 @@
+package nl.irp.sepa;
+
+import java.text.Normalizer;
+
+/**
+ * The SEPA schemes only guarantee support for the Latin character set:
+ * <pre>
+ * a b c d e f g h i j k l m n o p q r s t u v w x y z
+ * A B C D E F G H I J K L M N O P Q R S T U V W X Y Z
+ * 0 1 2 3 4 5 6 7 8 9
+ * / - ? : ( ) . , ' + space
+ * </pre>
+ * Banks may reject names and remittance information with characters outside this set.
+ * This class transliterates text to the allowed set (e.g. <code>&eacute;</code> to <code>e</code>,
+ * <code>&szlig;</code> to <code>ss</code>) and truncates it to the maximum length of the field.
+ *
+ * The replacements are computed once in a lookup table. Text that is already valid and fits
+ * is returned as is, without allocating.
+ */
+public class SEPACharacterSet {
+
+	/** Replacement for characters that have no sensible transliteration. */
+	private static final char UNKNOWN = '.';
+
+	/** Characters beyond this range are mapped to {@link #UNKNOWN}. */
+	private static final int TABLE_SIZE = 0x2100;
+
+	/** Single character replacement per char, 0 if the char needs {@link #EXPANSIONS}. */
+	private static final char[] TABLE = new char[TABLE_SIZE];
+
+	/** Multi character replacements, e.g. U+00DF to "ss". */
+	private static final String[] EXPANSIONS = new String[TABLE_SIZE];
+
+	private static final boolean[] ALLOWED = new boolean[128];
+
+	static {
+		for (char c = 'a'; c <= 'z'; c++) ALLOWED[c] = true;
+		for (char c = 'A'; c <= 'Z'; c++) ALLOWED[c] = true;
+		for (char c = '0'; c <= '9'; c++) ALLOWED[c] = true;
+		for (char c : "/-?:().,'+ ".toCharArray()) ALLOWED[c] = true;
+
+		for (int i = 0; i < TABLE_SIZE; i++) {
+			char c = (char) i;
+			if (i < 128 && ALLOWED[i]) {
+				TABLE[i] = c;
+			} else if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+				TABLE[i] = ' ';
+			} else if (Character.getType(c) == Character.NON_SPACING_MARK) {
+				// Combining accents of decomposed text are dropped.
+				EXPANSIONS[i] = "";
+			} else if (Character.isLetter(c)) {
+				// Strip the diacritics: U+00E9 decomposes into 'e' and a combining accent.
+				String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+				char base = decomposed.charAt(0);
+				TABLE[i] = base < 128 && ALLOWED[base] ? base : UNKNOWN;
+			} else {
+				TABLE[i] = UNKNOWN;
+			}
+		}
+
+		map("&", '+');
+		map("_", '-');
+		map("\"`\u00b4\u2018\u2019\u201a\u201b\u201c\u201d\u201e", '\'');
+		map("\u2010\u2011\u2012\u2013\u2014\u2015", '-');
+		map("[{<", '(');
+		map("]}>", ')');
+		map(";", ',');
+		map("\u0110\u00d0", 'D');
+		map("\u0111\u00f0", 'd');
+		map("\u0141", 'L');
+		map("\u0142", 'l');
+		map("\u00d8", 'O');
+		map("\u00f8", 'o');
+		map("\u0126", 'H');
+		map("\u0127", 'h');
+		map("\u0131", 'i');
+
+		expand('\u00df', "ss");
+		expand('\u00c6', "AE");
+		expand('\u00e6', "ae");
+		expand('\u0152', "OE");
+		expand('\u0153', "oe");
+		expand('\u00de', "TH");
+		expand('\u00fe', "th");
+		expand('\u0132', "IJ");
+		expand('\u0133', "ij");
+		expand('\u20ac', "EUR");
+	}
+
+	private static void map(String chars, char replacement) {
+		for (int i = 0; i < chars.length(); i++)
+			TABLE[chars.charAt(i)] = replacement;
+	}
+
+	private static void expand(char c, String replacement) {
+		TABLE[c] = 0;
+		EXPANSIONS[c] = replacement;
+	}
+
+	/**
+	 * @return <code>true</code> if all characters of the text are in the SEPA character set.
+	 */
+	public static boolean isValid(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c >= 128 || !ALLOWED[c])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Transliterates the text to the SEPA character set and truncates it to maxLength characters.
+	 * A multi character replacement is never cut in half.
+	 * @param text the text to sanitize
+	 * @param maxLength maximum length of the field, e.g. 70 for a Max70Text
+	 * @return the text itself when it is valid and not too long
+	 */
+	public static String sanitize(String text, int maxLength) {
+		int length = text.length();
+		int i = 0;
+		while (i < length) {
+			char c = text.charAt(i);
+			if (c >= 128 || !ALLOWED[c])
+				break;
+			i++;
+		}
+		if (i == length)
+			return length <= maxLength ? text : text.substring(0, maxLength);
+		if (i >= maxLength)
+			return text.substring(0, maxLength);
+
+		StringBuilder result = new StringBuilder(Math.min(length + 8, maxLength));
+		result.append(text, 0, i);
+		while (i < length && result.length() < maxLength) {
+			char c = text.charAt(i++);
+			if (Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(text.charAt(i))) {
+				// A supplementary character, replace the pair as a whole.
+				i++;
+				result.append(UNKNOWN);
+			} else if (c >= TABLE_SIZE) {
+				result.append(UNKNOWN);
+			} else if (TABLE[c] != 0) {
+				result.append(TABLE[c]);
+			} else {
+				String expansion = EXPANSIONS[c];
+				if (result.length() + expansion.length() > maxLength)
+					break;
+				result.append(expansion);
+			}
+		}
+		return result.toString();
+	}
+
+}
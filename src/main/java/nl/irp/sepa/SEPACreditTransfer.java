@@ -1,17 +1,23 @@
 package nl.irp.sepa;
 
 import iso.std.iso._20022.tech.xsd.pain_001_001.*;
+import nl.irp.sepa.ProcessingListener.Phase;
+import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
-import javax.xml.bind.JAXBContext;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.io.CountingOutputStream;
+
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
+import javax.xml.bind.MarshalException;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
@@ -20,12 +26,18 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import java.io.*;
 import java.math.BigDecimal;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static nl.irp.sepa.Utils.*;
 
 /**
@@ -42,7 +54,7 @@ import static nl.irp.sepa.Utils.*;
  *
  * @author Jasper Krijgsman <jasper@irp.nl>, Olaf Maass <olaf.maass@siteforce.de>
  */
-public class SEPACreditTransfer {
+public class SEPACreditTransfer implements Closeable {
 
     public static final int VERSION_PAIN_001_001_03 = 3;
     public static final int VERSION_PAIN_001_002_02 = 2;
@@ -51,7 +63,37 @@ public class SEPACreditTransfer {
     private Document document = new Document();
     private CustomerCreditTransferInitiationV03 customerCreditTransferInitiation;
     private GroupHeader32 groupHeader;
+    private ControlSum controlSum;
     private int version = VERSION_PAIN_001_001_03;
+    private DuplicateGuard duplicateGuard;
+    // the PmtInfIds and EndToEndIds of this message, registered in the guard when it's written
+    private final SetMultimap<DuplicateGuard.Kind, String> newIds = LinkedHashMultimap.create();
+    private boolean adjustToBusinessDays;
+    private ProcessingListener listener = ProcessingListener.NOOP;
+    private PhaseTimer buildTimer = new PhaseTimer(listener, Phase.BUILD);
+    private SubtreeCache<String, PartyIdentification32> parties;
+    private SubtreeCache<String, CashAccount16> accounts;
+    private SubtreeCache<String, BranchAndFinancialInstitutionIdentification4> agents;
+    private SubtreeCache<Boolean, PaymentTypeInformation19> paymentTypes;
+    private boolean concurrent;
+    private final List<PaymentGroup> stagedGroups = new ArrayList<PaymentGroup>();
+    private boolean offHeapStaging;
+    private TransactionOrder sortOrder;
+    private String digestAlgorithm = MessageManifest.DEFAULT_ALGORITHM;
+    private RenderCache renderCache;
+    private File sortDirectory;
+    private long sortMemoryBudget;
+    private int sortThreads;
+    private final List<PaymentGroup> offHeapGroups = new ArrayList<PaymentGroup>();
+    private boolean templateOutput;
+    private boolean closed;
+
+    private static final Comparator<CreditTransferTransactionInformation10> BY_END_TO_END_ID = new Comparator<CreditTransferTransactionInformation10>() {
+        @Override
+        public int compare(CreditTransferTransactionInformation10 o1, CreditTransferTransactionInformation10 o2) {
+            return o1.getPmtId().getEndToEndId().compareTo(o2.getPmtId().getEndToEndId());
+        }
+    };
 
     /**
      * Constructor without version information will create SEPA xml of version "pain.001.001.03"
@@ -71,17 +113,312 @@ public class SEPACreditTransfer {
         this.version = version;
     }
 
+    /**
+     * Checks the MsgId, PmtInfId and EndToEndId of this message against the identifiers
+     * used in earlier messages, and against each other. A duplicate identifier is refused
+     * with an <code>IllegalArgumentException</code>. The identifiers are registered in the
+     * guard when the message is written, a message that isn't written uses none of them.
+     * Set the guard before building the message.
+     * @param duplicateGuard the guard, or <code>null</code> to disable the check
+     */
+    public void setDuplicateGuard(DuplicateGuard duplicateGuard) {
+        this.duplicateGuard = duplicateGuard;
+    }
+
+    private void checkUnique(DuplicateGuard.Kind kind, String id) {
+        if (duplicateGuard != null) {
+            synchronized (newIds) {
+                checkArgument(!newIds.containsEntry(kind, id) && !duplicateGuard.contains(kind, id), "%s '%s' was used before", kind, id);
+            }
+        }
+    }
+
+    /**
+     * Keeps an identifier that passed {@link #checkUnique}, once nothing can fail anymore.
+     */
+    private void keepId(DuplicateGuard.Kind kind, String id) {
+        if (duplicateGuard != null) {
+            synchronized (newIds) {
+                checkArgument(newIds.put(kind, id), "%s '%s' was used before", kind, id);
+            }
+        }
+    }
+
+    private void registerIds() {
+        if (duplicateGuard != null) {
+            synchronized (newIds) {
+                // the MsgId of the current group header, it's not kept
+                if (groupHeader != null) {
+                    duplicateGuard.register(DuplicateGuard.Kind.MSG_ID, groupHeader.getMsgId());
+                }
+                for (DuplicateGuard.Kind kind : newIds.keySet()) {
+                    duplicateGuard.register(kind, newIds.get(kind));
+                }
+                newIds.clear();
+            }
+        }
+    }
+
+    /**
+     * Reports the durations of building and writing this message, see {@link ProcessingListener}.
+     */
+    public void setProcessingListener(ProcessingListener listener) {
+        this.listener = listener;
+        this.buildTimer = new PhaseTimer(listener, Phase.BUILD);
+    }
+
+    /**
+     * Moves a requested execution date (ReqdExctnDt) that isn't a TARGET2 business day to
+     * the next business day, see {@link TargetCalendar}. Off by default.
+     */
+    public void setAdjustToBusinessDays(boolean adjustToBusinessDays) {
+        this.adjustToBusinessDays = adjustToBusinessDays;
+    }
+
+    /**
+     * Shares the debtor and creditor parties, accounts, agents and payment type information
+     * of payment groups and transactions added from now on: identical input gives the same
+     * instance. This saves memory for batches with few distinct counterparties, but the
+     * shared instances must not be modified. Off by default.
+     */
+    public void setShareSubtrees(boolean shareSubtrees) {
+        if (!shareSubtrees) {
+            parties = null;
+            accounts = null;
+            agents = null;
+            paymentTypes = null;
+            return;
+        }
+        parties = new SubtreeCache<String, PartyIdentification32>() {
+            @Override
+            protected PartyIdentification32 create(String nm) {
+                return createParty(nm);
+            }
+        };
+        accounts = new SubtreeCache<String, CashAccount16>() {
+            @Override
+            protected CashAccount16 create(String iban) {
+                return createAccount(iban);
+            }
+        };
+        agents = new SubtreeCache<String, BranchAndFinancialInstitutionIdentification4>() {
+            @Override
+            protected BranchAndFinancialInstitutionIdentification4 create(String bic) {
+                return createFinInstnId(bic);
+            }
+        };
+        paymentTypes = new SubtreeCache<Boolean, PaymentTypeInformation19>() {
+            @Override
+            protected PaymentTypeInformation19 create(Boolean isRapidMoneyTransfer) {
+                return createPaymentTypeInformation(isRapidMoneyTransfer);
+            }
+        };
+    }
+
+    /**
+     * Lets many threads add credit transfers to the payment groups created from now on,
+     * without a global lock. Every thread stages its transactions and totals on its own,
+     * see {@link StagingBuffers}. {@link #write(OutputStream)} merges the staged transactions
+     * of a group ordered by EndToEndId, so the message doesn't depend on the scheduling of
+     * the threads. Payment groups are still created, and the message written, from one
+     * thread after the adding threads are done. The BUILD phase isn't reported in this
+     * mode. Off by default.
+     */
+    public void setConcurrent(boolean concurrent) {
+        checkArgument(!concurrent || !offHeapStaging, "concurrent mode can't be combined with off-heap staging");
+        checkArgument(!concurrent || sortOrder == null, "concurrent mode can't be combined with sorting");
+        this.concurrent = concurrent;
+    }
+
+    /**
+     * Keeps the credit transfers of the payment groups created from now on as binary
+     * records in a {@link RecordArena} outside the heap, instead of as JAXB objects. The
+     * records are turned into XML one by one when the message is written. Transactions are
+     * validated when added, but can't be read back from the payment group. Off by default.
+     */
+    public void setOffHeapStaging(boolean offHeapStaging) {
+        checkArgument(!offHeapStaging || !concurrent, "off-heap staging can't be combined with concurrent mode");
+        this.offHeapStaging = offHeapStaging;
+    }
+
+    /**
+     * Writes the credit transfers of the payment groups created from now on in the given
+     * order. The transactions are kept as binary records in a {@link RecordSorter}, which
+     * spills sorted runs to files when they exceed the memory budget, so a payment group
+     * can be larger than the heap. Transactions are validated when added, but can't be read
+     * back from the payment group. Takes precedence over off-heap staging.
+     * @param order the order, or <code>null</code> for the order the transactions were added in (default)
+     * @param directory the directory of the spill files, deleted by {@link #close()}
+     * @param memoryBudget the heap bytes the records of a payment group may take
+     * @param threads the number of threads that sort and spill the runs of a payment group
+     */
+    public void setSortOrder(TransactionOrder order, File directory, long memoryBudget, int threads) {
+        checkArgument(order == null || !concurrent, "sorting can't be combined with concurrent mode");
+        this.sortOrder = order;
+        this.sortDirectory = directory;
+        this.sortMemoryBudget = memoryBudget;
+        this.sortThreads = threads;
+    }
+
+    /**
+     * Deletes the spill files and stops the sort threads of the sorted payment groups, and
+     * removes the records of the off-heap ones. The message can't be written anymore.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (PaymentGroup paymentGroup : offHeapGroups) {
+            paymentGroup.records.clear();
+        }
+    }
+
+    /**
+     * Writes the credit transfers with the byte templates of {@link CreditTransferTemplate}
+     * instead of the generated writer, which is faster for large payment groups. The writer
+     * still writes the rest of the message, and the payment groups with a transaction the
+     * templates don't support. The message is byte for byte the same. Off by default.
+     */
+    public void setTemplateOutput(boolean templateOutput) {
+        this.templateOutput = templateOutput;
+    }
+
+    /**
+     * Copies the message from the cache when a message with the same contents was written
+     * before, see {@link RenderCache}. The contents are hashed every time the message is
+     * written, which takes about half as long as marshalling them. Off by default.
+     */
+    public void setRenderCache(RenderCache renderCache) {
+        this.renderCache = renderCache;
+    }
+
+    private void mergeStaged() {
+        for (PaymentGroup paymentGroup : stagedGroups) {
+            paymentGroup.merge();
+        }
+    }
+
+    private PartyIdentification32 party(String nm) {
+        return parties != null ? parties.get(nm) : createParty(nm);
+    }
+
+    private CashAccount16 account(String iban) {
+        return accounts != null ? accounts.get(iban) : createAccount(iban);
+    }
+
+    private BranchAndFinancialInstitutionIdentification4 agent(String bic) {
+        return agents != null ? agents.get(bic) : createFinInstnId(bic);
+    }
+
+    private PaymentTypeInformation19 paymentType(boolean isRapidMoneyTransfer) {
+        return paymentTypes != null ? paymentTypes.get(isRapidMoneyTransfer) : createPaymentTypeInformation(isRapidMoneyTransfer);
+    }
+
+    private static PaymentTypeInformation19 createPaymentTypeInformation(boolean isRapidMoneyTransfer) {
+        PaymentTypeInformation19 paymentTypeInformation = new PaymentTypeInformation19();
+        ServiceLevel8Choice serviceLevel8Choice = new ServiceLevel8Choice();
+        String serviceLevelCode = "SEPA";
+        if (isRapidMoneyTransfer) {
+            serviceLevelCode = "URGP";
+        }
+        serviceLevel8Choice.setCd(serviceLevelCode);
+        paymentTypeInformation.setSvcLvl(serviceLevel8Choice);
+        return paymentTypeInformation;
+    }
+
+    /**
+     * Sets the algorithm of the digest in the {@link MessageManifest} returned by
+     * {@link #writeWithManifest(OutputStream)}, <code>SHA-256</code> by default.
+     */
+    public void setDigestAlgorithm(String digestAlgorithm) {
+        MessageManifest.messageDigest(digestAlgorithm);
+        this.digestAlgorithm = digestAlgorithm;
+    }
+
+    /**
+     * Writes the message.
+     */
     public void write(OutputStream os) throws JAXBException {
-        JAXBContext jc = JAXBContext.newInstance(Document.class);
-        Marshaller marshaller = jc.createMarshaller();
-        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+        write(os, null);
+    }
+
+    /**
+     * Writes the message, and returns its totals, length and digest, computed while the
+     * message is written.
+     */
+    public MessageManifest writeWithManifest(OutputStream os) throws JAXBException {
+        return write(os, null);
+    }
+
+    /**
+     * Writes the message, with NbOfTxs and CtrlSum padded to fixed widths and their offsets
+     * recorded in the index if there is one, see {@link CreditTransferAppender}.
+     */
+    MessageManifest write(OutputStream os, AppendIndex index) throws JAXBException {
+        checkArgument(index == null || version == VERSION_PAIN_001_001_03, "only pain.001.001.03 can be appended to");
+        checkState(!closed, "message is closed");
+        mergeStaged();
+        MessageDigest digest = MessageManifest.messageDigest(digestAlgorithm);
+        CountingOutputStream counter = new CountingOutputStream(new DigestOutputStream(os, digest));
+        // the cache keeps the message as rendered, without padding
+        OutputStream target = index == null ? counter : new AppendSlots(counter, index);
+        try {
+            if (renderCache == null) {
+                render(target);
+            } else {
+                String key = contentHash();
+                if (renderCache.copyTo(key, target)) {
+                    // not rendered, but built all the same
+                    buildTimer.report();
+                } else {
+                    RenderCache.Entry entry = renderCache.newEntry(key, target);
+                    try {
+                        render(entry);
+                        entry.commit();
+                    } finally {
+                        entry.abort();
+                    }
+                }
+            }
+            if (index != null) {
+                target.close();
+            }
+        } catch (IOException e) {
+            throw new MarshalException(e);
+        }
+        registerIds();
+        listener.written(controlSum == null ? 0 : controlSum.getNbOfTxs(), counter.getCount());
+        return new MessageManifest(groupHeader == null ? null : groupHeader.getMsgId(),
+                controlSum == null ? 0 : controlSum.getNbOfTxs(),
+                controlSum == null ? BigDecimal.ZERO : controlSum.getCtrlSum(),
+                counter.getCount(), digestAlgorithm, digest.digest());
+    }
+
+    /**
+     * The hash of the version and of everything in the message, including the staged
+     * transactions.
+     */
+    private String contentHash() {
+        for (PaymentGroup paymentGroup : offHeapGroups) {
+            paymentGroup.replaceTransactions();
+        }
+        try {
+            return ContentHash.of(version, document);
+        } finally {
+            for (PaymentGroup paymentGroup : offHeapGroups) {
+                paymentGroup.restoreTransactions();
+            }
+        }
+    }
+
+    private void render(OutputStream os) throws JAXBException {
+        buildTimer.report();
 
-        // The UTF-8 character encoding standard must be used in the UNIFI messages.
-        marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
         if (version == VERSION_PAIN_001_002_02) {
             ByteArrayOutputStream bout = new ByteArrayOutputStream();
-            marshaller.marshal(new ObjectFactory().createDocument(document), bout);
+            marshal(bout);
+            PhaseTimer convert = PhaseTimer.start(listener, Phase.CONVERT);
             ByteArrayOutputStream convertedXml = convertPain03ToPain02(new ByteArrayInputStream(bout.toByteArray()));
+            convert.stopAndReport();
             try {
                 os.write(convertedXml.toByteArray());
             } catch (IOException ex) {
@@ -89,17 +426,44 @@ public class SEPACreditTransfer {
             }
         } else if (version == VERSION_PAIN_001_003_03) {
             ByteArrayOutputStream bout = new ByteArrayOutputStream();
-            marshaller.marshal(new ObjectFactory().createDocument(document), bout);
+            marshal(bout);
+            PhaseTimer convert = PhaseTimer.start(listener, Phase.CONVERT);
             ByteArrayOutputStream convertedXml = convertPain03ToPain001_003_03(new ByteArrayInputStream(bout.toByteArray()));
+            convert.stopAndReport();
             try {
                 os.write(convertedXml.toByteArray());
             } catch (IOException ex) {
                 Logger.getLogger(SEPACreditTransfer.class.getName()).log(Level.SEVERE, null, ex);
             }
         } else {
-            marshaller.marshal(new ObjectFactory().createDocument(document), os);
+            marshal(os);
         }
     }
+
+    /**
+     * Writes the message as UTF-8 with the writer generated at build time, see
+     * {@link nl.irp.sepa.bind.StaxBinding}, byte for byte as a formatting JAXB marshaller.
+     */
+    private void marshal(OutputStream os) throws JAXBException {
+        PhaseTimer timer = PhaseTimer.start(listener, Phase.MARSHAL);
+        for (PaymentGroup paymentGroup : offHeapGroups) {
+            paymentGroup.replaceTransactions();
+        }
+        try {
+            if (templateOutput) {
+                CreditTransferTemplate.write(document, os);
+            } else {
+                DocumentWriter.write(document, os);
+            }
+        } catch (XMLStreamException e) {
+            throw new MarshalException(e);
+        } finally {
+            for (PaymentGroup paymentGroup : offHeapGroups) {
+                paymentGroup.restoreTransactions();
+            }
+        }
+        timer.stopAndReport();
+    }
     
     /**
      * converts the given XML in format pain.001.001.03 into the format pain.001.002.02
@@ -248,16 +612,18 @@ public class SEPACreditTransfer {
         }
         checkArgument(msgId.length() <= 35, "length of msgId is more than 35");
         checkArgument(msgId.length() > 1, "length of msgId is less than 1");
+        checkUnique(DuplicateGuard.Kind.MSG_ID, msgId);
         groupHeader.setMsgId(msgId);
 
         // Date and time at which the message was created.
-        groupHeader.setCreDtTm(createXMLGregorianCalendar(date));
+        groupHeader.setCreDtTm(new DateTime(date));
 
         // Number of individual transactions contained in the message.
         groupHeader.setNbOfTxs("0");
 
         //Total of all individual amounts included in the message.
         groupHeader.setCtrlSum(BigDecimal.ZERO);
+        controlSum = new ControlSum();
 
         // Party that initiates the payment.
         groupHeader.setInitgPty(createParty(name));
@@ -334,6 +700,7 @@ public class SEPACreditTransfer {
         checkArgument(pmtInfId.length() <= 35, "length of pmtInfId is more than 35");
         checkArgument(pmtInfId.length() > 1, "length of pmtInfId is less than 1");
         checkArgument((isRapidMoneyTransfer && getVersion() != VERSION_PAIN_001_002_02) || !isRapidMoneyTransfer, "SEPA version 'pain.001.002.02' does not support rapid money transfer");
+        checkUnique(DuplicateGuard.Kind.PMT_INF_ID, pmtInfId);
 
 
         PaymentInstructionInformation3 paymentInstructionInformation = new PaymentInstructionInformation3();
@@ -354,31 +721,27 @@ public class SEPACreditTransfer {
         paymentInstructionInformation.setCtrlSum(BigDecimal.ZERO);
 
         // Payment Type Information
-        PaymentTypeInformation19 paymentTypeInformation = new PaymentTypeInformation19();
-        ServiceLevel8Choice serviceLevel8Choice = new ServiceLevel8Choice();
-        String serviceLevelCode = "SEPA";
-        if (isRapidMoneyTransfer) {
-            serviceLevelCode = "URGP";
-        }
-        serviceLevel8Choice.setCd(serviceLevelCode);
-        paymentTypeInformation.setSvcLvl(serviceLevel8Choice);
-        paymentInstructionInformation.setPmtTpInf(paymentTypeInformation);
+        paymentInstructionInformation.setPmtTpInf(paymentType(isRapidMoneyTransfer));
 
         // This is the date on which the debtor's account is to be debited. 
-        paymentInstructionInformation.setReqdExctnDt(createXMLGregorianCalendarDate(reqdExctnDt.toDate()));
+        if (adjustToBusinessDays) {
+            reqdExctnDt = TargetCalendar.nextBusinessDay(reqdExctnDt);
+        }
+        paymentInstructionInformation.setReqdExctnDt(reqdExctnDt);
 
         // Party that owes an amount of money to the (ultimate) creditor.
-        paymentInstructionInformation.setDbtr(createParty(debtorNm));
+        paymentInstructionInformation.setDbtr(party(debtorNm));
 
         // Unambiguous identification of the account of the debtor to which a debit entry will be
         // made as a result of the transaction.
-        paymentInstructionInformation.setDbtrAcct(createAccount(debtorAccountIBAN));
+        paymentInstructionInformation.setDbtrAcct(account(debtorAccountIBAN));
 
         // Financial institution servicing an account for the debtor.
-        paymentInstructionInformation.setDbtrAgt(createFinInstnId(financialInstitutionBIC));
+        paymentInstructionInformation.setDbtrAgt(agent(financialInstitutionBIC));
 
         paymentInstructionInformation.setChrgBr(ChargeBearerType1Code.SLEV);
 
+        keepId(DuplicateGuard.Kind.PMT_INF_ID, pmtInfId);
         customerCreditTransferInitiation.getPmtInf().add(paymentInstructionInformation);
 
         return new PaymentGroup(paymentInstructionInformation);
@@ -411,6 +774,27 @@ public class SEPACreditTransfer {
         return paymentGroup(pmtInfId, reqdExctnDt, debtorNm, debtorAccountIBAN, financialInstitutionBIC, false);
     }
 
+    /**
+     * Removes a payment group without transactions from the message, e.g. one whose first
+     * transaction was refused, so the message doesn't have an empty PmtInf. Its PmtInfId can
+     * be used again.
+     */
+    void removePaymentGroup(PaymentGroup paymentGroup) {
+        PaymentInstructionInformation3 paymentInstructionInformation = paymentGroup.getPaymentInstructionInformation();
+        checkArgument(paymentGroup.controlSum.getNbOfTxs() == 0 && paymentInstructionInformation.getCdtTrfTxInf().isEmpty(),
+                "payment group %s has transactions", paymentInstructionInformation.getPmtInfId());
+        customerCreditTransferInitiation.getPmtInf().remove(paymentInstructionInformation);
+        stagedGroups.remove(paymentGroup);
+        if (offHeapGroups.remove(paymentGroup)) {
+            paymentGroup.records.clear();
+        }
+        if (duplicateGuard != null) {
+            synchronized (newIds) {
+                newIds.remove(DuplicateGuard.Kind.PMT_INF_ID, paymentInstructionInformation.getPmtInfId());
+            }
+        }
+    }
+
     /**
      * @return the version
      */
@@ -421,9 +805,30 @@ public class SEPACreditTransfer {
     public class PaymentGroup {
 
         private PaymentInstructionInformation3 paymentInstructionInformation3;
+        private final ControlSum controlSum = new ControlSum();
+        private final StagingBuffers<CreditTransferTransactionInformation10> staging;
+        private final RecordStore records;
+        private final TransactionOrder order;
+        private List<?> transactions;
 
         public PaymentGroup(PaymentInstructionInformation3 paymentInstructionInformation3) {
             this.paymentInstructionInformation3 = paymentInstructionInformation3;
+            if (concurrent) {
+                staging = new StagingBuffers<CreditTransferTransactionInformation10>();
+                stagedGroups.add(this);
+            } else {
+                staging = null;
+            }
+            order = sortOrder;
+            if (order != null) {
+                records = new RecordSorter(sortDirectory, sortMemoryBudget, sortThreads);
+                offHeapGroups.add(this);
+            } else if (offHeapStaging) {
+                records = new RecordArena();
+                offHeapGroups.add(this);
+            } else {
+                records = null;
+            }
         }
 
         /**
@@ -450,6 +855,99 @@ public class SEPACreditTransfer {
                 String creditorfinancialInstitutionBic,
                 String creditorNm, String iban,
                 String text) {
+            return creditTransfer(endToEndId, Amount.of(amount, "EUR"), creditorfinancialInstitutionBic, creditorNm, iban, createRmtInf(text));
+        }
+
+        /**
+         * Credit transfer of an amount in any currency, e.g. CHF.
+         *
+         * @see #creditTransfer(String, BigDecimal, String, String, String, String)
+         */
+        public PaymentGroup creditTransfer(String endToEndId, Amount amount,
+                String creditorfinancialInstitutionBic,
+                String creditorNm, String iban,
+                String text) {
+            return creditTransfer(endToEndId, amount, creditorfinancialInstitutionBic, creditorNm, iban, createRmtInf(text));
+        }
+
+        /**
+         * Credit transfer with structured remittance information: a creditor
+         * reference instead of free text.
+         *
+         * @param creditorReference Reference assigned by the creditor, issued by
+         * ISO if it's a valid ISO 11649 creditor reference, see
+         * {@link CreditorReference}. maxLength: 35
+         * @see #creditTransfer(String, BigDecimal, String, String, String, String)
+         */
+        public PaymentGroup creditTransferWithCreditorReference(String endToEndId, BigDecimal amount,
+                String creditorfinancialInstitutionBic,
+                String creditorNm, String iban,
+                String creditorReference) {
+            return creditTransfer(endToEndId, Amount.of(amount, "EUR"), creditorfinancialInstitutionBic, creditorNm, iban, createRmtInf_struct(creditorReference));
+        }
+
+        private PaymentGroup creditTransfer(String endToEndId, Amount amount,
+                String creditorfinancialInstitutionBic,
+                String creditorNm, String iban,
+                RemittanceInformation5 remittanceInformation) {
+            if (staging != null) {
+                return addCreditTransfer(endToEndId, amount, creditorfinancialInstitutionBic, creditorNm, iban, remittanceInformation);
+            }
+            buildTimer.start();
+            try {
+                return addCreditTransfer(endToEndId, amount, creditorfinancialInstitutionBic, creditorNm, iban, remittanceInformation);
+            } finally {
+                buildTimer.stop();
+            }
+        }
+
+        private PaymentGroup addCreditTransfer(String endToEndId, Amount amount,
+                String creditorfinancialInstitutionBic,
+                String creditorNm, String iban,
+                RemittanceInformation5 remittanceInformation) {
+
+            checkUnique(DuplicateGuard.Kind.END_TO_END_ID, endToEndId);
+
+            if (records != null) {
+                // the BIC is checked now instead of when the message is written
+                agent(creditorfinancialInstitutionBic);
+                keepId(DuplicateGuard.Kind.END_TO_END_ID, endToEndId);
+                if (order != null) {
+                    // the sort key
+                    records.putString(order == TransactionOrder.IBAN ? iban : endToEndId);
+                }
+                records.putString(endToEndId)
+                        .putLong(amount.getMinorUnits()).putString(amount.getCurrency())
+                        .putString(creditorfinancialInstitutionBic).putString(creditorNm).putString(iban);
+                if (remittanceInformation.getUstrd().isEmpty()) {
+                    records.putInt(1).putString(remittanceInformation.getStrd().get(0).getCdtrRefInf().getRef());
+                } else {
+                    records.putInt(0).putString(remittanceInformation.getUstrd().get(0));
+                }
+                records.endRecord();
+                addToTotals(amount);
+                return this;
+            }
+
+            CreditTransferTransactionInformation10 creditTransferTransactionInformation = createCreditTransfer(endToEndId, amount, creditorfinancialInstitutionBic, creditorNm, iban, remittanceInformation);
+            keepId(DuplicateGuard.Kind.END_TO_END_ID, endToEndId);
+
+            if (staging != null) {
+                staging.add(creditTransferTransactionInformation, amount);
+                return this;
+            }
+
+            paymentInstructionInformation3.getCdtTrfTxInf().add(creditTransferTransactionInformation);
+
+            addToTotals(amount);
+
+            return this;
+        }
+
+        private CreditTransferTransactionInformation10 createCreditTransfer(String endToEndId, Amount amount,
+                String creditorfinancialInstitutionBic,
+                String creditorNm, String iban,
+                RemittanceInformation5 remittanceInformation) {
 
             CreditTransferTransactionInformation10 creditTransferTransactionInformation = new CreditTransferTransactionInformation10();
 
@@ -467,30 +965,80 @@ public class SEPACreditTransfer {
             //creditTransferTransactionInformation.setChrgBr(ChargeBearerType1Code.SLEV);
 
             // Financial institution servicing an account for the creditor.
-            creditTransferTransactionInformation.setCdtrAgt(createFinInstnId(creditorfinancialInstitutionBic));
+            creditTransferTransactionInformation.setCdtrAgt(agent(creditorfinancialInstitutionBic));
 
             // Party to which an amount of money is due.
-            creditTransferTransactionInformation.setCdtr(createParty(creditorNm));
+            creditTransferTransactionInformation.setCdtr(party(creditorNm));
 
             // Unambiguous identification of the account of the creditor to which a credit entry will
             // be posted as a result of the payment transaction.
-            creditTransferTransactionInformation.setCdtrAcct(createAccount(iban));
+            creditTransferTransactionInformation.setCdtrAcct(account(iban));
 
-            creditTransferTransactionInformation.setRmtInf(createRmtInf(text));
+            creditTransferTransactionInformation.setRmtInf(remittanceInformation);
 
-            paymentInstructionInformation3.getCdtTrfTxInf().add(creditTransferTransactionInformation);
+            return creditTransferTransactionInformation;
+        }
 
-            // Control sum
-            paymentInstructionInformation3.setCtrlSum(paymentInstructionInformation3.getCtrlSum().add(amount));
-            groupHeader.setCtrlSum(groupHeader.getCtrlSum().add(amount));
+        private void addToTotals(Amount amount) {
+            // Control sum and number of transactions
+            this.controlSum.add(amount);
+            SEPACreditTransfer.this.controlSum.add(amount);
+            updateTotals();
+        }
 
-            // Number of transactions
-            paymentInstructionInformation3.setNbOfTxs(String.valueOf(paymentInstructionInformation3.getCdtTrfTxInf().size()));
-            Integer nbOfTxs = Integer.parseInt(groupHeader.getNbOfTxs());
-            nbOfTxs = nbOfTxs + 1;
-            groupHeader.setNbOfTxs(nbOfTxs.toString());
+        private void replaceTransactions() {
+            transactions = StagedList.replace(paymentInstructionInformation3, "cdtTrfTxInf", new StagedList<CreditTransferTransactionInformation10>(records) {
+                @Override
+                protected CreditTransferTransactionInformation10 decode(RecordReader reader) {
+                    if (order != null) {
+                        reader.getString();
+                    }
+                    String endToEndId = reader.getString();
+                    Amount amount = Amount.ofMinorUnits(reader.getLong(), reader.getString());
+                    String bic = reader.getString();
+                    String creditorNm = reader.getString();
+                    String iban = reader.getString();
+                    RemittanceInformation5 remittanceInformation = reader.getInt() == 0
+                            ? createRmtInf(reader.getString()) : createRmtInf_struct(reader.getString());
+                    return createCreditTransfer(endToEndId, amount, bic, creditorNm, iban, remittanceInformation);
+                }
+            });
+        }
 
-            return this;
+        private void restoreTransactions() {
+            // closes the spill files of a write that failed
+            ((StagedList<?>) StagedList.replace(paymentInstructionInformation3, "cdtTrfTxInf", transactions)).close();
+            transactions = null;
+        }
+
+        private void merge() {
+            ControlSum staged = staging.drainTo(paymentInstructionInformation3.getCdtTrfTxInf(), BY_END_TO_END_ID);
+            if (staged.getNbOfTxs() == 0) {
+                return;
+            }
+            this.controlSum.add(staged);
+            SEPACreditTransfer.this.controlSum.add(staged);
+            updateTotals();
+        }
+
+        private void updateTotals() {
+            paymentInstructionInformation3.setCtrlSum(this.controlSum.getCtrlSum());
+            paymentInstructionInformation3.setNbOfTxs(String.valueOf(this.controlSum.getNbOfTxs()));
+            groupHeader.setCtrlSum(SEPACreditTransfer.this.controlSum.getCtrlSum());
+            groupHeader.setNbOfTxs(String.valueOf(SEPACreditTransfer.this.controlSum.getNbOfTxs()));
+        }
+
+        public PaymentInstructionInformation3 getPaymentInstructionInformation() {
+            return paymentInstructionInformation3;
+        }
+
+        /**
+         * @return <code>true</code> if the transactions are kept as binary records outside
+         * the heap, see {@link SEPACreditTransfer#setOffHeapStaging(boolean)} and
+         * {@link SEPACreditTransfer#setSortOrder(TransactionOrder, File, long, int)}
+         */
+        public boolean isOffHeap() {
+            return records != null;
         }
     }
 }
@@ -0,0 +1,107 @@
+package nl.irp.sepa;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only list of the records in a {@link RecordStore}, decoded while iterating.
+ *
+ * Marshalling a document iterates the lists of its beans once, so a staged list in place
+ * of e.g. the transactions of a payment group turns every record into XML without keeping
+ * the decoded transactions. {@link #get(int)} decodes from the first record and is only
+ * meant for occasional use. {@link #close()} closes the readers of iterations that didn't
+ * reach the end, e.g. because marshalling failed.
+ *
+ * @param <T> the decoded record
+ */
+public abstract class StagedList<T> extends AbstractList<T> implements Closeable {
+
+	private final RecordStore store;
+	private final List<RecordReader> readers = new ArrayList<RecordReader>();
+
+	protected StagedList(RecordStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Reads the fields of the current record.
+	 */
+	protected abstract T decode(RecordReader reader);
+
+	@Override
+	public int size() {
+		return store.size();
+	}
+
+	@Override
+	public T get(int index) {
+		if (index < 0 || index >= size())
+			throw new IndexOutOfBoundsException("index " + index + ", size " + size());
+		Iterator<T> iterator = iterator();
+		for (int i = 0; i < index; i++)
+			iterator.next();
+		T value = iterator.next();
+		close();
+		return value;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		final RecordReader reader = store.reader();
+		readers.add(reader);
+		return new Iterator<T>() {
+			@Override
+			public boolean hasNext() {
+				return reader.hasNext();
+			}
+
+			@Override
+			public T next() {
+				if (!reader.hasNext())
+					throw new NoSuchElementException();
+				reader.next();
+				return decode(reader);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Closes the readers of the iterations of the list.
+	 */
+	public void close() {
+		for (RecordReader reader : readers)
+			reader.close();
+		readers.clear();
+	}
+
+	/**
+	 * Replaces a list of a generated bean. The beans have no setters for their lists and
+	 * JAXB reads the fields directly, so the field is set by reflection.
+	 * @param field the name of the field, e.g. <code>cdtTrfTxInf</code>
+	 * @return the previous value of the field
+	 */
+	public static List<?> replace(Object bean, String field, List<?> list) {
+		try {
+			Field declaredField = bean.getClass().getDeclaredField(field);
+			declaredField.setAccessible(true);
+			List<?> previous = (List<?>) declaredField.get(bean);
+			declaredField.set(bean, list);
+			return previous;
+		} catch (NoSuchFieldException e) {
+			throw new IllegalStateException("no list " + field + " in " + bean.getClass().getName(), e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("can't replace " + field + " in " + bean.getClass().getName(), e);
+		}
+	}
+
+}
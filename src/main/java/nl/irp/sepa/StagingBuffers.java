@@ -0,0 +1,71 @@
+package nl.irp.sepa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Collects transactions appended from many threads without a shared lock.
+ *
+ * Every thread appends to its own stage: a list and a {@link ControlSum}. A stage is only
+ * locked by its own thread and by {@link #drainTo(List, Comparator)}, so appends don't
+ * contend. Draining sorts the staged transactions, which makes the merged order independent
+ * of the scheduling of the threads as long as the sort keys are unique.
+ *
+ * Instances are thread-safe.
+ *
+ * @param <T> the transaction
+ */
+public class StagingBuffers<T> {
+
+	private static class Stage<T> {
+		List<T> items = new ArrayList<T>();
+		ControlSum controlSum = new ControlSum();
+	}
+
+	private final Queue<Stage<T>> stages = new ConcurrentLinkedQueue<Stage<T>>();
+
+	private final ThreadLocal<Stage<T>> stage = new ThreadLocal<Stage<T>>() {
+		@Override
+		protected Stage<T> initialValue() {
+			Stage<T> stage = new Stage<T>();
+			stages.add(stage);
+			return stage;
+		}
+	};
+
+	/**
+	 * Appends a transaction to the stage of the current thread.
+	 */
+	public void add(T item, Amount amount) {
+		Stage<T> stage = this.stage.get();
+		synchronized (stage) {
+			stage.items.add(item);
+			stage.controlSum.add(amount);
+		}
+	}
+
+	/**
+	 * Moves the transactions of all stages to the target, in the given order.
+	 * @return the number of transactions and the total moved
+	 */
+	public ControlSum drainTo(List<? super T> target, Comparator<? super T> order) {
+		List<T> drained = new ArrayList<T>();
+		ControlSum controlSum = new ControlSum();
+		for (Stage<T> stage : stages) {
+			synchronized (stage) {
+				drained.addAll(stage.items);
+				controlSum.add(stage.controlSum);
+				stage.items = new ArrayList<T>();
+				stage.controlSum = new ControlSum();
+			}
+		}
+		Collections.sort(drained, order);
+		target.addAll(drained);
+		return controlSum;
+	}
+
+}
@@ -0,0 +1,94 @@
+package nl.irp.sepa;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.bind.JAXBException;
+
+import nl.irp.sepa.sdd.DirectDebitInitiation;
+
+/**
+ * Writes several messages as the entries of one ZIP file, for the banks that accept a
+ * submission of several files as one archive. Each message is written straight into its
+ * entry, none is kept in memory.
+ *
+ * <pre>
+ * SubmissionBundle bundle = new SubmissionBundle(os, Deflater.BEST_SPEED);
+ * bundle.add("salaries.xml", creditTransfer);
+ * bundle.add("contributions.xml", debitInitiation);
+ * bundle.close();
+ * </pre>
+ *
+ * Not thread-safe.
+ */
+public class SubmissionBundle implements Closeable {
+
+	private final ZipOutputStream zip;
+	// the writers mustn't close the entry, or the archive
+	private final OutputStream entry;
+	private boolean closed;
+
+	public SubmissionBundle(OutputStream os) {
+		this(os, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param level the compression level, from {@link Deflater#NO_COMPRESSION} to
+	 * {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}
+	 */
+	public SubmissionBundle(OutputStream os, int level) {
+		checkArgument(level == Deflater.DEFAULT_COMPRESSION
+				|| (level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION),
+				"invalid compression level %s", level);
+		this.zip = new ZipOutputStream(os);
+		this.zip.setLevel(level);
+		this.entry = new FilterOutputStream(zip) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		};
+	}
+
+	public MessageManifest add(String name, SEPACreditTransfer creditTransfer) throws JAXBException, IOException {
+		putNextEntry(name);
+		MessageManifest manifest = creditTransfer.writeWithManifest(entry);
+		zip.closeEntry();
+		return manifest;
+	}
+
+	public MessageManifest add(String name, DirectDebitInitiation debitInitiation) throws JAXBException, IOException {
+		putNextEntry(name);
+		MessageManifest manifest = debitInitiation.writeWithManifest(entry);
+		zip.closeEntry();
+		return manifest;
+	}
+
+	private void putNextEntry(String name) throws IOException {
+		checkState(!closed, "bundle is closed");
+		zip.putNextEntry(new ZipEntry(name));
+	}
+
+	/**
+	 * Writes the central directory of the archive, and closes the stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		zip.close();
+	}
+
+}
@@ -0,0 +1,48 @@
+package nl.irp.sepa;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hands out one shared instance per distinct key, e.g. one creditor agent per BIC.
+ *
+ * Used by the builders for the sub-trees of a document that repeat across transactions:
+ * parties, accounts, agents and payment type information. This is only safe for
+ * sub-trees that aren't modified after they are created.
+ *
+ * Instances are thread-safe.
+ *
+ * @param <K> the input the sub-tree is created from
+ * @param <V> the sub-tree
+ */
+public abstract class SubtreeCache<K, V> {
+
+	private final ConcurrentMap<K, V> cache = new ConcurrentHashMap<K, V>();
+
+	/**
+	 * @return the sub-tree for the key, created on first use. A <code>null</code> key
+	 * isn't cached, it gets a new sub-tree every time.
+	 */
+	public V get(K key) {
+		if (key == null)
+			return create(key);
+		V value = cache.get(key);
+		if (value == null) {
+			value = create(key);
+			V existing = cache.putIfAbsent(key, value);
+			if (existing != null)
+				value = existing;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the number of distinct sub-trees
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	protected abstract V create(K key);
+
+}
@@ -0,0 +1,509 @@
+package nl.irp.sepa;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Random;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+
+/**
+ * Generates realistic test messages of any size: pain.001.001.03 credit transfers,
+ * pain.008.001.02 direct debit initiations and camt.053.001.02 statements.
+ *
+ * The messages are written directly with an <code>XMLStreamWriter</code>, so memory use
+ * doesn't depend on the number of transactions. The output only depends on the seed: the
+ * same seed gives the same bytes on every JVM. IBANs have correct check digits and belong
+ * to the bank of the BIC; names, amounts and remittance information use the SEPA
+ * character set.
+ *
+ * Not thread-safe.
+ */
+public class SyntheticDataGenerator {
+
+	private static final String PAIN_001 = "urn:iso:std:iso:20022:tech:xsd:pain.001.001.03";
+	private static final String PAIN_008 = "urn:iso:std:iso:20022:tech:xsd:pain.008.001.02";
+	private static final String CAMT_053 = "urn:iso:std:iso:20022:tech:xsd:camt.053.001.02";
+
+	/** Country, bank code of the IBAN, BIC. */
+	private static final String[][] BANKS = {
+		{"NL", "INGB", "INGBNL2A"},
+		{"NL", "ABNA", "ABNANL2A"},
+		{"NL", "RABO", "RABONL2U"},
+		{"NL", "SNSB", "SNSBNL2A"},
+		{"NL", "TRIO", "TRIONL2U"},
+		{"DE", "37040044", "COBADEFFXXX"},
+		{"DE", "50070010", "DEUTDEFFXXX"},
+		{"DE", "10010010", "PBNKDEFFXXX"},
+		{"FR", "3000400003", "BNPAFRPPXXX"},
+		{"FR", "3000300002", "SOGEFRPPXXX"},
+		{"BE", "310", "BBRUBEBB"},
+		{"BE", "001", "GEBABEBB"},
+	};
+
+	private static final String[] FIRST_NAMES = {
+		"Jan", "Piet", "Kees", "Anna", "Sanne", "Lotte", "Thomas", "Lukas", "Hannah", "Marie",
+		"Sophie", "Lucas", "Louis", "Camille", "Emma", "Noah", "Julie", "Pierre", "Anke", "Wim",
+	};
+
+	private static final String[] LAST_NAMES = {
+		"de Jong", "Jansen", "de Vries", "van den Berg", "Bakker", "Visser", "Smit", "Meijer",
+		"Mueller", "Schmidt", "Schneider", "Fischer", "Weber", "Martin", "Bernard", "Dubois",
+		"Lefevre", "Peeters", "Janssens", "Maes",
+	};
+
+	private static final String[] COMPANY_SUFFIXES = {"B.V.", "N.V.", "GmbH", "AG", "SARL", "SA", "BVBA"};
+
+	private static final String[] COMPANY_WORDS = {
+		"Energie", "Water", "Telecom", "Verzekeringen", "Bouw", "Logistiek", "Media", "Zorg",
+		"Installatie", "Services", "Handel", "Consult",
+	};
+
+	private static final String[] REMITTANCE = {
+		"Factuur %s", "Invoice %s", "Rechnung %s", "Facture %s", "Contributie %s", "Termijn %s",
+	};
+
+	private final long seed;
+	private Random random;
+	private XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+	private LocalDateTime creationDateTime = new LocalDateTime(2013, 4, 2, 14, 52, 9);
+
+	public SyntheticDataGenerator(long seed) {
+		this.seed = seed;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * The CreDtTm of the messages, the dates in the messages are derived from it.
+	 * 2 April 2013 14:52:09 by default.
+	 */
+	public void setCreationDateTime(LocalDateTime creationDateTime) {
+		this.creationDateTime = creationDateTime;
+	}
+
+	/**
+	 * Writes a pain.001.001.03 credit transfer with one payment information group.
+	 */
+	public void writeCreditTransfer(OutputStream os, int nbOfTxs) throws XMLStreamException {
+		checkArgument(nbOfTxs > 0, "a credit transfer needs at least one transaction");
+		random = new Random(seed);
+		String msgId = "MSG" + hex(random.nextLong());
+		long amountSeed = random.nextLong();
+		long ctrlSum = ctrlSum(amountSeed, nbOfTxs);
+		String[] debtorBank = bank();
+
+		XMLStreamWriter writer = start(os, PAIN_001);
+		writer.writeStartElement("CstmrCdtTrfInitn");
+		groupHeader(writer, msgId, nbOfTxs, ctrlSum);
+
+		writer.writeStartElement("PmtInf");
+		element(writer, "PmtInfId", msgId + "-1");
+		element(writer, "PmtMtd", "TRF");
+		element(writer, "NbOfTxs", String.valueOf(nbOfTxs));
+		element(writer, "CtrlSum", amount(ctrlSum));
+		writer.writeStartElement("PmtTpInf");
+		writer.writeStartElement("SvcLvl");
+		element(writer, "Cd", "SEPA");
+		writer.writeEndElement();
+		writer.writeEndElement();
+		element(writer, "ReqdExctnDt", date(1));
+		party(writer, "Dbtr", companyName());
+		account(writer, "DbtrAcct", iban(debtorBank));
+		agent(writer, "DbtrAgt", debtorBank[2]);
+		element(writer, "ChrgBr", "SLEV");
+
+		Random amounts = new Random(amountSeed);
+		for (int i = 1; i <= nbOfTxs; i++) {
+			String[] bank = bank();
+			writer.writeStartElement("CdtTrfTxInf");
+			writer.writeStartElement("PmtId");
+			element(writer, "EndToEndId", msgId + "-" + i);
+			writer.writeEndElement();
+			writer.writeStartElement("Amt");
+			writer.writeStartElement("InstdAmt");
+			writer.writeAttribute("Ccy", "EUR");
+			writer.writeCharacters(amount(nextAmount(amounts)));
+			writer.writeEndElement();
+			writer.writeEndElement();
+			agent(writer, "CdtrAgt", bank[2]);
+			party(writer, "Cdtr", random.nextInt(3) == 0 ? personName() : companyName());
+			account(writer, "CdtrAcct", iban(bank));
+			remittanceInformation(writer, remittanceText(i));
+			writer.writeEndElement();
+		}
+		writer.writeEndElement();
+
+		end(writer);
+	}
+
+	/**
+	 * Writes a pain.008.001.02 direct debit initiation with one recurring (RCUR) payment instruction.
+	 */
+	public void writeDirectDebitInitiation(OutputStream os, int nbOfTxs) throws XMLStreamException {
+		checkArgument(nbOfTxs > 0, "a direct debit initiation needs at least one transaction");
+		random = new Random(seed);
+		String msgId = "MSG" + hex(random.nextLong());
+		long amountSeed = random.nextLong();
+		long ctrlSum = ctrlSum(amountSeed, nbOfTxs);
+		String[] creditorBank = bank();
+
+		XMLStreamWriter writer = start(os, PAIN_008);
+		writer.writeStartElement("CstmrDrctDbtInitn");
+		groupHeader(writer, msgId, nbOfTxs, ctrlSum);
+
+		writer.writeStartElement("PmtInf");
+		element(writer, "PmtInfId", msgId + "-1");
+		element(writer, "PmtMtd", "DD");
+		element(writer, "NbOfTxs", String.valueOf(nbOfTxs));
+		element(writer, "CtrlSum", amount(ctrlSum));
+		writer.writeStartElement("PmtTpInf");
+		writer.writeStartElement("SvcLvl");
+		element(writer, "Cd", "SEPA");
+		writer.writeEndElement();
+		writer.writeStartElement("LclInstrm");
+		element(writer, "Cd", "CORE");
+		writer.writeEndElement();
+		element(writer, "SeqTp", "RCUR");
+		writer.writeEndElement();
+		element(writer, "ReqdColltnDt", date(5));
+		party(writer, "Cdtr", companyName());
+		account(writer, "CdtrAcct", iban(creditorBank));
+		agent(writer, "CdtrAgt", creditorBank[2]);
+		element(writer, "ChrgBr", "SLEV");
+		String nationalId = digits(10);
+		String creditorIdentifier = creditorBank[0] + checkDigits(creditorBank[0], nationalId) + "ZZZ" + nationalId;
+		writer.writeStartElement("CdtrSchmeId");
+		writer.writeStartElement("Id");
+		writer.writeStartElement("PrvtId");
+		writer.writeStartElement("Othr");
+		element(writer, "Id", creditorIdentifier);
+		writer.writeStartElement("SchmeNm");
+		element(writer, "Prtry", "SEPA");
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.writeEndElement();
+
+		Random amounts = new Random(amountSeed);
+		for (int i = 1; i <= nbOfTxs; i++) {
+			String[] bank = bank();
+			writer.writeStartElement("DrctDbtTxInf");
+			writer.writeStartElement("PmtId");
+			element(writer, "InstrId", msgId + "-" + i);
+			element(writer, "EndToEndId", msgId + "-" + i);
+			writer.writeEndElement();
+			writer.writeStartElement("InstdAmt");
+			writer.writeAttribute("Ccy", "EUR");
+			writer.writeCharacters(amount(nextAmount(amounts)));
+			writer.writeEndElement();
+			writer.writeStartElement("DrctDbtTx");
+			writer.writeStartElement("MndtRltdInf");
+			element(writer, "MndtId", "MNDT" + digits(8) + "-" + i);
+			element(writer, "DtOfSgntr", date(-random.nextInt(3650)));
+			writer.writeEndElement();
+			writer.writeEndElement();
+			agent(writer, "DbtrAgt", bank[2]);
+			party(writer, "Dbtr", personName());
+			account(writer, "DbtrAcct", iban(bank));
+			remittanceInformation(writer, remittanceText(i));
+			writer.writeEndElement();
+		}
+		writer.writeEndElement();
+
+		end(writer);
+	}
+
+	/**
+	 * Writes a camt.053.001.02 statement of one account with an opening and a closing
+	 * balance, the closing balance is the opening balance plus the entries.
+	 */
+	public void writeStatement(OutputStream os, int nbOfEntries) throws XMLStreamException {
+		random = new Random(seed);
+		String msgId = "STMT" + hex(random.nextLong());
+		long amountSeed = random.nextLong();
+		String[] accountBank = bank();
+		long openingBalance = 100000 + (long) random.nextInt(100000000);
+
+		// credits are even, debits are odd draws of the amounts
+		long closingBalance = openingBalance;
+		Random amounts = new Random(amountSeed);
+		for (int i = 0; i < nbOfEntries; i++) {
+			long amount = nextAmount(amounts);
+			closingBalance += amount % 2 == 0 ? amount : -amount;
+		}
+
+		XMLStreamWriter writer = start(os, CAMT_053);
+		writer.writeStartElement("BkToCstmrStmt");
+		writer.writeStartElement("GrpHdr");
+		element(writer, "MsgId", msgId);
+		element(writer, "CreDtTm", creationDateTime.toString("yyyy-MM-dd'T'HH:mm:ss"));
+		writer.writeEndElement();
+
+		writer.writeStartElement("Stmt");
+		element(writer, "Id", msgId + "-1");
+		element(writer, "CreDtTm", creationDateTime.toString("yyyy-MM-dd'T'HH:mm:ss"));
+		account(writer, "Acct", iban(accountBank));
+		balance(writer, "OPBD", openingBalance, date(-1));
+		balance(writer, "CLBD", closingBalance, date(0));
+
+		amounts = new Random(amountSeed);
+		for (int i = 1; i <= nbOfEntries; i++) {
+			long amount = nextAmount(amounts);
+			boolean credit = amount % 2 == 0;
+			String[] bank = bank();
+			writer.writeStartElement("Ntry");
+			writer.writeStartElement("Amt");
+			writer.writeAttribute("Ccy", "EUR");
+			writer.writeCharacters(amount(amount));
+			writer.writeEndElement();
+			element(writer, "CdtDbtInd", credit ? "CRDT" : "DBIT");
+			element(writer, "Sts", "BOOK");
+			writer.writeStartElement("BookgDt");
+			element(writer, "Dt", date(0));
+			writer.writeEndElement();
+			writer.writeStartElement("ValDt");
+			element(writer, "Dt", date(0));
+			writer.writeEndElement();
+			bankTransactionCode(writer, credit ? "RCDT" : "ICDT");
+
+			writer.writeStartElement("NtryDtls");
+			writer.writeStartElement("TxDtls");
+			writer.writeStartElement("Refs");
+			element(writer, "EndToEndId", msgId + "-" + i);
+			writer.writeEndElement();
+			writer.writeStartElement("RltdPties");
+			if (credit) {
+				party(writer, "Dbtr", personName());
+				account(writer, "DbtrAcct", iban(bank));
+			} else {
+				party(writer, "Cdtr", companyName());
+				account(writer, "CdtrAcct", iban(bank));
+			}
+			writer.writeEndElement();
+			remittanceInformation(writer, remittanceText(i));
+			writer.writeEndElement();
+			writer.writeEndElement();
+			writer.writeEndElement();
+		}
+		writer.writeEndElement();
+
+		end(writer);
+	}
+
+	/**
+	 * @return a random IBAN with correct check digits
+	 */
+	public String iban() {
+		return iban(bank());
+	}
+
+	/**
+	 * @return a random BIC
+	 */
+	public String bic() {
+		return bank()[2];
+	}
+
+	/**
+	 * @return a random name of a person or a company
+	 */
+	public String name() {
+		return random.nextBoolean() ? personName() : companyName();
+	}
+
+	private XMLStreamWriter start(OutputStream os, String namespace) throws XMLStreamException {
+		XMLStreamWriter writer = outputFactory.createXMLStreamWriter(os, "UTF-8");
+		writer.writeStartDocument("UTF-8", "1.0");
+		writer.writeStartElement("Document");
+		writer.writeDefaultNamespace(namespace);
+		return writer;
+	}
+
+	private void end(XMLStreamWriter writer) throws XMLStreamException {
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.writeEndDocument();
+		writer.flush();
+		writer.close();
+	}
+
+	private void groupHeader(XMLStreamWriter writer, String msgId, int nbOfTxs, long ctrlSum) throws XMLStreamException {
+		writer.writeStartElement("GrpHdr");
+		element(writer, "MsgId", msgId);
+		element(writer, "CreDtTm", creationDateTime.toString("yyyy-MM-dd'T'HH:mm:ss"));
+		element(writer, "NbOfTxs", String.valueOf(nbOfTxs));
+		element(writer, "CtrlSum", amount(ctrlSum));
+		party(writer, "InitgPty", companyName());
+		writer.writeEndElement();
+	}
+
+	private static void element(XMLStreamWriter writer, String name, String text) throws XMLStreamException {
+		writer.writeStartElement(name);
+		writer.writeCharacters(text);
+		writer.writeEndElement();
+	}
+
+	private static void party(XMLStreamWriter writer, String name, String nm) throws XMLStreamException {
+		writer.writeStartElement(name);
+		element(writer, "Nm", nm);
+		writer.writeEndElement();
+	}
+
+	private static void account(XMLStreamWriter writer, String name, String iban) throws XMLStreamException {
+		writer.writeStartElement(name);
+		writer.writeStartElement("Id");
+		element(writer, "IBAN", iban);
+		writer.writeEndElement();
+		writer.writeEndElement();
+	}
+
+	private static void agent(XMLStreamWriter writer, String name, String bic) throws XMLStreamException {
+		writer.writeStartElement(name);
+		writer.writeStartElement("FinInstnId");
+		element(writer, "BIC", bic);
+		writer.writeEndElement();
+		writer.writeEndElement();
+	}
+
+	private static void remittanceInformation(XMLStreamWriter writer, String text) throws XMLStreamException {
+		writer.writeStartElement("RmtInf");
+		element(writer, "Ustrd", text);
+		writer.writeEndElement();
+	}
+
+	private static void balance(XMLStreamWriter writer, String code, long balance, String date) throws XMLStreamException {
+		writer.writeStartElement("Bal");
+		writer.writeStartElement("Tp");
+		writer.writeStartElement("CdOrPrtry");
+		element(writer, "Cd", code);
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.writeStartElement("Amt");
+		writer.writeAttribute("Ccy", "EUR");
+		writer.writeCharacters(amount(Math.abs(balance)));
+		writer.writeEndElement();
+		element(writer, "CdtDbtInd", balance >= 0 ? "CRDT" : "DBIT");
+		writer.writeStartElement("Dt");
+		element(writer, "Dt", date);
+		writer.writeEndElement();
+		writer.writeEndElement();
+	}
+
+	private static void bankTransactionCode(XMLStreamWriter writer, String family) throws XMLStreamException {
+		writer.writeStartElement("BkTxCd");
+		writer.writeStartElement("Domn");
+		element(writer, "Cd", "PMNT");
+		writer.writeStartElement("Fmly");
+		element(writer, "Cd", family);
+		element(writer, "SubFmlyCd", "ESCT");
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.writeEndElement();
+	}
+
+	private String[] bank() {
+		return BANKS[random.nextInt(BANKS.length)];
+	}
+
+	private String iban(String[] bank) {
+		String country = bank[0];
+		String bban;
+		if (country.equals("NL"))
+			bban = bank[1] + digits(10);
+		else if (country.equals("DE"))
+			bban = bank[1] + digits(10);
+		else if (country.equals("FR"))
+			bban = bank[1] + digits(11) + digits(2);
+		else
+			bban = belgianAccount(bank[1]);
+		return country + checkDigits(country, bban) + bban;
+	}
+
+	/**
+	 * @return a Belgian account number, with the national mod 97 check digits
+	 */
+	private String belgianAccount(String bankCode) {
+		String account = bankCode + digits(7);
+		long remainder = Long.parseLong(account) % 97;
+		return account + String.format("%02d", remainder == 0 ? 97 : remainder);
+	}
+
+	/**
+	 * @return the ISO 7064 Mod 97-10 check digits of an IBAN or, without the business code,
+	 * of a creditor identifier
+	 */
+	static String checkDigits(String country, String bban) {
+		String rearranged = bban + country + "00";
+		int remainder = 0;
+		for (int i = 0; i < rearranged.length(); i++) {
+			int value = Character.digit(rearranged.charAt(i), 36);
+			remainder = (value < 10 ? remainder * 10 + value : remainder * 100 + value) % 97;
+		}
+		int checkDigits = 98 - remainder;
+		return checkDigits < 10 ? "0" + checkDigits : String.valueOf(checkDigits);
+	}
+
+	private String digits(int length) {
+		char[] digits = new char[length];
+		for (int i = 0; i < length; i++)
+			digits[i] = (char) ('0' + random.nextInt(10));
+		return new String(digits);
+	}
+
+	private String personName() {
+		return FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+	}
+
+	private String companyName() {
+		return LAST_NAMES[random.nextInt(LAST_NAMES.length)] + " "
+				+ COMPANY_WORDS[random.nextInt(COMPANY_WORDS.length)] + " "
+				+ COMPANY_SUFFIXES[random.nextInt(COMPANY_SUFFIXES.length)];
+	}
+
+	private String remittanceText(int i) {
+		String format = REMITTANCE[random.nextInt(REMITTANCE.length)];
+		return String.format(format, creationDateTime.getYear() + "-" + String.format("%07d", i));
+	}
+
+	private String date(int days) {
+		LocalDate date = creationDateTime.toLocalDate().plusDays(days);
+		return date.toString();
+	}
+
+	/**
+	 * @return an amount in cents, mostly small with a few large ones
+	 */
+	private static long nextAmount(Random amounts) {
+		int bucket = amounts.nextInt(100);
+		if (bucket < 70)
+			return 100 + amounts.nextInt(10000);
+		if (bucket < 98)
+			return 10000 + amounts.nextInt(100000);
+		return 100000 + amounts.nextInt(10000000);
+	}
+
+	private static long ctrlSum(long amountSeed, int nbOfTxs) {
+		Random amounts = new Random(amountSeed);
+		long ctrlSum = 0;
+		for (int i = 0; i < nbOfTxs; i++)
+			ctrlSum += nextAmount(amounts);
+		return ctrlSum;
+	}
+
+	private static String amount(long cents) {
+		return BigDecimal.valueOf(cents, 2).toPlainString();
+	}
+
+	private static String hex(long value) {
+		String hex = Long.toHexString(value).toUpperCase();
+		return hex.length() > 16 ? hex.substring(0, 16) : hex;
+	}
+
+}
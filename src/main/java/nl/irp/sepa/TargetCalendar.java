@@ -0,0 +1,159 @@
+package nl.irp.sepa;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import org.joda.time.LocalDate;
+
+/**
+ * The TARGET2 business days, on which SEPA credit transfers and direct debits are executed.
+ * TARGET2 is closed on Saturdays and Sundays, New Year's Day, Good Friday, Easter Monday,
+ * 1 May, Christmas Day and 26 December.
+ *
+ * The calendar is computed once for the years 2000 up to and including 2099. Every day is
+ * a bit in a bit set, and for every day the number of business days before it is kept, so
+ * all queries take constant time.
+ */
+public class TargetCalendar {
+
+	public static final int FIRST_YEAR = 2000;
+	public static final int LAST_YEAR = 2099;
+
+	private static final int FIRST_DAY = epochDay(FIRST_YEAR, 1, 1);
+	private static final int DAYS = epochDay(LAST_YEAR + 1, 1, 1) - FIRST_DAY;
+
+	/** Bit per day, set for a business day. */
+	private static final long[] businessDays = new long[(DAYS + 63) / 64];
+
+	/** Per day the number of business days before it. */
+	private static final int[] rank = new int[DAYS + 1];
+
+	/** The business days in order, as yyyymmdd. */
+	private static final int[] dates;
+
+	static {
+		int[] allDates = new int[DAYS];
+		int index = 0;
+		for (int year = FIRST_YEAR; year <= LAST_YEAR; year++) {
+			int easter = easterSunday(year);
+			for (int month = 1; month <= 12; month++) {
+				int length = daysInMonth(year, month);
+				for (int day = 1; day <= length; day++) {
+					int epochDay = epochDay(year, month, day);
+					int dayOfWeek = (epochDay + 3) % 7; // 1970-01-01 is a Thursday, 0 = Monday
+					int dayOfYear = epochDay - epochDay(year, 1, 1);
+					boolean closed = dayOfWeek >= 5
+							|| (month == 1 && day == 1)
+							|| dayOfYear == easter - 2
+							|| dayOfYear == easter + 1
+							|| (month == 5 && day == 1)
+							|| (month == 12 && (day == 25 || day == 26));
+
+					rank[index + 1] = rank[index];
+					if (!closed) {
+						businessDays[index >>> 6] |= 1L << index;
+						allDates[rank[index]] = (year * 100 + month) * 100 + day;
+						rank[index + 1]++;
+					}
+					index++;
+				}
+			}
+		}
+		dates = new int[rank[DAYS]];
+		System.arraycopy(allDates, 0, dates, 0, dates.length);
+	}
+
+	/**
+	 * @return <code>true</code> if TARGET2 is open on the date
+	 */
+	public static boolean isBusinessDay(LocalDate date) {
+		int index = index(date);
+		return (businessDays[index >>> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * @return the date itself if it's a business day, otherwise the first business day after it
+	 */
+	public static LocalDate nextBusinessDay(LocalDate date) {
+		int index = index(date);
+		if ((businessDays[index >>> 6] & (1L << index)) != 0)
+			return date;
+		return date(rank[index]);
+	}
+
+	/**
+	 * Adds a number of business days, e.g. 2 business days after Thursday 28 March 2013 is
+	 * Wednesday 3 April 2013 because of Easter.
+	 * @param businessDays the number of business days, negative to go back
+	 * @return the date itself if the number of business days is 0 and the date is a business day,
+	 * otherwise see {@link #nextBusinessDay(LocalDate)}
+	 */
+	public static LocalDate addBusinessDays(LocalDate date, int businessDays) {
+		int index = index(date);
+		if (businessDays == 0)
+			return nextBusinessDay(date);
+		if (businessDays > 0)
+			return date(rank[index + 1] + businessDays - 1);
+		return date(rank[index] + businessDays);
+	}
+
+	/**
+	 * @return the number of business days after <code>from</code> up to and including <code>to</code>,
+	 * negative if <code>to</code> is before <code>from</code>
+	 */
+	public static int businessDaysBetween(LocalDate from, LocalDate to) {
+		return rank[index(to) + 1] - rank[index(from) + 1];
+	}
+
+	private static int index(LocalDate date) {
+		int year = date.getYear();
+		checkArgument(year >= FIRST_YEAR && year <= LAST_YEAR, "%s is outside the calendar", date);
+		return epochDay(year, date.getMonthOfYear(), date.getDayOfMonth()) - FIRST_DAY;
+	}
+
+	private static LocalDate date(int businessDay) {
+		checkArgument(businessDay >= 0 && businessDay < dates.length, "the date is outside the calendar");
+		int date = dates[businessDay];
+		return new LocalDate(date / 10000, date / 100 % 100, date % 100);
+	}
+
+	/**
+	 * @return the number of days since 1970-01-01 in the proleptic Gregorian calendar
+	 */
+	private static int epochDay(int year, int month, int day) {
+		if (month <= 2)
+			year--;
+		int era = year / 400;
+		int yearOfEra = year - era * 400;
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	private static int daysInMonth(int year, int month) {
+		if (month == 2)
+			return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+		return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+	}
+
+	/**
+	 * @return the day of the year of Easter Sunday, 0 for 1 January (anonymous Gregorian algorithm)
+	 */
+	private static int easterSunday(int year) {
+		int a = year % 19;
+		int b = year / 100;
+		int c = year % 100;
+		int d = b / 4;
+		int e = b % 4;
+		int f = (b + 8) / 25;
+		int g = (b - f + 1) / 3;
+		int h = (19 * a + b - d - g + 15) % 30;
+		int i = c / 4;
+		int k = c % 4;
+		int l = (32 + 2 * e + 2 * i - h - k) % 7;
+		int m = (a + 11 * h + 22 * l) / 451;
+		int month = (h + l - 7 * m + 114) / 31;
+		int day = (h + l - 7 * m + 114) % 31 + 1;
+		return epochDay(year, month, day) - epochDay(year, 1, 1);
+	}
+
+}
@@ -0,0 +1,18 @@
+package nl.irp.sepa;
+
+/**
+ * Order of the transactions within a payment group or payment instruction when the
+ * message is written. Transactions with the same key keep the order they were added in.
+ *
+ * @see SEPACreditTransfer#setSortOrder(TransactionOrder, java.io.File, long, int)
+ * @see nl.irp.sepa.sdd.DirectDebitInitiation#setSortOrder(TransactionOrder, java.io.File, long, int)
+ */
+public enum TransactionOrder {
+
+	/** By EndToEndId. */
+	END_TO_END_ID,
+
+	/** By the IBAN of the creditor of a credit transfer, or of the debtor of a collection. */
+	IBAN
+
+}
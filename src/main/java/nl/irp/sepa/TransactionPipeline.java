@@ -0,0 +1,395 @@
+package nl.irp.sepa;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import nl.irp.sepa.sdd.DirectDebitInitiation;
+
+import org.joda.time.LocalDate;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Feeds a payment export, e.g. a CSV file, into a payment group of a credit transfer or a
+ * payment instruction of a direct debit initiation.
+ *
+ * Three threads work on the export at the same time: a reader thread reads lines, a parser
+ * thread splits them with a {@link RecordFormat}, maps the columns and validates the values,
+ * and the calling thread adds the transactions to the message. The threads hand over
+ * batches of lines through bounded queues, so a slow stage holds back the ones before it
+ * and only a few batches are in memory at any time. The transactions are added in the
+ * order of the export.
+ *
+ * The pipeline bounds the memory of the export, not of the message: a payment group that
+ * keeps its transactions as JAXB objects holds all of them until the message is written.
+ * For an export larger than the heap, add to a payment group that keeps them off the heap,
+ * and use {@link #setBoundedMemory(boolean)} to make sure it does:
+ * <ul>
+ * <li>with off-heap staging the transactions take direct memory, about the size of the
+ * export, and are written one by one;</li>
+ * <li>with a sort order they take at most the memory budget, the rest is spilled to files,
+ * and they are merged from the files while the message is written.</li>
+ * </ul>
+ *
+ * A line that can't be parsed stops the pipeline with an <code>IllegalArgumentException</code>
+ * naming the line number.
+ *
+ * Not thread-safe, but a pipeline may be run more than once.
+ */
+public class TransactionPipeline {
+
+	/** The values of a transaction that can be taken from a column. */
+	public enum Column {
+		/** Required. */
+		END_TO_END_ID,
+		/** Optional, the EndToEndId is used when not mapped. Direct debits only. */
+		INSTR_ID,
+		/** Required, e.g. <code>1.01</code>. */
+		AMOUNT,
+		/** Optional, see {@link TransactionPipeline#setCurrency(String)}. */
+		CURRENCY,
+		/** Required, the creditor of a credit transfer or the debtor of a direct debit. */
+		NAME,
+		/** Required. */
+		IBAN,
+		/** Required. */
+		BIC,
+		/** Required, unstructured. */
+		REMITTANCE_INFORMATION,
+		/** Required for direct debits. */
+		MANDATE_ID,
+		/** Required for direct debits, see {@link TransactionPipeline#setDateFormat(String)}. */
+		DATE_OF_SIGNATURE
+	}
+
+	private static final int BATCH_SIZE = 256;
+
+	private final RecordFormat format;
+	private final Map<Column, Integer> columns = new EnumMap<Column, Integer>(Column.class);
+	private int headerLines;
+	private int queueCapacity = 16;
+	private String currency = "EUR";
+	private char decimalSeparator = '.';
+	private DateTimeFormatter dateFormat = DateTimeFormat.forPattern("yyyy-MM-dd");
+	private boolean boundedMemory;
+
+	public TransactionPipeline(RecordFormat format) {
+		this.format = format;
+	}
+
+	/**
+	 * Maps a value to a column.
+	 * @param index the index of the column, 0 for the first
+	 */
+	public void setColumn(Column column, int index) {
+		checkArgument(index >= 0, "column index is negative");
+		columns.put(column, index);
+	}
+
+	/**
+	 * The number of lines to skip at the start of the export, 0 by default.
+	 */
+	public void setHeaderLines(int headerLines) {
+		checkArgument(headerLines >= 0, "number of header lines is negative");
+		this.headerLines = headerLines;
+	}
+
+	/**
+	 * The number of batches of 256 lines each queue holds, 16 by default.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		checkArgument(queueCapacity > 0, "queue capacity isn't positive");
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * The currency of the amounts when the export has no currency column, EUR by default.
+	 */
+	public void setCurrency(String currency) {
+		Amount.fractionDigits(currency);
+		this.currency = currency;
+	}
+
+	/**
+	 * The decimal separator of the amounts, <code>.</code> by default.
+	 */
+	public void setDecimalSeparator(char decimalSeparator) {
+		this.decimalSeparator = decimalSeparator;
+	}
+
+	/**
+	 * The format of the dates, <code>yyyy-MM-dd</code> by default, see {@link DateTimeFormat}.
+	 */
+	public void setDateFormat(String pattern) {
+		this.dateFormat = DateTimeFormat.forPattern(pattern);
+	}
+
+	/**
+	 * Refuses to run into a payment group or instruction that keeps its transactions on the
+	 * heap, see {@link SEPACreditTransfer.PaymentGroup#isOffHeap()}. Off by default.
+	 */
+	public void setBoundedMemory(boolean boundedMemory) {
+		this.boundedMemory = boundedMemory;
+	}
+
+	/**
+	 * Adds a credit transfer for every line of the export.
+	 * @return the number of transactions added
+	 */
+	public int run(Reader input, final SEPACreditTransfer.PaymentGroup paymentGroup) throws IOException {
+		checkColumns(Column.END_TO_END_ID, Column.AMOUNT, Column.NAME, Column.IBAN, Column.BIC,
+				Column.REMITTANCE_INFORMATION);
+		checkState(!boundedMemory || paymentGroup.isOffHeap(), "payment group %s keeps its transactions on the heap",
+				paymentGroup.getPaymentInstructionInformation().getPmtInfId());
+		return run(input, new Sink() {
+			@Override
+			public void add(Transaction transaction) {
+				paymentGroup.creditTransfer(
+						transaction.get(Column.END_TO_END_ID), transaction.amount,
+						transaction.get(Column.BIC), transaction.get(Column.NAME), transaction.get(Column.IBAN),
+						transaction.get(Column.REMITTANCE_INFORMATION));
+			}
+		});
+	}
+
+	/**
+	 * Adds a direct debit transaction for every line of the export.
+	 * @return the number of transactions added
+	 */
+	public int run(Reader input, final DirectDebitInitiation.PaymentInstruction paymentInstruction) throws IOException {
+		checkColumns(Column.END_TO_END_ID, Column.AMOUNT, Column.NAME, Column.IBAN, Column.BIC,
+				Column.REMITTANCE_INFORMATION, Column.MANDATE_ID, Column.DATE_OF_SIGNATURE);
+		checkState(!boundedMemory || paymentInstruction.isOffHeap(), "payment instruction %s keeps its transactions on the heap",
+				paymentInstruction.getPaymentInstructionInformation().getPmtInfId());
+		final List<String> noAddress = ImmutableList.of();
+		return run(input, new Sink() {
+			@Override
+			public void add(Transaction transaction) {
+				String endToEndId = transaction.get(Column.END_TO_END_ID);
+				String instrId = transaction.get(Column.INSTR_ID);
+				paymentInstruction.addTransaction(
+						instrId != null ? instrId : endToEndId, endToEndId, transaction.amount,
+						transaction.get(Column.MANDATE_ID), transaction.dateOfSignature, null,
+						transaction.get(Column.NAME), transaction.get(Column.IBAN), transaction.get(Column.BIC),
+						null, noAddress,
+						transaction.get(Column.REMITTANCE_INFORMATION));
+			}
+		});
+	}
+
+	private void checkColumns(Column... required) {
+		for (Column column : required)
+			checkState(columns.containsKey(column), "column %s isn't mapped", column);
+	}
+
+	private interface Sink {
+		void add(Transaction transaction);
+	}
+
+	/** A parsed and validated line. */
+	private static class Transaction {
+		final int line;
+		final String[] values = new String[Column.values().length];
+		Amount amount;
+		LocalDate dateOfSignature;
+
+		Transaction(int line) {
+			this.line = line;
+		}
+
+		String get(Column column) {
+			return values[column.ordinal()];
+		}
+	}
+
+	/**
+	 * Consecutive lines or transactions, or the end of the export when empty.
+	 * @param firstLine the line number of the first item
+	 */
+	private static class Batch<T> {
+		final int firstLine;
+		final List<T> items;
+		final Exception error;
+
+		Batch(int firstLine, List<T> items, Exception error) {
+			this.firstLine = firstLine;
+			this.items = items;
+			this.error = error;
+		}
+
+		boolean isEnd() {
+			return items.isEmpty();
+		}
+	}
+
+	private int run(final Reader input, Sink sink) throws IOException {
+		final BlockingQueue<Batch<String>> lines = new ArrayBlockingQueue<Batch<String>>(queueCapacity);
+		final BlockingQueue<Batch<Transaction>> transactions = new ArrayBlockingQueue<Batch<Transaction>>(queueCapacity);
+		ExecutorService executor = Executors.newFixedThreadPool(2,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("transaction-pipeline-%d").build());
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					read(input, lines);
+				}
+			});
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					parse(lines, transactions);
+				}
+			});
+
+			int count = 0;
+			while (true) {
+				Batch<Transaction> batch = transactions.take();
+				if (batch.error instanceof IOException)
+					throw (IOException) batch.error;
+				if (batch.error != null)
+					throw (RuntimeException) batch.error;
+				if (batch.isEnd())
+					return count;
+				for (Transaction transaction : batch.items) {
+					try {
+						sink.add(transaction);
+					} catch (IllegalArgumentException e) {
+						throw new IllegalArgumentException("line " + transaction.line + ": " + e.getMessage(), e);
+					}
+					count++;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted", e);
+		} finally {
+			// stops the reader and parser when the message refused a transaction
+			executor.shutdownNow();
+		}
+	}
+
+	private void read(Reader input, BlockingQueue<Batch<String>> lines) {
+		try {
+			try {
+				BufferedReader reader = new BufferedReader(input, 64 * 1024);
+				int lineNumber = 0;
+				for (int i = 0; i < headerLines && reader.readLine() != null; i++)
+					lineNumber++;
+				List<String> batch = new ArrayList<String>(BATCH_SIZE);
+				String line;
+				while ((line = reader.readLine()) != null) {
+					batch.add(line);
+					if (batch.size() == BATCH_SIZE) {
+						lines.put(new Batch<String>(lineNumber + 1, batch, null));
+						lineNumber += batch.size();
+						batch = new ArrayList<String>(BATCH_SIZE);
+					}
+				}
+				if (!batch.isEmpty()) {
+					lines.put(new Batch<String>(lineNumber + 1, batch, null));
+					lineNumber += batch.size();
+				}
+				lines.put(new Batch<String>(lineNumber, Collections.<String>emptyList(), null));
+			} catch (IOException e) {
+				lines.put(new Batch<String>(0, Collections.<String>emptyList(), e));
+			} catch (RuntimeException e) {
+				lines.put(new Batch<String>(0, Collections.<String>emptyList(), e));
+			}
+		} catch (InterruptedException e) {
+			// the pipeline was stopped
+		}
+	}
+
+	private void parse(BlockingQueue<Batch<String>> lines, BlockingQueue<Batch<Transaction>> transactions) {
+		try {
+			while (true) {
+				Batch<String> batch = lines.take();
+				if (batch.error != null || batch.isEnd()) {
+					transactions.put(new Batch<Transaction>(batch.firstLine, Collections.<Transaction>emptyList(), batch.error));
+					return;
+				}
+				List<Transaction> parsed = new ArrayList<Transaction>(batch.items.size());
+				int lineNumber = batch.firstLine;
+				try {
+					for (String line : batch.items) {
+						// blank lines, e.g. at the end of the export, are skipped
+						if (!line.trim().isEmpty())
+							parsed.add(parse(line, lineNumber));
+						lineNumber++;
+					}
+				} catch (RuntimeException e) {
+					IllegalArgumentException error = new IllegalArgumentException("line " + lineNumber + ": " + e.getMessage(), e);
+					transactions.put(new Batch<Transaction>(lineNumber, Collections.<Transaction>emptyList(), error));
+					return;
+				}
+				if (!parsed.isEmpty())
+					transactions.put(new Batch<Transaction>(batch.firstLine, parsed, null));
+			}
+		} catch (InterruptedException e) {
+			// the pipeline was stopped
+		}
+	}
+
+	private Transaction parse(String line, int lineNumber) {
+		String[] fields = format.split(line);
+		Transaction transaction = new Transaction(lineNumber);
+		for (Map.Entry<Column, Integer> column : columns.entrySet()) {
+			int index = column.getValue();
+			String value = index < fields.length ? fields[index] : "";
+			transaction.values[column.getKey().ordinal()] = value.isEmpty() ? null : value;
+		}
+
+		String endToEndId = required(transaction, Column.END_TO_END_ID);
+		checkArgument(endToEndId.length() <= 35, "EndToEndId '%s' is longer than 35", endToEndId);
+		String instrId = transaction.get(Column.INSTR_ID);
+		checkArgument(instrId == null || instrId.length() <= 35, "InstrId '%s' is longer than 35", instrId);
+
+		String currency = transaction.get(Column.CURRENCY);
+		String amount = required(transaction, Column.AMOUNT);
+		if (decimalSeparator != '.')
+			amount = amount.replace('.', ' ').replace(decimalSeparator, '.').replace(" ", "");
+		try {
+			transaction.amount = Amount.of(amount, currency != null ? currency : this.currency);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("amount '" + amount + "' isn't a number");
+		}
+		checkArgument(transaction.amount.signum() > 0, "amount %s isn't positive", transaction.amount);
+
+		// the names and texts are made valid here, so the message doesn't need to
+		transaction.values[Column.NAME.ordinal()] = SEPACharacterSet.sanitize(required(transaction, Column.NAME), 70);
+		transaction.values[Column.REMITTANCE_INFORMATION.ordinal()] = SEPACharacterSet.sanitize(required(transaction, Column.REMITTANCE_INFORMATION), 140);
+
+		String iban = IBANUtils.removeNonAlpha(required(transaction, Column.IBAN)).toUpperCase();
+		checkArgument(iban.length() >= 15 && iban.length() <= 34 && IBANUtils.validate(iban), "'%s' isn't an IBAN", iban);
+		transaction.values[Column.IBAN.ordinal()] = iban;
+		String bic = required(transaction, Column.BIC);
+		checkArgument(bic.length() == 8 || bic.length() == 11, "'%s' isn't a BIC", bic);
+
+		if (columns.containsKey(Column.DATE_OF_SIGNATURE))
+			transaction.dateOfSignature = dateFormat.parseLocalDate(required(transaction, Column.DATE_OF_SIGNATURE));
+		return transaction;
+	}
+
+	private static String required(Transaction transaction, Column column) {
+		String value = transaction.get(column);
+		checkArgument(value != null, "%s is missing", column);
+		return value;
+	}
+
+}
@@ -0,0 +1,394 @@
+package nl.irp.sepa.bind;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes UTF-8 byte for byte as the formatted output of JAXB: the declaration with
+ * <code>standalone="yes"</code>, every element on a line of its own indented by four spaces
+ * per level, the indentation wrapping after eight levels, an element without content as
+ * <code>&lt;Nm/&gt;</code>, and <code>&amp;</code>, <code>&lt;</code>, <code>&gt;</code> and
+ * carriage return escaped in text, also quote, tab and newline in attributes.
+ *
+ * Only supports what the generated writers use, see {@link StaxBinding}: elements, attributes,
+ * text and namespace declarations. A namespace prefix is bound for the rest of the document.
+ * {@link #close()} doesn't close the stream. Not thread-safe.
+ */
+public class FormattedXMLStreamWriter implements XMLStreamWriter {
+
+	private static final int FLUSH_SIZE = 1 << 13;
+
+	private final OutputStream os;
+	private byte[] buffer = new byte[FLUSH_SIZE + 1024];
+	private int count;
+
+	private final List<String> elements = new ArrayList<String>();
+	private final Map<String, String> prefixes = new HashMap<String, String>();
+	private NamespaceContext namespaceContext;
+	private boolean startTagOpen;
+	private boolean textWritten;
+
+	public FormattedXMLStreamWriter(OutputStream os) {
+		this.os = os;
+	}
+
+	@Override
+	public void writeStartDocument() throws XMLStreamException {
+		writeStartDocument("UTF-8", "1.0");
+	}
+
+	@Override
+	public void writeStartDocument(String version) throws XMLStreamException {
+		writeStartDocument("UTF-8", version);
+	}
+
+	@Override
+	public void writeStartDocument(String encoding, String version) throws XMLStreamException {
+		if (!"UTF-8".equalsIgnoreCase(encoding))
+			throw new XMLStreamException("only UTF-8 is supported, not " + encoding);
+		ascii("<?xml version=\"" + version + "\" encoding=\"UTF-8\" standalone=\"yes\"?>");
+	}
+
+	@Override
+	public void writeStartElement(String localName) throws XMLStreamException {
+		writeStartElement(XMLConstants.DEFAULT_NS_PREFIX, localName, null);
+	}
+
+	@Override
+	public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+		String prefix = getPrefix(namespaceURI);
+		if (prefix == null)
+			throw new XMLStreamException("no prefix bound to " + namespaceURI);
+		writeStartElement(prefix, localName, namespaceURI);
+	}
+
+	@Override
+	public void writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+		String name = prefix.length() == 0 ? localName : prefix + ":" + localName;
+		closeStartTag();
+		indent(elements.size());
+		put('<');
+		text(name, false);
+		elements.add(name);
+		startTagOpen = true;
+		textWritten = false;
+	}
+
+	@Override
+	public void writeEndElement() throws XMLStreamException {
+		if (elements.isEmpty())
+			throw new XMLStreamException("no element to end");
+		String name = elements.remove(elements.size() - 1);
+		if (startTagOpen) {
+			put('/');
+			put('>');
+			startTagOpen = false;
+		} else {
+			if (!textWritten)
+				indent(elements.size());
+			put('<');
+			put('/');
+			text(name, false);
+			put('>');
+		}
+		textWritten = false;
+	}
+
+	@Override
+	public void writeEndDocument() throws XMLStreamException {
+		while (!elements.isEmpty())
+			writeEndElement();
+		put('\n');
+	}
+
+	@Override
+	public void writeAttribute(String localName, String value) throws XMLStreamException {
+		if (!startTagOpen)
+			throw new XMLStreamException("attribute " + localName + " outside a start tag");
+		put(' ');
+		text(localName, false);
+		put('=');
+		put('"');
+		text(value, true);
+		put('"');
+	}
+
+	@Override
+	public void writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException {
+		if (namespaceURI == null || namespaceURI.length() == 0) {
+			writeAttribute(localName, value);
+			return;
+		}
+		String prefix = getPrefix(namespaceURI);
+		if (prefix == null || prefix.length() == 0)
+			throw new XMLStreamException("no prefix bound to " + namespaceURI);
+		writeAttribute(prefix + ":" + localName, value);
+	}
+
+	@Override
+	public void writeAttribute(String prefix, String namespaceURI, String localName, String value) throws XMLStreamException {
+		writeAttribute(prefix.length() == 0 ? localName : prefix + ":" + localName, value);
+	}
+
+	@Override
+	public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+		if (prefix == null || prefix.length() == 0 || XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)) {
+			writeDefaultNamespace(namespaceURI);
+			return;
+		}
+		setPrefix(prefix, namespaceURI);
+		writeAttribute(XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix, namespaceURI);
+	}
+
+	@Override
+	public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+		setDefaultNamespace(namespaceURI);
+		writeAttribute(XMLConstants.XMLNS_ATTRIBUTE, namespaceURI);
+	}
+
+	@Override
+	public void writeCharacters(String text) throws XMLStreamException {
+		closeStartTag();
+		text(text, false);
+		textWritten = true;
+	}
+
+	@Override
+	public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+		writeCharacters(new String(text, start, len));
+	}
+
+	@Override
+	public void writeEmptyElement(String localName) {
+		throw new UnsupportedOperationException("writeEmptyElement");
+	}
+
+	@Override
+	public void writeEmptyElement(String namespaceURI, String localName) {
+		throw new UnsupportedOperationException("writeEmptyElement");
+	}
+
+	@Override
+	public void writeEmptyElement(String prefix, String localName, String namespaceURI) {
+		throw new UnsupportedOperationException("writeEmptyElement");
+	}
+
+	@Override
+	public void writeComment(String data) {
+		throw new UnsupportedOperationException("writeComment");
+	}
+
+	@Override
+	public void writeProcessingInstruction(String target) {
+		throw new UnsupportedOperationException("writeProcessingInstruction");
+	}
+
+	@Override
+	public void writeProcessingInstruction(String target, String data) {
+		throw new UnsupportedOperationException("writeProcessingInstruction");
+	}
+
+	@Override
+	public void writeCData(String data) {
+		throw new UnsupportedOperationException("writeCData");
+	}
+
+	@Override
+	public void writeDTD(String dtd) {
+		throw new UnsupportedOperationException("writeDTD");
+	}
+
+	@Override
+	public void writeEntityRef(String name) {
+		throw new UnsupportedOperationException("writeEntityRef");
+	}
+
+	@Override
+	public String getPrefix(String uri) {
+		for (Map.Entry<String, String> binding : prefixes.entrySet()) {
+			if (binding.getValue().equals(uri))
+				return binding.getKey();
+		}
+		return namespaceContext == null ? null : namespaceContext.getPrefix(uri);
+	}
+
+	@Override
+	public void setPrefix(String prefix, String uri) {
+		prefixes.put(prefix, uri);
+	}
+
+	@Override
+	public void setDefaultNamespace(String uri) {
+		prefixes.put(XMLConstants.DEFAULT_NS_PREFIX, uri);
+	}
+
+	@Override
+	public void setNamespaceContext(NamespaceContext context) {
+		this.namespaceContext = context;
+	}
+
+	@Override
+	public NamespaceContext getNamespaceContext() {
+		return new NamespaceContext() {
+			@Override
+			public String getNamespaceURI(String prefix) {
+				String uri = prefixes.get(prefix);
+				if (uri == null && namespaceContext != null)
+					return namespaceContext.getNamespaceURI(prefix);
+				return uri == null ? XMLConstants.NULL_NS_URI : uri;
+			}
+
+			@Override
+			public String getPrefix(String namespaceURI) {
+				return FormattedXMLStreamWriter.this.getPrefix(namespaceURI);
+			}
+
+			@Override
+			public Iterator<String> getPrefixes(String namespaceURI) {
+				String prefix = getPrefix(namespaceURI);
+				return prefix == null ? Collections.<String>emptyList().iterator()
+						: Collections.singletonList(prefix).iterator();
+			}
+		};
+	}
+
+	@Override
+	public Object getProperty(String name) {
+		throw new IllegalArgumentException("unsupported property " + name);
+	}
+
+	/**
+	 * Writes the buffered bytes to the stream and flushes it.
+	 */
+	@Override
+	public void flush() throws XMLStreamException {
+		drain();
+		try {
+			os.flush();
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	/**
+	 * Flushes, the stream stays open.
+	 */
+	@Override
+	public void close() throws XMLStreamException {
+		flush();
+	}
+
+	private void drain() throws XMLStreamException {
+		try {
+			os.write(buffer, 0, count);
+			count = 0;
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	private void closeStartTag() {
+		if (startTagOpen) {
+			put('>');
+			startTagOpen = false;
+		}
+	}
+
+	private void indent(int depth) {
+		put('\n');
+		// JAXB wraps the indentation after 8 levels
+		for (int i = 0; i < depth % 8; i++) {
+			put(' ');
+			put(' ');
+			put(' ');
+			put(' ');
+		}
+	}
+
+	private void ascii(String value) {
+		for (int i = 0; i < value.length(); i++)
+			put(value.charAt(i));
+	}
+
+	private void put(char c) {
+		if (count == buffer.length)
+			buffer = grow(buffer, 1);
+		buffer[count++] = (byte) c;
+	}
+
+	private void text(String value, boolean attribute) throws XMLStreamException {
+		int length = value.length();
+		// &quot; is the longest escape
+		if (buffer.length - count < 6 * length)
+			buffer = grow(buffer, 6 * length);
+		byte[] buffer = this.buffer;
+		int count = this.count;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				switch (c) {
+				case '&':
+					buffer[count++] = '&'; buffer[count++] = 'a'; buffer[count++] = 'm'; buffer[count++] = 'p'; buffer[count++] = ';';
+					break;
+				case '<':
+					buffer[count++] = '&'; buffer[count++] = 'l'; buffer[count++] = 't'; buffer[count++] = ';';
+					break;
+				case '>':
+					buffer[count++] = '&'; buffer[count++] = 'g'; buffer[count++] = 't'; buffer[count++] = ';';
+					break;
+				case '\r':
+					buffer[count++] = '&'; buffer[count++] = '#'; buffer[count++] = 'x'; buffer[count++] = 'D'; buffer[count++] = ';';
+					break;
+				case '"':
+				case '\t':
+				case '\n':
+					if (attribute) {
+						String escape = c == '"' ? "&quot;" : c == '\t' ? "&#x9;" : "&#xA;";
+						for (int j = 0; j < escape.length(); j++)
+							buffer[count++] = (byte) escape.charAt(j);
+						break;
+					}
+					buffer[count++] = (byte) c;
+					break;
+				default:
+					buffer[count++] = (byte) c;
+				}
+			} else if (c < 0x800) {
+				buffer[count++] = (byte) (0xC0 | c >> 6);
+				buffer[count++] = (byte) (0x80 | c & 0x3F);
+			} else if (Character.isHighSurrogate(c) && i + 1 < length) {
+				// as JAXB, which takes the next character for the low surrogate
+				int codePoint = ((c & 0x3FF) << 10 | value.charAt(++i) & 0x3FF) + 0x10000;
+				buffer[count++] = (byte) (0xF0 | codePoint >> 18);
+				buffer[count++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+				buffer[count++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+				buffer[count++] = (byte) (0x80 | codePoint & 0x3F);
+			} else {
+				buffer[count++] = (byte) (0xE0 | c >> 12);
+				buffer[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+				buffer[count++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+		this.count = count;
+		if (count >= FLUSH_SIZE)
+			drain();
+	}
+
+	private byte[] grow(byte[] buffer, int bytes) {
+		byte[] grown = new byte[Math.max(buffer.length * 2, count + bytes)];
+		System.arraycopy(buffer, 0, grown, 0, count);
+		return grown;
+	}
+
+}
@@ -0,0 +1,35 @@
+package nl.irp.sepa.bind;
+
+import javax.xml.bind.annotation.adapters.XmlAdapter;
+
+import org.joda.time.LocalDate;
+
+/**
+ * Binds ISODate, e.g. <code>2013-04-19</code>, to a Joda LocalDate.
+ * A time zone in the value is ignored.
+ */
+public class ISODateAdapter extends XmlAdapter<String, LocalDate> {
+
+	@Override
+	public LocalDate unmarshal(String value) {
+		return parse(value);
+	}
+
+	@Override
+	public String marshal(LocalDate value) {
+		return print(value);
+	}
+
+	public static LocalDate parse(String value) {
+		if (value == null)
+			return null;
+		value = value.trim();
+		// yyyy-MM-dd followed by an optional time zone
+		return new LocalDate(value.length() > 10 ? value.substring(0, 10) : value);
+	}
+
+	public static String print(LocalDate value) {
+		return value == null ? null : value.toString();
+	}
+
+}
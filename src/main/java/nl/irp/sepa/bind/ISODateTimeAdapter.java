@@ -0,0 +1,40 @@
+package nl.irp.sepa.bind;
+
+import javax.xml.bind.annotation.adapters.XmlAdapter;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * Binds ISODateTime to a Joda DateTime.
+ *
+ * A value read keeps its time zone offset, e.g. <code>2010-10-18T17:00:00+01:00</code>,
+ * a value without offset is in the default time zone. A value is written in its own time
+ * zone without milliseconds and offset, e.g. <code>2013-04-02T14:52:09</code>, as the
+ * implementation guidelines require for CreDtTm.
+ */
+public class ISODateTimeAdapter extends XmlAdapter<String, DateTime> {
+
+	private static final DateTimeFormatter parser = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+	private static final DateTimeFormatter printer = ISODateTimeFormat.dateHourMinuteSecond();
+
+	@Override
+	public DateTime unmarshal(String value) {
+		return parse(value);
+	}
+
+	@Override
+	public String marshal(DateTime value) {
+		return print(value);
+	}
+
+	public static DateTime parse(String value) {
+		return value == null ? null : parser.parseDateTime(value.trim());
+	}
+
+	public static String print(DateTime value) {
+		return value == null ? null : printer.print(value);
+	}
+
+}
@@ -0,0 +1,90 @@
+package nl.irp.sepa.bind;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+/**
+ * One JAXB context per document class, created when it's first needed and shared from then
+ * on. Creating a context introspects every class of the model, which takes most of the
+ * time of writing or reading a small message; a context is thread-safe, so one is enough.
+ *
+ * A short-lived process can {@link #preload(Class...)} the contexts it will need on a
+ * background thread while it reads its input or builds a message. A thread that needs a
+ * context that is being created waits for it instead of creating another.
+ *
+ * The messages themselves are written and read with the StAX code generated at build time,
+ * see {@link StaxBinding}, which needs no context; these are for code that still uses JAXB
+ * on the models.
+ */
+public final class JAXBContexts {
+
+	private static final ConcurrentMap<Class<?>, FutureTask<JAXBContext>> contexts =
+			new ConcurrentHashMap<Class<?>, FutureTask<JAXBContext>>();
+
+	private JAXBContexts() {
+	}
+
+	/**
+	 * @param documentClass the root class, e.g. <code>pain_001_001.Document.class</code>
+	 * @return the context of the class
+	 * @throws JAXBException if the context can't be created; a later call tries again
+	 */
+	public static JAXBContext get(Class<?> documentClass) throws JAXBException {
+		FutureTask<JAXBContext> task = task(documentClass);
+		// runs the task unless another thread did, or is doing, so
+		task.run();
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return task.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			// not kept, unless another call already put a new task in its place
+			contexts.remove(documentClass, task);
+			if (e.getCause() instanceof JAXBException)
+				throw (JAXBException) e.getCause();
+			throw new IllegalStateException("can't create the JAXB context of " + documentClass.getName(), e.getCause());
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Starts creating the contexts of the classes on a daemon thread.
+	 */
+	public static void preload(Class<?>... documentClasses) {
+		for (Class<?> documentClass : documentClasses) {
+			Thread thread = new Thread(task(documentClass), "jaxb-context-" + documentClass.getName());
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private static FutureTask<JAXBContext> task(final Class<?> documentClass) {
+		FutureTask<JAXBContext> task = contexts.get(documentClass);
+		if (task == null) {
+			FutureTask<JAXBContext> created = new FutureTask<JAXBContext>(new Callable<JAXBContext>() {
+				@Override
+				public JAXBContext call() throws JAXBException {
+					return JAXBContext.newInstance(documentClass);
+				}
+			});
+			task = contexts.putIfAbsent(documentClass, created);
+			if (task == null)
+				task = created;
+		}
+		return task;
+	}
+
+}
@@ -0,0 +1,173 @@
+package nl.irp.sepa.bind;
+
+import java.io.InputStream;
+import java.math.BigDecimal;
+
+import javax.xml.bind.annotation.adapters.XmlAdapter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * What the StAX writers and readers generated at build time share, see
+ * <code>nl.irp.sepa.bind.gen.StaxBindingProcessor</code>. The build generates a
+ * <code>DocumentWriter</code> and a <code>DocumentReader</code> next to each JAXB model,
+ * e.g. <code>pain_001_001.DocumentWriter</code>, which read and write the fields of the
+ * model directly instead of introspecting it the way a JAXBContext does.
+ *
+ * The readers are as lenient as JAXB: unknown elements are skipped, and a value that can't
+ * be parsed, e.g. an unknown code, is read as <code>null</code>.
+ */
+public final class StaxBinding {
+
+	private static final XMLInputFactory inputFactory;
+
+	static {
+		// looked up once, XMLInputFactory.newInstance() searches the class path
+		inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	private StaxBinding() {
+	}
+
+	/**
+	 * @return a reader of the stream, which detects its encoding
+	 */
+	public static XMLStreamReader createReader(InputStream is) throws XMLStreamException {
+		// a factory isn't guaranteed to be thread-safe
+		synchronized (inputFactory) {
+			return inputFactory.createXMLStreamReader(is);
+		}
+	}
+
+	/**
+	 * Moves to the start of the next child element, skipping text, comments and processing
+	 * instructions.
+	 * @return <code>true</code> at the start of a child element, <code>false</code> at the end
+	 * of the current element
+	 */
+	public static boolean nextElement(XMLStreamReader reader) throws XMLStreamException {
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				return true;
+			if (event == XMLStreamConstants.END_ELEMENT || event == XMLStreamConstants.END_DOCUMENT)
+				return false;
+		}
+	}
+
+	/**
+	 * Moves from the start of an element to its end.
+	 */
+	public static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				depth--;
+			else if (event == XMLStreamConstants.END_DOCUMENT)
+				throw new XMLStreamException("unexpected end of document", reader.getLocation());
+		}
+	}
+
+	/**
+	 * Reads the text of an element and moves to its end. As JAXB, only the text after the
+	 * last child element counts.
+	 */
+	public static String readText(XMLStreamReader reader) throws XMLStreamException {
+		String text = null;
+		StringBuilder builder = null;
+		while (true) {
+			int event = reader.next();
+			switch (event) {
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+			case XMLStreamConstants.ENTITY_REFERENCE:
+				if (text == null) {
+					text = reader.getText();
+				} else {
+					if (builder == null)
+						builder = new StringBuilder(text);
+					builder.append(reader.getText());
+				}
+				break;
+			case XMLStreamConstants.START_ELEMENT:
+				skipElement(reader);
+				text = null;
+				builder = null;
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				if (builder != null)
+					return builder.toString();
+				return text == null ? "" : text;
+			case XMLStreamConstants.END_DOCUMENT:
+				throw new XMLStreamException("unexpected end of document", reader.getLocation());
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Writes an element with text only.
+	 */
+	public static void writeElement(XMLStreamWriter writer, String namespaceURI, String localName, String text) throws XMLStreamException {
+		writer.writeStartElement(namespaceURI, localName);
+		writer.writeCharacters(text);
+		writer.writeEndElement();
+	}
+
+	/**
+	 * @return the decimal, or <code>null</code> if the text isn't one
+	 */
+	public static BigDecimal parseDecimal(String text) {
+		text = text.trim();
+		if (text.length() == 0)
+			return null;
+		try {
+			return new BigDecimal(text);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> for <code>true</code> and <code>1</code>, <code>false</code> for
+	 * <code>false</code> and <code>0</code>, otherwise <code>null</code>
+	 */
+	public static Boolean parseBoolean(String text) {
+		text = text.trim();
+		if (text.equals("true") || text.equals("1"))
+			return Boolean.TRUE;
+		if (text.equals("false") || text.equals("0"))
+			return Boolean.FALSE;
+		return null;
+	}
+
+	public static <T> String marshal(XmlAdapter<String, T> adapter, T value) throws XMLStreamException {
+		try {
+			return adapter.marshal(value);
+		} catch (Exception e) {
+			throw new XMLStreamException("can't write " + value, e);
+		}
+	}
+
+	/**
+	 * @return the value, or <code>null</code> if the adapter can't read the text
+	 */
+	public static <T> T unmarshal(XmlAdapter<String, T> adapter, String text) {
+		try {
+			return adapter.unmarshal(text);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+}
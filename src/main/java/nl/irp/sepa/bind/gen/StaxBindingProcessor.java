@@ -0,0 +1,658 @@
+package nl.irp.sepa.bind.gen;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.FilerException;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementDecl;
+import javax.xml.bind.annotation.XmlEnum;
+import javax.xml.bind.annotation.XmlNsForm;
+import javax.xml.bind.annotation.XmlSchema;
+import javax.xml.bind.annotation.XmlType;
+import javax.xml.bind.annotation.XmlValue;
+
+/**
+ * Generates a StAX writer and reader for each JAXB model the build passes with the option
+ * <code>stax.documents</code>, a comma separated list of root classes, e.g.
+ * <code>-Astax.documents=iso.std.iso._20022.tech.xsd.pain_001_001.Document</code>.
+ *
+ * The <code>DocumentWriter</code> and <code>DocumentReader</code> go in the package of the
+ * model and read and write its fields directly, in the order of the JAXB annotations, see
+ * {@link nl.irp.sepa.bind.StaxBinding}. The model may only use what xjc generates for the
+ * ISO 20022 schemas: elements, attributes and a value of text, decimals, booleans, enums,
+ * adapters to text, and other classes of the model, once or as a list. Anything else fails
+ * the build, rather than being written differently from JAXB.
+ *
+ * Runs in the first round of every compilation, whether the model is compiled or read
+ * from the class files of an earlier one.
+ */
+@SupportedAnnotationTypes("*")
+@SupportedOptions(StaxBindingProcessor.DOCUMENTS)
+public class StaxBindingProcessor extends AbstractProcessor {
+
+	static final String DOCUMENTS = "stax.documents";
+
+	private static final String BINDING = "nl.irp.sepa.bind.StaxBinding";
+	private static final String ANNOTATION_PACKAGE = "javax.xml.bind.annotation.";
+	private static final List<String> SUPPORTED_ANNOTATIONS = Arrays.asList(
+			XmlElement.class.getName(), XmlAttribute.class.getName(), XmlValue.class.getName(),
+			"javax.xml.bind.annotation.XmlSchemaType", "javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter");
+
+	private boolean done;
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		if (done)
+			return false;
+		done = true;
+		String documents = processingEnv.getOptions().get(DOCUMENTS);
+		if (documents == null) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "no " + DOCUMENTS + " to generate a StAX binding for");
+			return false;
+		}
+		for (String name : documents.split(",")) {
+			TypeElement document = processingEnv.getElementUtils().getTypeElement(name.trim());
+			if (document == null) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "document class " + name.trim() + " not found");
+				continue;
+			}
+			try {
+				Model model = new Model(document);
+				write(model, "DocumentWriter", new WriterSource(model));
+				write(model, "DocumentReader", new ReaderSource(model));
+			} catch (UnsupportedException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.element);
+			} catch (IOException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "can't write the StAX binding: " + e, document);
+			}
+		}
+		return false;
+	}
+
+	private void write(Model model, String simpleName, Source source) throws IOException {
+		PrintWriter out;
+		try {
+			out = new PrintWriter(processingEnv.getFiler().createSourceFile(
+					model.packageName + "." + simpleName, model.document).openWriter());
+		} catch (FilerException e) {
+			// the generated source is compiled as it is
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, e.getMessage());
+			return;
+		}
+		try {
+			source.write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static class UnsupportedException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		final Element element;
+
+		UnsupportedException(String message, Element element) {
+			super(message);
+			this.element = element;
+		}
+
+	}
+
+	/**
+	 * How a value is written as text and read from it.
+	 */
+	enum ValueKind {
+		STRING, DECIMAL, BOOLEAN, PRIMITIVE_BOOLEAN, ENUM, ADAPTED, COMPLEX
+	}
+
+	enum PropertyKind {
+		ELEMENT, ATTRIBUTE, VALUE
+	}
+
+	static class Property {
+		PropertyKind kind;
+		String field;
+		String xmlName;
+		boolean list;
+		ValueKind valueKind;
+		/** The type of the value, or of an item of a list. */
+		String type;
+		/** The constant of the adapter in the generated classes. */
+		String adapter;
+	}
+
+	/**
+	 * The classes of a model reachable from its document class.
+	 */
+	class Model {
+
+		final TypeElement document;
+		final String packageName;
+		final String namespace;
+		final String rootName;
+		/** By qualified name, the document first. */
+		final Map<String, List<Property>> types = new LinkedHashMap<String, List<Property>>();
+		final Map<String, TypeElement> enums = new TreeMap<String, TypeElement>();
+		/** Adapter constant to adapter class. */
+		final Map<String, String> adapters = new TreeMap<String, String>();
+
+		Model(TypeElement document) {
+			this.document = document;
+			Elements elementUtils = processingEnv.getElementUtils();
+			PackageElement packageElement = elementUtils.getPackageOf(document);
+			packageName = packageElement.getQualifiedName().toString();
+			XmlSchema schema = packageElement.getAnnotation(XmlSchema.class);
+			if (schema == null || schema.elementFormDefault() != XmlNsForm.QUALIFIED)
+				throw new UnsupportedException("the package needs @XmlSchema with qualified elements", document);
+			namespace = schema.namespace();
+			rootName = rootName(elementUtils.getTypeElement(packageName + ".ObjectFactory"));
+			collect(document);
+		}
+
+		private String rootName(TypeElement objectFactory) {
+			if (objectFactory != null) {
+				for (ExecutableElement method : ElementFilter.methodsIn(objectFactory.getEnclosedElements())) {
+					XmlElementDecl decl = method.getAnnotation(XmlElementDecl.class);
+					if (decl != null && method.getParameters().size() == 1
+							&& processingEnv.getTypeUtils().isSameType(method.getParameters().get(0).asType(), document.asType()))
+						return decl.name();
+				}
+			}
+			throw new UnsupportedException("no @XmlElementDecl in the ObjectFactory for " + document, document);
+		}
+
+		private void collect(TypeElement type) {
+			String name = type.getQualifiedName().toString();
+			if (types.containsKey(name))
+				return;
+			// reserved before the properties, a type may contain itself
+			types.put(name, null);
+			List<Property> properties = properties(type);
+			types.put(name, properties);
+			for (Property property : properties) {
+				if (property.valueKind == ValueKind.COMPLEX)
+					collect(processingEnv.getElementUtils().getTypeElement(property.type));
+			}
+		}
+
+		private List<Property> properties(TypeElement type) {
+			if (type.getKind() != ElementKind.CLASS || type.getEnclosingElement().getKind() != ElementKind.PACKAGE
+					|| !type.getEnclosingElement().equals(document.getEnclosingElement()))
+				throw new UnsupportedException("not a top-level class of the package of the document: " + type, type);
+			if (!type.getSuperclass().toString().equals(Object.class.getName()))
+				throw new UnsupportedException("a superclass isn't supported: " + type, type);
+			XmlType xmlType = type.getAnnotation(XmlType.class);
+			if (xmlType == null)
+				throw new UnsupportedException("no @XmlType: " + type, type);
+
+			Map<String, VariableElement> fields = new LinkedHashMap<String, VariableElement>();
+			for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+				if (!field.getModifiers().contains(Modifier.STATIC) && !field.getModifiers().contains(Modifier.TRANSIENT))
+					fields.put(field.getSimpleName().toString(), field);
+			}
+
+			List<Property> properties = new ArrayList<Property>();
+			for (VariableElement field : new ArrayList<VariableElement>(fields.values())) {
+				if (field.getAnnotation(XmlAttribute.class) != null) {
+					properties.add(property(field, PropertyKind.ATTRIBUTE, field.getAnnotation(XmlAttribute.class).name()));
+					fields.remove(field.getSimpleName().toString());
+				}
+			}
+			List<String> order = new ArrayList<String>();
+			for (String name : xmlType.propOrder()) {
+				if (name.length() > 0)
+					order.add(name);
+			}
+			// without propOrder in the order of the fields
+			if (order.isEmpty())
+				order.addAll(fields.keySet());
+			for (String name : order) {
+				VariableElement field = fields.remove(name);
+				if (field == null)
+					throw new UnsupportedException("no field " + name + " in " + type, type);
+				if (field.getAnnotation(XmlValue.class) != null) {
+					properties.add(property(field, PropertyKind.VALUE, null));
+				} else {
+					XmlElement element = field.getAnnotation(XmlElement.class);
+					if (element != null && element.nillable())
+						throw new UnsupportedException("a nillable element isn't supported", field);
+					properties.add(property(field, PropertyKind.ELEMENT, element == null ? "##default" : element.name()));
+				}
+			}
+			if (!fields.isEmpty())
+				throw new UnsupportedException("fields not in propOrder: " + fields.keySet(), type);
+			return properties;
+		}
+
+		private Property property(VariableElement field, PropertyKind kind, String xmlName) {
+			for (AnnotationMirror annotation : field.getAnnotationMirrors()) {
+				String name = annotation.getAnnotationType().toString();
+				if (name.startsWith(ANNOTATION_PACKAGE) && !SUPPORTED_ANNOTATIONS.contains(name))
+					throw new UnsupportedException("@" + name + " isn't supported", field);
+			}
+			Property property = new Property();
+			property.kind = kind;
+			property.field = field.getSimpleName().toString();
+			property.xmlName = "##default".equals(xmlName) ? property.field : xmlName;
+
+			TypeMirror type = field.asType();
+			if (type.getKind() == TypeKind.DECLARED && processingEnv.getTypeUtils().erasure(type).toString().equals(List.class.getName())) {
+				if (kind != PropertyKind.ELEMENT)
+					throw new UnsupportedException("a list is only supported for elements", field);
+				property.list = true;
+				type = ((DeclaredType) type).getTypeArguments().get(0);
+			}
+
+			String adapter = adapter(field);
+			if (adapter != null) {
+				property.valueKind = ValueKind.ADAPTED;
+				property.type = type.toString();
+				property.adapter = constant(adapter.substring(adapter.lastIndexOf('.') + 1));
+				adapters.put(property.adapter, adapter);
+			} else if (type.getKind() == TypeKind.BOOLEAN) {
+				property.valueKind = ValueKind.PRIMITIVE_BOOLEAN;
+				property.type = "boolean";
+			} else if (type.getKind() == TypeKind.DECLARED) {
+				TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+				property.type = element.getQualifiedName().toString();
+				if (property.type.equals(String.class.getName())) {
+					property.valueKind = ValueKind.STRING;
+				} else if (property.type.equals(java.math.BigDecimal.class.getName())) {
+					property.valueKind = ValueKind.DECIMAL;
+				} else if (property.type.equals(Boolean.class.getName())) {
+					property.valueKind = ValueKind.BOOLEAN;
+				} else if (element.getKind() == ElementKind.ENUM && element.getAnnotation(XmlEnum.class) != null
+						&& element.getEnclosingElement().equals(document.getEnclosingElement())) {
+					property.valueKind = ValueKind.ENUM;
+					checkEnum(element);
+					enums.put(property.type, element);
+				} else if (element.getKind() == ElementKind.CLASS && element.getAnnotation(XmlType.class) != null
+						&& kind == PropertyKind.ELEMENT) {
+					property.valueKind = ValueKind.COMPLEX;
+				}
+			}
+			if (property.valueKind == null)
+				throw new UnsupportedException("type " + type + " isn't supported", field);
+			return property;
+		}
+
+		/**
+		 * @return the class of the XmlJavaTypeAdapter of the field, if any, which must adapt
+		 * to text
+		 */
+		private String adapter(VariableElement field) {
+			for (AnnotationMirror annotation : field.getAnnotationMirrors()) {
+				if (!annotation.getAnnotationType().toString().equals("javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter"))
+					continue;
+				for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : annotation.getElementValues().entrySet()) {
+					String name = value.getKey().getSimpleName().toString();
+					if (name.equals("type") && !value.getValue().getValue().toString().equals(String.class.getName()))
+						throw new UnsupportedException("only adapters to text are supported", field);
+				}
+				for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : annotation.getElementValues().entrySet()) {
+					if (value.getKey().getSimpleName().contentEquals("value")) {
+						TypeElement adapter = (TypeElement) ((DeclaredType) value.getValue().getValue()).asElement();
+						DeclaredType superclass = (DeclaredType) adapter.getSuperclass();
+						if (superclass.getTypeArguments().isEmpty()
+								|| !superclass.getTypeArguments().get(0).toString().equals(String.class.getName()))
+							throw new UnsupportedException("only adapters to text are supported", field);
+						return adapter.getQualifiedName().toString();
+					}
+				}
+			}
+			return null;
+		}
+
+		private void checkEnum(TypeElement element) {
+			boolean value = false;
+			boolean fromValue = false;
+			for (ExecutableElement method : ElementFilter.methodsIn(element.getEnclosedElements())) {
+				if (method.getSimpleName().contentEquals("value") && method.getParameters().isEmpty())
+					value = true;
+				if (method.getSimpleName().contentEquals("fromValue") && method.getParameters().size() == 1
+						&& method.getModifiers().contains(Modifier.STATIC))
+					fromValue = true;
+			}
+			if (!value || !fromValue)
+				throw new UnsupportedException("an enum needs value() and fromValue(String)", element);
+		}
+
+		/**
+		 * @return the name of the class relative to the package, which is unique
+		 */
+		String simpleName(String type) {
+			return type.substring(packageName.length() + 1);
+		}
+
+	}
+
+	/**
+	 * ISODateAdapter to ISO_DATE_ADAPTER.
+	 */
+	static String constant(String name) {
+		StringBuilder constant = new StringBuilder();
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			// at the start of a word, also of one after an acronym
+			if (i > 0 && Character.isUpperCase(c) && (Character.isLowerCase(name.charAt(i - 1))
+					|| i + 1 < name.length() && Character.isLowerCase(name.charAt(i + 1))))
+				constant.append('_');
+			constant.append(Character.toUpperCase(c));
+		}
+		return constant.toString();
+	}
+
+	static String quote(String value) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				quoted.append('\\');
+			quoted.append(c);
+		}
+		return quoted.append('"').toString();
+	}
+
+	abstract static class Source {
+
+		final Model model;
+
+		Source(Model model) {
+			this.model = model;
+		}
+
+		abstract void write(PrintWriter out);
+
+		void header(PrintWriter out, String comment) {
+			out.println("package " + model.packageName + ";");
+			out.println();
+			out.println("/**");
+			out.println(" * " + comment);
+			out.println(" *");
+			out.println(" * Generated by " + StaxBindingProcessor.class.getName() + " from the JAXB annotations of the model.");
+			out.println(" */");
+			out.println("@javax.annotation.Generated(" + quote(StaxBindingProcessor.class.getName()) + ")");
+		}
+
+		void adapters(PrintWriter out) {
+			for (Map.Entry<String, String> adapter : model.adapters.entrySet())
+				out.println("    private static final " + adapter.getValue() + " " + adapter.getKey() + " = new " + adapter.getValue() + "();");
+			if (!model.adapters.isEmpty())
+				out.println();
+		}
+
+	}
+
+	/**
+	 * Writes the fields that aren't <code>null</code>, lists item by item, in the order of
+	 * JAXB.
+	 */
+	static class WriterSource extends Source {
+
+		WriterSource(Model model) {
+			super(model);
+		}
+
+		@Override
+		void write(PrintWriter out) {
+			String document = model.simpleName(model.document.getQualifiedName().toString());
+			header(out, "Writes a {@link " + document + "} with StAX, as JAXB marshals it.");
+			out.println("public final class DocumentWriter {");
+			out.println();
+			out.println("    public static final String NAMESPACE = " + quote(model.namespace) + ";");
+			out.println();
+			adapters(out);
+			out.println("    private DocumentWriter() {");
+			out.println("    }");
+			out.println();
+			out.println("    /**");
+			out.println("     * Writes the document as UTF-8, byte for byte as the formatted output of JAXB.");
+			out.println("     */");
+			out.println("    public static void write(" + document + " document, java.io.OutputStream os) throws javax.xml.stream.XMLStreamException {");
+			out.println("        javax.xml.stream.XMLStreamWriter writer = new nl.irp.sepa.bind.FormattedXMLStreamWriter(os);");
+			out.println("        write(document, writer);");
+			out.println("        writer.close();");
+			out.println("    }");
+			out.println();
+			out.println("    public static void write(" + document + " document, javax.xml.stream.XMLStreamWriter writer) throws javax.xml.stream.XMLStreamException {");
+			out.println("        writer.writeStartDocument(\"UTF-8\", \"1.0\");");
+			out.println("        writer.setDefaultNamespace(NAMESPACE);");
+			out.println("        writer.writeStartElement(NAMESPACE, " + quote(model.rootName) + ");");
+			out.println("        writer.writeDefaultNamespace(NAMESPACE);");
+			out.println("        write" + methodName(document) + "(writer, document);");
+			out.println("        writer.writeEndElement();");
+			out.println("        writer.writeEndDocument();");
+			out.println("    }");
+			for (Map.Entry<String, List<Property>> type : model.types.entrySet()) {
+				String name = model.simpleName(type.getKey());
+				out.println();
+				out.println("    private static void write" + methodName(name) + "(javax.xml.stream.XMLStreamWriter writer, " + name + " value) throws javax.xml.stream.XMLStreamException {");
+				for (Property property : type.getValue())
+					property(out, property);
+				out.println("    }");
+			}
+			out.println();
+			out.println("}");
+		}
+
+		private void property(PrintWriter out, Property property) {
+			String field = "value." + property.field;
+			String indent = "        ";
+			if (property.valueKind != ValueKind.PRIMITIVE_BOOLEAN) {
+				out.println(indent + "if (" + field + " != null) {");
+				indent += "    ";
+			}
+			if (property.list) {
+				out.println(indent + "for (" + property.type + " item : " + field + ") {");
+				indent += "    ";
+				out.println(indent + "if (item == null)");
+				out.println(indent + "    continue;");
+				field = "item";
+			}
+			String xmlName = property.kind == PropertyKind.VALUE ? null : quote(property.xmlName);
+			if (property.valueKind == ValueKind.COMPLEX) {
+				out.println(indent + "writer.writeStartElement(NAMESPACE, " + xmlName + ");");
+				out.println(indent + "write" + methodName(model.simpleName(property.type)) + "(writer, " + field + ");");
+				out.println(indent + "writer.writeEndElement();");
+			} else if (property.kind == PropertyKind.ATTRIBUTE) {
+				out.println(indent + "writer.writeAttribute(" + xmlName + ", " + text(property, field) + ");");
+			} else if (property.kind == PropertyKind.VALUE) {
+				out.println(indent + "writer.writeCharacters(" + text(property, field) + ");");
+			} else {
+				out.println(indent + BINDING + ".writeElement(writer, NAMESPACE, " + xmlName + ", " + text(property, field) + ");");
+			}
+			if (property.list)
+				out.println(indent.substring(4) + "}");
+			if (property.valueKind != ValueKind.PRIMITIVE_BOOLEAN)
+				out.println("        }");
+		}
+
+		private String text(Property property, String value) {
+			switch (property.valueKind) {
+			case STRING:
+				return value;
+			case DECIMAL:
+				return value + ".toPlainString()";
+			case BOOLEAN:
+			case PRIMITIVE_BOOLEAN:
+				return "String.valueOf(" + value + ")";
+			case ENUM:
+				return value + ".value()";
+			case ADAPTED:
+				return BINDING + ".marshal(" + property.adapter + ", " + value + ")";
+			default:
+				throw new IllegalArgumentException(property.valueKind.toString());
+			}
+		}
+
+	}
+
+	/**
+	 * Reads into the fields, skipping unknown elements.
+	 */
+	static class ReaderSource extends Source {
+
+		ReaderSource(Model model) {
+			super(model);
+		}
+
+		@Override
+		void write(PrintWriter out) {
+			String document = model.simpleName(model.document.getQualifiedName().toString());
+			header(out, "Reads a {@link " + document + "} with StAX, as JAXB unmarshals it as the declared type: whatever the name of the root element.");
+			out.println("public final class DocumentReader {");
+			out.println();
+			out.println("    public static final String NAMESPACE = " + quote(model.namespace) + ";");
+			out.println();
+			adapters(out);
+			out.println("    private DocumentReader() {");
+			out.println("    }");
+			out.println();
+			out.println("    /**");
+			out.println("     * Reads the document, in the encoding it declares.");
+			out.println("     */");
+			out.println("    public static " + document + " read(java.io.InputStream is) throws javax.xml.stream.XMLStreamException {");
+			out.println("        javax.xml.stream.XMLStreamReader reader = " + BINDING + ".createReader(is);");
+			out.println("        try {");
+			out.println("            return read(reader);");
+			out.println("        } finally {");
+			out.println("            reader.close();");
+			out.println("        }");
+			out.println("    }");
+			out.println();
+			out.println("    /**");
+			out.println("     * Reads the document from the next element.");
+			out.println("     */");
+			out.println("    public static " + document + " read(javax.xml.stream.XMLStreamReader reader) throws javax.xml.stream.XMLStreamException {");
+			out.println("        if (reader.getEventType() != javax.xml.stream.XMLStreamConstants.START_ELEMENT && !" + BINDING + ".nextElement(reader))");
+			out.println("            throw new javax.xml.stream.XMLStreamException(\"no document\", reader.getLocation());");
+			out.println("        return read" + methodName(document) + "(reader);");
+			out.println("    }");
+			for (Map.Entry<String, List<Property>> type : model.types.entrySet())
+				type(out, model.simpleName(type.getKey()), type.getValue());
+			for (String type : model.enums.keySet()) {
+				String name = model.simpleName(type);
+				out.println();
+				out.println("    private static " + name + " read" + methodName(name) + "(String text) {");
+				out.println("        try {");
+				out.println("            return " + name + ".fromValue(text);");
+				out.println("        } catch (IllegalArgumentException e) {");
+				out.println("            return null;");
+				out.println("        }");
+				out.println("    }");
+			}
+			out.println();
+			out.println("}");
+		}
+
+		private void type(PrintWriter out, String name, List<Property> properties) {
+			out.println();
+			out.println("    private static " + name + " read" + methodName(name) + "(javax.xml.stream.XMLStreamReader reader) throws javax.xml.stream.XMLStreamException {");
+			out.println("        " + name + " value = new " + name + "();");
+			Property text = null;
+			List<Property> elements = new ArrayList<Property>();
+			for (Property property : properties) {
+				if (property.kind == PropertyKind.ATTRIBUTE) {
+					String attribute = property.field + "Attribute";
+					out.println("        String " + attribute + " = reader.getAttributeValue(null, " + quote(property.xmlName) + ");");
+					out.println("        if (" + attribute + " != null)");
+					out.println("            value." + property.field + " = " + value(property, attribute) + ";");
+				} else if (property.kind == PropertyKind.VALUE) {
+					text = property;
+				} else {
+					elements.add(property);
+				}
+			}
+			if (text != null) {
+				out.println("        value." + text.field + " = " + value(text, BINDING + ".readText(reader)") + ";");
+			} else if (elements.isEmpty()) {
+				out.println("        " + BINDING + ".skipElement(reader);");
+			} else {
+				out.println("        while (" + BINDING + ".nextElement(reader)) {");
+				out.println("            String name = reader.getLocalName();");
+				out.println("            if (!NAMESPACE.equals(reader.getNamespaceURI())) {");
+				out.println("                " + BINDING + ".skipElement(reader);");
+				String keyword = "} else if";
+				for (Property property : elements) {
+					out.println("            " + keyword + " (name.equals(" + quote(property.xmlName) + ")) {");
+					String read = property.valueKind == ValueKind.COMPLEX
+							? "read" + methodName(model.simpleName(property.type)) + "(reader)"
+							: value(property, BINDING + ".readText(reader)");
+					if (property.list) {
+						out.println("                if (value." + property.field + " == null)");
+						out.println("                    value." + property.field + " = new java.util.ArrayList<" + property.type + ">();");
+						out.println("                value." + property.field + ".add(" + read + ");");
+					} else {
+						out.println("                value." + property.field + " = " + read + ";");
+					}
+				}
+				out.println("            } else {");
+				out.println("                " + BINDING + ".skipElement(reader);");
+				out.println("            }");
+				out.println("        }");
+			}
+			out.println("        return value;");
+			out.println("    }");
+		}
+
+		private String value(Property property, String text) {
+			switch (property.valueKind) {
+			case STRING:
+				return text;
+			case DECIMAL:
+				return BINDING + ".parseDecimal(" + text + ")";
+			case BOOLEAN:
+				return BINDING + ".parseBoolean(" + text + ")";
+			case PRIMITIVE_BOOLEAN:
+				return "Boolean.TRUE.equals(" + BINDING + ".parseBoolean(" + text + "))";
+			case ENUM:
+				return "read" + methodName(model.simpleName(property.type)) + "(" + text + ")";
+			case ADAPTED:
+				return BINDING + ".unmarshal(" + property.adapter + ", " + text + ")";
+			default:
+				throw new IllegalArgumentException(property.valueKind.toString());
+			}
+		}
+
+	}
+
+	static String methodName(String simpleName) {
+		return simpleName.replace('.', '_');
+	}
+
+}
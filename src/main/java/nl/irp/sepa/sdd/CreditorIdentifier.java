@@ -0,0 +1,71 @@
+package nl.irp.sepa.sdd;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The SEPA Creditor Identifier (CI) identifies the creditor of a direct debit, e.g.
+ * <code>DE98ZZZ09999999999</code>. It consists of:
+ * <ul>
+ * <li>the ISO 3166-1 country code (2 letters)</li>
+ * <li>two check digits</li>
+ * <li>the creditor business code (3 characters, <code>ZZZ</code> if unused)</li>
+ * <li>the national identifier (up to 28 characters)</li>
+ * </ul>
+ * The check digits are calculated according to ISO 7064 Mod 97-10 over the national
+ * identifier followed by the country code, the business code is not part of it.
+ */
+public class CreditorIdentifier {
+
+	/**
+	 * @return <code>true</code> if the creditor identifier is well-formed and the check digits
+	 * are correct.
+	 */
+	public static boolean isValid(String ci) {
+		if (ci == null || ci.length() < 8 || ci.length() > 35)
+			return false;
+		for (int i = 0; i < ci.length(); i++) {
+			char c = ci.charAt(i);
+			boolean letter = c >= 'A' && c <= 'Z';
+			boolean digit = c >= '0' && c <= '9';
+			if (i < 2 && !letter || i >= 2 && i < 4 && !digit || !letter && !digit)
+				return false;
+		}
+
+		// national identifier, country code and check digits, mod 97 should be 1
+		int remainder = mod97(0, ci, 7, ci.length());
+		remainder = mod97(remainder, ci, 0, 4);
+		return remainder == 1;
+	}
+
+	/**
+	 * Calculates the check digits for a creditor identifier.
+	 * @param countryCode ISO 3166-1 country code, e.g. "DE"
+	 * @param businessCode creditor business code, "ZZZ" if unused
+	 * @param nationalId national identifier of the creditor
+	 * @return the complete creditor identifier
+	 */
+	public static String create(String countryCode, String businessCode, String nationalId) {
+		checkArgument(countryCode.length() == 2 && businessCode.length() == 3, "countryCode or businessCode has a wrong length");
+		String ci = countryCode + "00" + businessCode + nationalId;
+		int checkDigits = 98 - mod97(mod97(0, ci, 7, ci.length()), ci, 0, 4);
+		ci = countryCode + (checkDigits < 10 ? "0" : "") + checkDigits + businessCode + nationalId;
+		checkArgument(isValid(ci), "This doesn't look like a correct creditor identifier '"+ci+"'");
+		return ci;
+	}
+
+	/**
+	 * Continues the ISO 7064 Mod 97-10 calculation over a part of the text, letters count
+	 * as two digits A=10, B=11, ..., Z=35.
+	 */
+	private static int mod97(int remainder, String text, int begin, int end) {
+		for (int i = begin; i < end; i++) {
+			char c = text.charAt(i);
+			if (c >= 'A' && c <= 'Z')
+				remainder = (remainder * 100 + c - 'A' + 10) % 97;
+			else
+				remainder = (remainder * 10 + c - '0') % 97;
+		}
+		return remainder;
+	}
+
+}
@@ -1,28 +1,63 @@
 package nl.irp.sepa.sdd;
 
 import iso.std.iso._20022.tech.xsd.pain_008_001.*;
+import nl.irp.sepa.Amount;
+import nl.irp.sepa.ContentHash;
+import nl.irp.sepa.ControlSum;
+import nl.irp.sepa.CreditorReference;
+import nl.irp.sepa.DuplicateGuard;
+import nl.irp.sepa.MessageManifest;
+import nl.irp.sepa.PhaseTimer;
+import nl.irp.sepa.ProcessingListener;
+import nl.irp.sepa.ProcessingListener.Phase;
+import nl.irp.sepa.RecordArena;
+import nl.irp.sepa.RecordReader;
+import nl.irp.sepa.RecordSorter;
+import nl.irp.sepa.RecordStore;
+import nl.irp.sepa.RenderCache;
+import nl.irp.sepa.StagedList;
+import nl.irp.sepa.StagingBuffers;
+import nl.irp.sepa.SubtreeCache;
+import nl.irp.sepa.TargetCalendar;
+import nl.irp.sepa.TransactionOrder;
 import org.apache.commons.lang3.StringUtils;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.SetMultimap;
+import com.google.common.io.CountingOutputStream;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 import org.jdom2.Namespace;
 import org.jdom2.input.SAXBuilder;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
+import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
+import javax.xml.bind.MarshalException;
+import javax.xml.stream.XMLStreamException;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static nl.irp.sepa.sdd.Utils.*;
 
 
@@ -33,15 +68,342 @@ import static nl.irp.sepa.sdd.Utils.*;
  * @author "Jasper Krijgsman <jasper@irp.nl>"
  *
  */
-public class DirectDebitInitiation {
+public class DirectDebitInitiation implements Closeable {
 
 	private Document document = new Document();
 	private CustomerDirectDebitInitiationV02 customerDirectDebitInitiationV02;
 	private GroupHeader39 groupHeader;
+	private ControlSum controlSum;
+	private DuplicateGuard duplicateGuard;
+	// the PmtInfIds, InstrIds and EndToEndIds of this message, registered in the guard when it's written
+	private final SetMultimap<DuplicateGuard.Kind, String> newIds = LinkedHashMultimap.create();
+	private boolean validateCreditorIdentifiers;
+	private boolean adjustToBusinessDays;
+	private ProcessingListener listener = ProcessingListener.NOOP;
+	private PhaseTimer buildTimer = new PhaseTimer(listener, Phase.BUILD);
+	private final Map<SequenceType1Code, Integer> leadTimes = new EnumMap<SequenceType1Code, Integer>(SequenceType1Code.class);
+	private SubtreeCache<String, PartyIdentification32> parties;
+	private SubtreeCache<List<Object>, PartyIdentification32> addressedParties;
+	private SubtreeCache<String, PartyIdentification32> creditorSchemeIds;
+	private SubtreeCache<String, CashAccount16> accounts;
+	private SubtreeCache<String, BranchAndFinancialInstitutionIdentification4> agents;
+	private SubtreeCache<SequenceType1Code, PaymentTypeInformation20> paymentTypes;
+	private boolean concurrent;
+	private final List<PaymentInstruction> stagedInstructions = new ArrayList<PaymentInstruction>();
+	private boolean offHeapStaging;
+	private TransactionOrder sortOrder;
+	private String digestAlgorithm = MessageManifest.DEFAULT_ALGORITHM;
+	private RenderCache renderCache;
+	private File sortDirectory;
+	private long sortMemoryBudget;
+	private int sortThreads;
+	private final List<PaymentInstruction> offHeapInstructions = new ArrayList<PaymentInstruction>();
+	private boolean closed;
+
+	private static final Comparator<DirectDebitTransactionInformation9> BY_END_TO_END_ID = new Comparator<DirectDebitTransactionInformation9>() {
+		@Override
+		public int compare(DirectDebitTransactionInformation9 o1, DirectDebitTransactionInformation9 o2) {
+			return ComparisonChain.start()
+					.compare(o1.getPmtId().getEndToEndId(), o2.getPmtId().getEndToEndId(), Ordering.natural().nullsFirst())
+					.compare(o1.getPmtId().getInstrId(), o2.getPmtId().getInstrId(), Ordering.natural().nullsFirst())
+					.result();
+		}
+	};
 
 	public DirectDebitInitiation() {
 		customerDirectDebitInitiationV02 = new CustomerDirectDebitInitiationV02();
 		document.setCstmrDrctDbtInitn(customerDirectDebitInitiationV02);
+		for (SequenceType1Code type : SequenceType1Code.values())
+			leadTimes.put(type, 1);
+	}
+
+	/**
+	 * Checks the MsgId, PmtInfId, InstrId and EndToEndId of this message against the
+	 * identifiers used in earlier messages, and against each other. A duplicate identifier
+	 * is refused with an <code>IllegalArgumentException</code>. The identifiers are
+	 * registered in the guard when the message is written, a message that isn't written
+	 * uses none of them. Set the guard before building the message.
+	 * @param duplicateGuard the guard, or <code>null</code> to disable the check
+	 */
+	public void setDuplicateGuard(DuplicateGuard duplicateGuard) {
+		this.duplicateGuard = duplicateGuard;
+	}
+
+	/**
+	 * Checks the ISO 7064 check digits of every creditor identifier (CdtrSchmeId) passed to
+	 * this message. Off by default.
+	 */
+	public void setValidateCreditorIdentifiers(boolean validateCreditorIdentifiers) {
+		this.validateCreditorIdentifiers = validateCreditorIdentifiers;
+	}
+
+	private PartyIdentification32 creditorSchemeId(String cdtrSchmeId) {
+		if (validateCreditorIdentifiers)
+			checkArgument(CreditorIdentifier.isValid(cdtrSchmeId), "This doesn't look like a correct creditor identifier '"+cdtrSchmeId+"'");
+		return creditorSchemeIds != null ? creditorSchemeIds.get(cdtrSchmeId) : createIdParty(cdtrSchmeId);
+	}
+
+	/**
+	 * Reports the durations of building and writing this message, see {@link ProcessingListener}.
+	 */
+	public void setProcessingListener(ProcessingListener listener) {
+		this.listener = listener;
+		this.buildTimer = new PhaseTimer(listener, Phase.BUILD);
+	}
+
+	/**
+	 * Moves a requested collection date (ReqdColltnDt) that isn't a TARGET2 business day to the
+	 * next business day, and a date within the lead time of its sequence type to the first
+	 * possible date, see {@link #setLeadTime(SequenceType1Code, int)}. Off by default.
+	 */
+	public void setAdjustToBusinessDays(boolean adjustToBusinessDays) {
+		this.adjustToBusinessDays = adjustToBusinessDays;
+	}
+
+	/**
+	 * The number of TARGET2 business days between the creation of the message (CreDtTm) and
+	 * the collection date, 1 (D-1) for all sequence types by default. Used when
+	 * {@link #setAdjustToBusinessDays(boolean)} is enabled.
+	 */
+	public void setLeadTime(SequenceType1Code type, int businessDays) {
+		checkArgument(businessDays >= 0, "lead time is negative");
+		leadTimes.put(type, businessDays);
+	}
+
+	private LocalDate collectionDate(LocalDate reqdColltnDt, SequenceType1Code type) {
+		if (!adjustToBusinessDays)
+			return reqdColltnDt;
+		LocalDate collectionDate = TargetCalendar.nextBusinessDay(reqdColltnDt);
+		if (groupHeader != null) {
+			LocalDate earliest = TargetCalendar.addBusinessDays(groupHeader.getCreDtTm().toLocalDate(), leadTimes.get(type));
+			if (collectionDate.isBefore(earliest))
+				collectionDate = earliest;
+		}
+		return collectionDate;
+	}
+
+	private void checkUnique(DuplicateGuard.Kind kind, String id) {
+		if (duplicateGuard != null) {
+			synchronized (newIds) {
+				checkArgument(!newIds.containsEntry(kind, id) && !duplicateGuard.contains(kind, id), "%s '%s' was used before", kind, id);
+			}
+		}
+	}
+
+	/**
+	 * Keeps an identifier that passed {@link #checkUnique}, once nothing can fail anymore.
+	 */
+	private void keepId(DuplicateGuard.Kind kind, String id) {
+		if (duplicateGuard != null) {
+			synchronized (newIds) {
+				checkArgument(newIds.put(kind, id), "%s '%s' was used before", kind, id);
+			}
+		}
+	}
+
+	/**
+	 * Checks and keeps the identifiers of a transaction at once, so a transaction that is
+	 * refused keeps neither.
+	 */
+	private void keepTransactionIds(String instrId, String endToEndId) {
+		if (duplicateGuard != null) {
+			synchronized (newIds) {
+				checkUnique(DuplicateGuard.Kind.INSTR_ID, instrId);
+				checkUnique(DuplicateGuard.Kind.END_TO_END_ID, endToEndId);
+				newIds.put(DuplicateGuard.Kind.INSTR_ID, instrId);
+				newIds.put(DuplicateGuard.Kind.END_TO_END_ID, endToEndId);
+			}
+		}
+	}
+
+	private void registerIds() {
+		if (duplicateGuard != null) {
+			synchronized (newIds) {
+				// the MsgId of the current group header, it's not kept
+				if (groupHeader != null)
+					duplicateGuard.register(DuplicateGuard.Kind.MSG_ID, groupHeader.getMsgId());
+				for (DuplicateGuard.Kind kind : newIds.keySet())
+					duplicateGuard.register(kind, newIds.get(kind));
+				newIds.clear();
+			}
+		}
+	}
+
+	/**
+	 * Shares the creditor and debtor parties, creditor scheme identifications, accounts,
+	 * agents and payment type information of payment instructions and transactions added
+	 * from now on: identical input gives the same instance. This saves memory for batches
+	 * with few distinct counterparties, but the shared instances must not be modified. Off
+	 * by default.
+	 */
+	public void setShareSubtrees(boolean shareSubtrees) {
+		if (!shareSubtrees) {
+			parties = null;
+			addressedParties = null;
+			creditorSchemeIds = null;
+			accounts = null;
+			agents = null;
+			paymentTypes = null;
+			return;
+		}
+		parties = new SubtreeCache<String, PartyIdentification32>() {
+			@Override
+			protected PartyIdentification32 create(String nm) {
+				return createParty(nm);
+			}
+		};
+		addressedParties = new SubtreeCache<List<Object>, PartyIdentification32>() {
+			@SuppressWarnings("unchecked")
+			@Override
+			protected PartyIdentification32 create(List<Object> key) {
+				return createParty((String) key.get(0), (String) key.get(1), (List<String>) key.get(2));
+			}
+		};
+		creditorSchemeIds = new SubtreeCache<String, PartyIdentification32>() {
+			@Override
+			protected PartyIdentification32 create(String id) {
+				return createIdParty(id);
+			}
+		};
+		accounts = new SubtreeCache<String, CashAccount16>() {
+			@Override
+			protected CashAccount16 create(String iban) {
+				return createAccount(iban);
+			}
+		};
+		agents = new SubtreeCache<String, BranchAndFinancialInstitutionIdentification4>() {
+			@Override
+			protected BranchAndFinancialInstitutionIdentification4 create(String bic) {
+				return createFinInstnId(bic);
+			}
+		};
+		paymentTypes = new SubtreeCache<SequenceType1Code, PaymentTypeInformation20>() {
+			@Override
+			protected PaymentTypeInformation20 create(SequenceType1Code type) {
+				return makePaymentTypeInformation(type);
+			}
+		};
+	}
+
+	/**
+	 * Lets many threads add transactions to the payment instructions created from now on,
+	 * without a global lock. Every thread stages its transactions and totals on its own,
+	 * see {@link StagingBuffers}. Writing merges the staged transactions of an instruction
+	 * ordered by EndToEndId and InstrId, so the message doesn't depend on the scheduling of
+	 * the threads. Payment instructions are still created, and the message written, from one
+	 * thread after the adding threads are done. The BUILD phase isn't reported in this mode.
+	 * Off by default.
+	 */
+	public void setConcurrent(boolean concurrent) {
+		checkArgument(!concurrent || !offHeapStaging, "concurrent mode can't be combined with off-heap staging");
+		checkArgument(!concurrent || sortOrder == null, "concurrent mode can't be combined with sorting");
+		this.concurrent = concurrent;
+	}
+
+	/**
+	 * Keeps the transactions of the payment instructions created from now on as binary
+	 * records in a {@link RecordArena} outside the heap, instead of as JAXB objects. The
+	 * records are turned into XML one by one when the message is written. Transactions are
+	 * validated when added, but not built: <code>addTransaction</code> returns
+	 * <code>null</code>. Off by default.
+	 */
+	public void setOffHeapStaging(boolean offHeapStaging) {
+		checkArgument(!offHeapStaging || !concurrent, "off-heap staging can't be combined with concurrent mode");
+		this.offHeapStaging = offHeapStaging;
+	}
+
+	/**
+	 * Writes the transactions of the payment instructions created from now on in the given
+	 * order. The transactions are kept as binary records in a {@link RecordSorter}, which
+	 * spills sorted runs to files when they exceed the memory budget, so a payment
+	 * instruction can be larger than the heap. Transactions are validated when added, but not
+	 * built: <code>addTransaction</code> returns <code>null</code>. Takes precedence over
+	 * off-heap staging.
+	 * @param order the order, or <code>null</code> for the order the transactions were added in (default)
+	 * @param directory the directory of the spill files, deleted by {@link #close()}
+	 * @param memoryBudget the heap bytes the records of a payment instruction may take
+	 * @param threads the number of threads that sort and spill the runs of a payment instruction
+	 */
+	public void setSortOrder(TransactionOrder order, File directory, long memoryBudget, int threads) {
+		checkArgument(order == null || !concurrent, "sorting can't be combined with concurrent mode");
+		this.sortOrder = order;
+		this.sortDirectory = directory;
+		this.sortMemoryBudget = memoryBudget;
+		this.sortThreads = threads;
+	}
+
+	/**
+	 * Deletes the spill files and stops the sort threads of the sorted payment instructions,
+	 * and removes the records of the off-heap ones. The message can't be written anymore.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (PaymentInstruction paymentInstruction : offHeapInstructions)
+			paymentInstruction.records.clear();
+	}
+
+	/**
+	 * Copies the message from the cache when a message with the same contents was written
+	 * before, see {@link RenderCache}. The contents are hashed every time the message is
+	 * written, which takes about half as long as marshalling them. Off by default.
+	 */
+	public void setRenderCache(RenderCache renderCache) {
+		this.renderCache = renderCache;
+	}
+
+	private void mergeStaged() {
+		for (PaymentInstruction paymentInstruction : stagedInstructions)
+			paymentInstruction.merge();
+	}
+
+	private PartyIdentification32 party(String nm) {
+		return parties != null ? parties.get(nm) : createParty(nm);
+	}
+
+	private PartyIdentification32 party(String nm, String ctry, List<String> adrLine) {
+		if (addressedParties == null)
+			return createParty(nm, ctry, adrLine);
+		// the address lines are copied, the caller may reuse its list
+		return addressedParties.get(Arrays.<Object>asList(nm, ctry, new ArrayList<String>(adrLine)));
+	}
+
+	private CashAccount16 account(String iban) {
+		return accounts != null ? accounts.get(iban) : createAccount(iban);
+	}
+
+	private BranchAndFinancialInstitutionIdentification4 agent(String bic) {
+		return agents != null ? agents.get(bic) : createFinInstnId(bic);
+	}
+
+	private PaymentTypeInformation20 paymentType(SequenceType1Code type) {
+		return paymentTypes != null ? paymentTypes.get(type) : makePaymentTypeInformation(type);
+	}
+
+	private static PaymentTypeInformation20 makePaymentTypeInformation(SequenceType1Code type) {
+		// Payment Type Information
+		PaymentTypeInformation20 paymentTypeInformation = new PaymentTypeInformation20();
+
+		ServiceLevel8Choice serviceLevel8Choice = new ServiceLevel8Choice();
+		serviceLevel8Choice.setCd("SEPA");//Vaste waarde 'SEPA'
+		paymentTypeInformation.setSvcLvl(serviceLevel8Choice);
+
+		LocalInstrument2Choice localInstrument = new LocalInstrument2Choice();
+		localInstrument.setCd("CORE"); // "CORE" voor incasso's van particulieren
+		paymentTypeInformation.setLclInstrm(localInstrument);
+
+		//FRST eerste incasso binnen een serie op hetzelfde mandaat
+		//RCUR vervolgincasso binnen hetzelfde mandaat
+		//FNAL laatste incasso binnen hetzelfde mandaat
+		//OOFF enkelvoudige incasso zonder repetering
+		// Als de "Amendment indicator" (veld 2.50) op 'true' staat en de
+		// "Original Debtor Agent"(veld 2.58) is "SMNDA" dan moet "FRST" gekozen	worden
+		// Na een afwijzing van een "FRST" of "OOFF" moet een herhaling als "FRST" aangegeven worden
+		// Als een "FRST" gestorneerd of geretourneerd wordt (alleen bij type "CORE") moet deze als "RCUR" ingestuurd worden
+		// Als een "OOFF" gestorneerd of geretourneerd wordt (alleen bij type "CORE") kan deze alleen met een nieuw mandaat ingestuurd worden
+		paymentTypeInformation.setSeqTp(type);
+
+		return paymentTypeInformation;
 	}
 
 	/**
@@ -59,16 +421,18 @@ public class DirectDebitInitiation {
 			msgId = UUID.randomUUID().toString().replaceAll("-", "");
 		checkArgument(msgId.length()<=35, "length of setMsgId is more than 35");
 		checkArgument(msgId.length()>1, "length of setMsgId is less than 1");
+		checkUnique(DuplicateGuard.Kind.MSG_ID, msgId);
 		groupHeader.setMsgId(msgId);
 
 		// Date and time at which the message was created.
-		groupHeader.setCreDtTm( createXMLGregorianCalendar(date));
+		groupHeader.setCreDtTm( new DateTime(date));
 
 		// Number of individual transactions contained in the message.
 		groupHeader.setNbOfTxs("0");
 
 		//Total of all individual amounts included in the message.
 		groupHeader.setCtrlSum(BigDecimal.ZERO);
+		controlSum = new ControlSum();
 
 		// Party that initiates the payment.
 		groupHeader.setInitgPty( createParty(name) );
@@ -76,14 +440,97 @@ public class DirectDebitInitiation {
 		customerDirectDebitInitiationV02.setGrpHdr(groupHeader);
 	}
 
+	/**
+	 * Sets the algorithm of the digest in the {@link MessageManifest} returned by
+	 * {@link #writeWithManifest(OutputStream)}, <code>SHA-256</code> by default.
+	 */
+	public void setDigestAlgorithm(String digestAlgorithm) {
+		MessageManifest.messageDigest(digestAlgorithm);
+		this.digestAlgorithm = digestAlgorithm;
+	}
+
+	/**
+	 * Writes the message.
+	 */
 	public void write(OutputStream os) throws JAXBException {
-		JAXBContext jc = JAXBContext.newInstance(Document.class);
-		Marshaller marshaller = jc.createMarshaller();
-        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+		writeWithManifest(os);
+	}
 
-        // The UTF-8 character encoding standard must be used in the UNIFI messages.
-        marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
-        marshaller.marshal(new ObjectFactory().createDocument(document), os);
+	/**
+	 * Writes the message, and returns its totals, length and digest, computed while the
+	 * message is written.
+	 */
+	public MessageManifest writeWithManifest(OutputStream os) throws JAXBException {
+		checkState(!closed, "message is closed");
+		MessageDigest digest = MessageManifest.messageDigest(digestAlgorithm);
+		CountingOutputStream counter = new CountingOutputStream(new DigestOutputStream(os, digest));
+		if (renderCache == null) {
+			marshal(counter);
+		} else {
+			mergeStaged();
+			String key = contentHash();
+			try {
+				if (renderCache.copyTo(key, counter)) {
+					// not rendered, but built all the same
+					buildTimer.report();
+				} else {
+					RenderCache.Entry entry = renderCache.newEntry(key, counter);
+					try {
+						marshal(entry);
+						entry.commit();
+					} finally {
+						entry.abort();
+					}
+				}
+			} catch (IOException e) {
+				throw new MarshalException(e);
+			}
+		}
+		registerIds();
+		listener.written(nbOfTxs(), counter.getCount());
+		return new MessageManifest(groupHeader == null ? null : groupHeader.getMsgId(), nbOfTxs(),
+				controlSum == null ? BigDecimal.ZERO : controlSum.getCtrlSum(),
+				counter.getCount(), digestAlgorithm, digest.digest());
+	}
+
+	/**
+	 * The hash of everything in the message, including the staged transactions.
+	 */
+	private String contentHash() {
+		for (PaymentInstruction paymentInstruction : offHeapInstructions)
+			paymentInstruction.replaceTransactions();
+		try {
+			return ContentHash.of(document);
+		} finally {
+			for (PaymentInstruction paymentInstruction : offHeapInstructions)
+				paymentInstruction.restoreTransactions();
+		}
+	}
+
+	/**
+	 * Writes the message as UTF-8 with the writer generated at build time, see
+	 * {@link nl.irp.sepa.bind.StaxBinding}, byte for byte as a formatting JAXB marshaller.
+	 */
+	private void marshal(OutputStream os) throws JAXBException {
+		mergeStaged();
+		buildTimer.report();
+
+		PhaseTimer marshal = PhaseTimer.start(listener, Phase.MARSHAL);
+		for (PaymentInstruction paymentInstruction : offHeapInstructions)
+			paymentInstruction.replaceTransactions();
+		try {
+			DocumentWriter.write(document, os);
+		} catch (XMLStreamException e) {
+			throw new MarshalException(e);
+		} finally {
+			for (PaymentInstruction paymentInstruction : offHeapInstructions)
+				paymentInstruction.restoreTransactions();
+		}
+		marshal.stopAndReport();
+	}
+
+	private int nbOfTxs() {
+		return controlSum == null ? 0 : controlSum.getNbOfTxs();
 	}
 
 	/**
@@ -101,11 +548,16 @@ public class DirectDebitInitiation {
 	 * @throws IOException
 	 */
 	public void writeWithXmlnsXsi(ByteArrayOutputStream os) throws JAXBException, JDOMException, IOException {
+		checkState(!closed, "message is closed");
 		// 1- On écrit le XML dans l'outputstream
-		write(os);
+		marshal(os);
 
 		// 2- On ajoute le namespace xmlns:xsi au xml
+		PhaseTimer xsiRewrite = PhaseTimer.start(listener, Phase.XSI_REWRITE);
 		addSchemaInstanceToXml(os);
+		xsiRewrite.stopAndReport();
+		registerIds();
+		listener.written(nbOfTxs(), os.size());
 	}
 
 	private void addSchemaInstanceToXml(ByteArrayOutputStream os) throws JDOMException, IOException {
@@ -140,13 +592,39 @@ public class DirectDebitInitiation {
 				creditor, type,
 				creditorCountry, addressLines,
 				creditorAccount, creditorBic, cdtrSchmeId);
+		keepId(DuplicateGuard.Kind.PMT_INF_ID, pmtInfId);
 		this.customerDirectDebitInitiationV02.getPmtInf().add(paymentInstruction.getPaymentInstructionInformation());
 		return paymentInstruction;
 	}
 
+	/**
+	 * Removes a payment instruction without transactions from the message, e.g. one whose
+	 * first transaction was refused, so the message doesn't have an empty PmtInf. Its
+	 * PmtInfId can be used again.
+	 */
+	void removePaymentInstruction(PaymentInstruction paymentInstruction) {
+		PaymentInstructionInformation4 paymentInstructionInformation = paymentInstruction.getPaymentInstructionInformation();
+		checkArgument(paymentInstruction.controlSum.getNbOfTxs() == 0 && paymentInstructionInformation.getDrctDbtTxInf().isEmpty(),
+				"payment instruction %s has transactions", paymentInstructionInformation.getPmtInfId());
+		customerDirectDebitInitiationV02.getPmtInf().remove(paymentInstructionInformation);
+		stagedInstructions.remove(paymentInstruction);
+		if (offHeapInstructions.remove(paymentInstruction))
+			paymentInstruction.records.clear();
+		if (duplicateGuard != null) {
+			synchronized (newIds) {
+				newIds.remove(DuplicateGuard.Kind.PMT_INF_ID, paymentInstructionInformation.getPmtInfId());
+			}
+		}
+	}
+
 	public class PaymentInstruction {
 
 		private PaymentInstructionInformation4 paymentInstructionInformation;
+		private final ControlSum controlSum = new ControlSum();
+		private final StagingBuffers<DirectDebitTransactionInformation9> staging;
+		private final RecordStore records;
+		private final TransactionOrder order;
+		private List<?> transactions;
 
 		/**
 		 * collected from the debtor.
@@ -173,6 +651,7 @@ public class DirectDebitInitiation {
 			// unambiguously identify the payment information group within the message.
 			checkArgument(pmtInfId.length()<=35, "length of pmtInfId is more than 35");
 			checkArgument(pmtInfId.length()>1, "length of pmtInfId is less than 1");
+			checkUnique(DuplicateGuard.Kind.PMT_INF_ID, pmtInfId);
 			paymentInstructionInformation.setPmtInfId(pmtInfId);
 
 			// Specifies the means of payment that will be used to move the amount of money.
@@ -186,28 +665,43 @@ public class DirectDebitInitiation {
 			paymentInstructionInformation.setCtrlSum(BigDecimal.ZERO);
 
 			// TODO
-			paymentInstructionInformation.setPmtTpInf(makePaymentTypeInformation(type));
+			paymentInstructionInformation.setPmtTpInf(paymentType(type));
 
 			// Date and time at which the creditor requests that the amount of money is to be
 			// collected from the debtor.
-			paymentInstructionInformation.setReqdColltnDt( createXMLGregorianCalendarDate(reqdColltnDt) );
+			paymentInstructionInformation.setReqdColltnDt( collectionDate(new LocalDate(reqdColltnDt), type) );
 
 			// Party to which an amount of money is due.
-			paymentInstructionInformation.setCdtr( createParty(creditor, creditorCountry, addressLines) );
+			paymentInstructionInformation.setCdtr( party(creditor, creditorCountry, addressLines) );
 			// Unambiguous identification of the account of the creditor to which a credit entry will
 			// be posted as a result of the payment transaction. Only IBAN is allowed.
-			paymentInstructionInformation.setCdtrAcct( createAccount(creditorAccount) );
+			paymentInstructionInformation.setCdtrAcct( account(creditorAccount) );
 
-			paymentInstructionInformation.setCdtrAgt( createFinInstnId(creditorBic) );
+			paymentInstructionInformation.setCdtrAgt( agent(creditorBic) );
 
 			paymentInstructionInformation.setChrgBr(ChargeBearerType1Code.SLEV);
 
 			if (StringUtils.isNotBlank(cdtrSchmeId)) {
-				paymentInstructionInformation.setCdtrSchmeId(Utils.createIdParty(cdtrSchmeId));
+				paymentInstructionInformation.setCdtrSchmeId(creditorSchemeId(cdtrSchmeId));
 			}
 
-
-
+			// once it's valid, a refused instruction isn't written
+			if (concurrent) {
+				staging = new StagingBuffers<DirectDebitTransactionInformation9>();
+				stagedInstructions.add(this);
+			} else {
+				staging = null;
+			}
+			order = sortOrder;
+			if (order != null) {
+				records = new RecordSorter(sortDirectory, sortMemoryBudget, sortThreads);
+				offHeapInstructions.add(this);
+			} else if (offHeapStaging) {
+				records = new RecordArena();
+				offHeapInstructions.add(this);
+			} else {
+				records = null;
+			}
 		}
 
         /**
@@ -223,7 +717,7 @@ public class DirectDebitInitiation {
          * @param debtorCtry
          * @param debtorAdrLine
          * @param remittanceInformation
-         * @return
+         * @return the transaction, or <code>null</code> if the transactions are kept off the heap, see {@link #isOffHeap()}
          */
 		public DirectDebitTransactionInformation9 addTransaction(
 				String instructionIdentification, String endToEndIdentification,
@@ -251,7 +745,7 @@ public class DirectDebitInitiation {
          * @param remittanceInformation
          * @param debtorPreviousIban        le précédent iban du débiteur pour la même RUM (autorisation de prélèvement) s'il a changé et que c'est le premier prélèvement suivant ce changement d'iban
          * @param purposeCd
-         * @return
+         * @return the transaction, or <code>null</code> if the transactions are kept off the heap, see {@link #isOffHeap()}
          */
         public DirectDebitTransactionInformation9 addTransaction(
                 String instructionIdentification, String endToEndIdentification,
@@ -263,6 +757,129 @@ public class DirectDebitInitiation {
                 String debtorPreviousIban,
                 String purposeCd) {
 
+            return addTransaction(instructionIdentification, endToEndIdentification, Amount.of(amount, "EUR"), mandateId, dateOfSignature, cdtrSchmeId, debtor, debtorIban, debtorBic, debtorCtry, debtorAdrLine, createRmtInf(remittanceInformation), debtorPreviousIban, purposeCd);
+        }
+
+        /**
+         * Collection of an amount in any currency, e.g. CHF.
+         *
+         * @see #addTransaction(String, String, BigDecimal, String, LocalDate, String, String, String, String, String, List, String)
+         */
+        public DirectDebitTransactionInformation9 addTransaction(
+                String instructionIdentification, String endToEndIdentification,
+                Amount amount,
+                String mandateId, LocalDate dateOfSignature, String cdtrSchmeId,
+                String debtor, String debtorIban, String debtorBic,
+                String debtorCtry, List<String> debtorAdrLine,
+                String remittanceInformation) {
+
+            return addTransaction(instructionIdentification, endToEndIdentification, amount, mandateId, dateOfSignature, cdtrSchmeId, debtor, debtorIban, debtorBic, debtorCtry, debtorAdrLine, createRmtInf(remittanceInformation), null, "OTHR");
+        }
+
+        /**
+         * Collection with structured remittance information: a creditor reference instead of free text.
+         *
+         * @param creditorReference Reference assigned by the creditor, issued by ISO if it's a valid
+         * ISO 11649 creditor reference, see {@link CreditorReference}. maxLength: 35
+         * @see #addTransaction(String, String, BigDecimal, String, LocalDate, String, String, String, String, String, List, String, String, String)
+         */
+        public DirectDebitTransactionInformation9 addTransactionWithCreditorReference(
+                String instructionIdentification, String endToEndIdentification,
+                BigDecimal amount,
+                String mandateId, LocalDate dateOfSignature, String cdtrSchmeId,
+                String debtor, String debtorIban, String debtorBic,
+                String debtorCtry, List<String> debtorAdrLine,
+                String creditorReference,
+                String debtorPreviousIban,
+                String purposeCd) {
+
+            return addTransaction(instructionIdentification, endToEndIdentification, Amount.of(amount, "EUR"), mandateId, dateOfSignature, cdtrSchmeId, debtor, debtorIban, debtorBic, debtorCtry, debtorAdrLine, createRmtInf_struct(creditorReference), debtorPreviousIban, purposeCd);
+        }
+
+        private DirectDebitTransactionInformation9 addTransaction(
+                String instructionIdentification, String endToEndIdentification,
+                Amount amount,
+                String mandateId, LocalDate dateOfSignature, String cdtrSchmeId,
+                String debtor, String debtorIban, String debtorBic,
+                String debtorCtry, List<String> debtorAdrLine,
+                RemittanceInformation5 remittanceInformation,
+                String debtorPreviousIban,
+                String purposeCd) {
+            if (staging != null)
+                return createTransaction(instructionIdentification, endToEndIdentification, amount, mandateId, dateOfSignature, cdtrSchmeId, debtor, debtorIban, debtorBic, debtorCtry, debtorAdrLine, remittanceInformation, debtorPreviousIban, purposeCd);
+            buildTimer.start();
+            try {
+                return createTransaction(instructionIdentification, endToEndIdentification, amount, mandateId, dateOfSignature, cdtrSchmeId, debtor, debtorIban, debtorBic, debtorCtry, debtorAdrLine, remittanceInformation, debtorPreviousIban, purposeCd);
+            } finally {
+                buildTimer.stop();
+            }
+        }
+
+        private DirectDebitTransactionInformation9 createTransaction(
+                String instructionIdentification, String endToEndIdentification,
+                Amount amount,
+                String mandateId, LocalDate dateOfSignature, String cdtrSchmeId,
+                String debtor, String debtorIban, String debtorBic,
+                String debtorCtry, List<String> debtorAdrLine,
+                RemittanceInformation5 remittanceInformation,
+                String debtorPreviousIban,
+                String purposeCd) {
+
+            DirectDebitTransactionInformation9 directDebitTransactionInformation = null;
+            if (records != null) {
+                // the checks of newTransaction, the transaction is built when the message is written
+                createPaymentIdentification(instructionIdentification, endToEndIdentification);
+                createAmount(amount);
+                if (StringUtils.isNotBlank(cdtrSchmeId))
+                    creditorSchemeId(cdtrSchmeId);
+                agent(debtorBic);
+                party(debtor);
+            } else {
+                directDebitTransactionInformation = newTransaction(instructionIdentification, endToEndIdentification, amount, mandateId, dateOfSignature, cdtrSchmeId, debtor, debtorIban, debtorBic, remittanceInformation, debtorPreviousIban, purposeCd);
+            }
+            keepTransactionIds(instructionIdentification, endToEndIdentification);
+
+            if (records != null) {
+                if (order != null) {
+                    // the sort key
+                    records.putString(order == TransactionOrder.IBAN ? debtorIban : endToEndIdentification);
+                }
+                records.putString(instructionIdentification).putString(endToEndIdentification)
+                        .putLong(amount.getMinorUnits()).putString(amount.getCurrency())
+                        .putString(mandateId)
+                        .putInt(dateOfSignature == null ? 0 : (dateOfSignature.getYear() * 100 + dateOfSignature.getMonthOfYear()) * 100 + dateOfSignature.getDayOfMonth())
+                        .putString(cdtrSchmeId)
+                        .putString(debtor).putString(debtorIban).putString(debtorBic);
+                if (remittanceInformation.getUstrd().isEmpty())
+                    records.putInt(1).putString(remittanceInformation.getStrd().get(0).getCdtrRefInf().getRef());
+                else
+                    records.putInt(0).putString(remittanceInformation.getUstrd().get(0));
+                records.putString(debtorPreviousIban).putString(purposeCd);
+                records.endRecord();
+                addToTotals(amount);
+                return null;
+            }
+
+            if (staging != null) {
+                staging.add(directDebitTransactionInformation, amount);
+                return directDebitTransactionInformation;
+            }
+
+            paymentInstructionInformation.getDrctDbtTxInf().add(directDebitTransactionInformation);
+            addToTotals(amount);
+
+            return directDebitTransactionInformation;
+        }
+
+        private DirectDebitTransactionInformation9 newTransaction(
+                String instructionIdentification, String endToEndIdentification,
+                Amount amount,
+                String mandateId, LocalDate dateOfSignature, String cdtrSchmeId,
+                String debtor, String debtorIban, String debtorBic,
+                RemittanceInformation5 remittanceInformation,
+                String debtorPreviousIban,
+                String purposeCd) {
+
             DirectDebitTransactionInformation9 directDebitTransactionInformation = new DirectDebitTransactionInformation9();
 
             // Set of elements used to reference a payment instruction.
@@ -287,11 +904,11 @@ public class DirectDebitInitiation {
             }
 
             // Financial institution servicing an account for the debtor.
-            directDebitTransactionInformation.setDbtrAgt(createFinInstnId(debtorBic));
+            directDebitTransactionInformation.setDbtrAgt(agent(debtorBic));
 
             // Party that owes an amount of money to the (ultimate) creditor.
-            directDebitTransactionInformation.setDbtr(createParty(debtor));
-            directDebitTransactionInformation.setDbtrAcct(createAccount(debtorIban));
+            directDebitTransactionInformation.setDbtr(party(debtor));
+            directDebitTransactionInformation.setDbtrAcct(account(debtorIban));
 
             if (StringUtils.isNotBlank(purposeCd)) {
                 Purpose2Choice purpose = new Purpose2Choice();
@@ -299,73 +916,89 @@ public class DirectDebitInitiation {
                 directDebitTransactionInformation.setPurp(purpose);
             }
 
-            directDebitTransactionInformation.setRmtInf(createRmtInf(remittanceInformation));
+            directDebitTransactionInformation.setRmtInf(remittanceInformation);
 
-            paymentInstructionInformation.getDrctDbtTxInf().add(directDebitTransactionInformation);
+            return directDebitTransactionInformation;
+        }
 
-            // TODO:
-            BigDecimal ctrlSum = groupHeader.getCtrlSum();
-            ctrlSum = ctrlSum.add(amount);
-            groupHeader.setCtrlSum(ctrlSum);
+        private void addToTotals(Amount amount) {
+            DirectDebitInitiation.this.controlSum.add(amount);
+            controlSum.add(amount);
+            updateTotals();
+        }
 
-            int nbOfTxs = Integer.parseInt(groupHeader.getNbOfTxs());
-            nbOfTxs = nbOfTxs + 1;
-            groupHeader.setNbOfTxs(String.valueOf(nbOfTxs));
+        private void replaceTransactions() {
+            transactions = StagedList.replace(paymentInstructionInformation, "drctDbtTxInf", new StagedList<DirectDebitTransactionInformation9>(records) {
+                @Override
+                protected DirectDebitTransactionInformation9 decode(RecordReader reader) {
+                    if (order != null)
+                        reader.getString();
+                    String instructionIdentification = reader.getString();
+                    String endToEndIdentification = reader.getString();
+                    Amount amount = Amount.ofMinorUnits(reader.getLong(), reader.getString());
+                    String mandateId = reader.getString();
+                    int date = reader.getInt();
+                    LocalDate dateOfSignature = date == 0 ? null : new LocalDate(date / 10000, date / 100 % 100, date % 100);
+                    String cdtrSchmeId = reader.getString();
+                    String debtor = reader.getString();
+                    String debtorIban = reader.getString();
+                    String debtorBic = reader.getString();
+                    RemittanceInformation5 remittanceInformation = reader.getInt() == 0
+                            ? createRmtInf(reader.getString()) : createRmtInf_struct(reader.getString());
+                    String debtorPreviousIban = reader.getString();
+                    String purposeCd = reader.getString();
+                    return newTransaction(instructionIdentification, endToEndIdentification, amount, mandateId, dateOfSignature, cdtrSchmeId, debtor, debtorIban, debtorBic, remittanceInformation, debtorPreviousIban, purposeCd);
+                }
+            });
+        }
 
-            // TODO:
-            BigDecimal ictrlSum = paymentInstructionInformation.getCtrlSum();
-            ictrlSum = ictrlSum.add(amount);
-            paymentInstructionInformation.setCtrlSum(ictrlSum);
+        private void restoreTransactions() {
+            // closes the spill files of a write that failed
+            ((StagedList<?>) StagedList.replace(paymentInstructionInformation, "drctDbtTxInf", transactions)).close();
+            transactions = null;
+        }
 
-            int inbOfTxs = Integer.parseInt(paymentInstructionInformation.getNbOfTxs());
-            inbOfTxs = inbOfTxs + 1;
-            paymentInstructionInformation.setNbOfTxs(String.valueOf(inbOfTxs));
+        private void merge() {
+            ControlSum staged = staging.drainTo(paymentInstructionInformation.getDrctDbtTxInf(), BY_END_TO_END_ID);
+            if (staged.getNbOfTxs() == 0)
+                return;
+            DirectDebitInitiation.this.controlSum.add(staged);
+            controlSum.add(staged);
+            updateTotals();
+        }
 
-            return directDebitTransactionInformation;
+        private void updateTotals() {
+            groupHeader.setCtrlSum(DirectDebitInitiation.this.controlSum.getCtrlSum());
+            groupHeader.setNbOfTxs(String.valueOf(DirectDebitInitiation.this.controlSum.getNbOfTxs()));
+            paymentInstructionInformation.setCtrlSum(controlSum.getCtrlSum());
+            paymentInstructionInformation.setNbOfTxs(String.valueOf(controlSum.getNbOfTxs()));
         }
 
 		public PaymentInstructionInformation4 getPaymentInstructionInformation() {
 			return paymentInstructionInformation;
 		}
 
-
-		private PaymentTypeInformation20 makePaymentTypeInformation(SequenceType1Code type) {
-			// Payment Type Information
-			PaymentTypeInformation20 paymentTypeInformation = new PaymentTypeInformation20();
-
-			ServiceLevel8Choice serviceLevel8Choice = new ServiceLevel8Choice();
-			serviceLevel8Choice.setCd("SEPA");//Vaste waarde 'SEPA'
-			paymentTypeInformation.setSvcLvl(serviceLevel8Choice);
-
-			LocalInstrument2Choice localInstrument = new LocalInstrument2Choice();
-			localInstrument.setCd("CORE"); // "CORE" voor incasso's van particulieren
-			paymentTypeInformation.setLclInstrm(localInstrument);
-
-			//FRST eerste incasso binnen een serie op hetzelfde mandaat
-			//RCUR vervolgincasso binnen hetzelfde mandaat
-			//FNAL laatste incasso binnen hetzelfde mandaat
-			//OOFF enkelvoudige incasso zonder repetering
-			// Als de "Amendment indicator" (veld 2.50) op 'true' staat en de
-			// "Original Debtor Agent"(veld 2.58) is "SMNDA" dan moet "FRST" gekozen	worden
-			// Na een afwijzing van een "FRST" of "OOFF" moet een herhaling als "FRST" aangegeven worden
-			// Als een "FRST" gestorneerd of geretourneerd wordt (alleen bij type "CORE") moet deze als "RCUR" ingestuurd worden
-			// Als een "OOFF" gestorneerd of geretourneerd wordt (alleen bij type "CORE") kan deze alleen met een nieuw mandaat ingestuurd worden
-			paymentTypeInformation.setSeqTp(type);
-
-			return paymentTypeInformation;
+		/**
+		 * @return <code>true</code> if the transactions are kept as binary records outside
+		 * the heap, see {@link DirectDebitInitiation#setOffHeapStaging(boolean)} and
+		 * {@link DirectDebitInitiation#setSortOrder(TransactionOrder, File, long, int)}
+		 */
+		public boolean isOffHeap() {
+			return records != null;
 		}
 
+
 		private DirectDebitTransaction6 t(String mandateId, LocalDate dtOfSgntr, String cdtrSchmeId  ) {
 			DirectDebitTransaction6 transaction = new DirectDebitTransaction6();
 
 			MandateRelatedInformation6 mandateInf = new MandateRelatedInformation6();
 			mandateInf.setMndtId(mandateId);
-			mandateInf.setDtOfSgntr( createXMLGregorianCalendarDate(dtOfSgntr.toDate()));
+			mandateInf.setDtOfSgntr(dtOfSgntr);
 			mandateInf.setAmdmntInd(false);
 			transaction.setMndtRltdInf(mandateInf);
 
 			if (StringUtils.isNotBlank(cdtrSchmeId)) {
-				transaction.setCdtrSchmeId(createIdParty(cdtrSchmeId));
+				transaction.setCdtrSchmeId(creditorSchemeId(cdtrSchmeId));
 			}
 
 			return transaction;
@@ -0,0 +1,332 @@
+package nl.irp.sepa.sdd;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import iso.std.iso._20022.tech.xsd.pain_008_001.SequenceType1Code;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.joda.time.LocalDate;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Keeps track of the collections per mandate, so the sequence type of the next collection
+ * can be determined: the first collection on a mandate is a FRST, the following ones are RCUR.
+ * After a FNAL or OOFF collection the mandate can't be used anymore.
+ *
+ * Mandates are identified by mandate id (MndtId) and creditor identifier (CdtrSchmeId). The
+ * registry is a hash table of fixed size records in a memory-mapped file, so a lookup costs
+ * the same with a few or with millions of mandates. The capacity is fixed when the file is
+ * created.
+ *
+ * Instances are thread-safe.
+ */
+public class MandateRegistry implements Closeable {
+
+	private static final int MAGIC = 0x4d4e4454;
+	private static final int HEADER_SIZE = 64;
+	private static final int RECORD_SIZE = 128;
+	private static final int MAX_ID_LENGTH = 35;
+	private static final double MAX_LOAD = 0.75;
+
+	/** Each mapped segment holds 2^SEGMENT_BITS records. */
+	private static final int SEGMENT_BITS = 20;
+
+	// record layout
+	private static final int HASH = 0;
+	private static final int FIRST_COLLECTION = 8;
+	private static final int LAST_COLLECTION = 12;
+	private static final int SEQUENCE_TYPE = 16;
+	private static final int AMENDED = 17;
+	private static final int MANDATE_ID = 18;
+	private static final int CREDITOR_ID = MANDATE_ID + 1 + MAX_ID_LENGTH;
+	private static final int ORIGINAL_MANDATE_ID = CREDITOR_ID + 1 + MAX_ID_LENGTH;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer header;
+	private final MappedByteBuffer[] segments;
+	private final long slots;
+	private long count;
+
+	private MandateRegistry(File path, long expectedMandates) throws IOException {
+		file = new RandomAccessFile(path, "rw");
+		FileChannel channel = file.getChannel();
+		boolean created = file.length() == 0;
+		header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+		if (created) {
+			slots = Long.highestOneBit(Math.max(1024, (long) (expectedMandates / MAX_LOAD))) << 1;
+			header.putInt(0, MAGIC);
+			header.putLong(8, slots);
+		} else {
+			checkState(header.getInt(0) == MAGIC, "%s is not a mandate registry", path);
+			slots = header.getLong(8);
+			count = header.getLong(16);
+		}
+
+		int segmentSize = (int) Math.min(slots, 1 << SEGMENT_BITS);
+		segments = new MappedByteBuffer[(int) (slots / segmentSize)];
+		for (int i = 0; i < segments.length; i++) {
+			long position = HEADER_SIZE + (long) i * segmentSize * RECORD_SIZE;
+			segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) segmentSize * RECORD_SIZE);
+		}
+	}
+
+	/**
+	 * Opens the registry in the file, or creates a new one.
+	 * @param expectedMandates the number of mandates the registry should hold, only used when
+	 * the file is created
+	 */
+	public static MandateRegistry open(File file, long expectedMandates) throws IOException {
+		return new MandateRegistry(file, expectedMandates);
+	}
+
+	/**
+	 * The state of a mandate.
+	 */
+	public static class Mandate {
+		private final String mandateId;
+		private final String creditorId;
+		private final LocalDate firstCollection;
+		private final LocalDate lastCollection;
+		private final SequenceType1Code lastSequenceType;
+		private final boolean amended;
+		private final String originalMandateId;
+
+		Mandate(String mandateId, String creditorId, LocalDate firstCollection, LocalDate lastCollection,
+				SequenceType1Code lastSequenceType, boolean amended, String originalMandateId) {
+			this.mandateId = mandateId;
+			this.creditorId = creditorId;
+			this.firstCollection = firstCollection;
+			this.lastCollection = lastCollection;
+			this.lastSequenceType = lastSequenceType;
+			this.amended = amended;
+			this.originalMandateId = originalMandateId;
+		}
+
+		public String getMandateId() {
+			return mandateId;
+		}
+
+		public String getCreditorId() {
+			return creditorId;
+		}
+
+		/**
+		 * Date of the first collection, <code>null</code> if there was none.
+		 */
+		public LocalDate getFirstCollection() {
+			return firstCollection;
+		}
+
+		public LocalDate getLastCollection() {
+			return lastCollection;
+		}
+
+		/**
+		 * Sequence type of the last collection, <code>null</code> if there was none.
+		 */
+		public SequenceType1Code getLastSequenceType() {
+			return lastSequenceType;
+		}
+
+		/**
+		 * Whether the last collection was sent with the amendment indicator (AmdmntInd).
+		 */
+		public boolean isAmended() {
+			return amended;
+		}
+
+		/**
+		 * The original mandate identification (OrgnlMndtId) of the last amended collection.
+		 */
+		public String getOriginalMandateId() {
+			return originalMandateId;
+		}
+	}
+
+	/**
+	 * @return the mandate, or <code>null</code> if it isn't known
+	 */
+	public synchronized Mandate get(String mandateId, String creditorId) {
+		long slot = find(mandateId, creditorId);
+		if (slot < 0)
+			return null;
+		MappedByteBuffer segment = segment(slot);
+		int record = position(slot);
+		int sequenceType = segment.get(record + SEQUENCE_TYPE);
+		return new Mandate(mandateId, creditorId,
+				toDate(segment.getInt(record + FIRST_COLLECTION)),
+				toDate(segment.getInt(record + LAST_COLLECTION)),
+				sequenceType == 0 ? null : SequenceType1Code.values()[sequenceType - 1],
+				segment.get(record + AMENDED) != 0,
+				getString(segment, record + ORIGINAL_MANDATE_ID));
+	}
+
+	/**
+	 * Determines the sequence type of the next collection on the mandate.
+	 * @param last <code>true</code> if this is the last collection on the mandate
+	 * @return FRST for the first collection, RCUR or FNAL for the following ones
+	 * @throws IllegalStateException if the mandate was already used for a final or one-off collection
+	 */
+	public synchronized SequenceType1Code nextSequenceType(String mandateId, String creditorId, boolean last) {
+		long slot = find(mandateId, creditorId);
+		int sequenceType = slot < 0 ? 0 : segment(slot).get(position(slot) + SEQUENCE_TYPE);
+		if (sequenceType == 0)
+			return SequenceType1Code.FRST;
+		SequenceType1Code lastSequenceType = SequenceType1Code.values()[sequenceType - 1];
+		checkState(lastSequenceType != SequenceType1Code.FNAL && lastSequenceType != SequenceType1Code.OOFF,
+				"mandate '%s' was already used for a %s collection", mandateId, lastSequenceType);
+		return last ? SequenceType1Code.FNAL : SequenceType1Code.RCUR;
+	}
+
+	/**
+	 * Records a collection on the mandate.
+	 * @param originalMandateId the original mandate identification when the collection is
+	 * sent with the amendment indicator, otherwise <code>null</code>
+	 */
+	public synchronized void recordCollection(String mandateId, String creditorId, LocalDate collectionDate,
+			SequenceType1Code sequenceType, String originalMandateId) {
+		long slot = find(mandateId, creditorId);
+		if (slot < 0)
+			slot = insert(mandateId, creditorId);
+		MappedByteBuffer segment = segment(slot);
+		int record = position(slot);
+		int date = toInt(collectionDate);
+		if (segment.getInt(record + FIRST_COLLECTION) == 0)
+			segment.putInt(record + FIRST_COLLECTION, date);
+		segment.putInt(record + LAST_COLLECTION, date);
+		segment.put(record + SEQUENCE_TYPE, (byte) (sequenceType.ordinal() + 1));
+		segment.put(record + AMENDED, (byte) (originalMandateId != null ? 1 : 0));
+		putString(segment, record + ORIGINAL_MANDATE_ID, originalMandateId);
+	}
+
+	/**
+	 * Forgets the collections on the mandate, e.g. after the first collection was rejected.
+	 * The next collection will be a FRST again.
+	 */
+	public synchronized void resetSequence(String mandateId, String creditorId) {
+		long slot = find(mandateId, creditorId);
+		if (slot >= 0) {
+			MappedByteBuffer segment = segment(slot);
+			int record = position(slot);
+			segment.putInt(record + FIRST_COLLECTION, 0);
+			segment.putInt(record + LAST_COLLECTION, 0);
+			segment.put(record + SEQUENCE_TYPE, (byte) 0);
+		}
+	}
+
+	/**
+	 * @return the number of known mandates
+	 */
+	public synchronized long size() {
+		return count;
+	}
+
+	private long find(String mandateId, String creditorId) {
+		long hash = hash(mandateId, creditorId);
+		long slot = hash & (slots - 1);
+		long stored;
+		while ((stored = segment(slot).getLong(position(slot) + HASH)) != 0) {
+			if (stored == hash) {
+				MappedByteBuffer segment = segment(slot);
+				int record = position(slot);
+				if (mandateId.equals(getString(segment, record + MANDATE_ID))
+						&& creditorId.equals(getString(segment, record + CREDITOR_ID)))
+					return slot;
+			}
+			slot = (slot + 1) & (slots - 1);
+		}
+		return -1;
+	}
+
+	private long insert(String mandateId, String creditorId) {
+		checkState(count < slots * MAX_LOAD, "mandate registry is full, it holds %s mandates", count);
+		long hash = hash(mandateId, creditorId);
+		long slot = hash & (slots - 1);
+		while (segment(slot).getLong(position(slot) + HASH) != 0)
+			slot = (slot + 1) & (slots - 1);
+
+		MappedByteBuffer segment = segment(slot);
+		int record = position(slot);
+		putString(segment, record + MANDATE_ID, mandateId);
+		putString(segment, record + CREDITOR_ID, creditorId);
+		segment.putLong(record + HASH, hash);
+		header.putLong(16, ++count);
+		return slot;
+	}
+
+	private MappedByteBuffer segment(long slot) {
+		return segments[(int) (slot >>> SEGMENT_BITS)];
+	}
+
+	private int position(long slot) {
+		return (int) (slot & ((1 << SEGMENT_BITS) - 1)) * RECORD_SIZE;
+	}
+
+	private static String getString(MappedByteBuffer segment, int position) {
+		int length = segment.get(position);
+		if (length == 0)
+			return null;
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			bytes[i] = segment.get(position + 1 + i);
+		return new String(bytes, Charsets.UTF_8);
+	}
+
+	private static void putString(MappedByteBuffer segment, int position, String value) {
+		byte[] bytes = value == null ? new byte[0] : value.getBytes(Charsets.UTF_8);
+		checkArgument(bytes.length <= MAX_ID_LENGTH, "length of '%s' is more than 35", value);
+		segment.put(position, (byte) bytes.length);
+		for (int i = 0; i < bytes.length; i++)
+			segment.put(position + 1 + i, bytes[i]);
+	}
+
+	private static int toInt(LocalDate date) {
+		return date.getYear() * 10000 + date.getMonthOfYear() * 100 + date.getDayOfMonth();
+	}
+
+	private static LocalDate toDate(int date) {
+		return date == 0 ? null : new LocalDate(date / 10000, date / 100 % 100, date % 100);
+	}
+
+	private static long hash(String mandateId, String creditorId) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < mandateId.length(); i++) {
+			hash ^= mandateId.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= 0xFFFF;
+		hash *= 0x100000001b3L;
+		for (int i = 0; i < creditorId.length(); i++) {
+			hash ^= creditorId.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		// 0 marks an empty slot
+		return hash == 0 ? 1 : hash;
+	}
+
+	/**
+	 * Writes all changes to disk.
+	 */
+	public synchronized void sync() {
+		header.force();
+		for (MappedByteBuffer segment : segments)
+			segment.force();
+	}
+
+	public synchronized void close() throws IOException {
+		sync();
+		file.close();
+	}
+
+}
@@ -0,0 +1,172 @@
+package nl.irp.sepa.sdd;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import iso.std.iso._20022.tech.xsd.pain_008_001.DirectDebitTransactionInformation9;
+import iso.std.iso._20022.tech.xsd.pain_008_001.SequenceType1Code;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.irp.sepa.Amount;
+import nl.irp.sepa.sdd.DirectDebitInitiation.PaymentInstruction;
+
+import org.joda.time.LocalDate;
+
+import com.google.common.base.Objects;
+
+/**
+ * Adds collections to the payment instruction of their creditor, requested collection date
+ * and sequence type, creating the payment instruction when its first collection is added.
+ * The creditor is identified by its account and creditor identifier; the name, address
+ * and BIC of the first collection are used for the payment instruction, which isn't
+ * created if that collection is refused. Collection dates on the same day in the default
+ * time zone share a payment instruction.
+ *
+ * The payment instructions are found with one hash lookup per collection and appear in
+ * the message in the order of their first collection, so the same collections in the same
+ * order give the same message. The PmtInfId of a payment instruction is the given prefix
+ * followed by its number, e.g. "PAYID-1", "PAYID-2".
+ *
+ * Not thread-safe.
+ */
+public class PaymentInstructionRouter {
+
+	private static final class Key {
+		final String creditorAccount;
+		final String cdtrSchmeId;
+		final LocalDate reqdColltnDt;
+		final SequenceType1Code type;
+		final int hashCode;
+
+		Key(String creditorAccount, String cdtrSchmeId, LocalDate reqdColltnDt, SequenceType1Code type) {
+			this.creditorAccount = creditorAccount;
+			this.cdtrSchmeId = cdtrSchmeId;
+			this.reqdColltnDt = reqdColltnDt;
+			this.type = type;
+			this.hashCode = Objects.hashCode(creditorAccount, cdtrSchmeId, reqdColltnDt, type);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return hashCode == other.hashCode
+					&& type == other.type
+					&& creditorAccount.equals(other.creditorAccount)
+					&& Objects.equal(cdtrSchmeId, other.cdtrSchmeId)
+					&& reqdColltnDt.equals(other.reqdColltnDt);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	private final DirectDebitInitiation debitInitiation;
+	private final String pmtInfId;
+	private final Map<Key, PaymentInstruction> paymentInstructions = new HashMap<Key, PaymentInstruction>();
+	private final List<PaymentInstruction> ordered = new ArrayList<PaymentInstruction>();
+
+	/**
+	 * @param pmtInfId prefix of the PmtInfId of the payment instructions, max length: 28
+	 */
+	public PaymentInstructionRouter(DirectDebitInitiation debitInitiation, String pmtInfId) {
+		checkArgument(pmtInfId.length() <= 28, "length of pmtInfId is more than 28");
+		this.debitInitiation = debitInitiation;
+		this.pmtInfId = pmtInfId;
+	}
+
+	/**
+	 * Adds a collection to the payment instruction of its creditor, collection date and
+	 * sequence type.
+	 * @param cdtrSchmeId creditor identifier of the payment instruction
+	 * @see DirectDebitInitiation#paymentInstruction(String, Date, String, SequenceType1Code, String, List, String, String, String)
+	 * @see PaymentInstruction#addTransaction(String, String, Amount, String, LocalDate, String, String, String, String, String, List, String)
+	 */
+	public DirectDebitTransactionInformation9 addTransaction(
+			Date reqdColltnDt, SequenceType1Code type,
+			String creditor,
+			String creditorCountry, List<String> addressLines,
+			String creditorAccount, String creditorBic, String cdtrSchmeId,
+			String instructionIdentification, String endToEndIdentification,
+			Amount amount,
+			String mandateId, LocalDate dateOfSignature,
+			String debtor, String debtorIban, String debtorBic,
+			String debtorCtry, List<String> debtorAdrLine,
+			String remittanceInformation) {
+
+		// by day, like the payment instruction takes it, and immutable
+		Key key = new Key(creditorAccount, cdtrSchmeId, new LocalDate(reqdColltnDt), type);
+		PaymentInstruction paymentInstruction = paymentInstructions.get(key);
+		if (paymentInstruction != null) {
+			return paymentInstruction.addTransaction(
+					instructionIdentification, endToEndIdentification, amount,
+					mandateId, dateOfSignature, null,
+					debtor, debtorIban, debtorBic, debtorCtry, debtorAdrLine,
+					remittanceInformation);
+		}
+
+		paymentInstruction = debitInitiation.paymentInstruction(
+				pmtInfId + "-" + (ordered.size() + 1), reqdColltnDt,
+				creditor, type,
+				creditorCountry, addressLines,
+				creditorAccount, creditorBic, cdtrSchmeId);
+		DirectDebitTransactionInformation9 transaction;
+		try {
+			transaction = paymentInstruction.addTransaction(
+					instructionIdentification, endToEndIdentification, amount,
+					mandateId, dateOfSignature, null,
+					debtor, debtorIban, debtorBic, debtorCtry, debtorAdrLine,
+					remittanceInformation);
+		} catch (RuntimeException e) {
+			// a payment instruction must have a transaction
+			debitInitiation.removePaymentInstruction(paymentInstruction);
+			throw e;
+		}
+		paymentInstructions.put(key, paymentInstruction);
+		ordered.add(paymentInstruction);
+		return transaction;
+	}
+
+	/**
+	 * Adds a collection in euro.
+	 * @see #addTransaction(Date, SequenceType1Code, String, String, List, String, String, String, String, String, Amount, String, LocalDate, String, String, String, String, List, String)
+	 */
+	public DirectDebitTransactionInformation9 addTransaction(
+			Date reqdColltnDt, SequenceType1Code type,
+			String creditor,
+			String creditorCountry, List<String> addressLines,
+			String creditorAccount, String creditorBic, String cdtrSchmeId,
+			String instructionIdentification, String endToEndIdentification,
+			BigDecimal amount,
+			String mandateId, LocalDate dateOfSignature,
+			String debtor, String debtorIban, String debtorBic,
+			String debtorCtry, List<String> debtorAdrLine,
+			String remittanceInformation) {
+
+		return addTransaction(
+				reqdColltnDt, type,
+				creditor, creditorCountry, addressLines,
+				creditorAccount, creditorBic, cdtrSchmeId,
+				instructionIdentification, endToEndIdentification, Amount.of(amount, "EUR"),
+				mandateId, dateOfSignature,
+				debtor, debtorIban, debtorBic, debtorCtry, debtorAdrLine,
+				remittanceInformation);
+	}
+
+	/**
+	 * @return the payment instructions in the order they were created
+	 */
+	public List<PaymentInstruction> getPaymentInstructions() {
+		return Collections.unmodifiableList(ordered);
+	}
+
+}
@@ -0,0 +1,153 @@
+package nl.irp.sepa.sdd;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import iso.std.iso._20022.tech.xsd.pain_008_001.DirectDebitTransactionInformation9;
+import iso.std.iso._20022.tech.xsd.pain_008_001.SequenceType1Code;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.irp.sepa.sdd.DirectDebitInitiation.PaymentInstruction;
+
+import org.joda.time.LocalDate;
+
+/**
+ * Adds collections of one creditor and collection date to the payment instruction of the
+ * right sequence type (FRST, RCUR or FNAL), as determined by the {@link MandateRegistry}.
+ * A payment instruction is created per sequence type when its first transaction is added,
+ * and not if that transaction is refused; its PmtInfId is the given pmtInfId followed by
+ * the sequence type, e.g. "PAYID001-FRST".
+ *
+ * The collections are recorded in the registry by {@link #commit()}, after the message was
+ * written and submitted; a message that is built but not submitted, or built again, doesn't
+ * change the sequence of its mandates. A mandate can be collected once per router.
+ */
+public class SequenceTypeRouter {
+
+	private final DirectDebitInitiation debitInitiation;
+	private final MandateRegistry registry;
+	private final Map<SequenceType1Code, PaymentInstruction> paymentInstructions =
+			new EnumMap<SequenceType1Code, PaymentInstruction>(SequenceType1Code.class);
+	// the collections added since the last commit, by mandate id
+	private final Map<String, Collection> collections = new LinkedHashMap<String, Collection>();
+
+	private final String pmtInfId;
+	private final Date reqdColltnDt;
+	private final String creditor;
+	private final String creditorCountry;
+	private final List<String> addressLines;
+	private final String creditorAccount;
+	private final String creditorBic;
+	private final String cdtrSchmeId;
+
+	/**
+	 * @param pmtInfId prefix of the PmtInfId of the payment instructions, max length: 30
+	 * @param cdtrSchmeId creditor identifier, together with the mandate id it identifies the mandate
+	 * @see DirectDebitInitiation#paymentInstruction(String, Date, String, SequenceType1Code, String, List, String, String, String)
+	 */
+	public SequenceTypeRouter(
+			DirectDebitInitiation debitInitiation, MandateRegistry registry,
+			String pmtInfId, Date reqdColltnDt,
+			String creditor,
+			String creditorCountry, List<String> addressLines,
+			String creditorAccount, String creditorBic, String cdtrSchmeId) {
+		checkArgument(pmtInfId.length()<=30, "length of pmtInfId is more than 30");
+		this.debitInitiation = debitInitiation;
+		this.registry = registry;
+		this.pmtInfId = pmtInfId;
+		this.reqdColltnDt = reqdColltnDt;
+		this.creditor = creditor;
+		this.creditorCountry = creditorCountry;
+		this.addressLines = addressLines;
+		this.creditorAccount = creditorAccount;
+		this.creditorBic = creditorBic;
+		this.cdtrSchmeId = cdtrSchmeId;
+	}
+
+	/**
+	 * Adds a collection to the payment instruction of its sequence type.
+	 * @param last <code>true</code> if this is the last collection on the mandate (FNAL)
+	 * @throws IllegalStateException if the mandate was already used for a final or one-off collection
+	 * @throws IllegalArgumentException if the mandate is already collected by this router
+	 * @see PaymentInstruction#addTransaction(String, String, BigDecimal, String, LocalDate, String, String, String, String, String, List, String, String, String)
+	 */
+	public DirectDebitTransactionInformation9 addTransaction(
+			String instructionIdentification, String endToEndIdentification,
+			BigDecimal amount,
+			String mandateId, LocalDate dateOfSignature,
+			String debtor, String debtorIban, String debtorBic,
+			String debtorCtry, List<String> debtorAdrLine,
+			String remittanceInformation,
+			String debtorPreviousIban,
+			boolean last) {
+
+		checkArgument(!collections.containsKey(mandateId), "mandate '%s' is already collected in this message", mandateId);
+		SequenceType1Code type = registry.nextSequenceType(mandateId, cdtrSchmeId, last);
+		PaymentInstruction paymentInstruction = paymentInstructions.get(type);
+		boolean created = paymentInstruction == null;
+		if (created) {
+			paymentInstruction = debitInitiation.paymentInstruction(
+					pmtInfId + "-" + type.value(), reqdColltnDt,
+					creditor, type,
+					creditorCountry, addressLines,
+					creditorAccount, creditorBic, cdtrSchmeId);
+		}
+		DirectDebitTransactionInformation9 transaction;
+		try {
+			transaction = paymentInstruction.addTransaction(
+					instructionIdentification, endToEndIdentification, amount,
+					mandateId, dateOfSignature, null,
+					debtor, debtorIban, debtorBic, debtorCtry, debtorAdrLine,
+					remittanceInformation, debtorPreviousIban, "OTHR");
+		} catch (RuntimeException e) {
+			// a payment instruction must have a transaction
+			if (created)
+				debitInitiation.removePaymentInstruction(paymentInstruction);
+			throw e;
+		}
+		if (created)
+			paymentInstructions.put(type, paymentInstruction);
+		// the collection date may have been moved to a business day
+		LocalDate collectionDate = paymentInstruction.getPaymentInstructionInformation().getReqdColltnDt();
+		collections.put(mandateId, new Collection(collectionDate, type, debtorPreviousIban));
+		return transaction;
+	}
+
+	/**
+	 * Records the collections added since the last commit in the registry. Call this once
+	 * the message is written and submitted.
+	 */
+	public void commit() {
+		for (Map.Entry<String, Collection> entry : collections.entrySet()) {
+			Collection collection = entry.getValue();
+			registry.recordCollection(entry.getKey(), cdtrSchmeId, collection.date, collection.type, collection.originalMandateId);
+		}
+		collections.clear();
+	}
+
+	/**
+	 * @return the payment instruction of the sequence type, or <code>null</code> if it has no
+	 * transactions
+	 */
+	public PaymentInstruction getPaymentInstruction(SequenceType1Code type) {
+		return paymentInstructions.get(type);
+	}
+
+	private static class Collection {
+		final LocalDate date;
+		final SequenceType1Code type;
+		final String originalMandateId;
+
+		Collection(LocalDate date, SequenceType1Code type, String originalMandateId) {
+			this.date = date;
+			this.type = type;
+			this.originalMandateId = originalMandateId;
+		}
+	}
+
+}
@@ -33,52 +33,65 @@ import javax.xml.datatype.DatatypeConstants;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 
+import nl.irp.sepa.Amount;
+import nl.irp.sepa.CreditorReference;
+import nl.irp.sepa.SEPACharacterSet;
+
 public class Utils {
 	
 	
 	private static Pattern bicRegex =
 			Pattern.compile("([a-zA-Z]{4}[a-zA-Z]{2}[a-zA-Z0-9]{2}([a-zA-Z0-9]{3})?)");
 
-	public static XMLGregorianCalendar createXMLGregorianCalendar(Date currentDateTime) {
-		GregorianCalendar calendar = new GregorianCalendar();
-		calendar.setTime(currentDateTime);
+	// looked up once, DatatypeFactory.newInstance() searches the class path
+	private static final DatatypeFactory datatypeFactory;
 
-		XMLGregorianCalendar createDate;
+	static {
 		try {
-			createDate = DatatypeFactory.newInstance().newXMLGregorianCalendar(calendar);
-			createDate.setMillisecond(DatatypeConstants.FIELD_UNDEFINED);
-			createDate.setTimezone(DatatypeConstants.FIELD_UNDEFINED);
+			datatypeFactory = DatatypeFactory.newInstance();
 		} catch (DatatypeConfigurationException e) {
 			throw new RuntimeException(e);
 		}
+	}
 
+	/**
+	 * ISODateTime of a date in the default time zone, without milliseconds and time zone.
+	 * @deprecated the models use Joda Time types for ISODate and ISODateTime, see bindings.xjb
+	 */
+	@Deprecated
+	public static XMLGregorianCalendar createXMLGregorianCalendar(Date currentDateTime) {
+		GregorianCalendar calendar = new GregorianCalendar();
+		calendar.setTime(currentDateTime);
+
+		XMLGregorianCalendar createDate = datatypeFactory.newXMLGregorianCalendar(calendar);
+		createDate.setMillisecond(DatatypeConstants.FIELD_UNDEFINED);
+		createDate.setTimezone(DatatypeConstants.FIELD_UNDEFINED);
 		return createDate;
 	}
-	
+
+	/**
+	 * ISODate of a date in the default time zone.
+	 * @deprecated the models use Joda Time types for ISODate and ISODateTime, see bindings.xjb
+	 */
+	@Deprecated
 	public static XMLGregorianCalendar createXMLGregorianCalendarDate(Date currentDateTime) {
 		GregorianCalendar calendar = new GregorianCalendar();
 		calendar.setTime(currentDateTime);
 
-		XMLGregorianCalendar createDate;
-		try {
-			createDate = DatatypeFactory.newInstance().newXMLGregorianCalendarDate(
+		return datatypeFactory.newXMLGregorianCalendarDate(
 				calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH)+1, calendar.get(Calendar.DAY_OF_MONTH),
 				DatatypeConstants.FIELD_UNDEFINED);
-		} catch (DatatypeConfigurationException e) {
-			throw new RuntimeException(e);
-		}
-
-		return createDate;
 	}
 	
 	/**
 	 * Information supplied to enable the matching of an entry with the items that the
 	 * transfer is intended to settle, such as commercial invoices in an accounts' receivable
 	 * system
-	 * max length: 140
+	 * max length: 140, longer text is truncated
 	 * @return
 	 */
 	public static RemittanceInformation5 createRmtInf(String info) {
+		info = SEPACharacterSet.sanitize(info, 140);
 		checkMax140Text(info);
 		
 		RemittanceInformation5 remittanceInformation = new RemittanceInformation5();
@@ -90,7 +103,7 @@ public class Utils {
 	 * Information supplied to enable the matching of an entry with the items that the
 	 * transfer is intended to settle, such as commercial invoices in an accounts' receivable
 	 * system
-	 * max length: 140
+	 * max length: 35, the issuer is ISO for a valid ISO 11649 creditor reference
 	 * @return
 	 */
 	public static RemittanceInformation5 createRmtInf_struct(String ref) {
@@ -106,6 +119,10 @@ public class Utils {
 		CreditorReferenceType1Choice creditorReferenceType1Choice = new CreditorReferenceType1Choice();	
 		creditorReferenceType1Choice.setCd(DocumentType3Code.SCOR);
 		creditorReferenceType.setCdOrPrtry(creditorReferenceType1Choice);
+		if (CreditorReference.isValid(ref)) {
+			// ISO 11649 creditor reference, any other reference is proprietary
+			creditorReferenceType.setIssr("ISO");
+		}
 		creditorReferenceInformation.setTp(creditorReferenceType);
 		
 		creditorReferenceInformation.setRef(ref);
@@ -136,8 +153,14 @@ public class Utils {
 		return account;
 	}
 	
+	/**
+	 * Party with a name, transliterated to the SEPA character set.
+	 * max length: 70, a longer name is truncated; optional
+	 */
 	public static PartyIdentification32 createParty(String nm) {
-		checkMax70Text(nm);
+		nm = sanitizeName(nm);
+		if (nm != null)
+			checkMax70Text(nm);
 		
 		PartyIdentification32 party = new PartyIdentification32();
 		party.setNm(nm);
@@ -145,7 +168,9 @@ public class Utils {
 	}
 	
 	public static PartyIdentification32 createParty(String nm, String ctry, List<String> adrLine) {
-		checkMax70Text(nm);
+		nm = sanitizeName(nm);
+		if (nm != null)
+			checkMax70Text(nm);
 		
 		PartyIdentification32 party = new PartyIdentification32();
 		party.setNm(nm);
@@ -158,6 +183,17 @@ public class Utils {
 		return party;
 	}
 	
+	/**
+	 * The name transliterated and truncated to 70 characters; <code>null</code>, and a name
+	 * without any character that can be transliterated, as it is.
+	 */
+	private static String sanitizeName(String nm) {
+		if (nm == null)
+			return null;
+		String sanitized = SEPACharacterSet.sanitize(nm, 70);
+		return sanitized.isEmpty() ? nm : sanitized;
+	}
+
 	public static PartyIdentification32 createIdParty(String id) {	
 		PartyIdentification32 party = new PartyIdentification32();
 		Party6Choice idChoice = new Party6Choice();
@@ -213,6 +249,16 @@ public class Utils {
 		instdAmt.setCcy("EUR");
 		return instdAmt;
 	}
+
+	/**
+	 * Instructed amount in the currency of the amount, with the number of decimals of the currency.
+	 */
+	public static ActiveOrHistoricCurrencyAndAmount createAmount(Amount amount) {
+		ActiveOrHistoricCurrencyAndAmount instdAmt = new ActiveOrHistoricCurrencyAndAmount();
+		instdAmt.setValue(amount.toBigDecimal());
+		instdAmt.setCcy(amount.getCurrency());
+		return instdAmt;
+	}
 	
 	private static void checkMax35Text(String text) {
 		checkArgument(text.length()<=35, "length of field is more than 35");
@@ -0,0 +1,110 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+
+import javax.xml.bind.JAXBException;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+public class AmountTest {
+
+	@Test
+	public void testMinorUnits() {
+		assertThat(Amount.of("1.01", "EUR").getMinorUnits(), is(101L));
+		assertThat(Amount.of("386", "EUR").getMinorUnits(), is(38600L));
+		assertThat(Amount.of("1.0100", "CHF").getMinorUnits(), is(101L));
+		assertThat(Amount.of("435678.50", "SEK").getMinorUnits(), is(43567850L));
+		assertThat(Amount.of("100", "JPY").getMinorUnits(), is(100L));
+		assertThat(Amount.of("1.001", "BHD").getMinorUnits(), is(1001L));
+
+		assertThat(Amount.of("386", "EUR").toBigDecimal(), is(new BigDecimal("386.00")));
+		assertThat(Amount.ofMinorUnits(100, "JPY").toBigDecimal(), is(new BigDecimal("100")));
+		assertThat(Amount.ofMinorUnits(-101, "EUR").toString(), is("EUR -1.01"));
+		assertThat(Amount.of("1.01", "EUR"), is(Amount.ofMinorUnits(101, "EUR")));
+	}
+
+	@Test
+	public void testRefused() {
+		try {
+			Amount.of("1.001", "EUR");
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getMessage(), is("amount 1.001 has more than 2 decimals for EUR"));
+		}
+		try {
+			Amount.of("1.5", "JPY");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			Amount.of("1.01", "EUR").plus(Amount.of("1.01", "CHF"));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void testOverflow() {
+		Amount.ofMinorUnits(Long.MAX_VALUE, "EUR").plus(Amount.ofMinorUnits(1, "EUR"));
+	}
+
+	@Test
+	public void testControlSum() {
+		ControlSum controlSum = new ControlSum();
+		assertThat(controlSum.getCtrlSum(), is(BigDecimal.ZERO));
+
+		controlSum.add(Amount.of("100", "JPY"));
+		assertThat(controlSum.getCtrlSum(), is(new BigDecimal("100")));
+		controlSum.add(Amount.of("1.01", "EUR"));
+		controlSum.add(Amount.of("1.001", "BHD"));
+		controlSum.add(Amount.of("2.50", "CHF"));
+		assertThat(controlSum.getCtrlSum(), is(new BigDecimal("104.511")));
+		assertThat(controlSum.getNbOfTxs(), is(4));
+	}
+
+	@Test
+	public void testMergeControlSums() {
+		ControlSum first = new ControlSum();
+		first.add(Amount.of("100", "JPY"));
+		ControlSum second = new ControlSum();
+		second.add(Amount.of("1.001", "BHD"));
+		second.add(Amount.of("1.01", "EUR"));
+		first.add(second);
+		assertThat(first.getCtrlSum(), is(new BigDecimal("102.011")));
+		assertThat(first.getNbOfTxs(), is(3));
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void testControlSumOverflow() {
+		ControlSum controlSum = new ControlSum();
+		controlSum.add(Amount.ofMinorUnits(Long.MAX_VALUE / 10, "JPY"));
+		controlSum.add(Amount.ofMinorUnits(1, "EUR"));
+	}
+
+	@Test
+	public void testCreditTransfer() throws JAXBException {
+		SEPACreditTransfer transfer = new SEPACreditTransfer();
+		transfer.buildGroupHeader("MSGID005", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		SEPACreditTransfer.PaymentGroup paymentGroup = transfer.paymentGroup(
+				"PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "CH9300762011623852957", "UBSWCHZH");
+		paymentGroup.creditTransfer("E2EID001", Amount.of("1.01", "CHF"), "UBSWCHZH", "NAAM cdtr", "CH9300762011623852957", "Ref. 2012.0386");
+		paymentGroup.creditTransfer("E2EID002", Amount.of("2", "CHF"), "UBSWCHZH", "NAAM cdtr", "CH9300762011623852957", "Ref. 2012.0387");
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		transfer.write(stream);
+		String xml = new String(stream.toByteArray()).replaceAll("\\s", "");
+		assertTrue(xml, xml.contains("<InstdAmtCcy=\"CHF\">2.00</InstdAmt>"));
+		assertTrue(xml, xml.contains("<NbOfTxs>2</NbOfTxs><CtrlSum>3.01</CtrlSum>"));
+	}
+
+}
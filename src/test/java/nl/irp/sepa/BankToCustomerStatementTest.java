@@ -3,8 +3,14 @@ package nl.irp.sepa;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import javax.xml.bind.JAXBException;
 
@@ -39,7 +45,43 @@ public class BankToCustomerStatementTest {
 		assertThat(stmt.getFrDt(), is(new DateTime("2010-10-18T08:00:00+01:00").toDate()));
 		assertThat(stmt.getToDt(), is(new DateTime("2010-10-18T17:00:00+01:00").toDate()));
 		
-		
+		// the closing balance is the opening balance plus the entries
+		Amount balance = stmt.getBalAmts().get(0);
+		assertThat(balance, is(Amount.of("500000", "SEK")));
+		for (Amount amount : stmt.getNtryAmts())
+			balance = balance.plus(amount);
+		assertThat(balance, is(stmt.getBalAmts().get(1)));
+		assertThat(stmt.getNtryAmts().get(1), is(Amount.of("-200000", "SEK")));
+	}
+
+	@Test
+	public void testReadAll() throws JAXBException, IOException {
+		byte[] xml = Resources.toByteArray(Resources.getResource("camt.053.001.02.xml"));
+
+		ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+		ZipOutputStream zip = new ZipOutputStream(zipped);
+		zip.putNextEntry(new ZipEntry("statements/"));
+		zip.closeEntry();
+		for (String name : new String[] { "statements/1.xml", "statements/2.xml" }) {
+			zip.putNextEntry(new ZipEntry(name));
+			zip.write(xml);
+			zip.closeEntry();
+		}
+		zip.close();
+		List<BankToCustomerStatement> statements = BankToCustomerStatement.readAll(new ByteArrayInputStream(zipped.toByteArray()));
+		assertThat(statements.size(), is(2));
+		assertThat(statements.get(1).getMsgId(), is("AAAASESS-FP-STAT001"));
+
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(gzipped);
+		gzip.write(xml);
+		gzip.close();
+		statements = BankToCustomerStatement.readAll(new ByteArrayInputStream(gzipped.toByteArray()));
+		assertThat(statements.size(), is(1));
+		assertThat(statements.get(0).getMsgId(), is("AAAASESS-FP-STAT001"));
+
+		statements = BankToCustomerStatement.readAll(new ByteArrayInputStream(xml));
+		assertThat(statements.size(), is(1));
 	}
 
 }
@@ -0,0 +1,169 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import iso.std.iso._20022.tech.xsd.pain_008_001.SequenceType1Code;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.bind.JAXBException;
+
+import nl.irp.sepa.sdd.DirectDebitInitiation;
+import nl.irp.sepa.sdd.DirectDebitInitiation.PaymentInstruction;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class ConcurrentBuilderTest {
+
+	private static final int THREADS = 8;
+	private static final int NB_OF_TXS = 1000;
+
+	@Test
+	public void testCreditTransfer() throws Exception {
+		SEPACreditTransfer transfer = creditTransfer(true);
+		final SEPACreditTransfer.PaymentGroup paymentGroup = paymentGroup(transfer);
+		runConcurrently(new Partition() {
+			@Override
+			public void add(int i) {
+				creditTransfer(paymentGroup, i);
+			}
+		});
+
+		// the same transactions added in the order of their EndToEndId
+		SEPACreditTransfer expected = creditTransfer(false);
+		SEPACreditTransfer.PaymentGroup expectedGroup = paymentGroup(expected);
+		for (int i = 0; i < THREADS * NB_OF_TXS; i++)
+			creditTransfer(expectedGroup, i);
+
+		assertThat(write(transfer), is(write(expected)));
+	}
+
+	@Test
+	public void testDirectDebitInitiation() throws Exception {
+		DirectDebitInitiation debitInitiation = directDebitInitiation(true);
+		final PaymentInstruction paymentInstruction = paymentInstruction(debitInitiation);
+		runConcurrently(new Partition() {
+			@Override
+			public void add(int i) {
+				addTransaction(paymentInstruction, i);
+			}
+		});
+
+		DirectDebitInitiation expected = directDebitInitiation(false);
+		PaymentInstruction expectedInstruction = paymentInstruction(expected);
+		for (int i = 0; i < THREADS * NB_OF_TXS; i++)
+			addTransaction(expectedInstruction, i);
+
+		assertThat(write(debitInitiation), is(write(expected)));
+		assertThat(paymentInstruction.getPaymentInstructionInformation().getNbOfTxs(), is(String.valueOf(THREADS * NB_OF_TXS)));
+	}
+
+	@Test
+	public void testWriteTwice() throws JAXBException {
+		SEPACreditTransfer transfer = creditTransfer(true);
+		SEPACreditTransfer.PaymentGroup paymentGroup = paymentGroup(transfer);
+		creditTransfer(paymentGroup, 1);
+		write(transfer);
+		creditTransfer(paymentGroup, 0);
+
+		SEPACreditTransfer expected = creditTransfer(false);
+		SEPACreditTransfer.PaymentGroup expectedGroup = paymentGroup(expected);
+		creditTransfer(expectedGroup, 1);
+		creditTransfer(expectedGroup, 0);
+		assertThat(write(transfer), is(write(expected)));
+	}
+
+	private interface Partition {
+		void add(int i);
+	}
+
+	/**
+	 * Every thread adds an interleaved partition of the transactions, in reverse.
+	 */
+	private void runConcurrently(final Partition partition) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<Void>> futures = Lists.newArrayList();
+			for (int t = 0; t < THREADS; t++) {
+				final int thread = t;
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (int i = NB_OF_TXS - 1; i >= 0; i--)
+							partition.add(i * THREADS + thread);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures)
+				future.get();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private SEPACreditTransfer creditTransfer(boolean concurrent) {
+		SEPACreditTransfer transfer = new SEPACreditTransfer();
+		transfer.setConcurrent(concurrent);
+		transfer.setShareSubtrees(true);
+		transfer.buildGroupHeader("MSGID005", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		return transfer;
+	}
+
+	private SEPACreditTransfer.PaymentGroup paymentGroup(SEPACreditTransfer transfer) {
+		return transfer.paymentGroup("PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+	}
+
+	private void creditTransfer(SEPACreditTransfer.PaymentGroup paymentGroup, int i) {
+		paymentGroup.creditTransfer(String.format("E2EID%06d", i), BigDecimal.valueOf(100 + i, 2), "INGBNL2A", "NAAM cdtr " + i % 7, "NL98INGB0000000002", "Ref. " + i);
+	}
+
+	private DirectDebitInitiation directDebitInitiation(boolean concurrent) {
+		DirectDebitInitiation debitInitiation = new DirectDebitInitiation();
+		debitInitiation.setConcurrent(concurrent);
+		debitInitiation.buildGroupHeader("MSGID001", "IPNORGANISATIENAAM", new LocalDateTime("2012-02-22T09:29:54").toDate());
+		return debitInitiation;
+	}
+
+	private PaymentInstruction paymentInstruction(DirectDebitInitiation debitInitiation) {
+		return debitInitiation.paymentInstruction(
+				"PAYID001", new LocalDate("2012-02-05").toDate(),
+				"NAAM", SequenceType1Code.RCUR,
+				"NL", ImmutableList.of("Dorpstraat 1", "Amsterdam"),
+				"NL28INGB0000000001", "INGBNL2A", null);
+	}
+
+	private void addTransaction(PaymentInstruction paymentInstruction, int i) {
+		String id = String.format("E2EID%06d", i);
+		paymentInstruction.addTransaction(
+				id, id, BigDecimal.valueOf(100 + i, 2),
+				"MANDAAT" + i, new LocalDate("2010-09-05"), null,
+				"NAAM", "NL98INGB0000000002", "INGBNL2A",
+				"NL", ImmutableList.of("Dorpstraat 2", "Amsterdam"),
+				"Ref. " + i);
+	}
+
+	private String write(SEPACreditTransfer transfer) throws JAXBException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		transfer.write(stream);
+		return new String(stream.toByteArray());
+	}
+
+	private String write(DirectDebitInitiation debitInitiation) throws JAXBException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		debitInitiation.write(stream);
+		return new String(stream.toByteArray());
+	}
+
+}
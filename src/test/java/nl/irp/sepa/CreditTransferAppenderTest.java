@@ -0,0 +1,135 @@
+package nl.irp.sepa;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.Properties;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBException;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.SchemaFactory;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+
+public class CreditTransferAppenderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testAppend() throws Exception {
+		File file = folder.newFile("pain.001.xml");
+		CreditTransferAppender.write(transfer(3, 2, 1), file);
+		String xml = Files.toString(file, Charsets.UTF_8);
+		assertTrue(xml.contains("<NbOfTxs>000000000000006</NbOfTxs>"));
+		assertTrue(xml.contains("<CtrlSum>0000000000000006.00</CtrlSum>"));
+
+		CreditTransferAppender appender = new CreditTransferAppender(file);
+		addTransactions(appender.paymentGroup("PAYID001"), 3, 5);
+		addTransactions(appender.paymentGroup("PAYID002"), 2, 3);
+		appender.close();
+		assertArrayEquals(expected(5, 3, 1), Files.toByteArray(file));
+		validate(file);
+
+		// again, with the offsets moved by the first append
+		appender = new CreditTransferAppender(file);
+		addTransactions(appender.paymentGroup("PAYID003"), 1, 2);
+		addTransactions(appender.paymentGroup("PAYID001"), 5, 6);
+		appender.close();
+		assertArrayEquals(expected(6, 3, 2), Files.toByteArray(file));
+		validate(file);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownGroup() throws Exception {
+		File file = folder.newFile("pain.001.xml");
+		CreditTransferAppender.write(transfer(1, 1, 0), file);
+		new CreditTransferAppender(file).paymentGroup("PAYID004");
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testChanged() throws Exception {
+		File file = folder.newFile("pain.001.xml");
+		CreditTransferAppender.write(transfer(1, 1, 0), file);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 1);
+		raf.close();
+		new CreditTransferAppender(file);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testUnfinished() throws Exception {
+		File file = folder.newFile("pain.001.xml");
+		CreditTransferAppender.write(transfer(1, 1, 0), file);
+		// as left by an append that failed after marking the offsets
+		File indexFile = new File(file.getPath() + ".idx");
+		Properties properties = new Properties();
+		InputStream is = new FileInputStream(indexFile);
+		try {
+			properties.load(is);
+		} finally {
+			is.close();
+		}
+		properties.setProperty("inProgress", "true");
+		OutputStream os = new FileOutputStream(indexFile);
+		try {
+			properties.store(os, null);
+		} finally {
+			os.close();
+		}
+		new CreditTransferAppender(file);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConverted() throws Exception {
+		CreditTransferAppender.write(new SEPACreditTransfer(SEPACreditTransfer.VERSION_PAIN_001_003_03), folder.newFile("pain.001.xml"));
+	}
+
+	private byte[] expected(int nb1, int nb2, int nb3) throws JAXBException, IOException {
+		File file = folder.newFile();
+		CreditTransferAppender.write(transfer(nb1, nb2, nb3), file);
+		return Files.toByteArray(file);
+	}
+
+	private SEPACreditTransfer transfer(int nb1, int nb2, int nb3) {
+		SEPACreditTransfer transfer = new SEPACreditTransfer();
+		transfer.buildGroupHeader("MSGID005", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		addTransactions(transfer.paymentGroup("PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A"), 0, nb1);
+		addTransactions(transfer.paymentGroup("PAYID002", new LocalDate("2013-04-20"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A"), 0, nb2);
+		addTransactions(transfer.paymentGroup("PAYID003", new LocalDate("2013-04-20"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A", true), 0, nb3);
+		return transfer;
+	}
+
+	private static void addTransactions(SEPACreditTransfer.PaymentGroup paymentGroup, int from, int to) {
+		for (int i = from; i < to; i++) {
+			String endToEndId = paymentGroup.getPaymentInstructionInformation().getPmtInfId() + "-" + i;
+			if (i % 2 == 0)
+				paymentGroup.creditTransfer(endToEndId, new BigDecimal("1.00"), "INGBNL2A", "Müller & Zoon", "NL98INGB0000000002", "Ref. " + i);
+			else
+				paymentGroup.creditTransferWithCreditorReference(endToEndId, new BigDecimal("1"), "INGBNL2A", "NAAM cdtr", "NL98INGB0000000002", "RF18539007547034");
+		}
+	}
+
+	private static void validate(File file) throws Exception {
+		SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+		factory.newSchema(Resources.getResource("pain.001.001.03.xsd")).newValidator().validate(new StreamSource(file));
+	}
+
+}
@@ -0,0 +1,133 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import iso.std.iso._20022.tech.xsd.pain_001_001.CreditTransferTransactionInformation10;
+import iso.std.iso._20022.tech.xsd.pain_001_001.CustomerCreditTransferInitiationV03;
+import iso.std.iso._20022.tech.xsd.pain_001_001.Document;
+import iso.std.iso._20022.tech.xsd.pain_001_001.DocumentWriter;
+import iso.std.iso._20022.tech.xsd.pain_001_001.ObjectFactory;
+import iso.std.iso._20022.tech.xsd.pain_001_001.Purpose2Choice;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLStreamException;
+
+import nl.irp.sepa.bind.JAXBContexts;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+public class CreditTransferTemplateTest {
+
+	@Test
+	public void testIdentical() throws JAXBException {
+		assertThat(write(transfer(SEPACreditTransfer.VERSION_PAIN_001_001_03, true, false)),
+				is(write(transfer(SEPACreditTransfer.VERSION_PAIN_001_001_03, false, false))));
+	}
+
+	@Test
+	public void testIdenticalOffHeap() throws JAXBException {
+		assertThat(write(transfer(SEPACreditTransfer.VERSION_PAIN_001_001_03, true, true)),
+				is(write(transfer(SEPACreditTransfer.VERSION_PAIN_001_001_03, false, false))));
+	}
+
+	@Test
+	public void testIdenticalConverted() throws JAXBException {
+		assertThat(write(transfer(SEPACreditTransfer.VERSION_PAIN_001_003_03, true, false)),
+				is(write(transfer(SEPACreditTransfer.VERSION_PAIN_001_003_03, false, false))));
+	}
+
+	@Test
+	public void testNotFitting() throws JAXBException {
+		SEPACreditTransfer templated = transfer(SEPACreditTransfer.VERSION_PAIN_001_001_03, true, false);
+		SEPACreditTransfer plain = transfer(SEPACreditTransfer.VERSION_PAIN_001_001_03, false, false);
+		for (SEPACreditTransfer transfer : new SEPACreditTransfer[] { templated, plain }) {
+			SEPACreditTransfer.PaymentGroup paymentGroup = transfer.paymentGroup(
+					"PAYID003", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+			paymentGroup.creditTransfer("E2EID-PURP", new BigDecimal("1.00"), "INGBNL2A", "NAAM", "NL98INGB0000000002", "Ref.");
+			CreditTransferTransactionInformation10 transaction = paymentGroup.getPaymentInstructionInformation().getCdtTrfTxInf().get(0);
+			Purpose2Choice purpose = new Purpose2Choice();
+			purpose.setCd("SALA");
+			transaction.setPurp(purpose);
+			assertThat(CreditTransferTemplate.fits(transaction), is(false));
+		}
+		assertThat(write(templated), is(write(plain)));
+	}
+
+	@Test
+	public void testPlaceholderInDocument() throws JAXBException {
+		String[] written = new String[2];
+		for (int i = 0; i < 2; i++) {
+			SEPACreditTransfer transfer = new SEPACreditTransfer();
+			transfer.setTemplateOutput(i == 0);
+			transfer.buildGroupHeader("MSGID006", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+			// written by the generated writer, with EndToEndIds that look like placeholders
+			SEPACreditTransfer.PaymentGroup notFitting = transfer.paymentGroup(
+					"PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+			notFitting.creditTransfer("TEMPLATE-0", new BigDecimal("1.00"), "INGBNL2A", "NAAM", "NL98INGB0000000002", "Ref.");
+			Purpose2Choice purpose = new Purpose2Choice();
+			purpose.setCd("SALA");
+			notFitting.getPaymentInstructionInformation().getCdtTrfTxInf().get(0).setPurp(purpose);
+			transfer.paymentGroup("PAYID002", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A")
+					.creditTransfer("E2EID-FIT", new BigDecimal("2.00"), "INGBNL2A", "NAAM", "NL98INGB0000000002", "Ref.");
+			written[i] = write(transfer);
+		}
+		assertThat(written[0], is(written[1]));
+	}
+
+	@Test
+	public void testMarshaller() throws JAXBException, XMLStreamException {
+		SEPACreditTransfer transfer = new SEPACreditTransfer();
+		transfer.buildGroupHeader("MSGID007", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		SEPACreditTransfer.PaymentGroup paymentGroup = transfer.paymentGroup(
+				"PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+		for (int i = 0; i < 10; i++)
+			paymentGroup.creditTransfer("E2EID" + i, new BigDecimal(i), "INGBNL2A", "NAAM & Zoon", "NL98INGB0000000002", "Ref. " + i);
+		Document document = new Document();
+		document.setCstmrCdtTrfInitn(new CustomerCreditTransferInitiationV03());
+		document.getCstmrCdtTrfInitn().getPmtInf().add(paymentGroup.getPaymentInstructionInformation());
+
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		DocumentWriter.write(document, written);
+		ByteArrayOutputStream templated = new ByteArrayOutputStream();
+		CreditTransferTemplate.write(document, templated);
+		Marshaller marshaller = JAXBContexts.get(Document.class).createMarshaller();
+		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+		marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+		ByteArrayOutputStream marshalled = new ByteArrayOutputStream();
+		CreditTransferTemplate.marshal(marshaller, new ObjectFactory().createDocument(document),
+				document.getCstmrCdtTrfInitn().getPmtInf(), marshalled);
+		assertThat(new String(templated.toByteArray()), is(new String(written.toByteArray())));
+		assertThat(new String(marshalled.toByteArray()), is(new String(written.toByteArray())));
+	}
+
+	private SEPACreditTransfer transfer(int version, boolean templateOutput, boolean offHeapStaging) {
+		SEPACreditTransfer transfer = new SEPACreditTransfer(version);
+		transfer.setTemplateOutput(templateOutput);
+		transfer.setOffHeapStaging(offHeapStaging);
+		transfer.buildGroupHeader("MSGID005", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		SEPACreditTransfer.PaymentGroup paymentGroup = transfer.paymentGroup(
+				"PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+		for (int i = 0; i < 500; i++)
+			paymentGroup.creditTransfer("E2EID" + i, new BigDecimal(i).movePointLeft(2), "INGBNL2A", "Müller & Zoon " + i, "NL98INGB0000000002", "Ref. " + i);
+		paymentGroup.creditTransfer("E2E&<>\"'\r\t\n€😀", new BigDecimal("1.10"), "INGBNL2A", "Naam", "NL98&<>", "Ref. <&>");
+		paymentGroup.creditTransferWithCreditorReference("E2EID-RF", new BigDecimal("2.00"), "INGBNL2A", "NAAM cdtr", "NL98INGB0000000002", "RF18539007547034");
+		paymentGroup.creditTransferWithCreditorReference("E2EID-REF", new BigDecimal("2E+3"), "INGBNL2A", "NAAM cdtr", "NL98INGB0000000002", "123456");
+		paymentGroup.creditTransfer("E2EID-CHF", Amount.of("3.50", "CHF"), "UBSWCHZH", "NAAM cdtr", "CH9300762011623852957", "Ref.");
+		transfer.paymentGroup("PAYID002", new LocalDate("2013-04-20"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A", true)
+				.creditTransfer("E2EID-URGP", new BigDecimal("4.00"), "INGBNL2A", "NAAM cdtr", "NL98INGB0000000002", "Ref.");
+		return transfer;
+	}
+
+	private String write(SEPACreditTransfer transfer) throws JAXBException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		transfer.write(stream);
+		return new String(stream.toByteArray());
+	}
+
+}
@@ -0,0 +1,82 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+
+import iso.std.iso._20022.tech.xsd.pain_008_001.DirectDebitTransactionInformation9;
+import iso.std.iso._20022.tech.xsd.pain_008_001.SequenceType1Code;
+import nl.irp.sepa.sdd.CreditorIdentifier;
+import nl.irp.sepa.sdd.DirectDebitInitiation;
+import nl.irp.sepa.sdd.DirectDebitInitiation.PaymentInstruction;
+
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+public class CreditorIdentifierTest {
+
+	@Test
+	public void testValidate() {
+		assertThat(CreditorIdentifier.isValid("DE98ZZZ09999999999"), is(true));
+		assertThat(CreditorIdentifier.isValid("FR72ZZZ123456"), is(true));
+		assertThat(CreditorIdentifier.isValid("NL03ZZZ011234567890"), is(true));
+		// the business code is not part of the check digits
+		assertThat(CreditorIdentifier.isValid("DE98ABC09999999999"), is(true));
+
+		assertThat(CreditorIdentifier.isValid("DE97ZZZ09999999999"), is(false));
+		assertThat(CreditorIdentifier.isValid("NL89ZZZ011234567890"), is(false));
+		assertThat(CreditorIdentifier.isValid("de98ZZZ09999999999"), is(false));
+		assertThat(CreditorIdentifier.isValid("DE98ZZZ"), is(false));
+		assertThat(CreditorIdentifier.isValid(null), is(false));
+	}
+
+	@Test
+	public void testCreate() {
+		assertThat(CreditorIdentifier.create("DE", "ZZZ", "09999999999"), is("DE98ZZZ09999999999"));
+		assertThat(CreditorIdentifier.create("NL", "ZZZ", "011234567890"), is("NL03ZZZ011234567890"));
+	}
+
+	@Test
+	public void testSharedIdentification() {
+		DirectDebitInitiation debitInitiation = new DirectDebitInitiation();
+		debitInitiation.setValidateCreditorIdentifiers(true);
+		debitInitiation.setShareSubtrees(true);
+		debitInitiation.buildGroupHeader("MSGID001", "IPNORGANISATIENAAM", new LocalDate("2012-02-01").toDate());
+		PaymentInstruction paymentInstruction = debitInitiation.paymentInstruction(
+				"PAYID001", new LocalDate("2012-02-05").toDate(),
+				"NAAM", SequenceType1Code.RCUR, "NL", Collections.<String>emptyList(),
+				"NL28INGB0000000001", "INGBNL2A", "DE98ZZZ09999999999");
+
+		DirectDebitTransactionInformation9 tx1 = addTransaction(paymentInstruction, "E2EID001", "DE98ZZZ09999999999");
+		DirectDebitTransactionInformation9 tx2 = addTransaction(paymentInstruction, "E2EID002", "DE98ZZZ09999999999");
+		assertThat(tx1.getDrctDbtTx().getCdtrSchmeId(), is(sameInstance(tx2.getDrctDbtTx().getCdtrSchmeId())));
+		assertThat(paymentInstruction.getPaymentInstructionInformation().getCdtrSchmeId(),
+				is(sameInstance(tx1.getDrctDbtTx().getCdtrSchmeId())));
+
+		try {
+			addTransaction(paymentInstruction, "E2EID003", "DE97ZZZ09999999999");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		// not shared by default
+		debitInitiation.setShareSubtrees(false);
+		DirectDebitTransactionInformation9 tx4 = addTransaction(paymentInstruction, "E2EID004", "DE98ZZZ09999999999");
+		assertThat(tx4.getDrctDbtTx().getCdtrSchmeId(), is(not(sameInstance(tx1.getDrctDbtTx().getCdtrSchmeId()))));
+	}
+
+	private DirectDebitTransactionInformation9 addTransaction(PaymentInstruction paymentInstruction, String endToEndId, String cdtrSchmeId) {
+		return paymentInstruction.addTransaction(
+				"INSTR-" + endToEndId, endToEndId, new BigDecimal("1.01"),
+				"MANDAATIDNR001", new LocalDate("2011-12-31"), cdtrSchmeId,
+				"NAAM", "NL98INGB0000000002", "INGBNL2A",
+				"NL", Collections.<String>emptyList(), "Omschrijving");
+	}
+
+}
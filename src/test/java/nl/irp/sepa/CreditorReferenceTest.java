@@ -0,0 +1,65 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.bind.JAXBException;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+public class CreditorReferenceTest {
+
+	@Test
+	public void testValidate() {
+		assertThat(CreditorReference.isValid("RF18539007547034"), is(true));
+		assertThat(CreditorReference.isValid("RF712348231"), is(true));
+		assertThat(CreditorReference.isValid("RF19539007547034"), is(false));
+		assertThat(CreditorReference.isValid("RF18 5390 0754 7034"), is(false));
+		assertThat(CreditorReference.isValid("XX18539007547034"), is(false));
+		assertThat(CreditorReference.isValid("RF18"), is(false));
+	}
+
+	@Test
+	public void testCreate() {
+		assertThat(CreditorReference.create("539007547034"), is("RF18539007547034"));
+		assertThat(CreditorReference.create("2348231"), is("RF712348231"));
+		assertThat(CreditorReference.create("inv-2013/0386"), is(CreditorReference.create("INV20130386")));
+
+		List<String> references = CreditorReference.create(Arrays.asList("539007547034", "2348231"));
+		assertThat(references, is(Arrays.asList("RF18539007547034", "RF712348231")));
+	}
+
+	@Test
+	public void testBulk() {
+		for (int i = 0; i < 1000000; i++) {
+			String reference = CreditorReference.create("INV" + i);
+			assertTrue(reference, CreditorReference.isValid(reference));
+		}
+	}
+
+	@Test
+	public void testCreditTransfer() throws JAXBException {
+		SEPACreditTransfer transfer = new SEPACreditTransfer();
+		transfer.buildGroupHeader("MSGID005", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		SEPACreditTransfer.PaymentGroup paymentGroup = transfer.paymentGroup(
+				"PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+		paymentGroup.creditTransferWithCreditorReference("E2EID001", new BigDecimal("1.01"), "INGBNL2A", "NAAM cdtr", "NL98INGB0000000002", "RF18539007547034");
+		// not ISO 11649, a proprietary reference
+		paymentGroup.creditTransferWithCreditorReference("E2EID002", new BigDecimal("1.01"), "INGBNL2A", "NAAM cdtr", "NL98INGB0000000002", "RF19539007547034");
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		transfer.write(stream);
+		String xml = new String(stream.toByteArray());
+		assertTrue(xml, xml.replaceAll("\\s", "").contains("<Strd><CdtrRefInf><Tp><CdOrPrtry><Cd>SCOR</Cd></CdOrPrtry><Issr>ISO</Issr></Tp><Ref>RF18539007547034</Ref></CdtrRefInf></Strd>"));
+		assertTrue(xml, xml.replaceAll("\\s", "").contains("<Strd><CdtrRefInf><Tp><CdOrPrtry><Cd>SCOR</Cd></CdOrPrtry></Tp><Ref>RF19539007547034</Ref></CdtrRefInf></Strd>"));
+	}
+
+}
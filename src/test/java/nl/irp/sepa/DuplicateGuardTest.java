@@ -0,0 +1,141 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import iso.std.iso._20022.tech.xsd.pain_008_001.SequenceType1Code;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import nl.irp.sepa.DuplicateGuard.Kind;
+import nl.irp.sepa.sdd.DirectDebitInitiation;
+import nl.irp.sepa.sdd.DirectDebitInitiation.PaymentInstruction;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+
+public class DuplicateGuardTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRegister() throws IOException {
+		DuplicateGuard guard = DuplicateGuard.open(folder.getRoot(), 1000);
+		assertThat(guard.register(Kind.END_TO_END_ID, "E2EID001"), is(true));
+		assertThat(guard.register(Kind.END_TO_END_ID, "E2EID002"), is(true));
+		assertThat(guard.register(Kind.END_TO_END_ID, "E2EID001"), is(false));
+		// kinds are independent
+		assertThat(guard.register(Kind.MSG_ID, "E2EID001"), is(true));
+		assertThat(guard.size(), is(3L));
+		guard.close();
+	}
+
+	@Test
+	public void testPersistent() throws IOException {
+		DuplicateGuard guard = DuplicateGuard.open(folder.getRoot(), 100000);
+		for (int i = 0; i < 50000; i++)
+			assertThat(guard.register(Kind.END_TO_END_ID, "E2E-" + i), is(true));
+		guard.close();
+
+		guard = DuplicateGuard.open(folder.getRoot(), 100000);
+		assertThat(guard.size(), is(50000L));
+		for (int i = 0; i < 50000; i++)
+			assertThat(guard.contains(Kind.END_TO_END_ID, "E2E-" + i), is(true));
+		for (int i = 50000; i < 100000; i++)
+			assertThat(guard.contains(Kind.END_TO_END_ID, "E2E-" + i), is(false));
+		assertThat(guard.register(Kind.END_TO_END_ID, "E2E-49999"), is(false));
+		guard.close();
+	}
+
+	@Test
+	public void testCreditTransferRefusesDuplicate() throws IOException {
+		DuplicateGuard guard = DuplicateGuard.open(folder.getRoot(), 1000);
+		SEPACreditTransfer transfer = new SEPACreditTransfer();
+		transfer.setDuplicateGuard(guard);
+		transfer.buildGroupHeader("MSGID005", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+
+		SEPACreditTransfer.PaymentGroup paymentGroup = transfer.paymentGroup(
+				"PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+		paymentGroup.creditTransfer("E2EID001", new BigDecimal("1.01"), "INGBNL2A", "NAAM cdtr", "NL98INGB0000000002", "Ref. 2012.0386");
+		try {
+			paymentGroup.creditTransfer("E2EID001", new BigDecimal("1.01"), "INGBNL2A", "NAAM cdtr", "NL98INGB0000000002", "Ref. 2012.0386");
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getMessage(), is("END_TO_END_ID 'E2EID001' was used before"));
+		}
+		guard.close();
+	}
+
+	@Test
+	public void testRegisteredWhenWritten() throws Exception {
+		DuplicateGuard guard = DuplicateGuard.open(folder.getRoot(), 1000);
+		SEPACreditTransfer transfer = new SEPACreditTransfer();
+		transfer.setDuplicateGuard(guard);
+		transfer.buildGroupHeader("MSGID006", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		SEPACreditTransfer.PaymentGroup paymentGroup = transfer.paymentGroup(
+				"PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+		try {
+			paymentGroup.creditTransfer("E2EID001", new BigDecimal("1.01"), "NOT A BIC", "NAAM cdtr", "NL98INGB0000000002", "Ref. 2012.0386");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// a transaction that failed doesn't use its EndToEndId
+		}
+		paymentGroup.creditTransfer("E2EID001", new BigDecimal("1.01"), "INGBNL2A", "NAAM cdtr", "NL98INGB0000000002", "Ref. 2012.0386");
+		assertThat(guard.size(), is(0L));
+
+		transfer.write(new ByteArrayOutputStream());
+		assertThat(guard.contains(Kind.MSG_ID, "MSGID006"), is(true));
+		assertThat(guard.contains(Kind.PMT_INF_ID, "PAYID001"), is(true));
+		assertThat(guard.contains(Kind.END_TO_END_ID, "E2EID001"), is(true));
+		assertThat(guard.size(), is(3L));
+		guard.close();
+	}
+
+	@Test
+	public void testDirectDebitInitiation() throws Exception {
+		DuplicateGuard guard = DuplicateGuard.open(folder.getRoot(), 1000);
+		DirectDebitInitiation debitInitiation = new DirectDebitInitiation();
+		debitInitiation.setDuplicateGuard(guard);
+		debitInitiation.buildGroupHeader("MSGID007", "IPNORGANISATIENAAM", new LocalDateTime("2012-02-22T09:29:54").toDate());
+		PaymentInstruction paymentInstruction = debitInitiation.paymentInstruction(
+				"PAYID001", new LocalDate("2012-02-05").toDate(),
+				"NAAM", SequenceType1Code.OOFF,
+				"NL", ImmutableList.of("Dorpstraat 1", "Amsterdam"),
+				"NL28INGB0000000001", "INGBNL2A", null);
+		addTransaction(paymentInstruction, "INSTR1", "E2EID001");
+		try {
+			addTransaction(paymentInstruction, "INSTR2", "E2EID001");
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getMessage(), is("END_TO_END_ID 'E2EID001' was used before"));
+		}
+		// the InstrId of the refused transaction isn't kept
+		addTransaction(paymentInstruction, "INSTR2", "E2EID002");
+
+		debitInitiation.writeWithXmlnsXsi(new ByteArrayOutputStream());
+		assertThat(guard.contains(Kind.MSG_ID, "MSGID007"), is(true));
+		assertThat(guard.contains(Kind.PMT_INF_ID, "PAYID001"), is(true));
+		assertThat(guard.contains(Kind.INSTR_ID, "INSTR2"), is(true));
+		assertThat(guard.contains(Kind.END_TO_END_ID, "E2EID002"), is(true));
+		assertThat(guard.size(), is(6L));
+		guard.close();
+	}
+
+	private static void addTransaction(PaymentInstruction paymentInstruction, String instrId, String endToEndId) {
+		paymentInstruction.addTransaction(
+				instrId, endToEndId, new BigDecimal("1.01"),
+				"MANDAAT123456", new LocalDate("2010-09-05"), null,
+				"NAAM", "NL98INGB0000000002", "INGBNL2A",
+				"NL", ImmutableList.of("Dorpstraat 2", "Amsterdam"),
+				"Ref. 2012.0386");
+	}
+
+}
@@ -0,0 +1,47 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+import nl.irp.sepa.bind.JAXBContexts;
+
+import org.junit.Test;
+
+public class JAXBContextsTest {
+
+	@Test
+	public void testShared() throws JAXBException {
+		JAXBContexts.preload(iso.std.iso._20022.tech.xsd.camt_053_001.Document.class);
+		JAXBContext context = JAXBContexts.get(iso.std.iso._20022.tech.xsd.camt_053_001.Document.class);
+		assertThat(JAXBContexts.get(iso.std.iso._20022.tech.xsd.camt_053_001.Document.class), sameInstance(context));
+	}
+
+	@Test(expected = JAXBException.class)
+	public void testError() throws JAXBException {
+		// JAXB can't bind an interface
+		JAXBContexts.get(List.class);
+	}
+
+	@Test
+	public void testErrorNotKept() {
+		JAXBException first = error(List.class);
+		// created again, so with another exception
+		assertThat(error(List.class), not(sameInstance(first)));
+	}
+
+	private static JAXBException error(Class<?> type) {
+		try {
+			JAXBContexts.get(type);
+		} catch (JAXBException e) {
+			return e;
+		}
+		throw new AssertionError("no JAXBException");
+	}
+
+}
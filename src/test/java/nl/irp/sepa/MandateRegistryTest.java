@@ -0,0 +1,146 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import iso.std.iso._20022.tech.xsd.pain_008_001.SequenceType1Code;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collections;
+
+import nl.irp.sepa.sdd.DirectDebitInitiation;
+import nl.irp.sepa.sdd.MandateRegistry;
+import nl.irp.sepa.sdd.MandateRegistry.Mandate;
+import nl.irp.sepa.sdd.SequenceTypeRouter;
+
+import org.joda.time.LocalDate;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MandateRegistryTest {
+
+	private static final String CI = "DE98ZZZ09999999999";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSequence() throws IOException {
+		MandateRegistry registry = MandateRegistry.open(new File(folder.getRoot(), "mandates"), 1000);
+		assertThat(registry.get("MANDAAT1", CI), is(nullValue()));
+		assertThat(registry.nextSequenceType("MANDAAT1", CI, false), is(SequenceType1Code.FRST));
+
+		registry.recordCollection("MANDAAT1", CI, new LocalDate("2012-02-05"), SequenceType1Code.FRST, null);
+		assertThat(registry.nextSequenceType("MANDAAT1", CI, false), is(SequenceType1Code.RCUR));
+		assertThat(registry.nextSequenceType("MANDAAT1", CI, true), is(SequenceType1Code.FNAL));
+		// same mandate id, other creditor
+		assertThat(registry.nextSequenceType("MANDAAT1", "NL03ZZZ011234567890", false), is(SequenceType1Code.FRST));
+
+		registry.recordCollection("MANDAAT1", CI, new LocalDate("2012-03-05"), SequenceType1Code.RCUR, "NL98INGB0000000011");
+		Mandate mandate = registry.get("MANDAAT1", CI);
+		assertThat(mandate.getFirstCollection(), is(new LocalDate("2012-02-05")));
+		assertThat(mandate.getLastCollection(), is(new LocalDate("2012-03-05")));
+		assertThat(mandate.getLastSequenceType(), is(SequenceType1Code.RCUR));
+		assertThat(mandate.isAmended(), is(true));
+		assertThat(mandate.getOriginalMandateId(), is("NL98INGB0000000011"));
+
+		registry.recordCollection("MANDAAT1", CI, new LocalDate("2012-04-05"), SequenceType1Code.FNAL, null);
+		try {
+			registry.nextSequenceType("MANDAAT1", CI, false);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		registry.resetSequence("MANDAAT1", CI);
+		assertThat(registry.nextSequenceType("MANDAAT1", CI, false), is(SequenceType1Code.FRST));
+		registry.close();
+	}
+
+	@Test
+	public void testPersistent() throws IOException {
+		File file = new File(folder.getRoot(), "mandates");
+		MandateRegistry registry = MandateRegistry.open(file, 100000);
+		for (int i = 0; i < 100000; i++)
+			registry.recordCollection("MANDAAT" + i, CI, new LocalDate("2012-02-05"), SequenceType1Code.FRST, null);
+		registry.close();
+
+		registry = MandateRegistry.open(file, 0);
+		assertThat(registry.size(), is(100000L));
+		for (int i = 0; i < 100000; i++)
+			assertThat(registry.nextSequenceType("MANDAAT" + i, CI, false), is(SequenceType1Code.RCUR));
+		assertThat(registry.nextSequenceType("MANDAAT100000", CI, false), is(SequenceType1Code.FRST));
+		registry.close();
+	}
+
+	@Test
+	public void testRouter() throws IOException {
+		MandateRegistry registry = MandateRegistry.open(new File(folder.getRoot(), "mandates"), 1000);
+		registry.recordCollection("MANDAAT1", CI, new LocalDate("2012-01-05"), SequenceType1Code.FRST, null);
+
+		DirectDebitInitiation debitInitiation = new DirectDebitInitiation();
+		debitInitiation.buildGroupHeader("MSGID001", "IPNORGANISATIENAAM", new LocalDate("2012-02-01").toDate());
+		SequenceTypeRouter router = new SequenceTypeRouter(debitInitiation, registry,
+				"PAYID001", new LocalDate("2012-02-05").toDate(),
+				"NAAM", "NL", Collections.<String>emptyList(),
+				"NL28INGB0000000001", "INGBNL2A", CI);
+		addTransaction(router, "E2EID001", "MANDAAT1");
+		addTransaction(router, "E2EID002", "MANDAAT2");
+		addTransaction(router, "E2EID003", "MANDAAT3");
+
+		assertThat(router.getPaymentInstruction(SequenceType1Code.RCUR).getPaymentInstructionInformation().getPmtInfId(), is("PAYID001-RCUR"));
+		assertThat(router.getPaymentInstruction(SequenceType1Code.RCUR).getPaymentInstructionInformation().getDrctDbtTxInf().size(), is(1));
+		assertThat(router.getPaymentInstruction(SequenceType1Code.FRST).getPaymentInstructionInformation().getDrctDbtTxInf().size(), is(2));
+		assertThat(router.getPaymentInstruction(SequenceType1Code.FNAL), is(nullValue()));
+		try {
+			addTransaction(router, "E2EID004", "MANDAAT2");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// one collection per mandate in a message
+		}
+
+		// recorded when committed
+		assertThat(registry.nextSequenceType("MANDAAT2", CI, false), is(SequenceType1Code.FRST));
+		router.commit();
+		assertThat(registry.nextSequenceType("MANDAAT2", CI, false), is(SequenceType1Code.RCUR));
+		assertThat(registry.get("MANDAAT2", CI).getFirstCollection(), is(new LocalDate("2012-02-05")));
+		registry.close();
+	}
+
+	@Test
+	public void testRouterRefusedFirstCollection() throws IOException {
+		MandateRegistry registry = MandateRegistry.open(new File(folder.getRoot(), "mandates"), 1000);
+		DirectDebitInitiation debitInitiation = new DirectDebitInitiation();
+		debitInitiation.buildGroupHeader("MSGID001", "IPNORGANISATIENAAM", new LocalDate("2012-02-01").toDate());
+		SequenceTypeRouter router = new SequenceTypeRouter(debitInitiation, registry,
+				"PAYID001", new LocalDate("2012-02-05").toDate(),
+				"NAAM", "NL", Collections.<String>emptyList(),
+				"NL28INGB0000000001", "INGBNL2A", CI);
+		try {
+			// longer than 35
+			addTransaction(router, "E2EID001-0123456789-0123456789-0123456789", "MANDAAT1");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// no payment instruction without transactions
+		}
+		assertThat(router.getPaymentInstruction(SequenceType1Code.FRST), is(nullValue()));
+
+		addTransaction(router, "E2EID001", "MANDAAT1");
+		assertThat(router.getPaymentInstruction(SequenceType1Code.FRST).getPaymentInstructionInformation().getDrctDbtTxInf().size(), is(1));
+		registry.close();
+	}
+
+	private void addTransaction(SequenceTypeRouter router, String endToEndId, String mandateId) {
+		router.addTransaction(
+				"INSTR-" + endToEndId, endToEndId, new BigDecimal("1.01"),
+				mandateId, new LocalDate("2011-12-31"),
+				"NAAM", "NL98INGB0000000002", "INGBNL2A",
+				"NL", Collections.<String>emptyList(), "Omschrijving", null, false);
+	}
+
+}
@@ -0,0 +1,59 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.xml.bind.JAXBException;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+public class MessageManifestTest {
+
+	@Test
+	public void testManifest() throws JAXBException, NoSuchAlgorithmException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		MessageManifest manifest = transfer(SEPACreditTransfer.VERSION_PAIN_001_001_03).writeWithManifest(stream);
+
+		assertThat(manifest.getMsgId(), is("MSGID005"));
+		assertThat(manifest.getNbOfTxs(), is(2));
+		assertThat(manifest.getCtrlSum(), is(new BigDecimal("3.01")));
+		assertThat(manifest.getLength(), is((long) stream.size()));
+		assertThat(manifest.getAlgorithm(), is("SHA-256"));
+		assertThat(manifest.getDigest(), is(MessageDigest.getInstance("SHA-256").digest(stream.toByteArray())));
+		assertThat(manifest.getDigestHex().length(), is(64));
+	}
+
+	@Test
+	public void testConverted() throws JAXBException, NoSuchAlgorithmException {
+		SEPACreditTransfer transfer = transfer(SEPACreditTransfer.VERSION_PAIN_001_002_02);
+		transfer.setDigestAlgorithm("MD5");
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		MessageManifest manifest = transfer.writeWithManifest(stream);
+
+		assertThat(manifest.getLength(), is((long) stream.size()));
+		assertThat(manifest.getDigest(), is(MessageDigest.getInstance("MD5").digest(stream.toByteArray())));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsupportedAlgorithm() {
+		new SEPACreditTransfer().setDigestAlgorithm("SHA-999");
+	}
+
+	private SEPACreditTransfer transfer(int version) {
+		SEPACreditTransfer transfer = new SEPACreditTransfer(version);
+		transfer.buildGroupHeader("MSGID005", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		SEPACreditTransfer.PaymentGroup paymentGroup = transfer.paymentGroup(
+				"PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+		paymentGroup.creditTransfer("E2EID1", new BigDecimal("1.01"), "INGBNL2A", "NAAM cdtr", "NL98INGB0000000002", "Ref.");
+		paymentGroup.creditTransfer("E2EID2", new BigDecimal("2"), "INGBNL2A", "NAAM cdtr", "NL98INGB0000000002", "Ref.");
+		return transfer;
+	}
+
+}
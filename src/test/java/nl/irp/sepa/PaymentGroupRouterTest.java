@@ -0,0 +1,142 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import iso.std.iso._20022.tech.xsd.pain_001_001.PaymentInstructionInformation3;
+import iso.std.iso._20022.tech.xsd.pain_008_001.PaymentInstructionInformation4;
+import iso.std.iso._20022.tech.xsd.pain_008_001.SequenceType1Code;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.List;
+
+import javax.xml.bind.JAXBException;
+
+import nl.irp.sepa.sdd.DirectDebitInitiation;
+import nl.irp.sepa.sdd.DirectDebitInitiation.PaymentInstruction;
+import nl.irp.sepa.sdd.PaymentInstructionRouter;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class PaymentGroupRouterTest {
+
+	@Test
+	public void testCreditTransfer() throws JAXBException {
+		SEPACreditTransfer transfer = new SEPACreditTransfer();
+		transfer.buildGroupHeader("MSGID005", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		PaymentGroupRouter router = new PaymentGroupRouter(transfer, "PAYID");
+
+		for (int i = 0; i < 120; i++) {
+			router.creditTransfer(
+					new LocalDate("2013-04-19").plusDays(i % 2), "NAAM Debtor",
+					i % 3 == 0 ? "NL28INGB0000000001" : "NL98INGB0000000002", "INGBNL2A",
+					i % 4 == 0,
+					"E2EID" + i, new BigDecimal("1.01"), "INGBNL2A", "NAAM cdtr", "NL98INGB0000000003", "Ref. " + i);
+		}
+
+		List<SEPACreditTransfer.PaymentGroup> paymentGroups = router.getPaymentGroups();
+		// 2 accounts x (even date, odd date, even date and rapid)
+		assertThat(paymentGroups.size(), is(6));
+		int total = 0;
+		for (int g = 0; g < paymentGroups.size(); g++) {
+			PaymentInstructionInformation3 information = paymentGroups.get(g).getPaymentInstructionInformation();
+			assertThat(information.getPmtInfId(), is("PAYID-" + (g + 1)));
+			assertThat(information.getCtrlSum(), is(new BigDecimal("1.01").multiply(new BigDecimal(information.getNbOfTxs()))));
+			total += Integer.parseInt(information.getNbOfTxs());
+		}
+		assertThat(total, is(120));
+		// first seen order
+		assertThat(paymentGroups.get(0).getPaymentInstructionInformation().getCdtTrfTxInf().get(0).getPmtId().getEndToEndId(), is("E2EID0"));
+		assertThat(paymentGroups.get(1).getPaymentInstructionInformation().getCdtTrfTxInf().get(0).getPmtId().getEndToEndId(), is("E2EID1"));
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		transfer.write(stream);
+		assertThat(new String(stream.toByteArray()).contains("<CtrlSum>121.20</CtrlSum>"), is(true));
+	}
+
+	@Test
+	public void testDirectDebitInitiation() {
+		DirectDebitInitiation debitInitiation = new DirectDebitInitiation();
+		debitInitiation.buildGroupHeader("MSGID001", "IPNORGANISATIENAAM", new LocalDateTime("2012-02-22T09:29:54").toDate());
+		PaymentInstructionRouter router = new PaymentInstructionRouter(debitInitiation, "PAYID");
+
+		SequenceType1Code[] types = { SequenceType1Code.FRST, SequenceType1Code.RCUR };
+		for (int i = 0; i < 60; i++) {
+			// the time of day doesn't matter
+			router.addTransaction(
+					new LocalDate("2012-02-05").toDateTimeAtStartOfDay().plusMinutes(i).toDate(), types[i % 2],
+					"NAAM", "NL", ImmutableList.of("Dorpstraat 1", "Amsterdam"),
+					i % 3 == 0 ? "NL28INGB0000000001" : "NL98INGB0000000002", "INGBNL2A", "NL97ZZZ123456780001",
+					"E2EID" + i, "E2EID" + i, new BigDecimal("2.50"),
+					"MANDAAT" + i, new LocalDate("2010-09-05"),
+					"NAAM " + i, "NL98INGB0000000003", "INGBNL2A", "NL", ImmutableList.of("Dorpstraat 2", "Amsterdam"),
+					"Ref. " + i);
+		}
+
+		List<PaymentInstruction> paymentInstructions = router.getPaymentInstructions();
+		assertThat(paymentInstructions.size(), is(4));
+		PaymentInstructionInformation4 first = paymentInstructions.get(0).getPaymentInstructionInformation();
+		assertThat(first.getPmtInfId(), is("PAYID-1"));
+		assertThat(first.getPmtTpInf().getSeqTp(), is(SequenceType1Code.FRST));
+		assertThat(first.getCdtrAcct().getId().getIBAN(), is("NL28INGB0000000001"));
+		// i % 6 == 0
+		assertThat(first.getNbOfTxs(), is("10"));
+		assertThat(first.getCtrlSum(), is(new BigDecimal("25.00")));
+		assertThat(first.getDrctDbtTxInf().get(1).getPmtId().getEndToEndId(), is("E2EID6"));
+		assertThat(paymentInstructions.get(1).getPaymentInstructionInformation().getPmtTpInf().getSeqTp(), is(SequenceType1Code.RCUR));
+	}
+
+	@Test
+	public void testRefusedFirstCreditTransfer() throws JAXBException {
+		SEPACreditTransfer transfer = new SEPACreditTransfer();
+		transfer.buildGroupHeader("MSGID005", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		PaymentGroupRouter router = new PaymentGroupRouter(transfer, "PAYID");
+		try {
+			router.creditTransfer(new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A", false,
+					"E2EID0", new BigDecimal("1.01"), "NOT A BIC", "NAAM cdtr", "NL98INGB0000000003", "Ref.");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// no payment group without transactions
+		}
+		assertThat(router.getPaymentGroups().isEmpty(), is(true));
+
+		router.creditTransfer(new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A", false,
+				"E2EID1", new BigDecimal("1.01"), "INGBNL2A", "NAAM cdtr", "NL98INGB0000000003", "Ref.");
+		assertThat(router.getPaymentGroups().get(0).getPaymentInstructionInformation().getPmtInfId(), is("PAYID-1"));
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		transfer.write(stream);
+		assertThat(new String(stream.toByteArray()).split("<PmtInf>").length, is(2));
+	}
+
+	@Test
+	public void testRefusedFirstCollection() throws JAXBException {
+		DirectDebitInitiation debitInitiation = new DirectDebitInitiation();
+		debitInitiation.buildGroupHeader("MSGID001", "IPNORGANISATIENAAM", new LocalDateTime("2012-02-22T09:29:54").toDate());
+		PaymentInstructionRouter router = new PaymentInstructionRouter(debitInitiation, "PAYID");
+		for (String debtorBic : new String[] { "NOT A BIC", "INGBNL2A" }) {
+			try {
+				router.addTransaction(
+						new LocalDate("2012-02-05").toDate(), SequenceType1Code.FRST,
+						"NAAM", "NL", ImmutableList.of("Dorpstraat 1", "Amsterdam"),
+						"NL28INGB0000000001", "INGBNL2A", "NL97ZZZ123456780001",
+						"E2EID1", "E2EID1", new BigDecimal("2.50"),
+						"MANDAAT1", new LocalDate("2010-09-05"),
+						"NAAM", "NL98INGB0000000003", debtorBic, "NL", ImmutableList.of("Dorpstraat 2", "Amsterdam"),
+						"Ref.");
+				assertThat(debtorBic, is("INGBNL2A"));
+			} catch (IllegalArgumentException e) {
+				assertThat(router.getPaymentInstructions().isEmpty(), is(true));
+			}
+		}
+		assertThat(router.getPaymentInstructions().get(0).getPaymentInstructionInformation().getPmtInfId(), is("PAYID-1"));
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		debitInitiation.write(stream);
+		assertThat(new String(stream.toByteArray()).split("<PmtInf>").length, is(2));
+	}
+
+}
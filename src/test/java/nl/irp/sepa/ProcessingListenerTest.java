@@ -0,0 +1,116 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import iso.std.iso._20022.tech.xsd.pain_008_001.SequenceType1Code;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+
+import javax.xml.bind.JAXBException;
+
+import nl.irp.sepa.ProcessingListener.Phase;
+import nl.irp.sepa.sdd.DirectDebitInitiation;
+import nl.irp.sepa.sdd.DirectDebitInitiation.PaymentInstruction;
+
+import org.jdom2.JDOMException;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+
+public class ProcessingListenerTest {
+
+	private static class RecordingListener extends ProcessingListener {
+		List<Phase> phases = Lists.newArrayList();
+		int nbOfTxs = -1;
+		long bytes = -1;
+
+		@Override
+		public void phase(Phase phase, long nanos, long allocatedBytes) {
+			assertTrue(nanos >= 0);
+			phases.add(phase);
+		}
+
+		@Override
+		public void written(int nbOfTxs, long bytes) {
+			this.nbOfTxs = nbOfTxs;
+			this.bytes = bytes;
+		}
+
+		@Override
+		public void read(int nbOfEntries, long bytes) {
+			this.nbOfTxs = nbOfEntries;
+			this.bytes = bytes;
+		}
+	}
+
+	@Test
+	public void testCreditTransfer() throws JAXBException {
+		RecordingListener listener = new RecordingListener();
+		SEPACreditTransfer transfer = new SEPACreditTransfer(SEPACreditTransfer.VERSION_PAIN_001_002_02);
+		transfer.setProcessingListener(listener);
+		transfer.buildGroupHeader("MSGID005", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		SEPACreditTransfer.PaymentGroup paymentGroup = transfer.paymentGroup(
+				"PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+		paymentGroup.creditTransfer("E2EID001", new BigDecimal("1.01"), "INGBNL2A", "NAAM cdtr", "NL98INGB0000000002", "Ref. 2012.0386");
+		paymentGroup.creditTransfer("E2EID002", new BigDecimal("1.01"), "INGBNL2A", "NAAM cdtr", "NL98INGB0000000002", "Ref. 2012.0387");
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		transfer.write(stream);
+		assertThat(listener.phases, is((List<Phase>) ImmutableList.of(Phase.BUILD, Phase.MARSHAL, Phase.CONVERT)));
+		assertThat(listener.nbOfTxs, is(2));
+		assertThat(listener.bytes, is((long) stream.size()));
+	}
+
+	@Test
+	public void testDirectDebitInitiation() throws JAXBException, JDOMException, IOException {
+		RecordingListener listener = new RecordingListener();
+		DirectDebitInitiation debitInitiation = new DirectDebitInitiation();
+		debitInitiation.setProcessingListener(listener);
+		debitInitiation.buildGroupHeader("MSGID001", "IPNORGANISATIENAAM", new LocalDateTime("2012-02-22T09:29:54").toDate());
+		PaymentInstruction paymentInstruction = debitInitiation.paymentInstruction(
+				"PAYID001", new LocalDate("2012-02-05").toDate(),
+				"NAAM", SequenceType1Code.OOFF,
+				"NL", ImmutableList.of("Dorpstraat 1", "Amsterdam"),
+				"NL28INGB0000000001", "INGBNL2A", null);
+		paymentInstruction.addTransaction(
+				"E2EID001", "E2EID001", new BigDecimal("1.01"),
+				"MANDAAT123456", new LocalDate("2010-09-05"), null,
+				"NAAM", "NL98INGB0000000002", "INGBNL2A",
+				"NL", ImmutableList.of("Dorpstraat 2", "Amsterdam"),
+				"Ref. 2012.0386");
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		debitInitiation.writeWithXmlnsXsi(stream);
+		assertThat(listener.phases, is((List<Phase>) ImmutableList.of(Phase.BUILD, Phase.MARSHAL, Phase.XSI_REWRITE)));
+		assertThat(listener.nbOfTxs, is(1));
+		assertThat(listener.bytes, is((long) stream.size()));
+	}
+
+	@Test
+	public void testBankToCustomerStatement() throws JAXBException, IOException {
+		RecordingListener listener = new RecordingListener();
+		byte[] xml = Resources.toByteArray(Resources.getResource("camt.053.001.02.xml"));
+		BankToCustomerStatement.read(Resources.newInputStreamSupplier(Resources.getResource("camt.053.001.02.xml")).getInput(), listener);
+		assertThat(listener.phases, is((List<Phase>) ImmutableList.of(Phase.UNMARSHAL)));
+		assertThat(listener.nbOfTxs, is(3));
+		assertThat(listener.bytes, is((long) xml.length));
+	}
+
+	@Test
+	public void testAllocatedBytes() {
+		long before = PhaseTimer.allocatedBytes();
+		byte[] bytes = new byte[1 << 20];
+		long after = PhaseTimer.allocatedBytes();
+		if (before >= 0)
+			assertTrue(after - before >= bytes.length);
+	}
+
+}
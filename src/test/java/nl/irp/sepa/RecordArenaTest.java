@@ -0,0 +1,141 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import iso.std.iso._20022.tech.xsd.pain_008_001.DirectDebitTransactionInformation9;
+import iso.std.iso._20022.tech.xsd.pain_008_001.SequenceType1Code;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+
+import javax.xml.bind.JAXBException;
+
+import nl.irp.sepa.sdd.DirectDebitInitiation;
+import nl.irp.sepa.sdd.DirectDebitInitiation.PaymentInstruction;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class RecordArenaTest {
+
+	@Test
+	public void testRecords() {
+		RecordArena arena = new RecordArena(64);
+		for (int i = 0; i < 100; i++) {
+			arena.putString("Café € " + i).putLong(i * 1000000000L).putString(null).putInt(-i);
+			arena.endRecord();
+		}
+		assertThat(arena.size(), is(100));
+
+		RecordArena.Reader reader = arena.reader();
+		for (int i = 0; i < 100; i++) {
+			assertThat(reader.hasNext(), is(true));
+			reader.next();
+			assertThat(reader.getString(), is("Café € " + i));
+			assertThat(reader.getLong(), is(i * 1000000000L));
+			assertThat(reader.getString(), is(nullValue()));
+			assertThat(reader.getInt(), is(-i));
+		}
+		assertThat(reader.hasNext(), is(false));
+
+		arena.clear();
+		assertThat(arena.size(), is(0));
+		assertThat(arena.bytes(), is(0L));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRecordTooLarge() {
+		RecordArena arena = new RecordArena(64);
+		arena.putString("a string that is longer than the 64 bytes of a chunk of this arena");
+		arena.endRecord();
+	}
+
+	@Test
+	public void testStagedList() {
+		RecordArena arena = new RecordArena();
+		for (int i = 0; i < 10; i++) {
+			arena.putInt(i);
+			arena.endRecord();
+		}
+		StagedList<Integer> list = new StagedList<Integer>(arena) {
+			@Override
+			protected Integer decode(RecordReader reader) {
+				return reader.getInt();
+			}
+		};
+		assertThat(list.size(), is(10));
+		assertThat(list.get(7), is(7));
+		assertThat(ImmutableList.copyOf(list), is(ImmutableList.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9)));
+	}
+
+	@Test
+	public void testCreditTransfer() throws JAXBException {
+		assertThat(creditTransfer(true), is(creditTransfer(false)));
+	}
+
+	@Test
+	public void testDirectDebitInitiation() throws JAXBException {
+		assertThat(directDebitInitiation(true), is(directDebitInitiation(false)));
+	}
+
+	private String creditTransfer(boolean offHeapStaging) throws JAXBException {
+		SEPACreditTransfer transfer = new SEPACreditTransfer();
+		transfer.setOffHeapStaging(offHeapStaging);
+		transfer.buildGroupHeader("MSGID005", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		SEPACreditTransfer.PaymentGroup paymentGroup = transfer.paymentGroup(
+				"PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+		for (int i = 0; i < 1000; i++)
+			paymentGroup.creditTransfer("E2EID" + i, new BigDecimal("1.01"), "INGBNL2A", "Müller " + i, "NL98INGB0000000002", "Ref. " + i);
+		paymentGroup.creditTransferWithCreditorReference("E2EID-RF", new BigDecimal("2.00"), "INGBNL2A", "NAAM cdtr", "NL98INGB0000000002", "RF18539007547034");
+		paymentGroup.creditTransfer("E2EID-CHF", Amount.of("3.50", "CHF"), "UBSWCHZH", "NAAM cdtr", "CH9300762011623852957", "Ref.");
+
+		// writing twice gives the same message
+		write(transfer);
+		return write(transfer);
+	}
+
+	private String directDebitInitiation(boolean offHeapStaging) throws JAXBException {
+		DirectDebitInitiation debitInitiation = new DirectDebitInitiation();
+		debitInitiation.setOffHeapStaging(offHeapStaging);
+		debitInitiation.buildGroupHeader("MSGID001", "IPNORGANISATIENAAM", new LocalDateTime("2012-02-22T09:29:54").toDate());
+		PaymentInstruction paymentInstruction = debitInitiation.paymentInstruction(
+				"PAYID001", new LocalDate("2012-02-05").toDate(),
+				"NAAM", SequenceType1Code.RCUR,
+				"NL", ImmutableList.of("Dorpstraat 1", "Amsterdam"),
+				"NL28INGB0000000001", "INGBNL2A", null);
+		for (int i = 0; i < 1000; i++) {
+			DirectDebitTransactionInformation9 transaction = paymentInstruction.addTransaction(
+					"E2EID" + i, "E2EID" + i, new BigDecimal("1.01"),
+					"MANDAAT" + i, new LocalDate("2010-09-05"), i % 2 == 0 ? null : "NL97ZZZ123456780001",
+					"NAAM " + i, "NL98INGB0000000002", "INGBNL2A",
+					"NL", ImmutableList.of("Dorpstraat 2", "Amsterdam"),
+					"Ref. " + i, i % 3 == 0 ? "NL28INGB0000000001" : null, "OTHR");
+			// off the heap there's no transaction to change
+			assertThat(transaction == null, is(offHeapStaging));
+		}
+		paymentInstruction.addTransactionWithCreditorReference(
+				"E2EID-RF", "E2EID-RF", new BigDecimal("2.00"),
+				"MANDAAT-RF", null, null,
+				"NAAM", "NL98INGB0000000002", "INGBNL2A",
+				"NL", ImmutableList.of("Dorpstraat 2", "Amsterdam"),
+				"RF18539007547034", null, null);
+		return write(debitInitiation);
+	}
+
+	private String write(SEPACreditTransfer transfer) throws JAXBException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		transfer.write(stream);
+		return new String(stream.toByteArray());
+	}
+
+	private String write(DirectDebitInitiation debitInitiation) throws JAXBException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		debitInitiation.write(stream);
+		return new String(stream.toByteArray());
+	}
+
+}
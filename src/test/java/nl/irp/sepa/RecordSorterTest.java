@@ -0,0 +1,169 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import iso.std.iso._20022.tech.xsd.pain_008_001.SequenceType1Code;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.bind.JAXBException;
+
+import nl.irp.sepa.sdd.DirectDebitInitiation;
+import nl.irp.sepa.sdd.DirectDebitInitiation.PaymentInstruction;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+
+public class RecordSorterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSpilled() {
+		RecordSorter sorter = new RecordSorter(folder.getRoot(), 3 * 8192, 2);
+		Random random = new Random(42);
+		for (int i = 0; i < 5000; i++) {
+			sorter.putString("key" + random.nextInt(1000)).putInt(i);
+			sorter.endRecord();
+		}
+		assertThat(sorter.size(), is(5000));
+		assertTrue(sorter.spills() > 1);
+
+		// twice, the spill files are kept
+		for (int pass = 0; pass < 2; pass++) {
+			RecordReader reader = sorter.reader();
+			String previousKey = "";
+			int previous = -1;
+			int count = 0;
+			while (reader.hasNext()) {
+				reader.next();
+				String key = reader.getString();
+				int i = reader.getInt();
+				int c = key.compareTo(previousKey);
+				assertTrue(c >= 0);
+				// equal keys in the order they were added
+				assertTrue(c > 0 || i > previous);
+				previousKey = key;
+				previous = i;
+				count++;
+			}
+			assertThat(count, is(5000));
+		}
+
+		sorter.clear();
+		assertThat(sorter.size(), is(0));
+		assertThat(folder.getRoot().list().length, is(0));
+	}
+
+	@Test
+	public void testInMemory() {
+		RecordSorter sorter = new RecordSorter(folder.getRoot(), 1 << 20, 1);
+		for (String key : ImmutableList.of("c", "a", "b", "a")) {
+			sorter.putString(key).putString(key + sorter.size());
+			sorter.endRecord();
+		}
+		assertThat(sorter.spills(), is(0));
+		List<String> values = new ArrayList<String>();
+		RecordReader reader = sorter.reader();
+		while (reader.hasNext()) {
+			reader.next();
+			reader.getString();
+			values.add(reader.getString());
+		}
+		assertThat(values, is((List<String>) ImmutableList.of("a1", "a3", "b2", "c0")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testKeyMustBeString() {
+		RecordSorter sorter = new RecordSorter(folder.getRoot(), 1 << 20, 1);
+		sorter.putInt(1);
+		sorter.endRecord();
+	}
+
+	@Test
+	public void testCreditTransfer() throws JAXBException {
+		SEPACreditTransfer transfer = new SEPACreditTransfer();
+		transfer.setSortOrder(TransactionOrder.IBAN, folder.getRoot(), 64 * 1024, 3);
+		transfer.buildGroupHeader("MSGID005", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		SEPACreditTransfer.PaymentGroup paymentGroup = transfer.paymentGroup(
+				"PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+		Random random = new Random(7);
+		for (int i = 0; i < 3000; i++)
+			paymentGroup.creditTransfer("E2EID" + i, new BigDecimal("1.01"), "INGBNL2A", "NAAM cdtr",
+					String.format("NL%02dINGB%010d", random.nextInt(100), random.nextInt(1000000)), "Ref. " + i);
+
+		String xml = write(transfer);
+		List<String> ibans = values(xml, "IBAN");
+		// the debtor account comes first
+		assertThat(ibans.size(), is(3001));
+		assertTrue(Ordering.natural().isOrdered(ibans.subList(1, ibans.size())));
+		assertTrue(xml.contains("<CtrlSum>3030.00</CtrlSum>"));
+		assertThat(write(transfer), is(xml));
+
+		transfer.close();
+		assertThat(folder.getRoot().list().length, is(0));
+	}
+
+	@Test
+	public void testDirectDebitInitiation() throws JAXBException {
+		DirectDebitInitiation debitInitiation = new DirectDebitInitiation();
+		debitInitiation.setSortOrder(TransactionOrder.END_TO_END_ID, folder.getRoot(), 64 * 1024, 2);
+		debitInitiation.buildGroupHeader("MSGID001", "IPNORGANISATIENAAM", new LocalDateTime("2012-02-22T09:29:54").toDate());
+		PaymentInstruction paymentInstruction = debitInitiation.paymentInstruction(
+				"PAYID001", new LocalDate("2012-02-05").toDate(),
+				"NAAM", SequenceType1Code.RCUR,
+				"NL", ImmutableList.of("Dorpstraat 1", "Amsterdam"),
+				"NL28INGB0000000001", "INGBNL2A", null);
+		for (int i = 2999; i >= 0; i--)
+			paymentInstruction.addTransaction(
+					"INSTR" + i, String.format("E2EID%05d", i), new BigDecimal("1.01"),
+					"MANDAAT" + i, new LocalDate("2010-09-05"), "NL97ZZZ123456780001",
+					"NAAM " + i, "NL98INGB0000000002", "INGBNL2A",
+					"NL", ImmutableList.of("Dorpstraat 2", "Amsterdam"),
+					"Ref. " + i);
+
+		List<String> endToEndIds = values(write(debitInitiation), "EndToEndId");
+		assertThat(endToEndIds.size(), is(3000));
+		assertThat(endToEndIds.get(0), is("E2EID00000"));
+		assertTrue(Ordering.natural().isStrictlyOrdered(endToEndIds));
+		assertTrue(folder.getRoot().list().length > 1);
+
+		debitInitiation.close();
+		assertThat(folder.getRoot().list().length, is(0));
+	}
+
+	private static List<String> values(String xml, String element) {
+		List<String> values = new ArrayList<String>();
+		Matcher matcher = Pattern.compile("<" + element + ">([^<]*)</" + element + ">").matcher(xml);
+		while (matcher.find())
+			values.add(matcher.group(1));
+		return values;
+	}
+
+	private String write(SEPACreditTransfer transfer) throws JAXBException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		transfer.write(stream);
+		return new String(stream.toByteArray());
+	}
+
+	private String write(DirectDebitInitiation debitInitiation) throws JAXBException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		debitInitiation.write(stream);
+		return new String(stream.toByteArray());
+	}
+
+}
@@ -0,0 +1,172 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+import iso.std.iso._20022.tech.xsd.pain_001_001.PaymentInstructionInformation3;
+import iso.std.iso._20022.tech.xsd.pain_001_001.Purpose2Choice;
+import iso.std.iso._20022.tech.xsd.pain_008_001.SequenceType1Code;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.bind.JAXBException;
+
+import nl.irp.sepa.ProcessingListener.Phase;
+import nl.irp.sepa.sdd.DirectDebitInitiation;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+
+public class RenderCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testCreditTransfer() throws JAXBException {
+		File directory = folder.newFolder("cache");
+		RenderCache cache = new RenderCache(directory, 1 << 20);
+		byte[] expected = write(transfer(null, false, "1.01"));
+
+		assertThat(write(transfer(cache, false, "1.01")), is(expected));
+		assertThat(directory.list().length, is(1));
+		assertThat(cache.size(), is((long) expected.length));
+
+		// the same contents, staged off-heap
+		assertThat(write(transfer(cache, true, "1.01")), is(expected));
+		assertThat(directory.list().length, is(1));
+
+		assertThat(write(transfer(cache, false, "1.02")), is(not(expected)));
+		assertThat(directory.list().length, is(2));
+
+		// the files of an earlier cache
+		assertThat(new RenderCache(directory, 1 << 20).size(), is(cache.size()));
+	}
+
+	@Test
+	public void testStrayTempFile() throws IOException {
+		File directory = folder.newFolder("cache");
+		File temp = File.createTempFile("render", ".tmp", directory);
+		new RenderCache(directory, 1 << 20);
+		assertThat(temp.exists(), is(false));
+	}
+
+	@Test
+	public void testBuildReported() throws JAXBException {
+		RenderCache cache = new RenderCache(folder.newFolder("cache"), 1 << 20);
+		final List<Phase> phases = new ArrayList<Phase>();
+		ProcessingListener listener = new ProcessingListener() {
+			@Override
+			public void phase(Phase phase, long nanos, long allocatedBytes) {
+				phases.add(phase);
+			}
+		};
+		for (int i = 0; i < 2; i++) {
+			SEPACreditTransfer transfer = transfer(cache, false, "1.01");
+			transfer.setProcessingListener(listener);
+			write(transfer);
+			DirectDebitInitiation debitInitiation = debitInitiation(cache);
+			debitInitiation.setProcessingListener(listener);
+			write(debitInitiation);
+		}
+		// rendered once, copied from the cache the second time
+		assertThat(Collections.frequency(phases, Phase.BUILD), is(4));
+		assertThat(Collections.frequency(phases, Phase.MARSHAL), is(2));
+	}
+
+	@Test
+	public void testChangedBean() {
+		SEPACreditTransfer.PaymentGroup paymentGroup = transfer(null, false, "1.01").paymentGroup(
+				"PAYID002", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+		paymentGroup.creditTransfer("E2EID2", new BigDecimal("1.00"), "INGBNL2A", "NAAM", "NL98INGB0000000002", "Ref.");
+		PaymentInstructionInformation3 paymentInstructionInformation = paymentGroup.getPaymentInstructionInformation();
+		String hash = ContentHash.of(paymentInstructionInformation);
+		assertThat(ContentHash.of(paymentInstructionInformation), is(hash));
+
+		Purpose2Choice purpose = new Purpose2Choice();
+		purpose.setCd("SALA");
+		paymentInstructionInformation.getCdtTrfTxInf().get(0).setPurp(purpose);
+		assertThat(ContentHash.of(paymentInstructionInformation), is(not(hash)));
+	}
+
+	@Test
+	public void testEviction() throws JAXBException {
+		File directory = folder.newFolder("cache");
+		int length = write(transfer(null, false, "1.01")).length;
+		RenderCache cache = new RenderCache(directory, 2 * length + length / 2);
+
+		write(transfer(cache, false, "1.01"));
+		String first = directory.list()[0];
+		write(transfer(cache, false, "1.02"));
+		// used again, so 1.02 is the least recently used
+		write(transfer(cache, false, "1.01"));
+		write(transfer(cache, false, "1.03"));
+		assertThat(directory.list().length, is(2));
+		assertThat(new File(directory, first).exists(), is(true));
+		assertThat(cache.size() <= 2 * length + length / 2, is(true));
+	}
+
+	@Test
+	public void testDirectDebitInitiation() throws JAXBException {
+		File directory = folder.newFolder("cache");
+		RenderCache cache = new RenderCache(directory, 1 << 20);
+		byte[] expected = write(debitInitiation(null));
+		assertThat(write(debitInitiation(cache)), is(expected));
+		assertThat(write(debitInitiation(cache)), is(expected));
+		assertThat(directory.list().length, is(1));
+	}
+
+	private SEPACreditTransfer transfer(RenderCache cache, boolean offHeapStaging, String amount) {
+		SEPACreditTransfer transfer = new SEPACreditTransfer();
+		transfer.setRenderCache(cache);
+		transfer.setOffHeapStaging(offHeapStaging);
+		transfer.buildGroupHeader("MSGID005", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		SEPACreditTransfer.PaymentGroup paymentGroup = transfer.paymentGroup(
+				"PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+		for (int i = 0; i < 100; i++)
+			paymentGroup.creditTransfer("E2EID" + i, new BigDecimal(amount), "INGBNL2A", "NAAM cdtr", "NL98INGB0000000002", "Ref. " + i);
+		return transfer;
+	}
+
+	private DirectDebitInitiation debitInitiation(RenderCache cache) {
+		DirectDebitInitiation debitInitiation = new DirectDebitInitiation();
+		debitInitiation.setRenderCache(cache);
+		debitInitiation.buildGroupHeader("MSGID001", "IPNORGANISATIENAAM", new LocalDateTime("2012-02-22T09:29:54").toDate());
+		debitInitiation.paymentInstruction(
+				"PAYID001", new LocalDate("2012-02-05").toDate(),
+				"NAAM", SequenceType1Code.RCUR,
+				"NL", ImmutableList.of("Dorpstraat 1", "Amsterdam"),
+				"NL28INGB0000000001", "INGBNL2A", null)
+			.addTransaction(
+				"INSTR1", "E2EID1", new BigDecimal("1.01"),
+				"MANDAAT1", new LocalDate("2010-09-05"), "NL97ZZZ123456780001",
+				"NAAM", "NL98INGB0000000002", "INGBNL2A",
+				"NL", ImmutableList.of("Dorpstraat 2", "Amsterdam"),
+				"Ref.");
+		return debitInitiation;
+	}
+
+	private byte[] write(SEPACreditTransfer transfer) throws JAXBException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		transfer.write(stream);
+		return stream.toByteArray();
+	}
+
+	private byte[] write(DirectDebitInitiation debitInitiation) throws JAXBException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		debitInitiation.write(stream);
+		return stream.toByteArray();
+	}
+
+}
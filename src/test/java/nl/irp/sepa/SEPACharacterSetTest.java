@@ -0,0 +1,52 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class SEPACharacterSetTest {
+
+	@Test
+	public void testValidTextIsReturnedAsIs() {
+		String name = "Paul Testmann (Ref. 2013/05-25)";
+		assertThat(SEPACharacterSet.sanitize(name, 70), is(sameInstance(name)));
+		assertThat(SEPACharacterSet.isValid(name), is(true));
+	}
+
+	@Test
+	public void testTransliterate() {
+		assertThat(SEPACharacterSet.sanitize("Société Générale", 70), is("Societe Generale"));
+		assertThat(SEPACharacterSet.sanitize("Müller & Söhne", 70), is("Muller + Sohne"));
+		assertThat(SEPACharacterSet.sanitize("Straße", 70), is("Strasse"));
+		assertThat(SEPACharacterSet.sanitize("Łódź", 70), is("Lodz"));
+		assertThat(SEPACharacterSet.sanitize("Ørsted; “quoted”", 70), is("Orsted, 'quoted'"));
+		assertThat(SEPACharacterSet.sanitize("Café", 70), is("Cafe"));
+		assertThat(SEPACharacterSet.sanitize("a@b\tc", 70), is("a.b c"));
+		assertThat(SEPACharacterSet.sanitize("x😀y", 70), is("x.y"));
+		assertThat(SEPACharacterSet.isValid("Société"), is(false));
+	}
+
+	@Test
+	public void testPartyName() {
+		assertThat(Utils.createParty(null).getNm(), is(nullValue()));
+		assertThat(nl.irp.sepa.sdd.Utils.createParty(null).getNm(), is(nullValue()));
+		assertThat(Utils.createParty("Société Générale").getNm(), is("Societe Generale"));
+		// nothing left to transliterate, the name is passed as it is
+		assertThat(SEPACharacterSet.sanitize("\u0301\u0301", 70), is(""));
+		assertThat(Utils.createParty("\u0301\u0301").getNm(), is("\u0301\u0301"));
+		assertThat(nl.irp.sepa.sdd.Utils.createParty("\u0301\u0301").getNm(), is("\u0301\u0301"));
+	}
+
+	@Test
+	public void testTruncate() {
+		assertThat(SEPACharacterSet.sanitize("abcdef", 4), is("abcd"));
+		assertThat(SEPACharacterSet.sanitize("abcdé", 4), is("abcd"));
+		assertThat(SEPACharacterSet.sanitize("éabcdef", 4), is("eabc"));
+		// the expansion of 'ß' doesn't fit anymore
+		assertThat(SEPACharacterSet.sanitize("Graß", 4), is("Gra"));
+	}
+
+}
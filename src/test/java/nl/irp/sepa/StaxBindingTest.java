@@ -0,0 +1,193 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import iso.std.iso._20022.tech.xsd.camt_053_001.AccountStatement2;
+import iso.std.iso._20022.tech.xsd.pain_001_001.ActiveOrHistoricCurrencyAndAmount;
+import iso.std.iso._20022.tech.xsd.pain_001_001.AmountType3Choice;
+import iso.std.iso._20022.tech.xsd.pain_001_001.CreditTransferTransactionInformation10;
+import iso.std.iso._20022.tech.xsd.pain_001_001.CustomerCreditTransferInitiationV03;
+import iso.std.iso._20022.tech.xsd.pain_001_001.GroupHeader32;
+import iso.std.iso._20022.tech.xsd.pain_001_001.PartyIdentification32;
+import iso.std.iso._20022.tech.xsd.pain_001_001.PaymentInstructionInformation3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.stream.StreamSource;
+
+import nl.irp.sepa.bind.JAXBContexts;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+
+/**
+ * The generated writers and readers against JAXB.
+ */
+public class StaxBindingTest {
+
+	private static final String[] CREDIT_TRANSFERS = {
+		"abn/pain.001.001.03 voorbeeldbestand.xml", "ing/pain.001.001.03 voorbeeldbestand.xml", "ing/pain.001.001.03 multiple.xml"
+	};
+	private static final String[] DIRECT_DEBITS = {
+		"abn/pain.008.001.02 voorbeeldbestand.xml", "ing/pain.008.001.02 voorbeeldbestand.xml",
+		"ing/pain.008.001.02 changeIban.xml", "ing/pain.008.001.02 cdtrSchmeId-paymentInstruction.xml"
+	};
+
+	@Test
+	public void testCreditTransferWriter() throws Exception {
+		for (String resource : CREDIT_TRANSFERS)
+			assertCreditTransfer(Resources.toByteArray(Resources.getResource(resource)));
+		ByteArrayOutputStream synthetic = new ByteArrayOutputStream();
+		new SyntheticDataGenerator(1).writeCreditTransfer(synthetic, 100);
+		assertCreditTransfer(synthetic.toByteArray());
+	}
+
+	@Test
+	public void testDirectDebitWriter() throws Exception {
+		for (String resource : DIRECT_DEBITS)
+			assertDirectDebit(Resources.toByteArray(Resources.getResource(resource)));
+		ByteArrayOutputStream synthetic = new ByteArrayOutputStream();
+		new SyntheticDataGenerator(2).writeDirectDebitInitiation(synthetic, 100);
+		assertDirectDebit(synthetic.toByteArray());
+	}
+
+	@Test
+	public void testEscaping() throws Exception {
+		iso.std.iso._20022.tech.xsd.pain_001_001.Document document = new iso.std.iso._20022.tech.xsd.pain_001_001.Document();
+		CustomerCreditTransferInitiationV03 initiation = new CustomerCreditTransferInitiationV03();
+		document.setCstmrCdtTrfInitn(initiation);
+		GroupHeader32 groupHeader = new GroupHeader32();
+		initiation.setGrpHdr(groupHeader);
+		groupHeader.setMsgId("a&b<c>d\"e'f\rg\nh\tié€😀");
+		groupHeader.setNbOfTxs("");
+		groupHeader.setCtrlSum(new BigDecimal("1E+3"));
+		groupHeader.setInitgPty(new PartyIdentification32());
+		PaymentInstructionInformation3 paymentGroup = new PaymentInstructionInformation3();
+		initiation.getPmtInf().add(paymentGroup);
+		paymentGroup.setBtchBookg(true);
+		for (String ccy : new String[] { "a&b<c>d\"e'f\rg\nh\ti", null }) {
+			ActiveOrHistoricCurrencyAndAmount instdAmt = new ActiveOrHistoricCurrencyAndAmount();
+			instdAmt.setCcy(ccy);
+			if (ccy != null)
+				instdAmt.setValue(new BigDecimal("1.10"));
+			CreditTransferTransactionInformation10 transaction = new CreditTransferTransactionInformation10();
+			transaction.setAmt(new AmountType3Choice());
+			transaction.getAmt().setInstdAmt(instdAmt);
+			paymentGroup.getCdtTrfTxInf().add(transaction);
+		}
+
+		byte[] written = write(document);
+		assertThat(new String(written, Charsets.UTF_8), is(new String(marshal(document), Charsets.UTF_8)));
+		assertThat(new String(write(iso.std.iso._20022.tech.xsd.pain_001_001.DocumentReader.read(new ByteArrayInputStream(written))), Charsets.UTF_8),
+				is(new String(written, Charsets.UTF_8)));
+	}
+
+	@Test
+	public void testStatementReader() throws Exception {
+		assertStatement(Resources.toByteArray(Resources.getResource("camt.053.001.02.xml")));
+		ByteArrayOutputStream synthetic = new ByteArrayOutputStream();
+		new SyntheticDataGenerator(3).writeStatement(synthetic, 100);
+		assertStatement(synthetic.toByteArray());
+	}
+
+	@Test
+	public void testStatementReaderLenient() throws Exception {
+		String[] statements = {
+			"<Bal><Amt Ccy='SEK'> 12.5 </Amt><CdtDbtInd> CRDT </CdtDbtInd></Bal>",
+			"<Bal><Amt Ccy='SEK'>abc</Amt><CdtDbtInd>XXX</CdtDbtInd></Bal>",
+			"<Bal><Amt Ccy='SEK'></Amt></Bal><CreDtTm>no date</CreDtTm>",
+			"<Unknown><Id>x</Id></Unknown><Id> a<b>c</b>d </Id>",
+			"<x:Id xmlns:x='other'>x</x:Id><Ntry><RvslInd> 1 </RvslInd></Ntry>",
+			"<Id>a&amp;b<![CDATA[<c>]]></Id><Ntry><RvslInd>yes</RvslInd></Ntry>",
+		};
+		for (String statement : statements) {
+			// JAXB reads the root element as the declared type, whatever its name
+			String xml = "<Stmts xmlns='urn:iso:std:iso:20022:tech:xsd:camt.053.001.02'><BkToCstmrStmt><Stmt>"
+					+ statement + "</Stmt></BkToCstmrStmt></Stmts>";
+			assertStatement(xml.getBytes(Charsets.UTF_8));
+		}
+		String xml = "<Document xmlns='urn:iso:std:iso:20022:tech:xsd:camt.053.001.02'><BkToCstmrStmt><Stmt>"
+				+ "<Unknown><Id>x</Id></Unknown><Id> a<b>c</b>d </Id><CreDtTm>no date</CreDtTm></Stmt></BkToCstmrStmt></Document>";
+		AccountStatement2 statement = iso.std.iso._20022.tech.xsd.camt_053_001.DocumentReader.read(
+				new ByteArrayInputStream(xml.getBytes(Charsets.UTF_8))).getBkToCstmrStmt().getStmt().get(0);
+		assertThat(statement.getId(), is("d "));
+		assertThat(statement.getCreDtTm(), nullValue());
+	}
+
+	private static void assertCreditTransfer(byte[] xml) throws JAXBException, XMLStreamException {
+		iso.std.iso._20022.tech.xsd.pain_001_001.Document document = JAXBContexts.get(iso.std.iso._20022.tech.xsd.pain_001_001.Document.class)
+				.createUnmarshaller().unmarshal(new StreamSource(new ByteArrayInputStream(xml)), iso.std.iso._20022.tech.xsd.pain_001_001.Document.class).getValue();
+		byte[] written = write(document);
+		assertThat(new String(written, Charsets.UTF_8), is(new String(marshal(document), Charsets.UTF_8)));
+		// read back the same
+		assertThat(new String(write(iso.std.iso._20022.tech.xsd.pain_001_001.DocumentReader.read(new ByteArrayInputStream(written))), Charsets.UTF_8),
+				is(new String(written, Charsets.UTF_8)));
+	}
+
+	private static void assertDirectDebit(byte[] xml) throws JAXBException, XMLStreamException {
+		iso.std.iso._20022.tech.xsd.pain_008_001.Document document = JAXBContexts.get(iso.std.iso._20022.tech.xsd.pain_008_001.Document.class)
+				.createUnmarshaller().unmarshal(new StreamSource(new ByteArrayInputStream(xml)), iso.std.iso._20022.tech.xsd.pain_008_001.Document.class).getValue();
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		iso.std.iso._20022.tech.xsd.pain_008_001.DocumentWriter.write(document, written);
+		assertThat(new String(written.toByteArray(), Charsets.UTF_8), is(new String(marshal(document), Charsets.UTF_8)));
+		// read back the same
+		ByteArrayOutputStream rewritten = new ByteArrayOutputStream();
+		iso.std.iso._20022.tech.xsd.pain_008_001.DocumentWriter.write(
+				iso.std.iso._20022.tech.xsd.pain_008_001.DocumentReader.read(new ByteArrayInputStream(written.toByteArray())), rewritten);
+		assertThat(new String(rewritten.toByteArray(), Charsets.UTF_8), is(new String(written.toByteArray(), Charsets.UTF_8)));
+	}
+
+	/**
+	 * Reads the statement with JAXB and with the reader, both written by JAXB must be the same.
+	 */
+	private static void assertStatement(byte[] xml) throws JAXBException, XMLStreamException, IOException {
+		iso.std.iso._20022.tech.xsd.camt_053_001.Document expected = JAXBContexts.get(iso.std.iso._20022.tech.xsd.camt_053_001.Document.class)
+				.createUnmarshaller().unmarshal(new StreamSource(new ByteArrayInputStream(xml)), iso.std.iso._20022.tech.xsd.camt_053_001.Document.class).getValue();
+		iso.std.iso._20022.tech.xsd.camt_053_001.Document document =
+				iso.std.iso._20022.tech.xsd.camt_053_001.DocumentReader.read(new ByteArrayInputStream(xml));
+		assertThat(new String(marshal(document), Charsets.UTF_8), is(new String(marshal(expected), Charsets.UTF_8)));
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		iso.std.iso._20022.tech.xsd.camt_053_001.DocumentWriter.write(document, written);
+		assertThat(new String(written.toByteArray(), Charsets.UTF_8), is(new String(marshal(document), Charsets.UTF_8)));
+	}
+
+	private static byte[] write(iso.std.iso._20022.tech.xsd.pain_001_001.Document document) throws XMLStreamException {
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		iso.std.iso._20022.tech.xsd.pain_001_001.DocumentWriter.write(document, written);
+		return written.toByteArray();
+	}
+
+	private static byte[] marshal(iso.std.iso._20022.tech.xsd.pain_001_001.Document document) throws JAXBException {
+		return marshal(new iso.std.iso._20022.tech.xsd.pain_001_001.ObjectFactory().createDocument(document),
+				iso.std.iso._20022.tech.xsd.pain_001_001.Document.class);
+	}
+
+	private static byte[] marshal(iso.std.iso._20022.tech.xsd.pain_008_001.Document document) throws JAXBException {
+		return marshal(new iso.std.iso._20022.tech.xsd.pain_008_001.ObjectFactory().createDocument(document),
+				iso.std.iso._20022.tech.xsd.pain_008_001.Document.class);
+	}
+
+	private static byte[] marshal(iso.std.iso._20022.tech.xsd.camt_053_001.Document document) throws JAXBException {
+		return marshal(new iso.std.iso._20022.tech.xsd.camt_053_001.ObjectFactory().createDocument(document),
+				iso.std.iso._20022.tech.xsd.camt_053_001.Document.class);
+	}
+
+	private static byte[] marshal(Object root, Class<?> documentClass) throws JAXBException {
+		Marshaller marshaller = JAXBContexts.get(documentClass).createMarshaller();
+		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+		marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		marshaller.marshal(root, os);
+		return os.toByteArray();
+	}
+
+}
@@ -0,0 +1,82 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import iso.std.iso._20022.tech.xsd.pain_008_001.SequenceType1Code;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.bind.JAXBException;
+
+import nl.irp.sepa.sdd.DirectDebitInitiation;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+public class SubmissionBundleTest {
+
+	@Test
+	public void testBundle() throws JAXBException, IOException {
+		SEPACreditTransfer transfer = new SEPACreditTransfer();
+		transfer.buildGroupHeader("MSGID005", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		transfer.paymentGroup("PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A")
+				.creditTransfer("E2EID1", new BigDecimal("1.01"), "INGBNL2A", "NAAM cdtr", "NL98INGB0000000002", "Ref.");
+
+		DirectDebitInitiation debitInitiation = new DirectDebitInitiation();
+		debitInitiation.buildGroupHeader("MSGID001", "IPNORGANISATIENAAM", new LocalDateTime("2012-02-22T09:29:54").toDate());
+		debitInitiation.paymentInstruction(
+				"PAYID001", new LocalDate("2012-02-05").toDate(),
+				"NAAM", SequenceType1Code.RCUR,
+				"NL", ImmutableList.of("Dorpstraat 1", "Amsterdam"),
+				"NL28INGB0000000001", "INGBNL2A", null)
+			.addTransaction(
+				"INSTR1", "E2EID1", new BigDecimal("1.01"),
+				"MANDAAT1", new LocalDate("2010-09-05"), "NL97ZZZ123456780001",
+				"NAAM", "NL98INGB0000000002", "INGBNL2A",
+				"NL", ImmutableList.of("Dorpstraat 2", "Amsterdam"),
+				"Ref.");
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		SubmissionBundle bundle = new SubmissionBundle(stream, Deflater.BEST_SPEED);
+		bundle.add("pain.001.xml", transfer);
+		bundle.add("pain.008.xml", debitInitiation);
+		bundle.close();
+
+		ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(stream.toByteArray()));
+		ZipEntry entry = zip.getNextEntry();
+		assertThat(entry.getName(), is("pain.001.xml"));
+		assertThat(ByteStreams.toByteArray(zip), is(write(transfer)));
+		entry = zip.getNextEntry();
+		assertThat(entry.getName(), is("pain.008.xml"));
+		assertThat(ByteStreams.toByteArray(zip), is(write(debitInitiation)));
+		assertThat(zip.getNextEntry() == null, is(true));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidLevel() {
+		new SubmissionBundle(new ByteArrayOutputStream(), 10);
+	}
+
+	private byte[] write(SEPACreditTransfer transfer) throws JAXBException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		transfer.write(stream);
+		return stream.toByteArray();
+	}
+
+	private byte[] write(DirectDebitInitiation debitInitiation) throws JAXBException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		debitInitiation.write(stream);
+		return stream.toByteArray();
+	}
+
+}
@@ -0,0 +1,109 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import iso.std.iso._20022.tech.xsd.pain_008_001.DirectDebitTransactionInformation9;
+import iso.std.iso._20022.tech.xsd.pain_008_001.PaymentInstructionInformation4;
+import iso.std.iso._20022.tech.xsd.pain_008_001.SequenceType1Code;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.List;
+
+import javax.xml.bind.JAXBException;
+
+import nl.irp.sepa.sdd.DirectDebitInitiation;
+import nl.irp.sepa.sdd.DirectDebitInitiation.PaymentInstruction;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class SubtreeCacheTest {
+
+	@Test
+	public void testNullKey() {
+		SubtreeCache<String, StringBuilder> cache = new SubtreeCache<String, StringBuilder>() {
+			@Override
+			protected StringBuilder create(String key) {
+				return new StringBuilder(String.valueOf(key));
+			}
+		};
+		assertThat(cache.get("a"), is(sameInstance(cache.get("a"))));
+		assertThat(cache.get(null), is(not(sameInstance(cache.get(null)))));
+		assertThat(cache.size(), is(1));
+	}
+
+	@Test
+	public void testSharedSubtrees() {
+		DirectDebitInitiation debitInitiation = new DirectDebitInitiation();
+		debitInitiation.setShareSubtrees(true);
+		debitInitiation.buildGroupHeader("MSGID001", "IPNORGANISATIENAAM", new LocalDateTime("2012-02-22T09:29:54").toDate());
+
+		List<String> addressLines = Lists.newArrayList("Dorpstraat 1", "Amsterdam");
+		PaymentInstruction first = paymentInstruction(debitInitiation, "PAYID001", addressLines);
+		addressLines.set(1, "Utrecht");
+		PaymentInstruction second = paymentInstruction(debitInitiation, "PAYID002", ImmutableList.of("Dorpstraat 1", "Amsterdam"));
+
+		PaymentInstructionInformation4 firstInformation = first.getPaymentInstructionInformation();
+		PaymentInstructionInformation4 secondInformation = second.getPaymentInstructionInformation();
+		assertThat(secondInformation.getCdtr(), is(sameInstance(firstInformation.getCdtr())));
+		assertThat(secondInformation.getCdtrAcct(), is(sameInstance(firstInformation.getCdtrAcct())));
+		assertThat(secondInformation.getCdtrAgt(), is(sameInstance(firstInformation.getCdtrAgt())));
+		assertThat(secondInformation.getPmtTpInf(), is(sameInstance(firstInformation.getPmtTpInf())));
+
+		DirectDebitTransactionInformation9 transaction1 = addTransaction(first, "E2EID001", "NAAM");
+		DirectDebitTransactionInformation9 transaction2 = addTransaction(first, "E2EID002", "NAAM");
+		DirectDebitTransactionInformation9 transaction3 = addTransaction(first, "E2EID003", "ANDERE NAAM");
+		assertThat(transaction2.getDbtr(), is(sameInstance(transaction1.getDbtr())));
+		assertThat(transaction2.getDbtrAcct(), is(sameInstance(transaction1.getDbtrAcct())));
+		assertThat(transaction2.getDbtrAgt(), is(sameInstance(transaction1.getDbtrAgt())));
+		assertThat(transaction3.getDbtr(), is(not(sameInstance(transaction1.getDbtr()))));
+		// not shared: the mandate related information differs per transaction
+		assertThat(transaction2.getDrctDbtTx(), is(not(sameInstance(transaction1.getDrctDbtTx()))));
+	}
+
+	@Test
+	public void testSameXml() throws JAXBException {
+		assertThat(write(true), is(write(false)));
+	}
+
+	private String write(boolean shareSubtrees) throws JAXBException {
+		DirectDebitInitiation debitInitiation = new DirectDebitInitiation();
+		debitInitiation.setShareSubtrees(shareSubtrees);
+		debitInitiation.buildGroupHeader("MSGID001", "IPNORGANISATIENAAM", new LocalDateTime("2012-02-22T09:29:54").toDate());
+		PaymentInstruction paymentInstruction = paymentInstruction(debitInitiation, "PAYID001", ImmutableList.of("Dorpstraat 1", "Amsterdam"));
+		for (int i = 0; i < 100; i++)
+			addTransaction(paymentInstruction, "E2EID" + i, "NAAM " + (i % 3));
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		debitInitiation.write(stream);
+		return new String(stream.toByteArray());
+	}
+
+	private PaymentInstruction paymentInstruction(DirectDebitInitiation debitInitiation, String pmtInfId, List<String> addressLines) {
+		return debitInitiation.paymentInstruction(
+				pmtInfId, new LocalDate("2012-02-05").toDate(),
+				"NAAM", SequenceType1Code.RCUR,
+				"NL", addressLines,
+				"NL28INGB0000000001", "INGBNL2A", null);
+	}
+
+	private DirectDebitTransactionInformation9 addTransaction(PaymentInstruction paymentInstruction, String endToEndId, String debtor) {
+		return paymentInstruction.addTransaction(
+				endToEndId, endToEndId,
+				new BigDecimal("1.01"),
+				"MANDAAT123456", new LocalDate("2010-09-05"), null,
+				debtor,
+				"NL98INGB0000000002", "INGBNL2A",
+				"NL", ImmutableList.of("Dorpstraat 2", "Amsterdam"),
+				"Ref. 2012.0386");
+	}
+
+}
@@ -0,0 +1,85 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import nl.irp.sepa.BankToCustomerStatement.AccountStatement;
+
+import org.junit.Test;
+
+import com.google.common.io.Resources;
+
+public class SyntheticDataGeneratorTest {
+
+	@Test
+	public void testCreditTransfer() throws Exception {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		new SyntheticDataGenerator(42).writeCreditTransfer(stream, 500);
+		validate(stream.toByteArray(), "pain.001.001.03.xsd");
+	}
+
+	@Test
+	public void testDirectDebitInitiation() throws Exception {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		new SyntheticDataGenerator(42).writeDirectDebitInitiation(stream, 500);
+		validate(stream.toByteArray(), "pain.008.001.02.xsd");
+	}
+
+	@Test
+	public void testStatement() throws Exception {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		new SyntheticDataGenerator(42).writeStatement(stream, 500);
+		validate(stream.toByteArray(), "camt.053.001.02.xsd");
+
+		AccountStatement stmt = BankToCustomerStatement.read(new ByteArrayInputStream(stream.toByteArray())).getStmt().get(0);
+		assertThat(stmt.getNtryAmts().size(), is(500));
+		Amount balance = stmt.getBalAmts().get(0);
+		for (Amount amount : stmt.getNtryAmts())
+			balance = balance.plus(amount);
+		assertThat(balance, is(stmt.getBalAmts().get(1)));
+	}
+
+	@Test
+	public void testDeterministic() throws Exception {
+		assertThat(creditTransfer(7), is(creditTransfer(7)));
+		assertThat(creditTransfer(7), is(not(creditTransfer(8))));
+	}
+
+	@Test
+	public void testIban() {
+		SyntheticDataGenerator generator = new SyntheticDataGenerator(1);
+		for (int i = 0; i < 1000; i++) {
+			String iban = generator.iban();
+			assertThat(iban, IBANUtils.validate(iban), is(true));
+			String rearranged = iban.substring(4) + iban.substring(0, 4);
+			StringBuilder digits = new StringBuilder();
+			for (char c : rearranged.toCharArray())
+				digits.append(Character.digit(c, 36));
+			assertThat(iban, new BigInteger(digits.toString()).mod(BigInteger.valueOf(97)).intValue(), is(1));
+		}
+		assertThat(SyntheticDataGenerator.checkDigits("NL", "ABNA0417164300"), is("91"));
+	}
+
+	private String creditTransfer(long seed) throws Exception {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		new SyntheticDataGenerator(seed).writeCreditTransfer(stream, 100);
+		return new String(stream.toByteArray(), "UTF-8");
+	}
+
+	private void validate(byte[] xml, String xsd) throws Exception {
+		SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+		Validator validator = factory.newSchema(Resources.getResource(xsd)).newValidator();
+		validator.validate(new StreamSource(new ByteArrayInputStream(xml)));
+	}
+
+}
@@ -0,0 +1,110 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import iso.std.iso._20022.tech.xsd.pain_008_001.SequenceType1Code;
+
+import java.util.List;
+
+import nl.irp.sepa.sdd.DirectDebitInitiation;
+import nl.irp.sepa.sdd.DirectDebitInitiation.PaymentInstruction;
+
+import org.joda.time.DateTimeConstants;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class TargetCalendarTest {
+
+	@Test
+	public void testHolidays() {
+		assertThat(TargetCalendar.isBusinessDay(new LocalDate("2013-04-19")), is(true));
+		assertThat(TargetCalendar.isBusinessDay(new LocalDate("2013-04-20")), is(false)); // Saturday
+		assertThat(TargetCalendar.isBusinessDay(new LocalDate("2013-03-29")), is(false)); // Good Friday
+		assertThat(TargetCalendar.isBusinessDay(new LocalDate("2013-04-01")), is(false)); // Easter Monday
+		assertThat(TargetCalendar.isBusinessDay(new LocalDate("2024-03-29")), is(false)); // Good Friday
+		assertThat(TargetCalendar.isBusinessDay(new LocalDate("2024-04-01")), is(false)); // Easter Monday
+		assertThat(TargetCalendar.isBusinessDay(new LocalDate("2013-05-01")), is(false));
+		assertThat(TargetCalendar.isBusinessDay(new LocalDate("2013-12-26")), is(false));
+		assertThat(TargetCalendar.isBusinessDay(new LocalDate("2014-01-01")), is(false));
+		assertThat(TargetCalendar.isBusinessDay(new LocalDate("2013-12-31")), is(true));
+	}
+
+	@Test
+	public void testNextBusinessDay() {
+		assertThat(TargetCalendar.nextBusinessDay(new LocalDate("2013-04-19")), is(new LocalDate("2013-04-19")));
+		assertThat(TargetCalendar.nextBusinessDay(new LocalDate("2013-04-20")), is(new LocalDate("2013-04-22")));
+		assertThat(TargetCalendar.nextBusinessDay(new LocalDate("2013-03-29")), is(new LocalDate("2013-04-02")));
+		assertThat(TargetCalendar.nextBusinessDay(new LocalDate("2013-12-25")), is(new LocalDate("2013-12-27")));
+	}
+
+	@Test
+	public void testAddBusinessDays() {
+		assertThat(TargetCalendar.addBusinessDays(new LocalDate("2013-03-28"), 2), is(new LocalDate("2013-04-03")));
+		assertThat(TargetCalendar.addBusinessDays(new LocalDate("2013-03-30"), 1), is(new LocalDate("2013-04-02")));
+		assertThat(TargetCalendar.addBusinessDays(new LocalDate("2013-04-03"), -2), is(new LocalDate("2013-03-28")));
+		assertThat(TargetCalendar.addBusinessDays(new LocalDate("2013-04-01"), -1), is(new LocalDate("2013-03-28")));
+		assertThat(TargetCalendar.addBusinessDays(new LocalDate("2013-03-30"), 0), is(new LocalDate("2013-04-02")));
+		assertThat(TargetCalendar.businessDaysBetween(new LocalDate("2013-03-28"), new LocalDate("2013-04-03")), is(2));
+		assertThat(TargetCalendar.businessDaysBetween(new LocalDate("2013-04-03"), new LocalDate("2013-03-28")), is(-2));
+	}
+
+	@Test
+	public void testWholeRange() {
+		// compare with a day by day walk through the calendar
+		LocalDate date = new LocalDate(TargetCalendar.FIRST_YEAR, 1, 1);
+		LocalDate end = new LocalDate(TargetCalendar.LAST_YEAR, 12, 1);
+		LocalDate previous = null;
+		int businessDays = 0;
+		while (date.isBefore(end)) {
+			boolean weekend = date.getDayOfWeek() >= DateTimeConstants.SATURDAY;
+			if (weekend)
+				assertThat(date.toString(), TargetCalendar.isBusinessDay(date), is(false));
+			if (TargetCalendar.isBusinessDay(date)) {
+				if (previous != null) {
+					assertThat(TargetCalendar.addBusinessDays(previous, 1), is(date));
+					assertThat(TargetCalendar.addBusinessDays(date, -1), is(previous));
+				}
+				previous = date;
+				businessDays++;
+			}
+			date = date.plusDays(1);
+		}
+		// 1 January 2000 itself is a holiday
+		assertThat(TargetCalendar.businessDaysBetween(new LocalDate(TargetCalendar.FIRST_YEAR, 1, 1), previous), is(businessDays));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOutsideCalendar() {
+		TargetCalendar.nextBusinessDay(new LocalDate("1999-12-31"));
+	}
+
+	@Test
+	public void testDirectDebitInitiation() {
+		DirectDebitInitiation debitInitiation = new DirectDebitInitiation();
+		debitInitiation.setAdjustToBusinessDays(true);
+		debitInitiation.setLeadTime(SequenceType1Code.FRST, 2);
+		debitInitiation.buildGroupHeader("MSGID001", "IPNORGANISATIENAAM", new LocalDateTime("2013-03-27T09:29:54").toDate());
+
+		// Good Friday
+		assertThat(paymentInstruction(debitInitiation, "PAYID001", "2013-03-29", SequenceType1Code.RCUR), is(new LocalDate("2013-04-02")));
+		// D-1 from Wednesday 27 March
+		assertThat(paymentInstruction(debitInitiation, "PAYID002", "2013-03-27", SequenceType1Code.RCUR), is(new LocalDate("2013-03-28")));
+		// D-2 from Wednesday 27 March
+		assertThat(paymentInstruction(debitInitiation, "PAYID003", "2013-03-27", SequenceType1Code.FRST), is(new LocalDate("2013-04-02")));
+		assertThat(paymentInstruction(debitInitiation, "PAYID004", "2013-04-19", SequenceType1Code.FRST), is(new LocalDate("2013-04-19")));
+	}
+
+	private LocalDate paymentInstruction(DirectDebitInitiation debitInitiation, String pmtInfId, String reqdColltnDt, SequenceType1Code type) {
+		List<String> addressLines = ImmutableList.of("Dorpstraat 1", "Amsterdam");
+		PaymentInstruction paymentInstruction = debitInitiation.paymentInstruction(
+				pmtInfId, new LocalDate(reqdColltnDt).toDate(),
+				"NAAM", type,
+				"NL", addressLines,
+				"NL28INGB0000000001", "INGBNL2A", null);
+		return paymentInstruction.getPaymentInstructionInformation().getReqdColltnDt();
+	}
+
+}
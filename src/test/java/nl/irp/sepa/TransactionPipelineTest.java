@@ -0,0 +1,170 @@
+package nl.irp.sepa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.junit.matchers.JUnitMatchers.containsString;
+import iso.std.iso._20022.tech.xsd.pain_008_001.DirectDebitTransactionInformation9;
+import iso.std.iso._20022.tech.xsd.pain_008_001.PaymentInstructionInformation4;
+import iso.std.iso._20022.tech.xsd.pain_008_001.SequenceType1Code;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+
+import javax.xml.bind.JAXBException;
+
+import nl.irp.sepa.TransactionPipeline.Column;
+import nl.irp.sepa.sdd.DirectDebitInitiation;
+import nl.irp.sepa.sdd.DirectDebitInitiation.PaymentInstruction;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class TransactionPipelineTest {
+
+	@Test
+	public void testDelimited() {
+		RecordFormat format = RecordFormat.delimited(';');
+		assertThat(ImmutableList.copyOf(format.split("a; \"b;c\" ;\"d\"\"e\";")), is(ImmutableList.of("a", "b;c", "d\"e", "")));
+	}
+
+	@Test
+	public void testFixedWidth() {
+		RecordFormat format = RecordFormat.fixedWidth(3, 4, 5);
+		assertThat(ImmutableList.copyOf(format.split("ab 1234x")), is(ImmutableList.of("ab", "1234", "x")));
+	}
+
+	@Test
+	public void testCreditTransfer() throws IOException, JAXBException {
+		SEPACreditTransfer transfer = new SEPACreditTransfer();
+		transfer.buildGroupHeader("MSGID005", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		SEPACreditTransfer.PaymentGroup paymentGroup = transfer.paymentGroup(
+				"PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+
+		TransactionPipeline pipeline = new TransactionPipeline(RecordFormat.delimited(';'));
+		pipeline.setHeaderLines(1);
+		pipeline.setDecimalSeparator(',');
+		pipeline.setColumn(Column.END_TO_END_ID, 0);
+		pipeline.setColumn(Column.NAME, 1);
+		pipeline.setColumn(Column.IBAN, 2);
+		pipeline.setColumn(Column.BIC, 3);
+		pipeline.setColumn(Column.AMOUNT, 4);
+		pipeline.setColumn(Column.REMITTANCE_INFORMATION, 5);
+
+		StringBuilder csv = new StringBuilder("id;naam;iban;bic;bedrag;omschrijving\n");
+		for (int i = 0; i < 1000; i++)
+			csv.append("E2EID").append(i).append(";Müller;NL98 INGB 0000 0000 02;INGBNL2A;1.000,").append(i % 100).append(";Ref. ").append(i).append('\n');
+		csv.append('\n');
+
+		assertThat(pipeline.run(new StringReader(csv.toString()), paymentGroup), is(1000));
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		transfer.write(stream);
+		String xml = new String(stream.toByteArray(), "UTF-8");
+		assertThat(xml, containsString("<NbOfTxs>1000</NbOfTxs>"));
+		assertThat(xml, containsString("<EndToEndId>E2EID999</EndToEndId>"));
+		assertThat(xml, containsString("<InstdAmt Ccy=\"EUR\">1000.99</InstdAmt>"));
+		assertThat(xml, containsString("<Nm>Muller</Nm>"));
+		assertThat(xml, containsString("<IBAN>NL98INGB0000000002</IBAN>"));
+	}
+
+	@Test
+	public void testDirectDebitInitiation() throws IOException {
+		DirectDebitInitiation debitInitiation = new DirectDebitInitiation();
+		debitInitiation.buildGroupHeader("MSGID001", "IPNORGANISATIENAAM", new LocalDateTime("2012-02-22T09:29:54").toDate());
+		PaymentInstruction paymentInstruction = debitInitiation.paymentInstruction(
+				"PAYID001", new LocalDate("2012-02-05").toDate(),
+				"NAAM", SequenceType1Code.RCUR,
+				"NL", ImmutableList.of("Dorpstraat 1", "Amsterdam"),
+				"NL28INGB0000000001", "INGBNL2A", null);
+
+		TransactionPipeline pipeline = new TransactionPipeline(RecordFormat.fixedWidth(10, 20, 18, 8, 10, 12, 10, 20));
+		pipeline.setQueueCapacity(1);
+		pipeline.setDateFormat("dd-MM-yyyy");
+		pipeline.setColumn(Column.END_TO_END_ID, 0);
+		pipeline.setColumn(Column.NAME, 1);
+		pipeline.setColumn(Column.IBAN, 2);
+		pipeline.setColumn(Column.BIC, 3);
+		pipeline.setColumn(Column.AMOUNT, 4);
+		pipeline.setColumn(Column.MANDATE_ID, 5);
+		pipeline.setColumn(Column.DATE_OF_SIGNATURE, 6);
+		pipeline.setColumn(Column.REMITTANCE_INFORMATION, 7);
+
+		StringBuilder export = new StringBuilder();
+		for (int i = 0; i < 600; i++)
+			export.append(String.format("%-10s%-20s%-18s%-8s%10s%-12s%-10s%-20s%n", "E2E" + i, "NAAM", "NL98INGB0000000002", "INGBNL2A", "1.01", "MANDAAT" + i, "05-09-2010", "Ref. " + i));
+
+		assertThat(pipeline.run(new StringReader(export.toString()), paymentInstruction), is(600));
+		PaymentInstructionInformation4 information = paymentInstruction.getPaymentInstructionInformation();
+		assertThat(information.getNbOfTxs(), is("600"));
+		assertThat(information.getCtrlSum(), is(new BigDecimal("606.00")));
+		DirectDebitTransactionInformation9 transaction = information.getDrctDbtTxInf().get(599);
+		assertThat(transaction.getPmtId().getInstrId(), is("E2E599"));
+		assertThat(transaction.getDrctDbtTx().getMndtRltdInf().getDtOfSgntr(), is(new LocalDate("2010-09-05")));
+	}
+
+	@Test
+	public void testError() throws IOException {
+		SEPACreditTransfer transfer = new SEPACreditTransfer();
+		transfer.buildGroupHeader("MSGID005", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		SEPACreditTransfer.PaymentGroup paymentGroup = transfer.paymentGroup(
+				"PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+
+		TransactionPipeline pipeline = new TransactionPipeline(RecordFormat.delimited(','));
+		pipeline.setColumn(Column.END_TO_END_ID, 0);
+		pipeline.setColumn(Column.AMOUNT, 1);
+		pipeline.setColumn(Column.NAME, 2);
+		pipeline.setColumn(Column.IBAN, 3);
+		pipeline.setColumn(Column.BIC, 4);
+		pipeline.setColumn(Column.REMITTANCE_INFORMATION, 5);
+
+		StringBuilder csv = new StringBuilder();
+		for (int i = 1; i <= 2000; i++)
+			csv.append("E2EID").append(i).append(i == 1500 ? ",1.0x," : ",1.01,").append("NAAM,NL98INGB0000000002,INGBNL2A,Ref\n");
+		try {
+			pipeline.run(new StringReader(csv.toString()), paymentGroup);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getMessage(), is("line 1500: amount '1.0x' isn't a number"));
+		}
+	}
+
+	@Test
+	public void testBoundedMemory() throws IOException, JAXBException {
+		TransactionPipeline pipeline = new TransactionPipeline(RecordFormat.delimited(','));
+		pipeline.setBoundedMemory(true);
+		pipeline.setColumn(Column.END_TO_END_ID, 0);
+		pipeline.setColumn(Column.AMOUNT, 1);
+		pipeline.setColumn(Column.NAME, 2);
+		pipeline.setColumn(Column.IBAN, 3);
+		pipeline.setColumn(Column.BIC, 4);
+		pipeline.setColumn(Column.REMITTANCE_INFORMATION, 5);
+		StringBuilder csv = new StringBuilder();
+		for (int i = 1; i <= 2000; i++)
+			csv.append("E2EID").append(i).append(",1.01,NAAM,NL98INGB0000000002,INGBNL2A,Ref\n");
+
+		SEPACreditTransfer transfer = new SEPACreditTransfer();
+		transfer.buildGroupHeader("MSGID005", "IPNORGANIZTIONNAME", new LocalDateTime("2013-04-02T14:52:09").toDate());
+		SEPACreditTransfer.PaymentGroup paymentGroup = transfer.paymentGroup(
+				"PAYID001", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+		try {
+			pipeline.run(new StringReader(csv.toString()), paymentGroup);
+			fail();
+		} catch (IllegalStateException e) {
+			assertThat(e.getMessage(), is("payment group PAYID001 keeps its transactions on the heap"));
+		}
+
+		transfer.setOffHeapStaging(true);
+		paymentGroup = transfer.paymentGroup(
+				"PAYID002", new LocalDate("2013-04-19"), "NAAM Debtor", "NL28INGB0000000001", "INGBNL2A");
+		assertThat(pipeline.run(new StringReader(csv.toString()), paymentGroup), is(2000));
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		transfer.write(stream);
+		assertThat(new String(stream.toByteArray(), "UTF-8"), containsString("<EndToEndId>E2EID2000</EndToEndId>"));
+	}
+
+}